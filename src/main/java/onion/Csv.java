@@ -1,5 +1,8 @@
 package onion;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -16,6 +19,10 @@ import java.util.Map;
  * val recs = Csv::parseWithHeader(text)                    // List of Map (header -> value)
  * val text = Csv::stringify(rows)
  * </pre>
+ *
+ * For inputs too large to hold as one String, {@link #open} and {@link #reader}
+ * stream one reusable {@link CsvRecord} at a time (see {@link CsvReader}), and
+ * {@link #writer} / {@link #appendTo} write rows as they come ({@link CsvWriter}).
  */
 public final class Csv {
     private Csv() {
@@ -174,6 +181,47 @@ public final class Csv {
         return result;
     }
 
+    // ========== Streaming ==========
+
+    /** A streaming reader over {@code in} (see {@link CsvReader}). */
+    public static CsvReader reader(java.io.Reader in) {
+        return new CsvReader(in);
+    }
+
+    /** A streaming reader over the UTF-8 file at {@code path}. */
+    public static CsvReader reader(java.nio.file.Path path) throws IOException {
+        return new CsvReader(new InputStreamReader(java.nio.file.Files.newInputStream(path), StandardCharsets.UTF_8));
+    }
+
+    /** A streaming reader over the UTF-8 file at {@code path}. */
+    public static CsvReader open(String path) throws IOException {
+        return reader(java.nio.file.Paths.get(path));
+    }
+
+    /**
+     * The UTF-8 file at {@code path} parsed in chunks on several threads (see
+     * {@link ParallelCsv}); same records, in the same order, as {@link #parse}.
+     */
+    public static ParallelCsv parallel(String path) {
+        return new ParallelCsv(path);
+    }
+
+    /** A streaming writer over {@code out} (see {@link CsvWriter}). */
+    public static CsvWriter writer(java.io.Writer out) {
+        return new CsvWriter(out);
+    }
+
+    /** A streaming writer that replaces the UTF-8 file at {@code path}. */
+    public static CsvWriter writer(String path) throws IOException {
+        return new CsvWriter(java.nio.file.Files.newBufferedWriter(java.nio.file.Paths.get(path), StandardCharsets.UTF_8));
+    }
+
+    /** A streaming writer that appends to the UTF-8 file at {@code path}, creating it if needed. */
+    public static CsvWriter appendTo(String path) throws IOException {
+        return new CsvWriter(java.nio.file.Files.newBufferedWriter(java.nio.file.Paths.get(path), StandardCharsets.UTF_8,
+            java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND));
+    }
+
     private static String quoteIfNeeded(String field) {
         if (field == null) return "";
         boolean needs = field.indexOf(',') >= 0 || field.indexOf('"') >= 0
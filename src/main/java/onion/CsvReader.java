@@ -0,0 +1,341 @@
+package onion;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A streaming RFC 4180 reader: one record at a time from a {@link Reader},
+ * in constant memory however large the input. Created by {@link Csv#open},
+ * {@link Csv#reader} or {@code file"data.csv".csvReader()}.
+ *
+ * <p>It follows the same rules as {@link Csv#parse} -- quoted fields, embedded
+ * commas and newlines, doubled quotes -- but never holds more than one record.
+ * The {@link CsvRecord} it yields is reused for every row (copy it with
+ * {@link CsvRecord#toList()} to keep it), and a projection set up with
+ * {@link #columns(String...)} or {@link #columnsAt(int...)} skips the other
+ * fields without copying their text at all.
+ *
+ * <pre>
+ * val reader = Csv::open("export.csv").withHeader().columns("id", "amount")
+ * foreach rec: CsvRecord in reader {
+ *   sum = sum + rec.getLong("amount")
+ * }
+ * reader.close()
+ * </pre>
+ */
+public final class CsvReader implements Iterable<CsvRecord>, Closeable {
+    private final Reader in;
+    private final char[] buf = new char[1 << 16];
+    private int pos;
+    private int limit;
+    private final CsvRecord record = new CsvRecord(this);
+    private long count;
+    private boolean started;
+    /** Whether the last record read ended at a terminator rather than the end of the input. */
+    private boolean terminated = true;
+
+    private boolean hasHeader;
+    private List<String> header;
+    private String[] selectedNames;
+    private int[] selectedIndices;
+    /** Source column -> record slot (-1 = skipped); null reads every column. */
+    private int[] slotOf;
+    private int selectedCount;
+    /** Header name -> record slot. */
+    private Map<String, Integer> nameToSlot;
+
+    public CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    /** Treats the first row as the header, enabling name-based access and projection. */
+    public CsvReader withHeader() {
+        checkNotStarted("withHeader");
+        hasHeader = true;
+        return this;
+    }
+
+    /**
+     * Reads only the named header columns, in the order given: field {@code i} of
+     * each record is the {@code i}-th name. Requires {@link #withHeader()}.
+     */
+    public CsvReader columns(String... names) {
+        checkNotStarted("columns");
+        if (!hasHeader) throw new IllegalStateException("columns(names) needs a header row; call withHeader() first");
+        selectedNames = names.clone();
+        selectedIndices = null;
+        return this;
+    }
+
+    /** Reads only the given zero-based columns, in the order given. */
+    public CsvReader columnsAt(int... indices) {
+        checkNotStarted("columnsAt");
+        selectedIndices = indices.clone();
+        selectedNames = null;
+        return this;
+    }
+
+    /** The header row (empty for an empty input); read on first use. */
+    public List<String> header() throws IOException {
+        if (!hasHeader) throw new IllegalStateException("this reader has no header row; call withHeader() first");
+        start();
+        return header;
+    }
+
+    /**
+     * Advances to the next record, returning false at the end of the input.
+     * The record is then available through {@link #record()}.
+     */
+    public boolean next() throws IOException {
+        start();
+        return readRecord(slotOf, selectedCount);
+    }
+
+    /** The current record (reused: valid until the next call to {@link #next()}). */
+    public CsvRecord record() {
+        return record;
+    }
+
+    /** The remaining records, each copied into a list of fields. */
+    public List<List<String>> rows() throws IOException {
+        List<List<String>> rows = new ArrayList<>();
+        while (next()) rows.add(record.toList());
+        return rows;
+    }
+
+    /**
+     * The remaining records as header-keyed maps, like {@link Csv#parseWithHeader}:
+     * a short row maps missing columns to "", extra fields are ignored.
+     */
+    public List<Map<String, String>> records() throws IOException {
+        header();
+        List<Map<String, String>> result = new ArrayList<>();
+        while (next()) result.add(recordMap());
+        return result;
+    }
+
+    /**
+     * Iterates the records. Each step reuses the same {@link CsvRecord}; an
+     * I/O failure surfaces as an {@link UncheckedIOException}.
+     */
+    @Override
+    public Iterator<CsvRecord> iterator() {
+        return new Iterator<CsvRecord>() {
+            private boolean fetched;
+            private boolean available;
+
+            @Override
+            public boolean hasNext() {
+                if (!fetched) {
+                    try {
+                        available = CsvReader.this.next();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    fetched = true;
+                }
+                return available;
+            }
+
+            @Override
+            public CsvRecord next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                fetched = false;
+                return record;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** The record slot of header column {@code name}. */
+    int indexOf(String name) {
+        try {
+            start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Integer slot = nameToSlot == null ? null : nameToSlot.get(name);
+        if (slot == null) throw new IllegalArgumentException("no CSV column named \"" + name + "\" in this reader");
+        return slot;
+    }
+
+    /** The current record keyed by header name, as {@link #records()} builds it. */
+    Map<String, String> recordMap() {
+        Map<String, String> rec = new LinkedHashMap<>();
+        for (String name : header) {
+            Integer slot = nameToSlot.get(name);
+            if (slot != null) rec.put(name, record.get(slot));
+        }
+        return rec;
+    }
+
+    /**
+     * Uses {@code names} as the header without reading a header row: the input
+     * starts at a record in the middle of a file whose header was read elsewhere.
+     */
+    CsvReader presetHeader(List<String> names) {
+        checkNotStarted("presetHeader");
+        hasHeader = true;
+        header = names;
+        return this;
+    }
+
+    /**
+     * False when the last record ran into the end of the input instead of a
+     * terminator. For input that ends just after a newline, that only happens
+     * when it was cut inside a quoted field.
+     */
+    boolean endedAtTerminator() {
+        return terminated;
+    }
+
+    // ---- setup ---------------------------------------------------------------
+
+    private void checkNotStarted(String what) {
+        if (started) throw new IllegalStateException(what + "() must be called before the first record is read");
+    }
+
+    /** Reads the header (if any) and resolves the projection, once. */
+    private void start() throws IOException {
+        if (started) return;
+        started = true;
+        if (hasHeader && header == null) {
+            header = readRecord(null, 0) ? record.toList() : new ArrayList<String>();
+            count = 0;
+        }
+        int[] sources = selectedIndices;
+        if (selectedNames != null) {
+            sources = new int[selectedNames.length];
+            for (int i = 0; i < selectedNames.length; i++) {
+                sources[i] = header.indexOf(selectedNames[i]);
+                if (sources[i] < 0) throw new IllegalArgumentException("no CSV column named \"" + selectedNames[i] + "\" in the header " + header);
+            }
+        }
+        if (sources != null) {
+            int width = 0;
+            for (int s : sources) {
+                if (s < 0) throw new IllegalArgumentException("negative CSV column index " + s);
+                width = Math.max(width, s + 1);
+            }
+            slotOf = new int[width];
+            java.util.Arrays.fill(slotOf, -1);
+            for (int i = 0; i < sources.length; i++) {
+                if (slotOf[sources[i]] >= 0) throw new IllegalArgumentException("CSV column " + sources[i] + " is selected twice");
+                slotOf[sources[i]] = i;
+            }
+            selectedCount = sources.length;
+        }
+        if (header != null) {
+            nameToSlot = new HashMap<>();
+            for (int c = 0; c < header.size(); c++) {
+                int slot = slotOf == null ? c : (c < slotOf.length ? slotOf[c] : -1);
+                if (slot >= 0) nameToSlot.put(header.get(c), slot);
+            }
+        }
+    }
+
+    // ---- tokenizer -------------------------------------------------------------
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            pos = 0;
+            limit = 0;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    /**
+     * Reads one record into {@link #record}. {@code slots} maps source columns to
+     * record slots (null keeps every column at its own index); a column without a
+     * slot is scanned but not copied.
+     */
+    private boolean readRecord(int[] slots, int width) throws IOException {
+        if (pos >= limit && !fill()) return false;
+        record.reset(slots == null ? 0 : width);
+        int col = 0;
+        while (true) {
+            int slot = slots == null ? col : (col < slots.length ? slots[col] : -1);
+            int fieldStart = record.length;
+            int terminator = readField(slot >= 0);
+            if (slot >= 0) {
+                record.ensureSlot(slot);
+                record.starts[slot] = fieldStart;
+                record.ends[slot] = record.length;
+                if (slots == null) record.size = col + 1;
+            }
+            if (terminator != ',') {
+                terminated = terminator == '\n';
+                break;
+            }
+            col++;
+        }
+        record.number = ++count;
+        return true;
+    }
+
+    /**
+     * Scans one field, appending its text to the record when {@code keep}.
+     * Returns ',' after a separator, '\n' after a record terminator (CR, LF or
+     * CRLF), or -1 at the end of the input. As in {@link Csv#parse}, a quote only
+     * opens a quoted section at the start of a field.
+     */
+    private int readField(boolean keep) throws IOException {
+        int len = 0;
+        while (true) {
+            if (pos >= limit && !fill()) return -1;
+            char c = buf[pos];
+            if (c == '"' && len == 0) {
+                pos++;
+                while (true) {
+                    if (pos >= limit && !fill()) return -1;
+                    int run = pos;
+                    while (pos < limit && buf[pos] != '"') pos++;
+                    if (keep) record.append(buf, run, pos);
+                    len += pos - run;
+                    if (pos >= limit) continue;
+                    pos++;
+                    if (pos >= limit && !fill()) return -1;
+                    if (buf[pos] != '"') break;
+                    if (keep) record.append('"');
+                    len++;
+                    pos++;
+                }
+                continue;
+            }
+            if (c == ',') {
+                pos++;
+                return ',';
+            }
+            if (c == '\r' || c == '\n') {
+                pos++;
+                if (c == '\r' && (pos < limit || fill()) && buf[pos] == '\n') pos++;
+                return '\n';
+            }
+            int run = pos;
+            while (pos < limit) {
+                char d = buf[pos];
+                if (d == ',' || d == '\r' || d == '\n') break;
+                pos++;
+            }
+            if (keep) record.append(buf, run, pos);
+            len += pos - run;
+        }
+    }
+}
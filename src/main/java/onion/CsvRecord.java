@@ -0,0 +1,222 @@
+package onion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One record of a {@link CsvReader}. The reader REUSES a single record for
+ * every row it reads, so the fields are only valid until the next row is read;
+ * call {@link #toList()} to keep a copy.
+ *
+ * <p>The field text lives in one character buffer that is overwritten per row:
+ * {@link #get(int)} copies a field out as a String, while the typed accessors
+ * ({@link #getInt}, {@link #getLong}, {@link #getDouble}) parse straight from
+ * that buffer without building one. When the reader projects columns, index
+ * {@code i} is the {@code i}-th selected column.
+ *
+ * <pre>
+ * foreach rec: CsvRecord in Csv::open("sales.csv").withHeader().columns("region", "amount") {
+ *   total = total + rec.getDouble("amount")
+ * }
+ * </pre>
+ */
+public final class CsvRecord {
+    private final CsvReader reader;
+    char[] data = new char[256];
+    int length;
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    int size;
+    long number;
+
+    CsvRecord(CsvReader reader) {
+        this.reader = reader;
+    }
+
+    /** The number of fields in this record (selected columns only, when projected). */
+    public int size() {
+        return size;
+    }
+
+    /** The 1-based position of this record in the input, not counting a header row. */
+    public long number() {
+        return number;
+    }
+
+    /** Field {@code index} as a String; "" when the row has no such field. */
+    public String get(int index) {
+        if (index < 0 || index >= size) return "";
+        return new String(data, starts[index], ends[index] - starts[index]);
+    }
+
+    /** The field under header column {@code name} (see {@link CsvReader#withHeader()}). */
+    public String get(String name) {
+        return get(reader.indexOf(name));
+    }
+
+    /** Whether field {@code index} is empty or absent. */
+    public boolean isEmpty(int index) {
+        return index < 0 || index >= size || starts[index] == ends[index];
+    }
+
+    /** Field {@code index} parsed as an Int, without an intermediate String. */
+    public int getInt(int index) {
+        long v = getLong(index);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw invalid(index, "an Int");
+        return (int) v;
+    }
+
+    public int getInt(String name) {
+        return getInt(reader.indexOf(name));
+    }
+
+    /** Field {@code index} parsed as a Long, without an intermediate String. */
+    public long getLong(int index) {
+        int i = trimmedStart(index);
+        int end = trimmedEnd(index);
+        if (i >= end) throw invalid(index, "a Long");
+        boolean negative = data[i] == '-';
+        if (negative || data[i] == '+') i++;
+        if (i >= end) throw invalid(index, "a Long");
+        long v = 0;
+        for (; i < end; i++) {
+            int d = data[i] - '0';
+            if (d < 0 || d > 9) throw invalid(index, "a Long");
+            // accumulate negatively so Long.MIN_VALUE is representable
+            if (v < (Long.MIN_VALUE + d) / 10) throw invalid(index, "a Long");
+            v = v * 10 - d;
+        }
+        if (!negative && v == Long.MIN_VALUE) throw invalid(index, "a Long");
+        return negative ? v : -v;
+    }
+
+    public long getLong(String name) {
+        return getLong(reader.indexOf(name));
+    }
+
+    /**
+     * Field {@code index} parsed as a Double. A plain decimal ({@code -12.50})
+     * with at most 15 significant digits is converted straight from the buffer
+     * -- both the digits and the power of ten are exact doubles there, so one
+     * division rounds correctly. Anything else (exponents, {@code NaN}, long
+     * mantissas) goes through {@link Double#parseDouble}.
+     */
+    public double getDouble(int index) {
+        int start = trimmedStart(index);
+        int end = trimmedEnd(index);
+        if (start >= end) throw invalid(index, "a Double");
+        int i = start;
+        boolean negative = data[i] == '-';
+        if (negative || data[i] == '+') i++;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        boolean sawDigit = false;
+        boolean simple = true;
+        for (; i < end; i++) {
+            char c = data[i];
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (mantissa != 0 || c != '0') digits++;
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot) scale++;
+                if (digits > 15 || scale > 22) {
+                    simple = false;
+                    break;
+                }
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                simple = false;
+                break;
+            }
+        }
+        if (simple && sawDigit) {
+            double v = scale == 0 ? (double) mantissa : (double) mantissa / POWERS_OF_TEN[scale];
+            return negative ? -v : v;
+        }
+        try {
+            return Double.parseDouble(new String(data, start, end - start));
+        } catch (NumberFormatException e) {
+            throw invalid(index, "a Double");
+        }
+    }
+
+    public double getDouble(String name) {
+        return getDouble(reader.indexOf(name));
+    }
+
+    /** A copy of the fields, safe to keep after the reader moves on. */
+    public List<String> toList() {
+        List<String> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) result.add(get(i));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+    // ---- filled by CsvReader ----------------------------------------------
+
+    void reset(int fields) {
+        length = 0;
+        size = fields;
+        if (starts.length < fields) {
+            starts = new int[Math.max(fields, starts.length * 2)];
+            ends = new int[starts.length];
+        }
+        for (int i = 0; i < fields; i++) {
+            starts[i] = 0;
+            ends[i] = 0;
+        }
+    }
+
+    void ensureSlot(int slot) {
+        if (slot >= starts.length) {
+            int n = Math.max(slot + 1, starts.length * 2);
+            starts = java.util.Arrays.copyOf(starts, n);
+            ends = java.util.Arrays.copyOf(ends, n);
+        }
+    }
+
+    void append(char c) {
+        if (length == data.length) data = java.util.Arrays.copyOf(data, data.length * 2);
+        data[length++] = c;
+    }
+
+    void append(char[] chars, int from, int to) {
+        int n = to - from;
+        if (length + n > data.length) data = java.util.Arrays.copyOf(data, Math.max(length + n, data.length * 2));
+        System.arraycopy(chars, from, data, length, n);
+        length += n;
+    }
+
+    // ------------------------------------------------------------------------
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private int trimmedStart(int index) {
+        if (index < 0 || index >= size) return 0;
+        int i = starts[index];
+        while (i < ends[index] && data[i] == ' ') i++;
+        return i;
+    }
+
+    private int trimmedEnd(int index) {
+        if (index < 0 || index >= size) return 0;
+        int e = ends[index];
+        while (e > starts[index] && data[e - 1] == ' ') e--;
+        return e;
+    }
+
+    private NumberFormatException invalid(int index, String what) {
+        return new NumberFormatException(
+            "record " + number + ", field " + index + ": expected " + what + " but got \"" + get(index) + "\"");
+    }
+}
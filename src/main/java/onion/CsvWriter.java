@@ -0,0 +1,122 @@
+package onion;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * A streaming CSV writer: each row goes straight to the underlying
+ * {@link Writer}, so an export of any size never builds the whole text the
+ * way {@link Csv#stringify} does. Quoting follows {@link Csv#stringify}: a
+ * field containing a comma, quote or newline is quoted with its quotes
+ * doubled, and records end with {@code \n}. Created by {@link Csv#writer} or
+ * {@link Csv#appendTo}.
+ *
+ * <pre>
+ * val out = Csv::appendTo("report.csv")
+ * out.writeRow("region", "total")
+ * foreach rec: CsvRecord in Csv::open("sales.csv").withHeader() {
+ *   out.writeRecord(rec)
+ * }
+ * out.close()
+ * </pre>
+ */
+public final class CsvWriter implements Closeable, Flushable {
+    private final Writer out;
+    private long rows;
+
+    public CsvWriter(Writer out) {
+        this.out = out;
+    }
+
+    /** Writes one record. */
+    public CsvWriter writeRow(List<String> fields) throws IOException {
+        for (int c = 0; c < fields.size(); c++) {
+            if (c > 0) out.write(',');
+            writeField(fields.get(c));
+        }
+        return endRow();
+    }
+
+    /** Writes one record given as separate fields. */
+    public CsvWriter writeRow(String... fields) throws IOException {
+        for (int c = 0; c < fields.length; c++) {
+            if (c > 0) out.write(',');
+            writeField(fields[c]);
+        }
+        return endRow();
+    }
+
+    /**
+     * Writes a record read by a {@link CsvReader} (its selected columns, when the
+     * reader projects), copying the text straight from the record's buffer.
+     */
+    public CsvWriter writeRecord(CsvRecord record) throws IOException {
+        for (int c = 0; c < record.size(); c++) {
+            if (c > 0) out.write(',');
+            writeField(record.data, record.starts[c], record.ends[c]);
+        }
+        return endRow();
+    }
+
+    /** The number of records written so far. */
+    public long rows() {
+        return rows;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private CsvWriter endRow() throws IOException {
+        out.write('\n');
+        rows++;
+        return this;
+    }
+
+    private void writeField(String field) throws IOException {
+        if (field == null) return;
+        if (!needsQuotes(field)) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char ch = field.charAt(i);
+            if (ch == '"') out.write('"');
+            out.write(ch);
+        }
+        out.write('"');
+    }
+
+    private void writeField(char[] data, int from, int to) throws IOException {
+        boolean quote = false;
+        for (int i = from; i < to && !quote; i++) {
+            char ch = data[i];
+            quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if (!quote) {
+            out.write(data, from, to - from);
+            return;
+        }
+        out.write('"');
+        for (int i = from; i < to; i++) {
+            if (data[i] == '"') out.write('"');
+            out.write(data[i]);
+        }
+        out.write('"');
+    }
+
+    private static boolean needsQuotes(String field) {
+        return field.indexOf(',') >= 0 || field.indexOf('"') >= 0
+            || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0;
+    }
+}
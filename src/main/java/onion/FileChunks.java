@@ -0,0 +1,169 @@
+package onion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a file into byte ranges that parse independently and runs one task per
+ * range on a {@link Concurrent.Pool}, keeping the results in file order. Shared
+ * by {@link ParallelCsv} and {@link ParallelLines}.
+ *
+ * <p>Every inner boundary sits just after a {@code '\n'} byte, which never occurs
+ * inside a multi-byte UTF-8 sequence, so each range decodes on its own. For CSV
+ * the newline must also be outside a quoted field: a first pass counts the quote
+ * bytes of each range in parallel, and the running parity of those counts says
+ * whether a candidate newline is quoted. The parity is exact for RFC 4180 input;
+ * a stray quote in the middle of an unquoted field can fool it, which the CSV
+ * reader detects afterwards (see {@link ParallelCsv}).
+ *
+ * <p>The file is read through read-only memory mappings of at most
+ * {@link #WINDOW} bytes, so ranges larger than a single mapping still work.
+ */
+final class FileChunks {
+    static final long DEFAULT_CHUNK = 32L << 20;
+    private static final long WINDOW = 64L << 20;
+
+    private FileChunks() {}
+
+    /** One parse step over the byte range {@code [start, end)}. */
+    interface Task<R> {
+        R run(int index, long start, long end) throws IOException;
+    }
+
+    /**
+     * Range boundaries {@code 0 = b0 < b1 < ... < bn = size}: about
+     * {@code size / chunkSize} ranges, each ending after a record terminator.
+     */
+    static long[] split(FileChannel channel, long chunkSize, boolean csv, Concurrent.Pool pool) throws IOException {
+        long size = channel.size();
+        int n = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 1, (size + chunkSize - 1) / Math.max(1, chunkSize)));
+        long[] targets = new long[n + 1];
+        for (int k = 0; k <= n; k++) targets[k] = size / n * k + Math.min(k, size % n);
+        int[] parity = new int[n];
+        if (csv && n > 1) {
+            List<Long> counts = map(pool, targets, (index, start, end) -> countQuotes(channel, start, end));
+            for (int k = 1; k < n; k++) parity[k] = (int) ((parity[k - 1] + counts.get(k - 1)) & 1);
+        }
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        long previous = 0;
+        for (int k = 1; k < n; k++) {
+            long from = targets[k];
+            int quotes = parity[k];
+            if (from <= previous) {
+                from = previous;
+                quotes = 0;
+            }
+            long boundary = nextBoundary(channel, from, size, quotes, csv);
+            if (boundary >= size) break;
+            bounds.add(boundary);
+            previous = boundary;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    /**
+     * Runs {@code task} over every range on {@code pool} (a pool sized to the
+     * machine when null, closed afterwards), returning the results in order.
+     */
+    @SuppressWarnings("unchecked")
+    static <R> List<R> map(Concurrent.Pool pool, long[] bounds, Task<R> task) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.length; i++) indices.add(i);
+        Function1<Integer, R> step = index -> {
+            try {
+                return task.run(index, bounds[index], bounds[index + 1]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        if (indices.size() == 1) return java.util.Collections.singletonList(step.call(0));
+        Concurrent.Pool workers = pool != null ? pool : Concurrent.pool();
+        try {
+            return (List<R>) workers.mapAll(indices, step);
+        } finally {
+            if (pool == null) workers.close();
+        }
+    }
+
+    /** A UTF-8 reader over the byte range {@code [start, end)}. */
+    static Reader reader(FileChannel channel, long start, long end) {
+        return new InputStreamReader(new MappedInput(channel, start, end), StandardCharsets.UTF_8);
+    }
+
+    private static long countQuotes(FileChannel channel, long start, long end) throws IOException {
+        long count = 0;
+        for (long window = start; window < end; window += WINDOW) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, window, Math.min(WINDOW, end - window));
+            for (int i = 0, n = buffer.limit(); i < n; i++) {
+                if (buffer.get(i) == '"') count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The offset just past the first {@code '\n'} at or after {@code from} that is
+     * outside quotes, given the quote parity at {@code from}; {@code size} if none.
+     */
+    private static long nextBoundary(FileChannel channel, long from, long size, int parity, boolean csv) throws IOException {
+        int quotes = parity;
+        for (long window = from; window < size; window += WINDOW) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, window, Math.min(WINDOW, size - window));
+            for (int i = 0, n = buffer.limit(); i < n; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' && (quotes & 1) == 0) return window + i + 1;
+                if (csv && b == '"') quotes++;
+            }
+        }
+        return size;
+    }
+
+    /** Streams a byte range through successive read-only mappings. */
+    private static final class MappedInput extends InputStream {
+        private final FileChannel channel;
+        private long next;
+        private final long end;
+        private MappedByteBuffer buffer;
+
+        MappedInput(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.next = start;
+            this.end = end;
+        }
+
+        private boolean ensure() throws IOException {
+            if (buffer != null && buffer.hasRemaining()) return true;
+            if (next >= end) return false;
+            long length = Math.min(WINDOW, end - next);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, next, length);
+            next += length;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return ensure() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!ensure()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -14,8 +14,10 @@ import java.util.Map;
  * val text = file"notes.txt".text
  * val rows = file"data.csv".csv          // List of List of String
  * val recs = file"data.csv".csvRows      // List of Map (header -> value)
+ * val big  = file"big.csv".csvReader()   // streaming, one record at a time
+ * val huge = file"huge.csv".csvParallel() // chunked, parsed on several threads
  * val conf = file"config.json".json      // parsed JSON value
- * foreach line: String in file"app.log".lines { ... }
+ * foreach line: String in file"app.log".linesLazily() { ... }   // constant memory
  * </pre>
  */
 public final class FileResource {
@@ -30,7 +32,7 @@ public final class FileResource {
         return path;
     }
 
-    /** Whole file as text (UTF-8). */
+    /** Whole file as text (UTF-8), exactly as stored -- line endings included. */
     public String text() throws IOException {
         return Files.readText(path);
     }
@@ -40,19 +42,50 @@ public final class FileResource {
         return Files.readLines(path);
     }
 
+    /**
+     * The file's lines, read lazily one at a time (see {@link Lines}); a
+     * {@code foreach} over them runs in constant memory, where {@link #lines}
+     * holds the whole file.
+     */
+    public Lines linesLazily() {
+        return Files.lines(path);
+    }
+
     /** File parsed as JSON (see {@link Json#parse}). */
     public Object json() throws Exception {
         return Json.parse(text());
     }
 
-    /** File parsed as CSV rows (see {@link Csv#parse}). */
+    /** File parsed as CSV rows (see {@link Csv#parse}), streamed straight from disk. */
     public List<List<String>> csv() throws IOException {
-        return Csv.parse(text());
+        try (CsvReader reader = csvReader()) {
+            return reader.rows();
+        }
     }
 
-    /** File parsed as CSV with a header row (see {@link Csv#parseWithHeader}). */
+    /** File parsed as CSV with a header row (see {@link Csv#parseWithHeader}), streamed straight from disk. */
     public List<Map<String, String>> csvRows() throws IOException {
-        return Csv.parseWithHeader(text());
+        try (CsvReader reader = csvReader().withHeader()) {
+            return reader.records();
+        }
+    }
+
+    /**
+     * A streaming reader over the file, one reusable record at a time (see
+     * {@link CsvReader}); close it when done.
+     */
+    public CsvReader csvReader() throws IOException {
+        return Csv.open(path);
+    }
+
+    /** The file as CSV parsed in chunks on several threads (see {@link ParallelCsv}). */
+    public ParallelCsv csvParallel() {
+        return Csv.parallel(path);
+    }
+
+    /** The file's lines processed in chunks on several threads (see {@link ParallelLines}). */
+    public ParallelLines linesParallel() {
+        return Files.parallelLines(path);
     }
 
     /**
@@ -73,15 +106,11 @@ public final class FileResource {
      */
     public <T> Outcome<Lossless<T>> readLossless(Shape<T> shape) {
         try {
-            // Byte-faithful on purpose: readText() reassembles lines through the
-            // platform separator and drops a trailing newline, either of which would
-            // silently break L2. A lossless read must see the file as it is.
-            String text = new String(
-                java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(path)),
-                java.nio.charset.StandardCharsets.UTF_8);
-            return shape.parseLossless(text, Origin.atLine(path, 1));
+            // Byte-faithful on purpose: a rewritten line ending or a dropped trailing
+            // newline would silently break L2. text() is the file exactly as it is.
+            return shape.parseLossless(text(), Origin.atLine(path, 1));
         } catch (Exception e) {
-            return Outcome.bad(Defect.at(Origin.atLine(path, 1), "", "a readable file", describe(e)));
+            return unreadable(path, e);
         }
     }
 
@@ -90,25 +119,50 @@ public final class FileResource {
         try {
             content = text();
         } catch (IOException e) {
-            return Outcome.bad(Defect.at(Origin.atLine(path, 1), "", "a readable file", describe(e)));
+            return unreadable(path, e);
         }
+        // The newline that ends a file's last line is not part of the value.
+        if (content.endsWith("\n")) content = content.substring(0, content.length() - (content.endsWith("\r\n") ? 2 : 1));
         return shape.parse(content, Origin.atLine(path, 1));
     }
 
     /**
      * One value per line, keeping both the lines that read and the reasons the rest did
      * not -- see {@link Shape#eachLine}. Each defect is positioned on its line of this file.
+     * The file is read line by line; only the outcomes are kept.
      */
     public <T> List<Outcome<T>> eachLine(Shape<T> shape) {
-        String content;
+        List<Outcome<T>> results = new ArrayList<>();
+        for (Outcome<T> outcome : eachLineLazily(shape)) results.add(outcome);
+        return results;
+    }
+
+    /**
+     * {@link #eachLine} one outcome at a time, parsing each line only when the loop
+     * reaches it (see {@link LineOutcomes}): for files too large to hold the outcomes of.
+     */
+    public <T> LineOutcomes<T> eachLineLazily(Shape<T> shape) {
+        return new LineOutcomes<>(path, shape, Files.lines(path));
+    }
+
+    /**
+     * {@link #eachLine} with the file split into chunks that are parsed on several
+     * threads (see {@link ParallelLines}). The outcomes are in file order and every
+     * defect is on its line of the whole file, as in the sequential form.
+     */
+    public <T> List<Outcome<T>> eachLineParallel(Shape<T> shape) {
         try {
-            content = text();
+            return linesParallel().eachLine(shape);
         } catch (IOException e) {
-            List<Outcome<T>> failed = new java.util.ArrayList<>();
-            failed.add(Outcome.bad(Defect.at(Origin.atLine(path, 1), "", "a readable file", describe(e))));
+            List<Outcome<T>> failed = new ArrayList<>();
+            failed.add(unreadable(path, e));
             return failed;
         }
-        return shape.eachLine(content, Origin.atLine(path, 1));
+    }
+
+    /** The defect for a file that could not be read. */
+    static <T> Outcome<T> unreadable(String path, Exception e) {
+        return Outcome.bad(Defect.at(Origin.atLine(path, 1), "", "a readable file", describe(e)));
     }
 
     private static String describe(Exception e) {
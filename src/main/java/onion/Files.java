@@ -1,10 +1,13 @@
 package onion;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -29,26 +32,20 @@ public final class Files {
         return readText(file, StandardCharsets.UTF_8);
     }
 
+    /** The file's exact contents: one read and one decode, line endings untouched. */
     public static String readText(File file, Charset charset) throws IOException {
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(file), charset))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (sb.length() > 0) sb.append(System.lineSeparator());
-                sb.append(line);
-            }
-            return sb.toString();
-        }
+        return new String(java.nio.file.Files.readAllBytes(file.toPath()), charset);
     }
 
     public static List<String> readLines(String path) throws IOException {
         return readLines(new File(path));
     }
 
+    /** The file's lines, decoded as UTF-8 (not the platform charset). */
     public static List<String> readLines(File file) throws IOException {
         List<String> lines = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(java.nio.file.Files.newInputStream(file.toPath()), StandardCharsets.UTF_8))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 lines.add(line);
@@ -57,19 +54,69 @@ public final class Files {
         return lines;
     }
 
+    /** The lines of a UTF-8 file, processed in chunks on several threads (see {@link ParallelLines}). */
+    public static ParallelLines parallelLines(String path) {
+        return new ParallelLines(path);
+    }
+
     public static byte[] readBytes(String path) throws IOException {
         return readBytes(new File(path));
     }
 
     public static byte[] readBytes(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
+        return java.nio.file.Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Up to {@code length} bytes starting at byte {@code offset}; fewer when the
+     * file ends first, and none when {@code offset} is past the end.
+     */
+    public static byte[] readBytes(String path, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Files: negative offset or length (" + offset + ", " + length + ")");
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long available = Math.max(0, channel.size() - offset);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, available));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) break;
             }
-            return baos.toByteArray();
+            return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /**
+     * The lines of a UTF-8 file, read lazily one at a time (see {@link Lines});
+     * use it instead of {@link #readLines} for files too large to hold at once.
+     */
+    public static Lines lines(String path) {
+        return new Lines(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The whole file memory-mapped as a read-only buffer: the OS pages it in on
+     * demand, with no copy into the Java heap. Files of 2 GiB or more need the
+     * ranged form.
+     */
+    public static ByteBuffer mmap(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                    "Files: " + path + " is " + size + " bytes, too large for one mapping; use mmap(path, offset, length)");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /** {@code length} bytes from {@code offset} memory-mapped as a read-only buffer (clipped to the file's end). */
+    public static ByteBuffer mmap(String path, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Files: negative offset or length (" + offset + ", " + length + ")");
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long available = Math.max(0, channel.size() - offset);
+            return channel.map(FileChannel.MapMode.READ_ONLY, Math.min(offset, channel.size()), Math.min(length, available));
         }
     }
 
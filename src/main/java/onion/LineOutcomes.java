@@ -0,0 +1,83 @@
+package onion;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * One {@link Outcome} per line of a file, parsed as the loop reaches it: the
+ * streaming form of {@link FileResource#eachLine}, for files too large to hold
+ * as a list. Created by {@code file"access.log".eachLineLazily(shape)}.
+ *
+ * <p>Each defect sits on its line of the file, exactly as in the list form. A
+ * file that cannot be read yields a single bad outcome rather than throwing.
+ * Iterating reads the file through {@link Lines}, so the file is closed when the
+ * loop reaches the end; call {@link #close()} after a loop that can stop early.
+ *
+ * <pre>
+ * var bad = 0
+ * foreach o: Outcome[Access] in file"access.log".eachLineLazily(Access::common()) {
+ *   if o.isBad() { bad = bad + 1 }
+ * }
+ * </pre>
+ */
+public final class LineOutcomes<T> implements Iterable<Outcome<T>>, Closeable {
+    private final String path;
+    private final Shape<T> shape;
+    private final Lines lines;
+
+    LineOutcomes(String path, Shape<T> shape, Lines lines) {
+        this.path = path;
+        this.shape = shape;
+        this.lines = lines;
+    }
+
+    @Override
+    public Iterator<Outcome<T>> iterator() {
+        Iterator<String> source;
+        try {
+            source = lines.iterator();
+        } catch (UncheckedIOException e) {
+            return Collections.singletonList(FileResource.<T>unreadable(path, e.getCause())).iterator();
+        }
+        return new Iterator<Outcome<T>>() {
+            private int line;
+            private Outcome<T> failed;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (failed != null) return true;
+                if (done) return false;
+                try {
+                    return source.hasNext();
+                } catch (UncheckedIOException e) {
+                    done = true;
+                    failed = FileResource.unreadable(path, e.getCause());
+                    return true;
+                }
+            }
+
+            @Override
+            public Outcome<T> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                if (failed != null) {
+                    Outcome<T> result = failed;
+                    failed = null;
+                    return result;
+                }
+                line++;
+                return shape.parse(source.next(), Origin.atLine(path, line)).onLine(line);
+            }
+        };
+    }
+
+    /** Closes the file if a loop stopped before its end. */
+    @Override
+    public void close() throws IOException {
+        lines.close();
+    }
+}
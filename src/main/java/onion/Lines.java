@@ -0,0 +1,139 @@
+package onion;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The lines of a file, read lazily: iterating holds one line at a time, so a
+ * {@code foreach} over a file of any size runs in constant memory. Created by
+ * {@link Files#lines}.
+ *
+ * <p>Each call to {@link #iterator()} opens the file afresh and closes it when
+ * the last line has been read. A loop that stops early leaves its reader open
+ * until {@link #close()}, which closes every reader this object opened. Lines
+ * end at {@code \n}, {@code \r} or {@code \r\n}, as for {@link Files#readLines};
+ * a malformed byte sequence decodes to U+FFFD rather than failing.
+ *
+ * <pre>
+ * val lines = Files::lines("app.log")
+ * foreach line: String in lines {
+ *   if line.startsWith("FATAL") { break }
+ * }
+ * lines.close()
+ * </pre>
+ */
+public final class Lines implements Iterable<String>, Closeable {
+    private final Path path;
+    private final Charset charset;
+    private final List<BufferedReader> open = new ArrayList<>();
+
+    public Lines(Path path, Charset charset) {
+        this.path = path;
+        this.charset = charset;
+    }
+
+    /**
+     * Iterates the lines from the start of the file. An I/O failure surfaces as
+     * an {@link UncheckedIOException}.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        BufferedReader reader = openReader();
+        return new Iterator<String>() {
+            private String next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) {
+                    try {
+                        next = reader.readLine();
+                        if (next == null) {
+                            done = true;
+                            release(reader);
+                        }
+                    } catch (IOException e) {
+                        done = true;
+                        release(reader);
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                String line = next;
+                next = null;
+                return line;
+            }
+        };
+    }
+
+    /** Every line, read into a list. */
+    public List<String> toList() {
+        List<String> result = new ArrayList<>();
+        for (String line : this) result.add(line);
+        return result;
+    }
+
+    /** The number of lines, counted by reading the file through once. */
+    public int size() {
+        int count = 0;
+        for (Iterator<String> it = iterator(); it.hasNext(); it.next()) count++;
+        return count;
+    }
+
+    /** Closes every reader opened by an iteration that has not finished. Idempotent. */
+    @Override
+    public void close() throws IOException {
+        List<BufferedReader> readers;
+        synchronized (open) {
+            readers = new ArrayList<>(open);
+            open.clear();
+        }
+        IOException failure = null;
+        for (BufferedReader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private BufferedReader openReader() {
+        try {
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(java.nio.file.Files.newInputStream(path), charset));
+            synchronized (open) {
+                open.add(reader);
+            }
+            return reader;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void release(BufferedReader reader) {
+        synchronized (open) {
+            open.remove(reader);
+        }
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+            // Every line was already read; a failing close has nothing left to lose.
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package onion;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses one large CSV file on several threads. Created by {@link Csv#parallel}
+ * or {@code file"data.csv".csvParallel()}.
+ *
+ * <p>The file is memory-mapped and cut into chunks of about {@link #chunkSize}
+ * bytes, each ending at a record terminator that is outside every quoted field,
+ * and each chunk is parsed by its own {@link CsvReader} on a
+ * {@link Concurrent.Pool}. {@link #rows()} and {@link #records()} return exactly
+ * what {@link Csv#parse} and {@link Csv#parseWithHeader} would, in file order;
+ * {@link #fold} reduces each chunk separately and then combines the partial
+ * results from the first chunk to the last.
+ *
+ * <p>The cut points come from counting quote characters, which is exact for
+ * RFC 4180 data. A quote inside an unquoted field can mislead it; when a chunk
+ * then turns out to end inside a quoted field, the whole file is parsed again on
+ * the calling thread, so the result is always the sequential one. The file is
+ * read as UTF-8.
+ *
+ * <pre>
+ * val total = Csv::parallel("sales.csv").withHeader().columns("amount")
+ *   .fold(() -> 0.0, (sum, rec) -> sum + rec.getDouble(0), (a, b) -> a + b)
+ * </pre>
+ */
+public final class ParallelCsv {
+    private final Path path;
+    private boolean hasHeader;
+    private String[] names;
+    private int[] indices;
+    private Concurrent.Pool pool;
+    private long chunkSize = FileChunks.DEFAULT_CHUNK;
+
+    public ParallelCsv(String path) {
+        this.path = Paths.get(path);
+    }
+
+    /** Treats the first row as the header, as {@link CsvReader#withHeader()} does. */
+    public ParallelCsv withHeader() {
+        hasHeader = true;
+        return this;
+    }
+
+    /** Reads only the named header columns; see {@link CsvReader#columns(String...)}. */
+    public ParallelCsv columns(String... names) {
+        if (!hasHeader) throw new IllegalStateException("columns(names) needs a header row; call withHeader() first");
+        this.names = names.clone();
+        this.indices = null;
+        return this;
+    }
+
+    /** Reads only the given zero-based columns; see {@link CsvReader#columnsAt(int...)}. */
+    public ParallelCsv columnsAt(int... indices) {
+        this.indices = indices.clone();
+        this.names = null;
+        return this;
+    }
+
+    /** Runs the chunks on {@code pool} instead of a temporary pool sized to the machine. */
+    public ParallelCsv pool(Concurrent.Pool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /** The target chunk size in bytes (32 MiB by default). */
+    public ParallelCsv chunkSize(long bytes) {
+        if (bytes < 1) throw new IllegalArgumentException("chunk size must be positive, got " + bytes);
+        this.chunkSize = bytes;
+        return this;
+    }
+
+    /** Every record (after the header, if any) as a list of fields, in file order. */
+    public List<List<String>> rows() throws IOException {
+        return this.<List<List<String>>>run(ArrayList::new, (rows, reader) -> {
+            rows.add(reader.record().toList());
+            return rows;
+        }, ParallelCsv::concat);
+    }
+
+    /** Every record as a header-keyed map, like {@link Csv#parseWithHeader}. */
+    public List<Map<String, String>> records() throws IOException {
+        withHeader();
+        return this.<List<Map<String, String>>>run(ArrayList::new, (recs, reader) -> {
+            recs.add(reader.recordMap());
+            return recs;
+        }, ParallelCsv::concat);
+    }
+
+    /**
+     * Folds every record: {@code step} runs per chunk from a fresh {@code zero},
+     * then the chunk results are merged left to right with {@code combine}. The
+     * record passed to {@code step} is reused; its {@link CsvRecord#number()}
+     * counts from the start of its chunk.
+     */
+    public <A> A fold(Function0<A> zero, Function2<A, CsvRecord, A> step, Function2<A, A, A> combine) throws IOException {
+        return run(zero, (acc, reader) -> step.call(acc, reader.record()), combine);
+    }
+
+    private interface Step<A> {
+        A apply(A acc, CsvReader reader);
+    }
+
+    private static <T> List<T> concat(List<T> left, List<T> right) {
+        left.addAll(right);
+        return left;
+    }
+
+    private <A> A run(Function0<A> zero, Step<A> step, Function2<A, A, A> combine) throws IOException {
+        List<String> header = null;
+        if (hasHeader) {
+            try (CsvReader first = Csv.reader(path).withHeader()) {
+                header = first.header();
+            }
+        }
+        final List<String> presetHeader = header;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = FileChunks.split(channel, chunkSize, true, pool);
+            List<Partial<A>> partials = FileChunks.map(pool, bounds, (index, start, end) -> {
+                try (CsvReader reader = configure(new CsvReader(FileChunks.reader(channel, start, end)), index, presetHeader)) {
+                    A acc = zero.call();
+                    while (reader.next()) acc = step.apply(acc, reader);
+                    return new Partial<>(acc, reader.endedAtTerminator());
+                }
+            });
+            for (int i = 0; i + 1 < partials.size(); i++) {
+                if (!partials.get(i).clean) return sequential(zero, step);
+            }
+            A result = partials.get(0).value;
+            for (int i = 1; i < partials.size(); i++) result = combine.call(result, partials.get(i).value);
+            return result;
+        }
+    }
+
+    /** The fallback when a chunk boundary fell inside a quoted field. */
+    private <A> A sequential(Function0<A> zero, Step<A> step) throws IOException {
+        try (CsvReader reader = configure(Csv.reader(path), 0, null)) {
+            A acc = zero.call();
+            while (reader.next()) acc = step.apply(acc, reader);
+            return acc;
+        }
+    }
+
+    private CsvReader configure(CsvReader reader, int chunk, List<String> header) {
+        if (hasHeader) {
+            if (chunk == 0) reader.withHeader();
+            else reader.presetHeader(header);
+        }
+        if (names != null) reader.columns(names);
+        if (indices != null) reader.columnsAt(indices);
+        return reader;
+    }
+
+    private static final class Partial<A> {
+        final A value;
+        final boolean clean;
+
+        Partial(A value, boolean clean) {
+            this.value = value;
+            this.clean = clean;
+        }
+    }
+}
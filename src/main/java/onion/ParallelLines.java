@@ -0,0 +1,104 @@
+package onion;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Processes the lines of one large text file on several threads. Created by
+ * {@link Files#parallelLines} or {@code file"app.log".linesParallel()}.
+ *
+ * <p>The file is memory-mapped and cut into chunks of about {@link #chunkSize}
+ * bytes at newline boundaries; each chunk is decoded as UTF-8 and split into
+ * lines on a {@link Concurrent.Pool}. Lines end at {@code \n}, {@code \r} or
+ * {@code \r\n}, as for {@link Files#readLines}. {@link #map} keeps file order;
+ * {@link #fold} reduces each chunk separately and combines the partial results
+ * from the first chunk to the last.
+ *
+ * <pre>
+ * val errors = Files::parallelLines("app.log")
+ *   .fold(() -> 0L, (n, line) -> if line.contains("ERROR") { n + 1 } else { n }, (a, b) -> a + b)
+ * </pre>
+ */
+public final class ParallelLines {
+    private final String source;
+    private final Path path;
+    private Concurrent.Pool pool;
+    private long chunkSize = FileChunks.DEFAULT_CHUNK;
+
+    public ParallelLines(String path) {
+        this.source = path;
+        this.path = Paths.get(path);
+    }
+
+    /** Runs the chunks on {@code pool} instead of a temporary pool sized to the machine. */
+    public ParallelLines pool(Concurrent.Pool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /** The target chunk size in bytes (32 MiB by default). */
+    public ParallelLines chunkSize(long bytes) {
+        if (bytes < 1) throw new IllegalArgumentException("chunk size must be positive, got " + bytes);
+        this.chunkSize = bytes;
+        return this;
+    }
+
+    /** Applies {@code function} to every line, returning the results in file order. */
+    public <T> List<T> map(Function1<String, T> function) throws IOException {
+        return fold(ArrayList::new, (results, line) -> {
+            results.add(function.call(line));
+            return results;
+        }, (left, right) -> {
+            left.addAll(right);
+            return left;
+        });
+    }
+
+    /**
+     * One {@link Outcome} per line parsed through {@code shape}, as
+     * {@link Shape#eachLine} gives for the whole text: in file order, with every
+     * defect on its line of the file.
+     */
+    public <T> List<Outcome<T>> eachLine(Shape<T> shape) throws IOException {
+        return this.<List<Outcome<T>>>fold(ArrayList::new, (chunk, line) -> {
+            int number = chunk.size() + 1;
+            chunk.add(shape.parse(line, Origin.atLine(source, number)).onLine(number));
+            return chunk;
+        }, (left, right) -> {
+            // Each chunk numbers its lines from 1; move the later chunk's defects past the earlier.
+            int offset = left.size();
+            for (int i = 0; i < right.size(); i++) {
+                Outcome<T> outcome = right.get(i);
+                left.add(outcome.isOk() ? outcome : outcome.onLine(offset + i + 1));
+            }
+            return left;
+        });
+    }
+
+    /**
+     * Folds every line: {@code step} runs per chunk from a fresh {@code zero},
+     * then the chunk results are merged left to right with {@code combine}.
+     */
+    public <A> A fold(Function0<A> zero, Function2<A, String, A> step, Function2<A, A, A> combine) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = FileChunks.split(channel, chunkSize, false, pool);
+            List<A> partials = FileChunks.map(pool, bounds, (index, start, end) -> {
+                try (BufferedReader reader = new BufferedReader(FileChunks.reader(channel, start, end))) {
+                    A acc = zero.call();
+                    String line;
+                    while ((line = reader.readLine()) != null) acc = step.call(acc, line);
+                    return acc;
+                }
+            });
+            A result = partials.get(0);
+            for (int i = 1; i < partials.size(); i++) result = combine.call(result, partials.get(i));
+            return result;
+        }
+    }
+}
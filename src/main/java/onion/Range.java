@@ -18,9 +18,17 @@ public final class Range implements Iterable<Integer> {
 
     public Range(int start, int end, boolean inclusive) {
         this.start = start;
+        this.endExclusive = endExclusive(end, inclusive);
+    }
+
+    /**
+     * The exclusive end of {@code start..end} or {@code start..<end}. A foreach over
+     * a range literal counts up to it without constructing the Range.
+     */
+    public static int endExclusive(int end, boolean inclusive) {
         long e = inclusive ? (long) end + 1 : end;
         // Clamp instead of overflowing when end == Integer.MAX_VALUE inclusive
-        this.endExclusive = (int) Math.min(e, Integer.MAX_VALUE);
+        return (int) Math.min(e, Integer.MAX_VALUE);
     }
 
     public int start() { return start; }
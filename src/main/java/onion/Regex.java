@@ -35,6 +35,93 @@ public final class Regex {
         return result;
     }
 
+    /** Combined matchers for multi-arm selects, keyed by the arm patterns in order. */
+    private static final java.util.concurrent.ConcurrentHashMap<List<String>, Arms> ARMS_CACHE =
+        new java.util.concurrent.ConcurrentHashMap<>();
+
+    /**
+     * The arms of one {@code select} joined into a single alternation
+     * {@code (p0)|(p1)|...}. {@code offsets[k]} is the group number of arm
+     * k's wrapper group; its own groups follow it, {@code counts[k]} of them.
+     */
+    private static final class Arms {
+        final Pattern pattern;
+        final int[] offsets;
+        final int[] counts;
+
+        Arms(String[] patterns) {
+            StringBuilder combined = new StringBuilder();
+            offsets = new int[patterns.length];
+            counts = new int[patterns.length];
+            int next = 1;
+            for (int k = 0; k < patterns.length; k++) {
+                if (k > 0) combined.append('|');
+                combined.append('(').append(patterns[k]).append(')');
+                offsets[k] = next;
+                counts[k] = MATCH_CACHE.computeIfAbsent(patterns[k], Pattern::compile).matcher("").groupCount();
+                next += counts[k] + 1;
+            }
+            pattern = Pattern.compile(combined.toString());
+        }
+    }
+
+    /**
+     * The outcome of {@link #matchArms}: which arm matched the whole input
+     * (-1 for none) and that arm's capture groups.
+     */
+    public static final class ArmMatch {
+        final String input;
+        final String[] patterns;
+        final int arm;
+        final List<String> groups;
+
+        ArmMatch(String input, String[] patterns, int arm, List<String> groups) {
+            this.input = input;
+            this.patterns = patterns;
+            this.arm = arm;
+            this.groups = groups;
+        }
+    }
+
+    /**
+     * One-pass match of a {@code select} whose arms are several
+     * {@code case re"..."} patterns. The arms are tried as one ordered
+     * alternation, so the first arm whose pattern matches the WHOLE input
+     * wins -- the same arm the arm-by-arm {@link #matchGroups} chain would
+     * pick, without rescanning a non-matching input once per arm. The
+     * compiler only emits this for patterns without backreferences or named
+     * groups, whose meaning survives being nested in the alternation.
+     */
+    public static ArmMatch matchArms(String input, String[] patterns) {
+        if (input == null || patterns == null) return new ArmMatch(input, patterns, -1, null);
+        Arms arms = ARMS_CACHE.computeIfAbsent(Arrays.asList(patterns), key -> new Arms(patterns));
+        Matcher m = arms.pattern.matcher(input);
+        if (!m.matches()) return new ArmMatch(input, patterns, -1, null);
+        for (int k = 0; k < arms.offsets.length; k++) {
+            if (m.start(arms.offsets[k]) < 0) continue;
+            List<String> result = new ArrayList<String>();
+            for (int i = 1; i <= arms.counts[k]; i++) {
+                String g = m.group(arms.offsets[k] + i);
+                result.add(g != null ? g : "");
+            }
+            return new ArmMatch(input, patterns, k, result);
+        }
+        return new ArmMatch(input, patterns, -1, null);
+    }
+
+    /**
+     * The capture groups of arm {@code arm} if it matches, otherwise null --
+     * the per-arm answer {@link #matchGroups} would give. Arms before the
+     * winning one cannot match; an arm after it is only asked when an earlier
+     * arm's {@code when} guard rejected the match, and is then matched on its
+     * own.
+     */
+    public static List<String> armGroups(ArmMatch match, int arm) {
+        if (match == null || match.arm < 0 || arm < match.arm) return null;
+        if (arm == match.arm) return match.groups;
+        return matchGroups(match.input, match.patterns[arm]);
+    }
+
     // ========== Matching ==========
 
     /**
@@ -0,0 +1,13 @@
+package onion.runtime;
+
+/**
+ * Box for mutable boolean variables captured by closures.
+ * This allows closures to share the same mutable variable with their enclosing scope.
+ */
+public class BooleanBox {
+    public boolean value;
+
+    public BooleanBox(boolean value) {
+        this.value = value;
+    }
+}
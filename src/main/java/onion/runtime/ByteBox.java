@@ -0,0 +1,13 @@
+package onion.runtime;
+
+/**
+ * Box for mutable byte variables captured by closures.
+ * This allows closures to share the same mutable variable with their enclosing scope.
+ */
+public class ByteBox {
+    public byte value;
+
+    public ByteBox(byte value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,13 @@
+package onion.runtime;
+
+/**
+ * Box for mutable char variables captured by closures.
+ * This allows closures to share the same mutable variable with their enclosing scope.
+ */
+public class CharBox {
+    public char value;
+
+    public CharBox(char value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,138 @@
+package onion.runtime;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Cache behind a function annotated {@code @Memo}. The compiler gives each such function
+ * a static Memo and has it look its arguments up here before running the body.
+ *
+ * <p>The table is direct-mapped and never grows: a key has exactly one slot, and storing
+ * a result evicts whatever that slot held. Entries are immutable and slots are written
+ * with a single reference store, so threads may share a Memo without locking; a reader
+ * sees either a complete entry or none, and a result lost to a racing store is only
+ * computed again. One or two integral arguments, or a single floating-point one, are
+ * packed into a {@code long} key so looking them up allocates nothing.
+ */
+public final class Memo {
+    /** Number of slots in a Memo created with no capacity. */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private static final Object MISSING = new Object();
+    /** Stands for the key of an entry stored under a {@code long}. */
+    private static final Object PRIMITIVE = new Object();
+
+    private static final class Entry {
+        final long bits;
+        final Object key;
+        final Object value;
+
+        Entry(long bits, Object key, Object value) {
+            this.bits = bits;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /** Several arguments as one key, compared element by element. */
+    private static final class Key {
+        private final Object[] parts;
+        private final int hash;
+
+        Key(Object[] parts) {
+            this.parts = parts;
+            this.hash = Arrays.hashCode(parts);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(parts, ((Key) other).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final Entry[] slots;
+    private final int mask;
+
+    public Memo() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** A Memo with room for {@code capacity} results, rounded up to a power of two. */
+    public Memo(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, Math.min(capacity, 1 << 30)) - 1) << 1;
+        this.slots = new Entry[Math.max(1, size)];
+        this.mask = slots.length - 1;
+    }
+
+    /** The result stored for {@code key}, or a value {@link #found} rejects. */
+    public Object get(long key) {
+        Entry entry = slots[index(key)];
+        return entry != null && entry.key == PRIMITIVE && entry.bits == key ? entry.value : MISSING;
+    }
+
+    /** Stores {@code value} as the result for {@code key} and returns it. */
+    public Object put(long key, Object value) {
+        slots[index(key)] = new Entry(key, PRIMITIVE, value);
+        return value;
+    }
+
+    /** The result stored for {@code key}, or a value {@link #found} rejects. */
+    public Object get(Object key) {
+        int hash = Objects.hashCode(key);
+        Entry entry = slots[index(hash)];
+        return entry != null && entry.key != PRIMITIVE && entry.bits == hash && Objects.equals(entry.key, key)
+            ? entry.value
+            : MISSING;
+    }
+
+    /** Stores {@code value} as the result for {@code key} and returns it. */
+    public Object put(Object key, Object value) {
+        int hash = Objects.hashCode(key);
+        slots[index(hash)] = new Entry(hash, key, value);
+        return value;
+    }
+
+    /** Whether {@code result}, returned by a {@code get}, is a stored result. */
+    public static boolean found(Object result) {
+        return result != MISSING;
+    }
+
+    public static long key(int value) {
+        return value;
+    }
+
+    public static long key(int first, int second) {
+        return ((long) first << 32) | (second & 0xffffffffL);
+    }
+
+    public static long key(long value) {
+        return value;
+    }
+
+    public static long key(float value) {
+        return Float.floatToIntBits(value);
+    }
+
+    public static long key(double value) {
+        return Double.doubleToLongBits(value);
+    }
+
+    public static long key(boolean value) {
+        return value ? 1L : 0L;
+    }
+
+    /** Arguments that do not fit a {@code long}, as one key. */
+    public static Object key(Object[] values) {
+        return new Key(values);
+    }
+
+    private int index(long key) {
+        long mixed = key * 0x9e3779b97f4a7c15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,13 @@
+package onion.runtime;
+
+/**
+ * Box for mutable short variables captured by closures.
+ * This allows closures to share the same mutable variable with their enclosing scope.
+ */
+public class ShortBox {
+    public short value;
+
+    public ShortBox(short value) {
+        this.value = value;
+    }
+}
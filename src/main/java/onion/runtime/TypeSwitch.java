@@ -0,0 +1,48 @@
+package onion.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Bootstrap for the type dispatch of a {@code select} whose cases test the same value
+ * against several types. The call site takes the value and returns the index of the
+ * first label it is an instance of, {@code labels.length} when there is none, and -1 for
+ * null. The answer for each runtime class is computed once and kept in a ClassValue, so
+ * a dispatch costs one lookup however many cases there are.
+ */
+public final class TypeSwitch {
+    private static final MethodHandle INDEX;
+
+    static {
+        try {
+            INDEX = MethodHandles.lookup().findStatic(
+                TypeSwitch.class, "index",
+                MethodType.methodType(int.class, Object.class, ClassValue.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private TypeSwitch() {
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, Class<?>... labels) {
+        ClassValue<Integer> indexes = new ClassValue<Integer>() {
+            @Override
+            protected Integer computeValue(Class<?> valueClass) {
+                for (int i = 0; i < labels.length; i++) {
+                    if (labels[i].isAssignableFrom(valueClass)) return i;
+                }
+                return labels.length;
+            }
+        };
+        return new ConstantCallSite(MethodHandles.insertArguments(INDEX, 1, indexes).asType(type));
+    }
+
+    private static int index(Object value, ClassValue<Integer> indexes) {
+        return value == null ? -1 : indexes.get(value.getClass());
+    }
+}
@@ -1,10 +1,11 @@
-package onion.compiler
-
-import scala.collection.mutable
-
-class AbstractTable[E <: Named](protected val mapping: mutable.Map[String, E]) extends Iterable[E] {
-  def add(entry: E): Unit =  mapping(entry.name) = entry
-  def get(key: String): Option[E] =  mapping.get(key)
-  def values: Seq[E] =  mapping.values.toList
-  def iterator: Iterator[E] =  mapping.values.iterator
+package onion.compiler
+
+import scala.collection.mutable
+
+// Synchronized: the body pass reads (and, for top-level fields, adds) members from several workers.
+class AbstractTable[E <: Named](protected val mapping: mutable.Map[String, E]) extends Iterable[E] {
+  def add(entry: E): Unit =  mapping.synchronized(mapping(entry.name) = entry)
+  def get(key: String): Option[E] =  mapping.synchronized(mapping.get(key))
+  def values: Seq[E] =  mapping.synchronized(mapping.values.toList)
+  def iterator: Iterator[E] =  values.iterator
 }
\ No newline at end of file
@@ -49,6 +49,18 @@ object CapturedVariableScanner {
     captured.toSet
   }
 
+  /**
+   * The captured variables that need a box shared by the closures and the
+   * enclosing scope: those reassigned somewhere in the block, closures included.
+   * A capture that is never reassigned is effectively final, so each closure
+   * holds a copy of its value instead.
+   */
+  def scanBoxed(block: AST.BlockExpression, parameterNames: Set[String] = Set.empty): Set[String] =
+    scanBoxedElements(block.elements, parameterNames)
+
+  def scanBoxedElements(elements: Seq[AST.BlockElement], parameterNames: Set[String] = Set.empty): Set[String] =
+    scanElements(elements, parameterNames) & elements.flatMap(AssignedVariableScanner.scan).toSet
+
   /** Traverse children of an AST node - common traversal logic extracted */
   private def visitChildren(n: AST.Node)(visit: AST.Node => Unit): Unit = n match {
     case block: AST.BlockExpression =>
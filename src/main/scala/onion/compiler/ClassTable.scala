@@ -7,21 +7,34 @@
  * ************************************************************** */
 package onion.compiler
 
-import java.util.{HashMap => JHashMap}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
 import onion.compiler.environment.AsmRefs.AsmClassType
-import onion.compiler.environment.ClassFileTable
+import onion.compiler.environment.{ClassFileTable, ClassSymbols}
 import onion.compiler.environment.ReflectionRefs.ReflectClassType
+import onion.compiler.pipeline.ResolutionProfile
 
 /**
- * @author Kota Mizushima
+ * A compile's classes and the classpath classes it uses. Under a compiler that is kept
+ * running (see [[ClassTable.forClassPath]]), the types of classes from jars and the runtime
+ * image come from a `workspace` table that outlives the compile, so their members are
+ * resolved once rather than once per compile.
  *
+ * @author Kota Mizushima
  */
-class ClassTable(classPath: String) {
+class ClassTable private (private val table: ClassFileTable, workspace: Option[ClassTable]) {
+  def this(classPath: String) = this(ClassFileTable.forClassPath(classPath), None)
+
   val classes = new OrderedTable[TypedAST.ClassDefinition]
-  private val classFiles = new JHashMap[String, TypedAST.ClassType]
-  private val arrayClasses = new JHashMap[String, TypedAST.ArrayType]
-  private val missingClasses = new java.util.HashSet[String]
-  private val table = new ClassFileTable(classPath)
+  // The classpath caches are filled lazily, also from code generation workers, so they
+  // are concurrent and keep the first instance published for a name: types are compared
+  // by identity.
+  private val classFiles = new ConcurrentHashMap[String, TypedAST.ClassType]
+  private val arrayClasses = new ConcurrentHashMap[String, TypedAST.ArrayType]
+  private val missingClasses = ConcurrentHashMap.newKeySet[String]()
+
+  /** How the class lookups made through this table were answered, for the compile profile. */
+  val probes = new ClassTable.Probes
 
   def loadArray(component: TypedAST.Type, dimension: Int): TypedAST.ArrayType = {
     // The cache is keyed by name, which is ambiguous for type variables ("T" from
@@ -30,11 +43,9 @@ class ClassTable(classPath: String) {
     if (!isCacheableComponent(component))
       return new TypedAST.ArrayType(component, dimension, this)
     val arrayName = "[" * dimension + component.name
-    var array: TypedAST.ArrayType = arrayClasses.get(arrayName)
+    val array: TypedAST.ArrayType = arrayClasses.get(arrayName)
     if (array != null) return array
-    array = new TypedAST.ArrayType(component, dimension, this)
-    arrayClasses.put(arrayName, array)
-    array
+    publish(arrayClasses, arrayName, new TypedAST.ArrayType(component, dimension, this))
   }
 
   private def isCacheableComponent(component: TypedAST.Type): Boolean =
@@ -55,17 +66,27 @@ class ClassTable(classPath: String) {
    * Prefer [[load]] (Option) or [[loadRequired]] elsewhere.
    */
   def loadOrNull(className: String): TypedAST.ClassType = {
+    probes.lookups.increment()
     var clazz: TypedAST.ClassType = lookup(className)
     if (clazz == null && missingClasses.contains(className)) return null
     if (clazz == null) {
-      val bytes = table.loadBytes(className)
-      if (bytes != null) {
-        clazz = new AsmClassType(bytes, this)
-        classFiles.put(clazz.name, clazz)
+      if (!table.mayContain(className)) {
+        probes.indexed.increment()
+        missingClasses.add(className)
+        return null
+      }
+      probes.classpath.increment()
+      val symbols = table.loadSymbols(className)
+      if (symbols != null) {
+        clazz = workspace match {
+          case Some(shared) if table.isArchived(className) => shared.define(symbols)
+          case _ => define(symbols)
+        }
       } else {
+        probes.reflection.increment()
         try {
-          clazz = new ReflectClassType(Class.forName(className, false, Thread.currentThread.getContextClassLoader), this)
-          classFiles.put(clazz.name, clazz)
+          val loaded = new ReflectClassType(Class.forName(className, false, Thread.currentThread.getContextClassLoader), this)
+          clazz = publish(classFiles, loaded.name, loaded)
         }
         catch {
           case _: ClassNotFoundException =>
@@ -76,6 +97,16 @@ class ClassTable(classPath: String) {
     clazz
   }
 
+  private def define(symbols: ClassSymbols): TypedAST.ClassType = {
+    val loaded = new AsmClassType(symbols, this)
+    publish(classFiles, loaded.name, loaded)
+  }
+
+  private def publish[A <: AnyRef](cache: ConcurrentHashMap[String, A], name: String, value: A): A = {
+    val raced = cache.putIfAbsent(name, value)
+    if (raced != null) raced else value
+  }
+
   def load(className: String): Option[TypedAST.ClassType] = Option(loadOrNull(className))
 
   /** Loads a class that the compiler itself depends on (JDK / onion runtime). */
@@ -90,7 +121,9 @@ class ClassTable(classPath: String) {
   def lookup(className: String): TypedAST.ClassType = {
     classes.get(className) match {
       case Some(ref) => ref
-      case None => classFiles.get(className)
+      case None =>
+        val loaded = classFiles.get(className)
+        if (loaded != null) loaded else workspace.map(_.classFiles.get(className)).orNull
     }
   }
 
@@ -98,3 +131,44 @@ class ClassTable(classPath: String) {
   def lookupOpt(className: String): Option[TypedAST.ClassType] = Option(lookup(className))
 
 }
+
+object ClassTable {
+  // The workspace table of each retained classpath, replaced along with its ClassFileTable.
+  private val workspaces = new ConcurrentHashMap[String, ClassTable]
+
+  /**
+   * A table for one compile against `classPath`. While class files are retained across
+   * compiles ([[ClassFileTable.retainAcrossCompiles]]), the table shares the types of archived
+   * classes with every other compile against the same classpath. Those types never see the
+   * compile's own classes, and class files in directories, which a build rewrites, stay per
+   * compile.
+   */
+  def forClassPath(classPath: String): ClassTable = {
+    val files = ClassFileTable.forClassPath(classPath)
+    if (!ClassFileTable.retainsAcrossCompiles) {
+      workspaces.clear()
+      new ClassTable(files, None)
+    } else {
+      val shared = workspaces.compute(classPath, (_, known) => if (known != null && (known.table eq files)) known else new ClassTable(files, None))
+      new ClassTable(files, Some(shared))
+    }
+  }
+
+  /**
+   * Counts of class lookups: all of them, and those that had to go past the table's own caches,
+   * by how they were answered. A miss the package index answers costs a set lookup; a
+   * classpath probe asks the class loader, and a reflection probe then `Class.forName`.
+   */
+  final class Probes {
+    private[ClassTable] val lookups = new LongAdder
+    private[ClassTable] val indexed = new LongAdder
+    private[ClassTable] val classpath = new LongAdder
+    private[ClassTable] val reflection = new LongAdder
+
+    def snapshot: ResolutionProfile = {
+      val total = lookups.sum
+      val (index, probed, reflected) = (indexed.sum, classpath.sum, reflection.sum)
+      ResolutionProfile(total, total - index - probed, index, probed, reflected)
+    }
+  }
+}
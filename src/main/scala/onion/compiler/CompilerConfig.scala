@@ -33,5 +33,16 @@ case class CompilerConfig(
   // Whether to emit a LocalVariableTable. On by default, because a debugger that can step
   // through `.on` source but shows nothing for any variable is most of the way to useless,
   // and the cost is a few bytes per method. `-g:none` turns it off.
-  emitDebugInfo: Boolean = true
+  emitDebugInfo: Boolean = true,
+  // Worker threads for the phases that handle each source file or class independently. `1`
+  // keeps the whole compile on the calling thread; the output is the same either way.
+  parallelism: Int = onion.compiler.toolbox.Parallel.defaultParallelism,
+  // Compile closures to private static methods of the enclosing class, created through
+  // `invokedynamic` and LambdaMetafactory, instead of a class per closure. Off by default
+  // until it has seen more use; `--indy-closures` turns it on.
+  indyClosures: Boolean = false,
+  // Inline calls of Colls.map/filter/forEach and Iterables.foldl whose function is a
+  // closure literal into a loop in the caller, so no closure object is created and no
+  // element goes through `call`. `--inline-higher-order` turns it on.
+  inlineHigherOrder: Boolean = false
 )
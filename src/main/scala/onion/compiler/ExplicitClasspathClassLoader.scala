@@ -44,8 +44,11 @@ private[onion] final class ExplicitClasspathClassLoader(
     Collections.enumeration(resources)
 
   private def parentFirst(name: String): Boolean =
-    ExplicitClasspathClassLoader.ParentFirstPrefixes.exists(name.startsWith)
+    ExplicitClasspathClassLoader.parentFirst(name)
 
 private[onion] object ExplicitClasspathClassLoader:
   private val ParentFirstPrefixes =
     Vector("java.", "javax.", "jdk.", "sun.", "com.sun.")
+
+  /** Whether the platform's definition of `name` wins over the classpath's. */
+  def parentFirst(name: String): Boolean = ParentFirstPrefixes.exists(name.startsWith)
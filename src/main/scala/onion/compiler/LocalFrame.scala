@@ -78,6 +78,12 @@ class LocalFrame(val parent: LocalFrame) {
     }
   }
 
+  /**
+   * Keeps the variable at `index` in a plain local rather than a box. For a variable
+   * that was boxed for closures that have since been inlined away.
+   */
+  def unbox(index: Int): Unit = allScopes.foreach(_.unbox(index))
+
   /** Iterator over frame hierarchy starting from this frame */
   private def frames: Iterator[LocalFrame] =
     Iterator.iterate(this)(_.parent).takeWhile(_ != null)
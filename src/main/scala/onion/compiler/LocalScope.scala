@@ -69,6 +69,15 @@ class LocalScope(val parent: LocalScope) {
     }
   }
 
+  /**
+   * Stops boxing the variable at the given index, once no closure shares it.
+   * @param index
+   */
+  def unbox(index: Int): Unit =
+    bindings.find(_._2.index == index).foreach { case (name, binding) =>
+      bindings(name) = binding.copy(isBoxed = false)
+    }
+
   /**
    * Gets the registered binding object from this scope for given name.
    * @param name
@@ -24,6 +24,9 @@ class OnionClassLoader @throws(classOf[MalformedURLException]) (parent: ClassLoa
   // resolves the super while defining and it isn't there yet)
   private val pendingClasses = scala.collection.mutable.Map(classes.map(k => k.className -> k.content)*)
 
+  /** The names of the compiled classes this loader defines, besides those on its classpath. */
+  val classNames: Seq[String] = classes.map(_.className)
+
   classes.foreach(k => loadClass(k.className))
 
   @throws(classOf[ClassNotFoundException])
@@ -26,8 +26,12 @@ class OnionCompiler(val config: CompilerConfig) {
     compileDetailed(fileNames.iterator.map(new FileInputSource(_)).toSeq)
 
   def compileDetailed(srcs: Seq[InputSource]): CompilationResult =
+    compileDetailed(srcs, () => false)
+
+  /** Compiles `srcs`, stopping with a `CancellationException` before the first phase that starts after `cancelled` turns true. */
+  def compileDetailed(srcs: Seq[InputSource], cancelled: () => Boolean): CompilationResult =
     new PipelineRunner(PipelineRunner.defaultPhases(config))
-      .run(CompilationRequest(InputSourceAdapter.fromInputSources(srcs), config))
+      .run(CompilationRequest(InputSourceAdapter.fromInputSources(srcs), config, cancelled))
 
   def compileOrThrow(fileNames: Array[String]): Seq[CompiledClass] =
     compileDetailed(fileNames) match {
@@ -6,7 +6,8 @@ import java.io.{IOException, Reader, StringReader}
 import java.util.Arrays.ArrayList
 import java.util.Collections
 
-import _root_.onion.compiler.toolbox.Message
+import _root_.onion.compiler.toolbox.{Message, Parallel}
+import _root_.onion.compiler.pipeline.FileTiming
 import _root_.onion.compiler.exceptions.CompilationException
 import _root_.onion.compiler.parser.{JJOnionParser, ParseException}
 
@@ -28,16 +29,28 @@ class Parsing(config: CompilerConfig) extends AnyRef
 
   def newEnvironment(source: Seq[InputSource]): Null = null
 
-  def processBody(source: Seq[InputSource], environment: Null): Seq[AST.CompilationUnit] = {
-    val buffer = new ArrayBuffer[AST.CompilationUnit]()
-    val problems = new ArrayBuffer[CompileError]()
+  /** How long each file of the last [[process]] call took to read and parse, in source order. */
+  val fileTimings: ArrayBuffer[FileTiming] = ArrayBuffer.empty
 
-    for (i <- source.indices) {
-      parseFile(source(i), buffer, problems)
+  /**
+   * Parses every file on up to `config.parallelism` threads. Each file gets its own
+   * parser and its own buffers, and the results are concatenated in source order, so
+   * the units and the diagnostics come out exactly as a sequential loop would give them.
+   */
+  def processBody(source: Seq[InputSource], environment: Null): Seq[AST.CompilationUnit] = {
+    val parsed = Parallel.map(source, config.parallelism) { input =>
+      val start = System.nanoTime()
+      val units = new ArrayBuffer[AST.CompilationUnit]()
+      val problems = new ArrayBuffer[CompileError]()
+      parseFile(input, units, problems)
+      (units, problems, FileTiming("Parsing", input.name, System.nanoTime() - start))
     }
+    fileTimings.clear()
+    fileTimings ++= parsed.map(_._3)
 
-    if (problems.nonEmpty) throw new CompilationException(problems.toSeq)
-    buffer.toSeq
+    val problems = parsed.flatMap(_._2)
+    if (problems.nonEmpty) throw new CompilationException(problems)
+    parsed.flatMap(_._1)
   }
 
   /**
@@ -85,6 +85,8 @@ import onion.compiler.exceptions.CompilationException
  */
 class SemanticErrorReporter(threshold: Int) {
   private val problems = Buffer[CompileError]()
+  // problems.length after each report, so absorb can replay where the threshold falls
+  private val reportMarks = Buffer[Int]()
   private var sourceFile: String = null
   private var errorCount: Int = 0
   private var currentError: SemanticError = null
@@ -742,11 +744,32 @@ class SemanticErrorReporter(threshold: Int) {
         }
     }
 
+    reportMarks += problems.length
     if (errorCount >= threshold) {
       throw new CompilationException(problems.toSeq)
     }
   }
 
+  /**
+   * Appends what `other` collected as if its reports had been made here, one by one:
+   * the same duplicates are dropped, and if the threshold is reached part-way the
+   * exception carries exactly the problems a single reporter would have had.
+   */
+  def absorb(other: SemanticErrorReporter): Unit = {
+    var absorbed = 0
+    other.reportMarks.foreach { mark =>
+      other.problems.slice(absorbed, mark).foreach(append)
+      absorbed = mark
+      errorCount += 1
+      reportMarks += problems.length
+      if (errorCount >= threshold) throw new CompilationException(problems.toSeq)
+    }
+  }
+
+  private def append(error: CompileError): Unit =
+    if (!problems.exists(p => p.sourceFile == error.sourceFile && p.location == error.location && p.message == error.message))
+      problems.append(error)
+
   def getProblems: Array[CompileError] = problems.toArray
 
   /** Number of errors collected so far. Lets callers checkpoint before/after a
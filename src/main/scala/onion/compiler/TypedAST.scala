@@ -1006,10 +1006,18 @@ object TypedAST {
   case class TypeParameter(name: String, upperBound: Option[TypedAST.Type], nullability: Nullability = Nullability.Platform, constraints: scala.collection.immutable.List[ClassType] = scala.collection.immutable.Nil)
 
   object AppliedClassType {
-    private val cache = scala.collection.mutable.HashMap[(TypedAST.ClassType, scala.collection.immutable.List[TypedAST.Type]), AppliedClassType]()
-
-    def apply(raw: TypedAST.ClassType, typeArguments: scala.collection.immutable.List[TypedAST.Type]): AppliedClassType =
-      cache.getOrElseUpdate((raw, typeArguments), new AppliedClassType(raw, typeArguments.toArray[TypedAST.Type]))
+    // Concurrent because per-file phases intern from several workers at once; the first
+    // instance published for a key wins so that eq comparisons keep working.
+    private val cache = new java.util.concurrent.ConcurrentHashMap[(TypedAST.ClassType, scala.collection.immutable.List[TypedAST.Type]), AppliedClassType]()
+
+    def apply(raw: TypedAST.ClassType, typeArguments: scala.collection.immutable.List[TypedAST.Type]): AppliedClassType = {
+      val key = (raw, typeArguments)
+      val cached = cache.get(key)
+      if (cached != null) return cached
+      val created = new AppliedClassType(raw, typeArguments.toArray[TypedAST.Type])
+      val raced = cache.putIfAbsent(key, created)
+      if (raced != null) raced else created
+    }
   }
 
   final class AppliedClassType private(val raw: TypedAST.ClassType, val typeArguments: Array[TypedAST.Type])
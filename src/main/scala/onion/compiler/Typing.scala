@@ -8,7 +8,7 @@
 package onion.compiler
 
 import _root_.scala.jdk.CollectionConverters._
-import _root_.onion.compiler.toolbox.{Paths, Systems}
+import _root_.onion.compiler.toolbox.{Parallel, Paths, Systems}
 import _root_.onion.compiler.exceptions.CompilationException
 import _root_.onion.compiler.typing.{NameResolver, TypeAliasEntry, TypeParam, TypeParamScope, TypingDiagnostics, TypingTypeSupport}
 import _root_.onion.compiler.typing.session.{AstBindingIndex, ExtensionRegistry, TypeAliasRegistry, TypingGlobalState, TypingSession, TypingUnitContext}
@@ -116,7 +116,7 @@ class Typing(config: CompilerConfig) extends AnyRef with Processor[Seq[AST.Compi
     loop(descriptor, 0)
   }
   private val globalState = TypingGlobalState(
-    table = new ClassTable(classpath(config.classPath)),
+    table = ClassTable.forClassPath(classpath(config.classPath)),
     bindings = new AstBindingIndex,
     mappers = Map[String, NameResolver](),
     declaredTypeParams = HashMap[AST.Node, Seq[TypeParam]](),
@@ -133,11 +133,17 @@ class Typing(config: CompilerConfig) extends AnyRef with Processor[Seq[AST.Compi
   // failures, most fuzz mutants) don't pay for scanning the builtin
   // containers; eager registration in the constructor caused GC thrashing
   // when thousands of compilers were constructed in one JVM.
-  private var builtinExtensionsRegistered = false
+  // Body-typing workers may ask at the same moment; the first registers while the
+  // others wait, and `registering` lets a lookup made during registration through.
+  @volatile private var builtinExtensionsRegistered = false
+  private var registeringBuiltinExtensions = false
   private def ensureBuiltinExtensions(): Unit = {
-    if (!builtinExtensionsRegistered) {
-      builtinExtensionsRegistered = true
-      registerBuiltinExtensions()
+    if (!builtinExtensionsRegistered) synchronized {
+      if (!builtinExtensionsRegistered && !registeringBuiltinExtensions) {
+        registeringBuiltinExtensions = true
+        registerBuiltinExtensions()
+        builtinExtensionsRegistered = true
+      }
     }
   }
 
@@ -195,7 +201,7 @@ class Typing(config: CompilerConfig) extends AnyRef with Processor[Seq[AST.Compi
   def processBody(source: Seq[AST.CompilationUnit], environment: TypingEnvironment): Seq[ClassDefinition] = {
     for(unit <- source) processHeader(unit)
     for(unit <- source) processOutline(unit)
-    for(unit <- source) processTyping(unit)
+    processTypings(source)
     for(unit <- source) processDuplication(unit)
     // Pass 5 (issue #357): capability boundaries. Needs every unit typed first —
     // effect inference is cross-unit — and runs before finishOrThrow so violations
@@ -217,6 +223,64 @@ class Typing(config: CompilerConfig) extends AnyRef with Processor[Seq[AST.Compi
   def processTyping(unit: AST.CompilationUnit): Unit =
     new onion.compiler.typing.TypingBodyPass(this, session.activate(unit)).run()
 
+  /**
+   * Pass 3 for every unit. Headers and outlines are complete, so a unit's bodies only
+   * read the other units' signatures -- except default argument values and top-level
+   * `val`/`var` fields, which exist once their own unit's bodies are typed. Units that
+   * declare either are typed first, in source order; the others on up to
+   * `config.parallelism` workers. Every unit reports into reporters of its own, which
+   * are replayed into the session's in source order, so the diagnostics (including
+   * where `maxErrorReports` cuts them off) are the same for any worker count.
+   */
+  private def processTypings(source: Seq[AST.CompilationUnit]): Unit = {
+    val (publishing, independent) = source.partition(publishesFromBodies)
+    val outcomes =
+      publishing.map(unit => unit -> typeInIsolation(unit)) ++
+        Parallel.map(independent, config.parallelism)(unit => unit -> typeInIsolation(unit))
+    val byUnit = outcomes.toMap
+    for (unit <- source) {
+      val (errors, warnings, failure) = byUnit(unit)
+      diagnostics.warningReporter.absorb(warnings)
+      diagnostics.reporter.absorb(errors)
+      failure.foreach(throw _)
+    }
+  }
+
+  private def typeInIsolation(unit: AST.CompilationUnit): (SemanticErrorReporter, WarningReporter, Option[CompilationException]) = {
+    val context = session.contextFor(unit)
+    val errors = new SemanticErrorReporter(config.maxErrorReports)
+    val warnings = new WarningReporter(config.warningLevel, config.suppressedWarnings)
+    // Some body warnings are reported without naming their file first
+    warnings.setSourceFile(unit.sourceFile)
+    context.errors = errors
+    context.warnings = warnings
+    try {
+      processTyping(unit)
+      (errors, warnings, None)
+    } catch {
+      // Rethrown once the unit's diagnostics are merged; when the unit hit the error
+      // limit on its own, merging them throws first.
+      case e: CompilationException => (errors, warnings, Some(e))
+    } finally {
+      context.errors = null
+      context.warnings = null
+    }
+  }
+
+  private def publishesFromBodies(unit: AST.CompilationUnit): Boolean =
+    unit.toplevels.exists {
+      case _: AST.GlobalVariableDeclaration | _: AST.BlockElement => true
+      case toplevel => declaresDefaultValue(toplevel)
+    }
+
+  private def declaresDefaultValue(node: Any): Boolean = node match {
+    case argument: AST.Argument => argument.defaultValue != null
+    case _: AST.BlockElement => false // bodies hold no declarations other units can call
+    case product: Product => product.productIterator.exists(declaresDefaultValue)
+    case items: Iterable[?] => items.exists(declaresDefaultValue)
+    case _ => false
+  }
+
   // Typing body pass moved to onion.compiler.typing.TypingBodyPass
 
 
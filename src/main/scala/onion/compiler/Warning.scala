@@ -37,6 +37,7 @@ enum WarningCategory(val code: String, val description: String):
   case DiscardedTopLevelStmts extends WarningCategory("W0014", "Top-level statements ignored because a main is defined")
   case PlatformUnboxing     extends WarningCategory("W0015", "Boxed platform value implicitly unboxed to a non-null primitive")
   case IneffectiveTailRecursive extends WarningCategory("W0016", "@TailRecursive annotation present but its mutual-recursion group could not be optimized")
+  case IneffectiveMemo      extends WarningCategory("W0017", "@Memo annotation present but the function could not be memoized")
 
 object WarningCategory:
   private val aliases: Map[String, WarningCategory] = Map(
@@ -57,7 +58,8 @@ object WarningCategory:
     "suspicious-interpolation" -> WarningCategory.SuspiciousInterpolation,
     "discarded-toplevel" -> WarningCategory.DiscardedTopLevelStmts,
     "platform-unboxing" -> WarningCategory.PlatformUnboxing,
-    "ineffective-tail-recursive" -> WarningCategory.IneffectiveTailRecursive
+    "ineffective-tail-recursive" -> WarningCategory.IneffectiveTailRecursive,
+    "ineffective-memo" -> WarningCategory.IneffectiveMemo
   )
 
   def fromString(value: String): Option[WarningCategory] =
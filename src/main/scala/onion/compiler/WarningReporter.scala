@@ -106,6 +106,11 @@ class WarningReporter(
         s"if the platform value can be null (e.g. a missing Json key), this throws a NullPointerException at runtime")
   }
 
+  /** Appends the warnings `other` collected, after this reporter's own. */
+  def absorb(other: WarningReporter): Unit = {
+    warnings ++= other.warnings
+  }
+
   def getWarnings: Seq[CompileWarning] = warnings.toSeq
 
   def hasWarnings: Boolean = warnings.nonEmpty
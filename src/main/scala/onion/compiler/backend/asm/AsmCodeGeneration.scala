@@ -3,6 +3,7 @@ package onion.compiler.backend.asm
 import org.objectweb.asm.{ClassWriter, Label, Opcodes, Type => AsmType}
 import org.objectweb.asm.commons.{GeneratorAdapter, Method => AsmMethod}
 import onion.compiler.{AST, BytecodeGenerator, CompiledClass, CompilerConfig, Modifier, TypedAST}
+import onion.compiler.toolbox.Parallel
 import scala.jdk.CollectionConverters._
 import scala.collection.mutable
 
@@ -36,6 +37,10 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
     case BasicType.LONG    => AsmType.LONG_TYPE
     case BasicType.DOUBLE  => AsmType.DOUBLE_TYPE
     case BasicType.FLOAT   => AsmType.FLOAT_TYPE
+    case BasicType.BOOLEAN => AsmType.BOOLEAN_TYPE
+    case BasicType.CHAR    => AsmType.CHAR_TYPE
+    case BasicType.SHORT   => AsmType.SHORT_TYPE
+    case BasicType.BYTE    => AsmType.BYTE_TYPE
     case _                 => AsmUtil.objectType(AsmUtil.JavaLangObject)
 
   private[compiler] def isReferenceAsmType(tp: AsmType): Boolean =
@@ -65,7 +70,9 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
       case _ =>
         ()
 
-  // Counter for generating unique closure class names
+  // Counter for generating unique closure class names. Each top-level class is
+  // generated by its own instance (see process), so the numbering is local to the
+  // class and does not depend on which classes were generated before it
   private var closureCounter = 0
   
   // Collect generated closure classes
@@ -77,13 +84,25 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
   }
 
   private val closureCodegen =
-    new ClosureCodegen(this, config.outputDirectory, () => nextClosureId(), compiled => generatedClosures += compiled)
+    new ClosureCodegen(this, config.outputDirectory, config.indyClosures, () => nextClosureId(), compiled => generatedClosures += compiled)
   private val bridgeMethodEmitter = new BridgeMethodEmitter(this)
   
+  /**
+   * Generates the classes on up to `config.parallelism` workers. Every class gets a
+   * fresh generator, so its bytes and the names of its closures depend on that class
+   * alone; the result lists the main classes in input order followed by each class's
+   * closures in the same order, exactly as a serial run produces them.
+   */
   override def process(classes: Seq[TypedAST.ClassDefinition]): Seq[CompiledClass] =
+    val generated = Parallel.map(classes, config.parallelism) { classDef =>
+      AsmCodeGeneration(config).generateWithClosures(classDef)
+    }
+    generated.map(_._1) ++ generated.flatMap(_._2)
+
+  private def generateWithClosures(classDef: ClassDefinition): (CompiledClass, Seq[CompiledClass]) =
     generatedClosures.clear()
-    val mainClasses = classes.map(generateClass)
-    mainClasses ++ generatedClosures.toSeq
+    val mainClass = generateClass(classDef)
+    (mainClass, generatedClosures.toSeq)
 
   /**
    * The SourceFile attribute. TypingHeaderPass records the unit a class came from, so
@@ -132,6 +151,7 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
         GenericSignatureEncoder.classSignature(classDef.typeParameters, classDef.superClass, classDef.interfaces)
 
     cw.visit(Opcodes.V17, access, name, classSignature, superName, interfaces)
+    closureCodegen.enterHost(cw, classDef.isInterface)
     cw.visitSource(sourceFileName(classDef), null)
 
     // Generate fields (enum constants carry ACC_ENUM)
@@ -753,13 +773,8 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
         // Use frameIndex to handle nested closures correctly
         closureCtx.capturedBinding(ref.frame, ref.index) match
           case Some(binding) =>
-            gen.loadThis()
             val fieldType = if binding.isBoxed then boxAsmType(binding.tp) else asmType(binding.tp)
-            gen.getField(
-              AsmUtil.objectType(closureCtx.closureClassName),
-              closureCtx.capturedFieldName(binding),
-              fieldType
-            )
+            closureCtx.loadCaptured(binding, fieldType)
             // If boxed, also get the value from the box
             if binding.isBoxed then
               gen.getField(boxAsmType(binding.tp), "value", boxedValueType(binding.tp))
@@ -768,7 +783,7 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
           case None =>
             // For frame=0 (current closure's own variables/parameters)
             if ref.frame == 0 && closureCtx.isParameter(ref.index) then
-              gen.loadArg(ref.index)
+              gen.loadArg(closureCtx.argumentIndex(ref.index))
             else if ref.frame == 0 && closureCtx.isBoxed(ref.index) then
               // Boxed own local (captured and mutated by a closure nested inside
               // this one): load box, then get value field, mirroring the
@@ -816,22 +831,12 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
               emitExpressionWithContext(gen, set.value, className, localVars)
               val valueSlot = gen.newLocal(valueType)
               gen.storeLocal(valueSlot)
-              gen.loadThis()
-              gen.getField(
-                AsmUtil.objectType(closureCtx.closureClassName),
-                closureCtx.capturedFieldName(binding),
-                boxType
-              )
+              closureCtx.loadCaptured(binding, boxType)
               gen.loadLocal(valueSlot)
               gen.putField(boxType, "value", valueType)
               gen.loadLocal(valueSlot)
             else
-              gen.loadThis()
-              gen.getField(
-                AsmUtil.objectType(closureCtx.closureClassName),
-                closureCtx.capturedFieldName(binding),
-                boxType
-              )
+              closureCtx.loadCaptured(binding, boxType)
               emitExpressionWithContext(gen, set.value, className, localVars)
               if valueType.getSize() == 2 then
                 gen.dup2X1()
@@ -839,18 +844,9 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
                 gen.dupX1()
               gen.putField(boxType, "value", valueType)
           case Some(binding) =>
-            gen.loadThis()
-            emitExpressionWithContext(gen, set.value, className, localVars)
-            val valueType = asmType(set.`type`)
-            if valueType.getSize() == 2 then
-              gen.dup2X1()
-            else
-              gen.dupX1()
-            gen.putField(
-              AsmUtil.objectType(closureCtx.closureClassName),
-              closureCtx.capturedFieldName(binding),
-              asmType(binding.tp)
-            )
+            closureCtx.storeCaptured(binding, asmType(binding.tp)) {
+              emitExpressionWithContext(gen, set.value, className, localVars)
+            }
           case None =>
             // For frame=0 (current closure's own variables/parameters)
             if set.frame != 0 then
@@ -869,7 +865,7 @@ class AsmCodeGeneration(config: CompilerConfig) extends BytecodeGenerator:
               emitExpressionWithContext(gen, set.value, className, localVars)
               val valueType = asmType(set.`type`)
               if valueType.getSize() == 2 then gen.dup2() else gen.dup()
-              gen.storeArg(set.index)
+              gen.storeArg(closureCtx.argumentIndex(set.index))
             else if closureCtx.isBoxed(set.index) then
               // Boxed own local (captured and mutated by a closure nested inside
               // this one): mirror the top-level-method boxed-local path below --
@@ -1026,6 +1022,10 @@ object AsmCodeGeneration:
     case BasicType.LONG    => "onion/runtime/LongBox"
     case BasicType.DOUBLE  => "onion/runtime/DoubleBox"
     case BasicType.FLOAT   => "onion/runtime/FloatBox"
+    case BasicType.BOOLEAN => "onion/runtime/BooleanBox"
+    case BasicType.CHAR    => "onion/runtime/CharBox"
+    case BasicType.SHORT   => "onion/runtime/ShortBox"
+    case BasicType.BYTE    => "onion/runtime/ByteBox"
     case _                 => "onion/runtime/ObjectBox"
 
   def boxAsmType(tp: TypedAST.Type): AsmType =
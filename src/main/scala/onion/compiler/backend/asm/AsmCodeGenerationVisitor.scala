@@ -20,6 +20,9 @@ class AsmCodeGenerationVisitor(
   private val loops = new LoopContext
   private val controlFlow = new ControlFlowEmitter(gen, loops, localVars, asmType, visitTerm, visitStatement)
   private val termEmitter = new TermEmitter(gen, asmType, visitTerm)
+  private val stringConcat =
+    new StringConcatEmitter(gen, asmType, visitTerm, (actual, expected) => asmCodeGen.adaptValueOnStack(gen, actual, expected))
+  private val switches = new SwitchEmitter(gen, asmType, visitTerm, visitStatement)
 
   // Track last emitted line to avoid duplicate visitLineNumber calls
   private var lastEmittedLine = -1
@@ -220,6 +223,9 @@ class AsmCodeGenerationVisitor(
   override def visitNullValue(node: NullValue): Unit = gen.visitInsn(Opcodes.ACONST_NULL)
   
   override def visitCall(node: Call): Unit =
+    if !stringConcat.tryEmit(node) then emitCall(node)
+
+  private def emitCall(node: Call): Unit =
     visitTerm(node.target)
     val argTypes = node.method.arguments.map(asmType)
     emitArgumentsWithAdaptation(node.parameters, argTypes, Array(asmType(node.target.`type`)))
@@ -633,12 +639,16 @@ class AsmCodeGenerationVisitor(
     gen.putStatic(ownerType, node.field.name, fieldType)
   
   override def visitOuterThis(node: OuterThis): Unit =
-    gen.loadThis()
-    gen.getField(
-      AsmUtil.objectType(className),
-      "this$0",
-      asmType(node.`type`)
-    )
+    localVars match
+      case closureCtx: ClosureLocalVarContext =>
+        closureCtx.loadOuterThis(asmType(node.`type`))
+      case _ =>
+        gen.loadThis()
+        gen.getField(
+          AsmUtil.objectType(className),
+          "this$0",
+          asmType(node.`type`)
+        )
   
   override def visitThis(node: This): Unit = gen.loadThis()
   
@@ -668,7 +678,7 @@ class AsmCodeGenerationVisitor(
 
   override def visitIfStatement(node: IfStatement): Unit =
     emitLineNumber(node.location)
-    controlFlow.emitIfStatement(node)
+    if !switches.tryEmit(node) then controlFlow.emitIfStatement(node)
 
   override def visitConditionalLoop(node: ConditionalLoop): Unit =
     emitLineNumber(node.location)
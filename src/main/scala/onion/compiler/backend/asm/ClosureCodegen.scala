@@ -2,15 +2,27 @@ package onion.compiler.backend.asm
 
 import onion.compiler.*
 import onion.compiler.TypedAST.*
-import org.objectweb.asm.{ClassWriter, Opcodes, Type as AsmType}
+import org.objectweb.asm.{ClassWriter, Handle, Opcodes, Type as AsmType}
 import org.objectweb.asm.commons.{GeneratorAdapter, Method as AsmMethod}
 
 final class ClosureCodegen(
   asmCodeGen: onion.compiler.backend.asm.AsmCodeGeneration,
   outputDirectory: String,
+  indyClosures: Boolean,
   nextClosureId: () => Int,
   registerCompiledClass: CompiledClass => Unit
 ) {
+  import ClosureCodegen.LambdaShape
+
+  // The class being generated, which receives the `lambda$` methods of its closures
+  private var host: ClassWriter = null
+  private var hostIsInterface = false
+
+  def enterHost(cw: ClassWriter, isInterface: Boolean): Unit = {
+    host = cw
+    hostIsInterface = isInterface
+  }
+
   private def asmType(tp: TypedAST.Type): AsmType = asmCodeGen.asmType(tp)
   private def boxAsmType(tp: TypedAST.Type): AsmType = asmCodeGen.boxAsmType(tp)
 
@@ -18,9 +30,6 @@ final class ClosureCodegen(
     if capturedVar.isBoxed then boxAsmType(capturedVar.tp) else asmType(capturedVar.tp)
 
   def emitNewClosure(gen: GeneratorAdapter, closure: NewClosure, className: String, localVars: LocalVarContext): Unit = {
-    val closureClassName = s"${className}$$Closure${nextClosureId()}"
-    val interfaceType = closure.`type`
-
     // Capture outer-scope locals actually referenced by the closure body.
     // (Do not capture the closure's own parameters/locals.)
     val rawCapturedVars = CapturedVariableCollector.collect(closure.block, closure.frame)
@@ -50,6 +59,24 @@ final class ClosureCodegen(
 
     val outerThisType = CapturedVariableCollector.findOuterThis(closure.block)
 
+    lambdaShape(closure, localVars) match
+      case Some(shape) =>
+        emitLambda(gen, closure, className, localVars, capturedVars, outerThisType, shape)
+      case None =>
+        emitClosureClass(gen, closure, className, localVars, capturedVars, outerThisType)
+  }
+
+  private def emitClosureClass(
+    gen: GeneratorAdapter,
+    closure: NewClosure,
+    className: String,
+    localVars: LocalVarContext,
+    capturedVars: Seq[ClosureLocalBinding],
+    outerThisType: Option[ClassType]
+  ): Unit = {
+    val closureClassName = s"${className}$$Closure${nextClosureId()}"
+    val interfaceType = closure.`type`
+
     val closureBytes = generateClosureClass(closureClassName, interfaceType, closure.method, closure.block, closure.frame, capturedVars, outerThisType)
     registerCompiledClass(CompiledClass(closureClassName.replace('/', '.'), outputDirectory, closureBytes))
 
@@ -57,14 +84,37 @@ final class ClosureCodegen(
     gen.newInstance(closureType)
     gen.dup()
 
+    pushCaptures(gen, localVars, capturedVars, outerThisType)
+
+    val ctorParamTypes = outerThisType.map(asmType).toSeq ++ capturedVars.map(capturedFieldType)
+    val ctorDesc = AsmType.getMethodDescriptor(
+      AsmType.VOID_TYPE,
+      ctorParamTypes.toArray*
+    )
+
+    gen.visitMethodInsn(
+      Opcodes.INVOKESPECIAL,
+      closureClassName,
+      "<init>",
+      ctorDesc,
+      false
+    )
+  }
+
+  /** Pushes what a closure is created with: the enclosing instance, if used, then each capture. */
+  private def pushCaptures(
+    gen: GeneratorAdapter,
+    localVars: LocalVarContext,
+    capturedVars: Seq[ClosureLocalBinding],
+    outerThisType: Option[ClassType]
+  ): Unit = {
     // Pass the enclosing instance first so unqualified instance calls
     // (typed as OuterThis) work inside the closure. In a nested closure the
-    // enclosing instance lives in the enclosing closure's own this$0 field.
+    // enclosing instance is the one the enclosing closure was created with.
     for outerType <- outerThisType do
       localVars match
         case closureCtx: ClosureLocalVarContext =>
-          gen.loadThis()
-          gen.getField(AsmUtil.objectType(closureCtx.closureClassName), "this$0", asmType(outerType))
+          closureCtx.loadOuterThis(asmType(outerType))
         case _ =>
           gen.loadThis()
 
@@ -81,12 +131,7 @@ final class ClosureCodegen(
           case closureCtx: ClosureLocalVarContext =>
             closureCtx.capturedBinding(adjustedFrame, capturedVar.index) match
               case Some(binding) =>
-                gen.loadThis()
-                gen.getField(
-                  AsmUtil.objectType(closureCtx.closureClassName),
-                  closureCtx.capturedFieldName(binding),
-                  boxType
-                )
+                closureCtx.loadCaptured(binding, boxType)
               case None =>
                 val slot = localVars.slotOf(capturedVar.index).getOrElse(
                   throw new IllegalStateException(s"Boxed variable ${capturedVar.index} not found")
@@ -100,19 +145,107 @@ final class ClosureCodegen(
       else
         val ref = new RefLocal(adjustedFrame, capturedVar.index, capturedVar.tp)
         asmCodeGen.emitRefLocal(gen, ref, localVars)
+  }
 
-    val ctorParamTypes = outerThisType.map(asmType).toSeq ++ capturedVars.map(capturedFieldType)
-    val ctorDesc = AsmType.getMethodDescriptor(
-      AsmType.VOID_TYPE,
-      ctorParamTypes.toArray*
+  /**
+   * How a closure maps onto `LambdaMetafactory`, or None when it needs a class of its own:
+   * the mode is off, the closure is created inside an inner-class closure (whose body is
+   * not a method of the host), or an argument or result cannot be adapted from the erased
+   * interface method to the closure's own signature by the boxing, unboxing and reference
+   * casts the metafactory performs.
+   */
+  private def lambdaShape(closure: NewClosure, localVars: LocalVarContext): Option[LambdaShape] =
+    val inInnerClass = localVars match
+      case _: LambdaLocalVarContext => false
+      case _: ClosureLocalVarContext => true
+      case _ => false
+    val interfaceType = closure.`type`
+    if !indyClosures || host == null || inInnerClass || !interfaceType.isInterface then None
+    else
+      findInterfaceMethod(interfaceType, closure.method.name, closure.method.arguments.length)
+        .filter(raw => (raw.modifier & AST.M_STATIC) == 0)
+        .flatMap { raw =>
+          val samArgs = raw.arguments.map(asmType)
+          val samReturn = asmType(raw.returnType)
+          val arguments = samArgs.zip(closure.method.arguments.map(asmType)).map(adaptArgument)
+          val result = adaptResult(samReturn, asmType(closure.method.returnType))
+          if arguments.forall(_.isDefined) && result.isDefined then
+            Some(LambdaShape(
+              raw.name,
+              AsmType.getMethodType(samReturn, samArgs*),
+              AsmType.getMethodType(result.get, arguments.flatten*)
+            ))
+          else None
+        }
+
+  /** The instantiated argument type the metafactory adapts to `impl`, if it can. */
+  private def adaptArgument(sam: AsmType, impl: AsmType): Option[AsmType] =
+    if sam == impl then Some(impl)
+    else if asmCodeGen.isReferenceAsmType(sam) then
+      if asmCodeGen.isReferenceAsmType(impl) then Some(impl) else Some(wrapperType(impl))
+    else None
+
+  /** The instantiated result type the metafactory adapts `impl`'s result to, if it can. */
+  private def adaptResult(sam: AsmType, impl: AsmType): Option[AsmType] =
+    if sam == impl || sam == AsmType.VOID_TYPE then Some(sam)
+    else if asmCodeGen.isReferenceAsmType(sam) && impl != AsmType.VOID_TYPE then
+      if asmCodeGen.isReferenceAsmType(impl) then Some(impl) else Some(wrapperType(impl))
+    else None
+
+  private def wrapperType(primitive: AsmType): AsmType = primitive.getSort match
+    case AsmType.BOOLEAN => AsmType.getObjectType("java/lang/Boolean")
+    case AsmType.CHAR    => AsmType.getObjectType("java/lang/Character")
+    case AsmType.BYTE    => AsmType.getObjectType("java/lang/Byte")
+    case AsmType.SHORT   => AsmType.getObjectType("java/lang/Short")
+    case AsmType.INT     => AsmType.getObjectType("java/lang/Integer")
+    case AsmType.LONG    => AsmType.getObjectType("java/lang/Long")
+    case AsmType.FLOAT   => AsmType.getObjectType("java/lang/Float")
+    case _               => AsmType.getObjectType("java/lang/Double")
+
+  /**
+   * Compiles the body to a private static `lambda$` method of the host and creates the
+   * closure with `invokedynamic`. The captures become the call site's arguments, so a
+   * closure that captures nothing is created once and shared by every evaluation.
+   */
+  private def emitLambda(
+    gen: GeneratorAdapter,
+    closure: NewClosure,
+    className: String,
+    localVars: LocalVarContext,
+    capturedVars: Seq[ClosureLocalBinding],
+    outerThisType: Option[ClassType],
+    shape: LambdaShape
+  ): Unit = {
+    val implName = s"lambda$$${closure.method.name}$$${nextClosureId()}"
+    val leading = outerThisType.map(asmType).toSeq ++ capturedVars.map(capturedFieldType)
+    val argTypes = closure.method.arguments.map(asmType)
+    val returnType = asmType(closure.method.returnType)
+
+    val access = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC
+    val body = MethodEmitter.newGenerator(host, access, implName, returnType, (leading ++ argTypes).toArray)
+    val lambdaLocalVars = new LambdaLocalVarContext(body, className, capturedVars, outerThisType.isDefined, leading)
+      .withParameters(isStatic = true, argTypes)
+      .withBoxedVariables(closure.frame)
+    asmCodeGen.emitStatementWithContext(body, closure.block, className, lambdaLocalVars)
+    val needsDefault = closure.method.returnType != BasicType.VOID && !asmCodeGen.hasReturn(Array(closure.block))
+    MethodEmitter.ensureReturn(body, returnType, !needsDefault)
+    body.endMethod()
+
+    pushCaptures(gen, localVars, capturedVars, outerThisType)
+    val implHandle = new Handle(
+      Opcodes.H_INVOKESTATIC,
+      className,
+      implName,
+      AsmType.getMethodDescriptor(returnType, (leading ++ argTypes)*),
+      hostIsInterface
     )
-
-    gen.visitMethodInsn(
-      Opcodes.INVOKESPECIAL,
-      closureClassName,
-      "<init>",
-      ctorDesc,
-      false
+    gen.invokeDynamic(
+      shape.name,
+      AsmType.getMethodDescriptor(asmType(closure.`type`), leading*),
+      ClosureCodegen.Metafactory,
+      shape.samType,
+      implHandle,
+      shape.instantiatedType
     )
   }
 
@@ -276,3 +409,18 @@ final class ClosureCodegen(
     gen.endMethod()
   }
 }
+
+object ClosureCodegen {
+  /** The interface method a closure implements, erased and as the call site instantiates it. */
+  private final case class LambdaShape(name: String, samType: AsmType, instantiatedType: AsmType)
+
+  private val Metafactory = new Handle(
+    Opcodes.H_INVOKESTATIC,
+    "java/lang/invoke/LambdaMetafactory",
+    "metafactory",
+    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+      "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)" +
+      "Ljava/lang/invoke/CallSite;",
+    false
+  )
+}
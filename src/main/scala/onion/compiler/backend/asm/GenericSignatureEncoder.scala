@@ -81,8 +81,14 @@ object GenericSignatureEncoder:
       // java.lang.Object so we never emit a malformed signature.
       "Ljava/lang/Object;"
 
-  /** Encode a type argument, handling wildcard bounds (`+`, `-`, `*`). */
+  /**
+   * Encode a type argument, handling wildcard bounds (`+`, `-`, `*`). A primitive
+   * argument (`(Int) -> Int` is `Function1[Int, Int]`) names its box: the value is
+   * passed boxed, and a signature that names a primitive there is malformed.
+   */
   private def typeArgumentSignature(tp: Type): String = tp match
+    case bt: BasicType =>
+      boxedSignature(bt)
     case w: WildcardType =>
       w.lowerBound match
         case Some(lb) => "-" + typeSignature(lb)
@@ -93,6 +99,17 @@ object GenericSignatureEncoder:
     case other =>
       typeSignature(other)
 
+  private def boxedSignature(bt: BasicType): String = bt match
+    case BasicType.BOOLEAN => "Ljava/lang/Boolean;"
+    case BasicType.BYTE    => "Ljava/lang/Byte;"
+    case BasicType.SHORT   => "Ljava/lang/Short;"
+    case BasicType.CHAR    => "Ljava/lang/Character;"
+    case BasicType.INT     => "Ljava/lang/Integer;"
+    case BasicType.LONG    => "Ljava/lang/Long;"
+    case BasicType.FLOAT   => "Ljava/lang/Float;"
+    case BasicType.DOUBLE  => "Ljava/lang/Double;"
+    case _                 => "Ljava/lang/Object;"
+
   /**
    * Encode the formal type parameter section `<T:Lbound;...>` (JVMS
    * ClassSignature/MethodSignature prefix). A parameter with upper bound B
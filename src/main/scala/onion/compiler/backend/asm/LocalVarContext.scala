@@ -55,6 +55,12 @@ class LocalVarContext(gen: GeneratorAdapter) {
 
   def isParameter(typedIndex: Int): Boolean = parameterSet.contains(typedIndex)
 
+  /** The JVM argument index of parameter `typedIndex`, for `loadArg`/`storeArg`. */
+  def argumentIndex(typedIndex: Int): Int = typedIndex
+
+  /** Slots taken by arguments that come before the parameters `withParameters` registers. */
+  protected def leadingSlots: Int = 0
+
   def isBoxed(typedIndex: Int): Boolean = boxedSet.contains(typedIndex)
 
   def markAsBoxed(typedIndex: Int): Unit = boxedSet += typedIndex
@@ -63,7 +69,7 @@ class LocalVarContext(gen: GeneratorAdapter) {
     * Register JVM parameter slots. Slot0 is `this` for instance methods.
     */
   def withParameters(isStatic: Boolean, argTypes: Array[AsmType]): LocalVarContext = {
-    val startSlot = if isStatic then 0 else 1
+    val startSlot = (if isStatic then 0 else 1) + leadingSlots
     argTypes.zipWithIndex.foldLeft(startSlot) { case (slot, (tp, i)) =>
       indexMap(i) = slot
       parameterSet += i
@@ -126,4 +132,61 @@ class ClosureLocalVarContext(
       case Some(b) => throw new IllegalStateException(s"Attempted to allocate slot for captured variable ${b.index}")
       case None    => super.getOrAllocateSlot(typedIndex, tp)
     }
+
+  /** Pushes the enclosing instance. */
+  def loadOuterThis(tp: AsmType): Unit = {
+    gen.loadThis()
+    gen.getField(AsmUtil.objectType(closureClassName), "this$0", tp)
+  }
+
+  /** Pushes a captured value; for a boxed binding, the box itself. */
+  def loadCaptured(binding: onion.compiler.ClosureLocalBinding, tp: AsmType): Unit = {
+    gen.loadThis()
+    gen.getField(AsmUtil.objectType(closureClassName), capturedFieldName(binding), tp)
+  }
+
+  /** Stores the value `emitValue` pushes into an unboxed captured binding, leaving it on the stack. */
+  def storeCaptured(binding: onion.compiler.ClosureLocalBinding, tp: AsmType)(emitValue: => Unit): Unit = {
+    gen.loadThis()
+    emitValue
+    if (tp.getSize == 2) gen.dup2X1() else gen.dupX1()
+    gen.putField(AsmUtil.objectType(closureClassName), capturedFieldName(binding), tp)
+  }
+}
+
+/**
+  * The body of a closure compiled to a static `lambda$` method of the enclosing class
+  * (`CompilerConfig.indyClosures`). What an inner-class closure keeps in fields arrives
+  * here as leading arguments: the enclosing instance when the body uses it, then the
+  * captured values in `capturedVars` order, and only then the closure's own parameters.
+  */
+class LambdaLocalVarContext(
+  gen: GeneratorAdapter,
+  ownerClassName: String,
+  capturedVars: Seq[onion.compiler.ClosureLocalBinding],
+  hasOuterThis: Boolean,
+  leading: Seq[AsmType]
+) extends ClosureLocalVarContext(gen, ownerClassName, capturedVars) {
+  private val capturedArgument: Map[(Int, Int), Int] = {
+    val first = if (hasOuterThis) 1 else 0
+    capturedVars.zipWithIndex.map { case (b, i) => (b.frameIndex, b.index) -> (first + i) }.toMap
+  }
+
+  private def argumentOf(binding: onion.compiler.ClosureLocalBinding): Int =
+    capturedArgument((binding.frameIndex, binding.index))
+
+  override def argumentIndex(typedIndex: Int): Int = typedIndex + leading.size
+
+  override protected def leadingSlots: Int = leading.map(_.getSize).sum
+
+  override def loadOuterThis(tp: AsmType): Unit = gen.loadArg(0)
+
+  override def loadCaptured(binding: onion.compiler.ClosureLocalBinding, tp: AsmType): Unit =
+    gen.loadArg(argumentOf(binding))
+
+  override def storeCaptured(binding: onion.compiler.ClosureLocalBinding, tp: AsmType)(emitValue: => Unit): Unit = {
+    emitValue
+    if (tp.getSize == 2) gen.dup2() else gen.dup()
+    gen.storeArg(argumentOf(binding))
+  }
 }
@@ -0,0 +1,217 @@
+package onion.compiler.backend.asm
+
+import onion.compiler.TypedAST.*
+import org.objectweb.asm.{Handle, Opcodes, Type => AsmType}
+import org.objectweb.asm.commons.{GeneratorAdapter, Method => AsmMethod}
+
+/**
+ * Emits string concatenation as one `invokedynamic` of
+ * `StringConcatFactory.makeConcatWithConstants`. Typing lowers `a + b` to
+ * `String.valueOf(a).concat(String.valueOf(b))` and `"#{a}b"` to a
+ * `new StringBuilder().append(a).append("b").toString()` chain; both would otherwise
+ * run as written, one intermediate string or builder per operator.
+ *
+ * String literals go into the recipe. Strings, primitives and their boxes are passed
+ * to the factory as they are, since rendering them later cannot change the result.
+ * Any other operand keeps its `String.valueOf` at the point it is evaluated: its
+ * `toString()` may depend on state that a later operand changes.
+ */
+final class StringConcatEmitter(
+  gen: GeneratorAdapter,
+  asmType: Type => AsmType,
+  visitTerm: Term => Unit,
+  adapt: (Type, AsmType) => Unit
+) {
+  import StringConcatEmitter.*
+
+  /** Emits `call` as one concatenation and returns true, or returns false if it is not one. */
+  def tryEmit(call: Call): Boolean =
+    pieces(call) match
+      case Some(found) =>
+        emit(merge(found))
+        true
+      case None =>
+        false
+
+  private def emit(found: Vector[Piece]): Unit =
+    val args = found.collect { case arg: Piece.Arg => arg }
+    if args.isEmpty then
+      gen.push(found.collect { case Piece.Constant(text) => text }.mkString)
+    else
+      // An operand that runs its own try/catch would lose everything already on the
+      // stack when its handler is entered (issue #669), so keep the earlier ones in locals
+      if args.drop(1).exists(arg => TermContainsTry.contains(arg.term)) then
+        val slots = args.map { arg =>
+          push(arg)
+          val slot = gen.newLocal(arg.tp)
+          gen.storeLocal(slot)
+          slot
+        }
+        slots.foreach(gen.loadLocal)
+      else
+        args.foreach(push)
+
+      val recipe = new StringBuilder
+      val constants = Vector.newBuilder[AnyRef]
+      found.foreach {
+        case _: Piece.Arg => recipe += ArgTag
+        case Piece.Constant(text) if text.exists(c => c == ArgTag || c == ConstantTag) =>
+          recipe += ConstantTag
+          constants += text
+        case Piece.Constant(text) => recipe ++= text
+      }
+      gen.invokeDynamic(
+        "makeConcatWithConstants",
+        AsmType.getMethodDescriptor(StringType, args.map(_.tp)*),
+        MakeConcatWithConstants,
+        (recipe.toString +: constants.result())*
+      )
+
+  private def push(arg: Piece.Arg): Unit =
+    visitTerm(arg.term)
+    if arg.render then
+      adapt(arg.term.`type`, ObjectType)
+      gen.invokeStatic(StringType, ValueOfObject)
+    else
+      adapt(arg.term.`type`, arg.tp)
+
+  private def merge(found: Vector[Piece]): Vector[Piece] =
+    found.foldLeft(Vector.empty[Piece]) {
+      case (init :+ Piece.Constant(a), Piece.Constant(b)) => init :+ Piece.Constant(a + b)
+      case (acc, Piece.Constant("")) => acc
+      case (acc, piece) => acc :+ piece
+    }
+
+  /** The pieces of a concatenation, or None when `term` is not one the factory can take. */
+  private def pieces(term: Term): Option[Vector[Piece]] =
+    chain(term).filter(found => found.collect { case arg: Piece.Arg => arg.tp.getSize }.sum <= MaxArgumentSlots)
+
+  private def chain(term: Term): Option[Vector[Piece]] =
+    term match
+      case call: Call if isConcat(call) =>
+        for
+          left <- operand(call.target)
+          right <- operand(call.parameters(0))
+        yield left ++ right
+      case call: Call if isMethod(call.method, StringBuilderName, "toString", 0) =>
+        appends(call.target)
+      case _ =>
+        None
+
+  // Typing wraps each `+` operand in String.valueOf((Object) operand)
+  private def operand(term: Term): Option[Vector[Piece]] =
+    term match
+      case valueOf: CallStatic if isValueOfObject(valueOf) =>
+        Some(rendered(stripObjectCast(valueOf.parameters(0)), Some(valueOf)))
+      case _ =>
+        None
+
+  private def appends(term: Term): Option[Vector[Piece]] =
+    term match
+      case builder: NewObject
+          if builder.constructor.affiliation.name == StringBuilderName && builder.parameters.isEmpty =>
+        Some(Vector.empty)
+      case call: Call if isMethod(call.method, StringBuilderName, "append", 1) =>
+        for
+          before <- appends(call.target)
+          appended <- appended(call)
+        yield before ++ appended
+      case _ =>
+        None
+
+  private def appended(append: Call): Option[Vector[Piece]] =
+    val parameter = asmType(append.method.arguments(0))
+    val arg = append.parameters(0)
+    if parameter.getSort != AsmType.OBJECT && parameter.getSort != AsmType.ARRAY then
+      Some(Vector(Piece.Arg(arg, parameter)))
+    else if parameter == StringType then
+      arg match
+        case literal: StringValue => Some(Vector(Piece.Constant(literal.value)))
+        case _ => Some(chain(arg).getOrElse(Vector(Piece.Arg(arg, StringType))))
+    else if parameter == ObjectType then
+      Some(rendered(stripObjectCast(arg), None))
+    else
+      // append(char[]) and append(CharSequence) do not render their argument with valueOf
+      None
+
+  /** One operand rendered as `String.valueOf` would render it; `valueOf` is that call, if typing made one. */
+  private def rendered(term: Term, valueOf: Option[CallStatic]): Vector[Piece] =
+    term match
+      case literal: StringValue =>
+        Vector(Piece.Constant(literal.value))
+      case _: NullValue =>
+        Vector(Piece.Constant("null"))
+      case boxing: CallStatic if isBoxing(boxing) =>
+        val primitive = boxing.parameters(0)
+        Vector(Piece.Arg(primitive, asmType(primitive.`type`)))
+      case _ =>
+        chain(term).getOrElse {
+          val tp = asmType(term.`type`)
+          if isStable(tp) then Vector(Piece.Arg(term, tp))
+          else valueOf match
+            case Some(call) => Vector(Piece.Arg(call, StringType))
+            case None => Vector(Piece.Arg(term, StringType, render = true))
+        }
+
+  private def stripObjectCast(term: Term): Term =
+    term match
+      case cast: AsInstanceOf if asmType(cast.destination) == ObjectType => cast.target
+      case _ => term
+
+  private def isConcat(call: Call): Boolean =
+    isMethod(call.method, StringName, "concat", 1)
+
+  private def isValueOfObject(call: CallStatic): Boolean =
+    call.target.name == StringName && isMethod(call.method, StringName, "valueOf", 1) &&
+      asmType(call.method.arguments(0)) == ObjectType
+
+  private def isBoxing(call: CallStatic): Boolean =
+    BoxNames.contains(call.target.name) && call.method.name == "valueOf" &&
+      call.parameters.length == 1 && call.parameters(0).`type`.isBasicType
+
+  private def isMethod(method: Method, owner: String, name: String, arity: Int): Boolean =
+    method.affiliation != null && method.affiliation.name == owner && method.name == name &&
+      method.arguments.length == arity
+}
+
+object StringConcatEmitter {
+  private enum Piece:
+    case Constant(text: String)
+    // `render`: pass String.valueOf(term), called when the term is evaluated
+    case Arg(term: Term, tp: AsmType, render: Boolean = false)
+
+  private final val ArgTag = '\u0001'
+  private final val ConstantTag = '\u0002'
+  // StringConcatFactory accepts at most 200 argument slots
+  private final val MaxArgumentSlots = 200
+
+  private final val StringName = "java.lang.String"
+  private final val StringBuilderName = "java.lang.StringBuilder"
+  private val StringType: AsmType = AsmType.getType(classOf[String])
+  private val ObjectType: AsmType = AsmType.getType(classOf[Object])
+  private val ValueOfObject: AsmMethod = AsmMethod.getMethod("String valueOf(Object)")
+
+  private val BoxNames: Set[String] = Set(
+    "java.lang.Boolean", "java.lang.Character", "java.lang.Byte", "java.lang.Short",
+    "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double"
+  )
+
+  /** Values whose rendering cannot change between evaluation and concatenation. */
+  private def isStable(tp: AsmType): Boolean =
+    tp.getSort match
+      case AsmType.OBJECT =>
+        tp == StringType || BoxNames.contains(tp.getClassName)
+      case AsmType.ARRAY | AsmType.METHOD | AsmType.VOID =>
+        false
+      case _ =>
+        true
+
+  private val MakeConcatWithConstants = new Handle(
+    Opcodes.H_INVOKESTATIC,
+    "java/lang/invoke/StringConcatFactory",
+    "makeConcatWithConstants",
+    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+      "Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;",
+    false
+  )
+}
@@ -0,0 +1,265 @@
+package onion.compiler.backend.asm
+
+import onion.compiler.Modifier
+import onion.compiler.TypedAST.*
+import onion.compiler.TypedAST.BinaryTerm.Kind.*
+import org.objectweb.asm.{Handle, Label, Opcodes, Type => AsmType}
+import org.objectweb.asm.commons.{GeneratorAdapter, Method => AsmMethod}
+
+/**
+ * Emits a chain of `if`s that compares one local with constants as one switch.
+ *
+ * Typing lowers `select` to such a chain, one `if` per case, so a value that matches
+ * the last of forty cases is compared forty times. The chain stays in the typed tree,
+ * where tail-call, effect and capture analysis read it as they read any `if`; only its
+ * dispatch changes here:
+ *
+ *  - `int`, `char`, `short` and `byte` cases become a `tableswitch` or `lookupswitch`;
+ *  - String cases switch on `hashCode()` and then call `equals` on the few strings
+ *    that share a hash;
+ *  - cases over an enum declared in Onion switch on `ordinal()`;
+ *  - a long run of type patterns calls the `onion.runtime.TypeSwitch` bootstrap, which
+ *    finds the first matching type once per runtime class.
+ *
+ * Each value jumps to the first case that lists it, which is the case the chain would
+ * have chosen, and every other value to what followed the last case that was taken
+ * over. A case whose test is anything else (a guard in the condition, a nested pattern,
+ * a non-constant) ends the switch there; the rest of the chain is emitted as it was.
+ */
+final class SwitchEmitter(
+  gen: GeneratorAdapter,
+  asmType: Type => AsmType,
+  visitTerm: Term => Unit,
+  visitStatement: ActionStatement => Unit
+) {
+  import SwitchEmitter.*
+
+  /** Emits `node` as a switch and returns true, or returns false if it does not dispatch on one local. */
+  def tryEmit(node: IfStatement): Boolean =
+    chain(node) match
+      case Some(found) =>
+        emit(found)
+        true
+      case None =>
+        false
+
+  private def chain(node: IfStatement): Option[Chain] =
+    test(node.condition).flatMap { first =>
+      val arms = Vector.newBuilder[Arm]
+      arms += Arm(first.keys, node.thenStatement)
+      var rest = node.elseStatement
+      var extending = true
+      while extending do
+        rest match
+          case next: IfStatement =>
+            test(next.condition) match
+              case Some(found) if sameLocal(found.local, first.local) && found.dispatch == first.dispatch =>
+                arms += Arm(found.keys, next.thenStatement)
+                rest = next.elseStatement
+              case _ =>
+                extending = false
+          case _ =>
+            extending = false
+      val found = Chain(first.local, first.dispatch, arms.result(), rest)
+      Option.when(found.arms.flatMap(_.keys).distinct.size >= minimumCases(found.dispatch))(found)
+    }
+
+  private def emit(chain: Chain): Unit =
+    val end = gen.newLabel()
+    val default = gen.newLabel()
+    val armLabels = chain.arms.map(_ => gen.newLabel())
+    // A key listed by several cases belongs to the first, as in the chain
+    val targets = chain.arms.zip(armLabels)
+      .flatMap((arm, label) => arm.keys.map(_ -> label))
+      .distinctBy(_._1)
+
+    chain.dispatch match
+      case Dispatch.Ints =>
+        visitTerm(chain.local)
+        switchOn(targets.map((key, label) => key.asInstanceOf[Int] -> label), default)
+      case Dispatch.Ordinals(nullable) =>
+        if nullable then skipNull(chain.local, default)
+        visitTerm(chain.local)
+        gen.invokeVirtual(EnumType, Ordinal)
+        switchOn(targets.map((key, label) => key.asInstanceOf[Int] -> label), default)
+      case Dispatch.Strings(nullable) =>
+        if nullable then skipNull(chain.local, default)
+        visitTerm(chain.local)
+        gen.invokeVirtual(StringType, HashCode)
+        def hash(key: Key) = key.asInstanceOf[String].hashCode
+        val hashLabels = targets.map((key, _) => hash(key)).distinct.map(_ -> gen.newLabel())
+        switchOn(hashLabels, default)
+        for (code, hashLabel) <- hashLabels do
+          gen.visitLabel(hashLabel)
+          for (key, label) <- targets if hash(key) == code do
+            visitTerm(chain.local)
+            gen.push(key.asInstanceOf[String])
+            gen.invokeVirtual(StringType, StringEquals)
+            gen.ifZCmp(GeneratorAdapter.NE, label)
+          gen.goTo(default)
+      case Dispatch.Types =>
+        visitTerm(chain.local)
+        gen.invokeDynamic("typeSwitch", TypeSwitchDescriptor, TypeSwitchBootstrap, targets.map(_._1)*)
+        switchOn(targets.indices.map(index => index -> targets(index)._2).toVector, default)
+
+    val reached = targets.map(_._2).toSet
+    for (arm, label) <- chain.arms.zip(armLabels) if reached(label) do
+      gen.visitLabel(label)
+      visitStatement(arm.body)
+      gen.goTo(end)
+    gen.visitLabel(default)
+    if chain.default != null then visitStatement(chain.default)
+    gen.visitLabel(end)
+
+  private def skipNull(local: RefLocal, default: Label): Unit =
+    visitTerm(local)
+    gen.ifNull(default)
+
+  /** A `tableswitch` when the keys are dense enough, by the measure javac uses, else a `lookupswitch`. */
+  private def switchOn(cases: Vector[(Int, Label)], default: Label): Unit =
+    val sorted = cases.sortBy(_._1)
+    val low = sorted.head._1
+    val high = sorted.last._1
+    val tableCost = 4L + (high.toLong - low + 1) + 3L * 3
+    val lookupCost = 3L + 2L * sorted.size + 3L * sorted.size
+    if tableCost <= lookupCost then
+      val table = Array.fill(high - low + 1)(default)
+      sorted.foreach((key, label) => table(key - low) = label)
+      gen.visitTableSwitchInsn(low, high, default, table*)
+    else
+      gen.visitLookupSwitchInsn(default, sorted.map(_._1).toArray, sorted.map(_._2).toArray)
+
+  /** The local a case condition tests and the constants it accepts, or None if it is not such a test. */
+  private def test(condition: Term): Option[Test] =
+    condition match
+      case or: BinaryTerm if or.kind == LOGICAL_OR =>
+        for
+          left <- test(or.lhs)
+          right <- test(or.rhs)
+          if sameLocal(left.local, right.local) && left.dispatch == right.dispatch
+        yield left.copy(keys = left.keys ++ right.keys)
+      case equal: BinaryTerm if equal.kind == EQUAL =>
+        equal.lhs match
+          case local: RefLocal if IntTypes.contains(local.`type`) =>
+            intKey(equal.rhs).map(key => Test(local, Dispatch.Ints, Vector(key)))
+          case _ => None
+      // `==` on a String or enum calls equals, which neither class lets a subclass change
+      case call: Call if isEquals(call.method, 1) && FinalEquals.contains(call.method.affiliation.name) =>
+        call.target match
+          case local: RefLocal => constantKey(local, nullable = false, call.parameters(0))
+          case _ => None
+      // and on a nullable one, Objects.equals
+      case call: CallStatic if call.target.name == "java.util.Objects" && isEquals(call.method, 2) =>
+        stripCasts(call.parameters(0)) match
+          case local: RefLocal => constantKey(local, nullable = true, call.parameters(1))
+          case _ => None
+      case instance: InstanceOf =>
+        instance.target match
+          case local: RefLocal => Some(Test(local, Dispatch.Types, Vector(asmType(instance.checked))))
+          case _ => None
+      case _ =>
+        None
+
+  private def constantKey(local: RefLocal, nullable: Boolean, constant: Term): Option[Test] =
+    val scrutinee = local.`type` match
+      case nullableType: NullableType => nullableType.innerType
+      case other => other
+    stripCasts(constant) match
+      case string: StringValue if scrutinee.name == "java.lang.String" =>
+        Some(Test(local, Dispatch.Strings(nullable), Vector(string.value)))
+      case field: RefStaticField =>
+        ordinal(scrutinee, field).map(key => Test(local, Dispatch.Ordinals(nullable), Vector(key)))
+      case _ =>
+        None
+
+  /**
+   * The ordinal of an enum constant, known here only for an enum compiled from Onion
+   * source: its constants are declared in ordinal order. A Java enum may be recompiled
+   * with its constants reordered, so its cases keep comparing by identity.
+   */
+  private def ordinal(scrutinee: Type, field: RefStaticField): Option[Int] =
+    scrutinee match
+      case definition: ClassDefinition if Modifier.isEnum(definition.modifier) && field.target.name == definition.name =>
+        val constants = definition.fields.filter { f =>
+          Modifier.isStatic(f.modifier) && Modifier.isFinal(f.modifier) && f.`type`.name == definition.name
+        }
+        Some(constants.indexWhere(_.name == field.field.name)).filter(_ >= 0)
+      case _ =>
+        None
+
+  private def intKey(term: Term): Option[Int] =
+    term match
+      case value: IntValue => Some(value.value)
+      case value: CharacterValue => Some(value.value.toInt)
+      case value: ShortValue => Some(value.value.toInt)
+      case value: ByteValue => Some(value.value.toInt)
+      case minus: UnaryTerm if minus.kind == UnaryTerm.Kind.MINUS && minus.`type` == BasicType.INT =>
+        intKey(minus.operand).map(-_)
+      // A label narrowed to the scrutinee's type compares as its narrowed value
+      case cast: AsInstanceOf =>
+        intKey(cast.target).flatMap { key =>
+          cast.destination match
+            case BasicType.INT => Some(key)
+            case BasicType.CHAR => Some(key.toChar.toInt)
+            case BasicType.SHORT => Some(key.toShort.toInt)
+            case BasicType.BYTE => Some(key.toByte.toInt)
+            case _ => None
+        }
+      case _ => None
+
+  private def stripCasts(term: Term): Term =
+    term match
+      case cast: AsInstanceOf => stripCasts(cast.target)
+      case _ => term
+
+  private def isEquals(method: Method, arity: Int): Boolean =
+    method.affiliation != null && method.name == "equals" && method.arguments.length == arity
+
+  private def sameLocal(a: RefLocal, b: RefLocal): Boolean =
+    a.frame == b.frame && a.index == b.index
+}
+
+object SwitchEmitter {
+  /** An `Int` (value or ordinal), a `String`, or the AsmType of a type pattern. */
+  private type Key = Int | String | AsmType
+
+  private enum Dispatch:
+    case Ints
+    case Strings(nullable: Boolean)
+    case Ordinals(nullable: Boolean)
+    case Types
+
+  private case class Test(local: RefLocal, dispatch: Dispatch, keys: Vector[Key])
+  private case class Arm(keys: Vector[Key], body: ActionStatement)
+  private case class Chain(local: RefLocal, dispatch: Dispatch, arms: Vector[Arm], default: ActionStatement)
+
+  /**
+   * Fewer cases than this stay a chain. For values, two compares cost no more than a
+   * switch. A type dispatch is a ClassValue lookup, and `instanceof` of a final record
+   * class is so cheap that a chain of them measured faster up to about 16 cases and
+   * level up to 32, so only long chains of type patterns are worth it.
+   */
+  private def minimumCases(dispatch: Dispatch): Int =
+    dispatch match
+      case Dispatch.Types => 24
+      case _ => 3
+
+  private val IntTypes: Set[Type] = Set(BasicType.INT, BasicType.CHAR, BasicType.SHORT, BasicType.BYTE)
+  private val FinalEquals: Set[String] = Set("java.lang.String", "java.lang.Enum")
+
+  private val StringType: AsmType = AsmType.getType(classOf[String])
+  private val EnumType: AsmType = AsmType.getType(classOf[java.lang.Enum[?]])
+  private val HashCode: AsmMethod = AsmMethod.getMethod("int hashCode()")
+  private val StringEquals: AsmMethod = AsmMethod.getMethod("boolean equals(Object)")
+  private val Ordinal: AsmMethod = AsmMethod.getMethod("int ordinal()")
+
+  private val TypeSwitchDescriptor = "(Ljava/lang/Object;)I"
+  private val TypeSwitchBootstrap = new Handle(
+    Opcodes.H_INVOKESTATIC,
+    "onion/runtime/TypeSwitch",
+    "bootstrap",
+    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;" +
+      "[Ljava/lang/Class;)Ljava/lang/invoke/CallSite;",
+    false
+  )
+}
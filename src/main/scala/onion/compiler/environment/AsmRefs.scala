@@ -1,9 +1,8 @@
 package onion.compiler.environment
 
 import onion.compiler.{TypedAST, Modifier, OnionTypeConversion, MultiTable, OrderedTable, ClassTable}
-import org.objectweb.asm.{ClassReader, Opcodes, Type}
+import org.objectweb.asm.{Opcodes, Type}
 import org.objectweb.asm.signature.{SignatureReader, SignatureVisitor}
-import org.objectweb.asm.tree.{ClassNode, MethodNode, FieldNode}
 import scala.collection.mutable
 
 object AsmRefs {
@@ -136,7 +135,7 @@ object AsmRefs {
       env: Map[String, TypedAST.TypeVariableType]
     )
 
-    def parseClass(signature: String, fallbackSuper: String, fallbackIfaces: java.util.List[String]): ClassInfo = {
+    def parseClass(signature: String, fallbackSuper: String, fallbackIfaces: Seq[String]): ClassInfo = {
       val typeParamsBuf = mutable.ArrayBuffer[TypedAST.TypeParameter]()
       var currentName: String = null
       var currentUpper: TypedAST.ClassType = null
@@ -226,10 +225,9 @@ object AsmRefs {
         else if (fallbackSuper == null) null
         else table.loadOrNull(fallbackSuper.replace('/', '.'))
 
-      import scala.jdk.CollectionConverters._
       val interfaces0 =
         if (parsedIfaces.nonEmpty) parsedIfaces.toIndexedSeq
-        else fallbackIfaces.asScala.map(n => table.loadOrNull(n.replace('/', '.'))).toIndexedSeq
+        else fallbackIfaces.map(n => table.loadOrNull(n.replace('/', '.'))).toIndexedSeq
 
       ClassInfo(typeParams, superClass0, interfaces0, finalEnv)
     }
@@ -329,74 +327,69 @@ object AsmRefs {
     }
   }
 
-  class AsmMethodRef(method: MethodNode, override val affiliation: TypedAST.ClassType, table: ClassTable, classEnv: Map[String, TypedAST.TypeVariableType]) extends TypedAST.Method {
+  class AsmMethodRef(method: ClassSymbols.Member, override val affiliation: TypedAST.ClassType, table: ClassTable, classEnv: Map[String, TypedAST.TypeVariableType]) extends TypedAST.Method {
     override val modifier: Int = toOnionModifier(method.access)
     override val name: String = method.name
     override val isVararg: Boolean = (method.access & Opcodes.ACC_VARARGS) != 0
     private val bridge = new OnionTypeConversion(table)
     private val mapper = new SignatureTypeMapper(table, classEnv, () => table.loadRequired("java.lang.Object"))
-    private val parsed =
-      if (method.signature != null) mapper.parseMethod(method.signature, method.desc)
-      else null
+    private val parsed = method.signature.map(mapper.parseMethod(_, method.descriptor)).orNull
     override val typeParameters: Array[TypedAST.TypeParameter] =
       if (parsed == null) Array()
       else parsed.typeParameters.clone()
     private val argTypes: Array[TypedAST.Type] =
-      if (parsed == null) Type.getArgumentTypes(method.desc).map(bridge.toOnionType)
+      if (parsed == null) Type.getArgumentTypes(method.descriptor).map(bridge.toOnionType)
       else parsed.arguments
     override def arguments: Array[TypedAST.Type] = argTypes.clone()
     override val returnType: TypedAST.Type =
-      if (parsed == null) bridge.toOnionType(Type.getReturnType(method.desc))
+      if (parsed == null) bridge.toOnionType(Type.getReturnType(method.descriptor))
       else parsed.returnType
-    val underlying: MethodNode = method
+    val underlying: ClassSymbols.Member = method
   }
 
-  class AsmFieldRef(field: FieldNode, override val affiliation: TypedAST.ClassType, table: ClassTable, classEnv: Map[String, TypedAST.TypeVariableType]) extends TypedAST.FieldRef {
+  class AsmFieldRef(field: ClassSymbols.Member, override val affiliation: TypedAST.ClassType, table: ClassTable, classEnv: Map[String, TypedAST.TypeVariableType]) extends TypedAST.FieldRef {
     override val modifier: Int = toOnionModifier(field.access)
     override val name: String = field.name
     private val mapper = new SignatureTypeMapper(table, classEnv, () => table.loadRequired("java.lang.Object"))
     override val `type`: TypedAST.Type =
-      if (field.signature != null) mapper.parseField(field.signature, field.desc)
-      else new OnionTypeConversion(table).toOnionType(Type.getType(field.desc))
-    val underlying: FieldNode = field
+      field.signature.map(mapper.parseField(_, field.descriptor))
+        .getOrElse(new OnionTypeConversion(table).toOnionType(Type.getType(field.descriptor)))
+    val underlying: ClassSymbols.Member = field
   }
 
-  class AsmConstructorRef(method: MethodNode, override val affiliation: TypedAST.ClassType, table: ClassTable, classEnv: Map[String, TypedAST.TypeVariableType]) extends TypedAST.ConstructorRef {
+  class AsmConstructorRef(method: ClassSymbols.Member, override val affiliation: TypedAST.ClassType, table: ClassTable, classEnv: Map[String, TypedAST.TypeVariableType]) extends TypedAST.ConstructorRef {
     override val modifier: Int = toOnionModifier(method.access)
     override val name: String = CONSTRUCTOR_NAME
     private val bridge = new OnionTypeConversion(table)
     private val mapper = new SignatureTypeMapper(table, classEnv, () => table.loadRequired("java.lang.Object"))
-    private val parsed =
-      if (method.signature != null) mapper.parseMethod(method.signature, method.desc)
-      else null
+    private val parsed = method.signature.map(mapper.parseMethod(_, method.descriptor)).orNull
     override val typeParameters: Array[TypedAST.TypeParameter] =
       if (parsed == null) Array()
       else parsed.typeParameters.clone()
     private val args0 =
-      if (parsed == null) Type.getArgumentTypes(method.desc).map(bridge.toOnionType)
+      if (parsed == null) Type.getArgumentTypes(method.descriptor).map(bridge.toOnionType)
       else parsed.arguments
     override def getArgs: Array[TypedAST.Type] = args0.clone()
-    val underlying: MethodNode = method
+    val underlying: ClassSymbols.Member = method
   }
 
-  class AsmClassType(classBytes: Array[Byte], table: ClassTable) extends TypedAST.AbstractClassType {
-    private val node = {
-      val cr = new ClassReader(classBytes)
-      val n = new ClassNode()
-      cr.accept(n, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES)
-      n
-    }
+  /**
+   * A class from the classpath, built from its [[ClassSymbols]]: read from a [[SymbolIndex]]
+   * or parsed from the class file.
+   */
+  class AsmClassType(symbols: ClassSymbols, table: ClassTable) extends TypedAST.AbstractClassType {
+    def this(classBytes: Array[Byte], table: ClassTable) = this(ClassSymbols.read(classBytes), table)
 
-    private val modifier_ = toOnionModifier(node.access)
-    private def root: TypedAST.ClassType = if (node.name == "java/lang/Object") this else table.loadRequired("java.lang.Object")
+    private val modifier_ = toOnionModifier(symbols.access)
+    private def root: TypedAST.ClassType = if (symbols.name == "java/lang/Object") this else table.loadRequired("java.lang.Object")
     private val genericMapper = new SignatureTypeMapper(table, Map.empty, () => root)
     private lazy val classInfo =
-      if (node.signature != null) genericMapper.parseClass(node.signature, node.superName, node.interfaces.asInstanceOf[java.util.List[String]])
-      else {
-        import scala.jdk.CollectionConverters._
-        val super0 = if (node.superName == null) null else table.loadOrNull(node.superName.replace('/', '.'))
-        val ifaces0 = node.interfaces.asInstanceOf[java.util.List[String]].asScala.map(n => table.loadOrNull(n.replace('/', '.'))).toIndexedSeq
-        genericMapper.ClassInfo(Array.empty, super0, ifaces0, Map.empty)
+      symbols.signature match {
+        case Some(signature) => genericMapper.parseClass(signature, symbols.superName.orNull, symbols.interfaces)
+        case None =>
+          val super0 = symbols.superName.map(n => table.loadOrNull(n.replace('/', '.'))).orNull
+          val ifaces0 = symbols.interfaces.map(n => table.loadOrNull(n.replace('/', '.'))).toIndexedSeq
+          genericMapper.ClassInfo(Array.empty, super0, ifaces0, Map.empty)
       }
 
     override def typeParameters: Array[TypedAST.TypeParameter] = classInfo.typeParameters.clone()
@@ -404,8 +397,7 @@ object AsmRefs {
 
     private lazy val methods_ : MultiTable[TypedAST.Method] = {
       val m = new MultiTable[TypedAST.Method]
-      import scala.jdk.CollectionConverters._
-      for (method <- node.methods.asInstanceOf[java.util.List[MethodNode]].asScala if method.name != CONSTRUCTOR_NAME) {
+      for (method <- symbols.methods if method.name != CONSTRUCTOR_NAME) {
         m.add(new AsmMethodRef(method, this, table, classEnv))
       }
       m
@@ -413,23 +405,20 @@ object AsmRefs {
 
     private lazy val fields_ : OrderedTable[TypedAST.FieldRef] = {
       val f = new OrderedTable[TypedAST.FieldRef]
-      import scala.jdk.CollectionConverters._
-      for (field <- node.fields.asInstanceOf[java.util.List[FieldNode]].asScala) {
+      for (field <- symbols.fields) {
         f.add(new AsmFieldRef(field, this, table, classEnv))
       }
       f
     }
 
-    private lazy val constructors_ : Seq[TypedAST.ConstructorRef] = {
-      import scala.jdk.CollectionConverters._
-      node.methods.asInstanceOf[java.util.List[MethodNode]].asScala.collect {
+    private lazy val constructors_ : Seq[TypedAST.ConstructorRef] =
+      symbols.methods.collect {
         case m if m.name == CONSTRUCTOR_NAME => new AsmConstructorRef(m, this, table, classEnv)
-      }.toSeq
-    }
+      }
 
-    def isInterface: Boolean = (node.access & Opcodes.ACC_INTERFACE) != 0
+    def isInterface: Boolean = (symbols.access & Opcodes.ACC_INTERFACE) != 0
     def modifier: Int = modifier_
-    def name: String = node.name.replace('/', '.')
+    def name: String = symbols.name.replace('/', '.')
     def superClass: TypedAST.ClassType = {
       classInfo.superClass
     }
@@ -8,6 +8,9 @@
 package onion.compiler.environment
 
 import java.io.{File, IOException}
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{Files, Path, Paths}
+import java.security.MessageDigest
 import java.util.concurrent.ConcurrentHashMap
 
 import onion.compiler.ExplicitClasspathClassLoader
@@ -16,9 +19,16 @@ import onion.compiler.ExplicitClasspathClassLoader
  * @author Kota Mizushima
  *
  */
-class ClassFileTable(classPathString: String) {
+class ClassFileTable(classPathString: String, revalidate: Boolean = false) {
+  import ClassFileTable.Loaded
+
+  private val parentLoader: ClassLoader = Thread.currentThread().getContextClassLoader
   private val classLoader: ClassLoader = createClassLoader(classPathString)
-  private val bytesCache = new ConcurrentHashMap[String, Option[Array[Byte]]]()
+  private val bytesCache = new ConcurrentHashMap[String, Loaded]()
+  private val archived = ConcurrentHashMap.newKeySet[String]()
+  private val indexes = new ConcurrentHashMap[String, Option[SymbolIndex]]()
+  private lazy val directories: Seq[Path] =
+    classPathString.split(File.pathSeparator, -1).toSeq.filter(_.nonEmpty).map(Paths.get(_)).filter(Files.isDirectory(_))
 
   private def createClassLoader(classPath: String): ClassLoader = {
     val urls =
@@ -28,22 +38,79 @@ class ClassFileTable(classPathString: String) {
         .toArray
     ExplicitClasspathClassLoader(
       urls,
-      Thread.currentThread().getContextClassLoader
+      parentLoader
     )
   }
 
+  private lazy val packages: Option[PackageIndex] =
+    PackageIndex.of(classPathString.split(File.pathSeparator, -1).toSeq, parentLoader, revalidate)
+
+  /**
+   * Whether the given class may be found at all. False means that neither the classpath nor
+   * any loader above it has the class, as told by their [[PackageIndex]]; true is all that can
+   * be said when some loader cannot be listed.
+   * @param className fully qualified class name
+   */
+  def mayContain(className: String): Boolean = packages.forall(_.mayContain(className))
+
   /**
    * Load class bytes for the given class name
    * @param className fully qualified class name
    * @return byte array of the class file, or null if not found
    */
   def loadBytes(className: String): Array[Byte] = {
+    val resourcePath = className.replace('.', '/') + ".class"
     val cached = bytesCache.get(className)
-    if (cached != null) return cached.orNull
+    if (cached != null && (!revalidate || isCurrent(cached, resourcePath))) return cached.bytes.orNull
 
-    val resourcePath = className.replace('.', '/') + ".class"
+    val loaded = read(resourcePath)
+    if (cached == null) bytesCache.putIfAbsent(className, loaded)
+    else bytesCache.put(className, loaded)
+    loaded.bytes.orNull
+  }
+
+  /**
+   * The symbols of the given class, or null if it is not on the classpath. A class in a jar
+   * or in the runtime image comes from that container's [[SymbolIndex]] when it holds the
+   * class, and is added to it otherwise; a class in a directory is parsed from its bytes.
+   * A platform class the runtime image index already holds is answered without looking the
+   * class up on the classpath at all: the platform's definition wins when it is loaded too.
+   * @param className fully qualified class name
+   */
+  def loadSymbols(className: String): ClassSymbols = {
+    if (ExplicitClasspathClassLoader.parentFirst(className)) {
+      val platform = SymbolIndex.runtimeImage.flatMap(_.lookup(className))
+      if (platform.isDefined) {
+        archived.add(className)
+        return platform.get
+      }
+    }
+    val resource = classLoader.getResource(className.replace('.', '/') + ".class")
+    if (resource == null) return null
+    val container = SymbolIndex.containerOf(resource)
+    if (container.isDefined) archived.add(className)
+    val index = container.flatMap(container => indexes.computeIfAbsent(container, container => SymbolIndex.forContainer(container)))
+    index.flatMap(_.lookup(className)).getOrElse {
+      val bytes = loadBytes(className)
+      if (bytes == null) null
+      else {
+        val symbols = ClassSymbols.read(bytes)
+        index.foreach(_.add(className, symbols))
+        symbols
+      }
+    }
+  }
+
+  /**
+   * Whether the symbols [[loadSymbols]] gave for `className` came from a jar or the runtime
+   * image. Those cannot change while this table is in use, since a retained table is replaced
+   * as soon as a jar changes; a class file in a directory can.
+   */
+  def isArchived(className: String): Boolean = archived.contains(className)
+
+  private def read(resourcePath: String): Loaded = {
     val inputStream = classLoader.getResourceAsStream(resourcePath)
-    val loaded =
+    val bytes =
       if (inputStream == null) None
       else
         try {
@@ -53,8 +120,108 @@ class ClassFileTable(classPathString: String) {
         } finally {
           inputStream.close()
         }
+    // Only a retained table looks again, so only it needs to know which file to look at.
+    val file =
+      if (!revalidate || bytes.isEmpty) None
+      else Option(classLoader.getResource(resourcePath)).filter(_.getProtocol == "file").map(url => Paths.get(url.toURI))
+    Loaded(bytes, file, file.fold(0L)(modifiedTime))
+  }
+
+  /**
+   * Whether a cached lookup still holds. Jars are checked as a whole when the table is handed
+   * out (see [[ClassFileTable.forClassPath]]), so only classpath directories can change under
+   * a retained table: a class read from one must keep its modification time, and a class
+   * that was missing must still be missing from all of them.
+   */
+  private def isCurrent(cached: Loaded, resourcePath: String): Boolean =
+    cached.file match {
+      case Some(file) => modifiedTime(file) == cached.modified
+      case None => cached.bytes.isDefined || !directories.exists(dir => Files.exists(dir.resolve(resourcePath)))
+    }
+
+  private def modifiedTime(file: Path): Long =
+    try Files.getLastModifiedTime(file).toMillis
+    catch { case _: IOException => -1L }
+
+  /** Releases the jar files the class loader holds open. */
+  def close(): Unit = classLoader match {
+    case closeable: AutoCloseable => closeable.close()
+    case _ =>
+  }
+}
+
+object ClassFileTable {
+  /** A lookup result, with the class file it came from when that is a plain file. */
+  private final case class Loaded(bytes: Option[Array[Byte]], file: Option[Path], modified: Long)
+
+  /** How many classpaths a retaining process keeps tables for, least recently used first out. */
+  private val MaxRetained = 8
+
+  private final case class Retained(stamp: String, table: ClassFileTable)
+
+  @volatile private var retaining = false
+  private val retained = new java.util.LinkedHashMap[String, Retained](16, 0.75f, true)
+
+  /**
+   * Makes [[forClassPath]] hand out one table per classpath, so the class bytes read by one
+   * compile serve the next. Only a long-lived compile server turns this on; a one-shot
+   * compile has nothing to share and keeps its own table. Turning it off drops every
+   * retained table.
+   */
+  def retainAcrossCompiles(enabled: Boolean = true): Unit = retained.synchronized {
+    retaining = enabled
+    if (!enabled) {
+      retained.values.forEach(_.table.close())
+      retained.clear()
+    }
+  }
+
+  /**
+   * The table for `classPath`. While tables are retained, one is reused only as long as no
+   * jar on the classpath changed and no entry appeared, disappeared or changed kind since it
+   * was opened; the stale table is closed. Class files in directories are checked one by one
+   * as they are looked up instead, which costs a file stat rather than a directory walk.
+   */
+  def forClassPath(classPath: String): ClassFileTable =
+    if (!retaining) new ClassFileTable(classPath)
+    else {
+      val stamp = stampOf(classPath)
+      retained.synchronized {
+        val kept = retained.get(classPath)
+        if (kept != null && kept.stamp == stamp) kept.table
+        else {
+          if (kept != null) kept.table.close()
+          val table = new ClassFileTable(classPath, revalidate = true)
+          retained.put(classPath, Retained(stamp, table))
+          if (retained.size > MaxRetained) {
+            val eldest = retained.entrySet.iterator.next()
+            eldest.getValue.table.close()
+            retained.remove(eldest.getKey)
+          }
+          table
+        }
+      }
+    }
+
+  /** Whether [[forClassPath]] currently hands out retained tables. */
+  def retainsAcrossCompiles: Boolean = retaining
+
+  /** The number of classpaths whose tables are currently retained. */
+  def retainedClassPaths: Int = retained.synchronized(retained.size)
 
-    bytesCache.putIfAbsent(className, loaded)
-    loaded.orNull
+  /** A digest of the kind of every classpath entry, and of the size and modification time of each jar. */
+  def stampOf(classPath: String): String = {
+    val digest = MessageDigest.getInstance("SHA-256")
+    classPath.split(File.pathSeparator, -1).iterator.filter(_.nonEmpty).foreach { entry =>
+      val path = Paths.get(entry)
+      val line =
+        if (Files.isDirectory(path)) s"dir $entry"
+        else if (Files.isRegularFile(path))
+          try s"file $entry ${Files.size(path)} ${Files.getLastModifiedTime(path).toMillis}"
+          catch { case _: IOException => s"missing $entry" }
+        else s"missing $entry"
+      digest.update((line + "\n").getBytes(UTF_8))
+    }
+    digest.digest().map(byte => f"${byte & 0xff}%02x").mkString
   }
 }
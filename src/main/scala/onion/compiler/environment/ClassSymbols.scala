@@ -0,0 +1,107 @@
+/* ************************************************************** *
+ *                                                                *
+ * Copyright (c) 2016-, Kota Mizushima, All rights reserved.  *
+ *                                                                *
+ *                                                                *
+ * This software is distributed under the modified BSD License.   *
+ * ************************************************************** */
+package onion.compiler.environment
+
+import java.io.{DataInputStream, DataOutputStream}
+
+import org.objectweb.asm.{ClassReader, ClassVisitor, FieldVisitor, MethodVisitor, Opcodes}
+
+import scala.collection.mutable
+
+/**
+ * What the compiler reads from a class file: the header and the shape of each field and
+ * method, with their generic signatures. Code, debug information and annotations are not
+ * kept, so [[SymbolIndex]] can store classes in this form instead of as class files.
+ *
+ * Names are JVM internal names (`java/lang/String`), as in the class file.
+ */
+final case class ClassSymbols(
+  access: Int,
+  name: String,
+  superName: Option[String],
+  interfaces: Seq[String],
+  signature: Option[String],
+  fields: Seq[ClassSymbols.Member],
+  methods: Seq[ClassSymbols.Member]
+)
+
+object ClassSymbols {
+  final case class Member(access: Int, name: String, descriptor: String, signature: Option[String])
+
+  def read(classBytes: Array[Byte]): ClassSymbols = {
+    val collector = new Collector
+    new ClassReader(classBytes).accept(collector, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES)
+    collector.result
+  }
+
+  def write(out: DataOutputStream, symbols: ClassSymbols): Unit = {
+    out.writeInt(symbols.access)
+    out.writeUTF(symbols.name)
+    writeOptional(out, symbols.superName)
+    out.writeInt(symbols.interfaces.size)
+    symbols.interfaces.foreach(out.writeUTF)
+    writeOptional(out, symbols.signature)
+    writeMembers(out, symbols.fields)
+    writeMembers(out, symbols.methods)
+  }
+
+  def read(in: DataInputStream): ClassSymbols = {
+    val access = in.readInt()
+    val name = in.readUTF()
+    val superName = readOptional(in)
+    val interfaces = Vector.fill(in.readInt())(in.readUTF())
+    val signature = readOptional(in)
+    val fields = readMembers(in)
+    ClassSymbols(access, name, superName, interfaces, signature, fields, readMembers(in))
+  }
+
+  private def writeMembers(out: DataOutputStream, members: Seq[Member]): Unit = {
+    out.writeInt(members.size)
+    members.foreach { member =>
+      out.writeInt(member.access)
+      out.writeUTF(member.name)
+      out.writeUTF(member.descriptor)
+      writeOptional(out, member.signature)
+    }
+  }
+
+  private def readMembers(in: DataInputStream): Vector[Member] =
+    Vector.fill(in.readInt())(Member(in.readInt(), in.readUTF(), in.readUTF(), readOptional(in)))
+
+  private def writeOptional(out: DataOutputStream, value: Option[String]): Unit = {
+    out.writeBoolean(value.isDefined)
+    value.foreach(out.writeUTF)
+  }
+
+  private def readOptional(in: DataInputStream): Option[String] =
+    if (in.readBoolean()) Some(in.readUTF()) else None
+
+  private final class Collector extends ClassVisitor(Opcodes.ASM9) {
+    private var header: (Int, String, Option[String], Seq[String], Option[String]) = null
+    private val fields = mutable.ArrayBuffer[Member]()
+    private val methods = mutable.ArrayBuffer[Member]()
+
+    override def visit(version: Int, access: Int, name: String, signature: String, superName: String, interfaces: Array[String]): Unit =
+      header = (access, name, Option(superName), Option(interfaces).fold(Vector.empty[String])(_.toVector), Option(signature))
+
+    override def visitField(access: Int, name: String, descriptor: String, signature: String, value: Object): FieldVisitor = {
+      fields += Member(access, name, descriptor, Option(signature))
+      null
+    }
+
+    override def visitMethod(access: Int, name: String, descriptor: String, signature: String, exceptions: Array[String]): MethodVisitor = {
+      methods += Member(access, name, descriptor, Option(signature))
+      null
+    }
+
+    def result: ClassSymbols = {
+      val (access, name, superName, interfaces, signature) = header
+      ClassSymbols(access, name, superName, interfaces, signature, fields.toVector, methods.toVector)
+    }
+  }
+}
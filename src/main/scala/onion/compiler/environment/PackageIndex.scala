@@ -0,0 +1,295 @@
+/* ************************************************************** *
+ *                                                                *
+ * Copyright (c) 2016-, Kota Mizushima, All rights reserved.  *
+ *                                                                *
+ *                                                                *
+ * This software is distributed under the modified BSD License.   *
+ * ************************************************************** */
+package onion.compiler.environment
+
+import java.io.{File, IOException}
+import java.net.{URI, URL, URLClassLoader}
+import java.nio.file.{FileSystem, FileSystems, Files, Path, Paths}
+import java.nio.file.attribute.FileTime
+import java.util.{Collections, HashMap => JHashMap, HashSet => JHashSet, Set => JSet}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.jar.{Attributes, JarFile}
+
+import scala.collection.mutable
+import scala.jdk.CollectionConverters._
+
+import onion.compiler.{ExplicitClasspathClassLoader, OnionClassLoader}
+
+/**
+ * The names of the classes a class loader can see, by package. A class that is not there is
+ * then answered from a set lookup, instead of by the loader searching every classpath entry
+ * and every parent, and then by `Class.forName` doing it again: most lookups the compiler
+ * makes are misses, one per wildcard import tried for each simple name in a program.
+ *
+ * The index covers a table's classpath and every loader above it, as long as each of them
+ * can be listed: the application class loader (`java.class.path`), plain `URLClassLoader`s
+ * over jars and directories, an [[onion.compiler.OnionClassLoader]] with the compiled classes
+ * it was given, and the Java runtime image. Any other loader may define classes
+ * that nobody can list, so [[PackageIndex.of]] gives no index for it and every lookup is
+ * probed as before. Only absence is trusted: a listed class is still loaded by the loader.
+ *
+ * A jar is listed whole the first time it is asked about, and that listing is shared by the
+ * whole process while the jar keeps its size and modification time. A package of the runtime
+ * image or of a classpath directory is listed the first time it is asked about; a retained
+ * table lists a directory's package again whenever the directory's modification time changed.
+ * Listings are kept in Java collections: building Scala ones for every class of every jar
+ * cost a one-shot compile more than the misses the index saves it.
+ */
+final class PackageIndex private (fixed: Seq[PackageIndex.Source], changing: Seq[PackageIndex.Source]) {
+  // What the sources that cannot change under this index hold, merged per package on first use.
+  private val merged = new ConcurrentHashMap[String, JSet[String]]()
+
+  /**
+   * The simple names of the classes in `packageName` (`""` for the unnamed package), nested
+   * classes included in their binary form (`Map$Entry`).
+   */
+  def classesIn(packageName: String): Set[String] = {
+    val path = packageName.replace('.', '/')
+    changing.foldLeft(fixedClassesIn(path).asScala.toSet)(_ ++ _.classesIn(path).asScala)
+  }
+
+  /** Whether `className` can be on the classpath at all; false only when no source lists it. */
+  def mayContain(className: String): Boolean = {
+    val dot = className.lastIndexOf('.')
+    val path = if (dot < 0) "" else className.substring(0, dot).replace('.', '/')
+    val simpleName = className.substring(dot + 1)
+    fixedClassesIn(path).contains(simpleName) || changing.exists(_.classesIn(path).contains(simpleName))
+  }
+
+  private def fixedClassesIn(path: String): JSet[String] = {
+    val known = merged.get(path)
+    if (known != null) known
+    else {
+      val names = new JHashSet[String]()
+      fixed.foreach(source => names.addAll(source.classesIn(path)))
+      merged.putIfAbsent(path, names)
+      names
+    }
+  }
+}
+
+object PackageIndex {
+  /** Where classes come from: a jar, a directory, or the runtime image. Packages are given as paths (`java/util`). */
+  private sealed trait Source {
+    def classesIn(packagePath: String): JSet[String]
+  }
+
+  /**
+   * The index of what a loader over `classPath` with `parent` above it can see, or `None` when
+   * some loader in the chain cannot be listed.
+   * @param revalidate whether packages of classpath directories are listed again when they change
+   */
+  def of(classPath: Seq[String], parent: ClassLoader, revalidate: Boolean): Option[PackageIndex] = {
+    // Without a parent the loader's resources still come from the system class loader.
+    if (parent == null) return None
+    val own = classPath.filter(_.nonEmpty).flatMap(entry => sourceOf(Paths.get(entry), revalidate))
+    val inherited = mutable.ArrayBuffer[Source]()
+    if (!addLoader(parent, inherited)) return None
+    RuntimeImage.source.map { image =>
+      inherited += image
+      // Only the directories of a revalidating table's own classpath can change under it.
+      val (changing, fixed) = own.partition(_.isInstanceOf[DirectorySource] && revalidate)
+      new PackageIndex(fixed ++ inherited, changing)
+    }
+  }
+
+  /** Adds what `loader` and its parents define; false for a loader that cannot be listed. */
+  private def addLoader(loader: ClassLoader, sources: mutable.ArrayBuffer[Source]): Boolean =
+    loader match {
+      case null =>
+        // The bootstrap loader: the runtime image, added last, and -Xbootclasspath/a.
+        entriesOf(System.getProperty("jdk.boot.class.path.append")).foreach(path => sources ++= sourceOf(path, revalidate = false))
+        true
+      case platform if platform eq ClassLoader.getPlatformClassLoader =>
+        addLoader(null, sources)
+      case application if (application eq ClassLoader.getSystemClassLoader) && application.getClass.getName == ApplicationLoader =>
+        entriesOf(System.getProperty("java.class.path")).foreach(path => sources ++= sourceOf(path, revalidate = false))
+        addLoader(application.getParent, sources)
+      case urls: URLClassLoader if urls.getClass == classOf[URLClassLoader] || urls.getClass == classOf[OnionClassLoader] ||
+          urls.isInstanceOf[ExplicitClasspathClassLoader] =>
+        val paths = urls.getURLs.toSeq.map(pathOf)
+        paths.forall(_.isDefined) && {
+          urls match {
+            case compiled: OnionClassLoader => sources += new CompiledSource(compiled.classNames)
+            case _ =>
+          }
+          paths.flatten.foreach(path => sources ++= sourceOf(path, revalidate = false))
+          addLoader(urls.getParent, sources)
+        }
+      case _ =>
+        false
+    }
+
+  private val ApplicationLoader = "jdk.internal.loader.ClassLoaders$AppClassLoader"
+
+  private def entriesOf(classPath: String): Seq[Path] =
+    if (classPath == null) Seq.empty
+    else classPath.split(File.pathSeparator, -1).toSeq.filter(_.nonEmpty).map(Paths.get(_))
+
+  private def pathOf(url: URL): Option[Path] =
+    if (url.getProtocol != "file") None
+    else
+      try Some(Paths.get(url.toURI))
+      catch { case _: IllegalArgumentException | _: java.net.URISyntaxException => None }
+
+  /** A missing entry adds nothing, as it does to a class loader; any other file is read as a jar. */
+  private def sourceOf(path: Path, revalidate: Boolean): Option[Source] =
+    if (Files.isDirectory(path)) Some(new DirectorySource(path, revalidate))
+    else if (Files.isRegularFile(path)) Some(new JarSource(path.toAbsolutePath.normalize))
+    else None
+
+  private final class DirectorySource(directory: Path, revalidate: Boolean) extends Source {
+    private final case class Listing(modified: Option[FileTime], names: JSet[String])
+    private val listings = new ConcurrentHashMap[String, Listing]()
+
+    override def classesIn(packagePath: String): JSet[String] = {
+      val cached = listings.get(packagePath)
+      if (cached != null && !revalidate) return cached.names
+      val target = if (packagePath.isEmpty) directory else directory.resolve(packagePath)
+      val modified =
+        try Some(Files.getLastModifiedTime(target))
+        catch { case _: IOException => None }
+      if (cached != null && cached.modified == modified) cached.names
+      else {
+        val names = if (modified.isEmpty) Collections.emptySet[String] else listClassFiles(target)
+        listings.put(packagePath, Listing(modified, names))
+        names
+      }
+    }
+  }
+
+  /** Classes compiled in memory, as the REPL defines one loader of them per input. */
+  private final class CompiledSource(classNames: Seq[String]) extends Source {
+    private val packages = new JHashMap[String, JSet[String]]()
+    classNames.foreach { name =>
+      val dot = name.lastIndexOf('.')
+      val packagePath = if (dot < 0) "" else name.substring(0, dot).replace('.', '/')
+      packages.computeIfAbsent(packagePath, _ => new JHashSet[String]()).add(name.substring(dot + 1))
+    }
+
+    override def classesIn(packagePath: String): JSet[String] = packages.getOrDefault(packagePath, Collections.emptySet[String])
+  }
+
+  /** A jar, with the jars its manifest's `Class-Path` names, as a class loader reads them too. */
+  private final class JarSource(jar: Path, seen: Set[Path] = Set.empty) extends Source {
+    private lazy val listed = Jars.listed(jar)
+    private lazy val linked = listed.linked.filterNot(seen).map(new JarSource(_, seen + jar))
+
+    override def classesIn(packagePath: String): JSet[String] = {
+      val own = listed.packages.getOrDefault(packagePath, Collections.emptySet[String])
+      if (linked.isEmpty) own
+      else {
+        val names = new JHashSet[String](own)
+        linked.foreach(jar => names.addAll(jar.classesIn(packagePath)))
+        names
+      }
+    }
+  }
+
+  /** Jar listings shared by every index of the process, with the size and modification time they were made at. */
+  private object Jars {
+    final case class Listed(stamp: (Long, Long), packages: JHashMap[String, JSet[String]], linked: Seq[Path])
+    private val listings = new ConcurrentHashMap[Path, Listed]()
+
+    def listed(jar: Path): Listed = {
+      val stamp =
+        try (Files.size(jar), Files.getLastModifiedTime(jar).toMillis)
+        catch { case _: IOException => (-1L, -1L) }
+      val known = listings.get(jar)
+      if (known != null && known.stamp == stamp) known
+      else {
+        val fresh = read(jar, stamp)
+        listings.put(jar, fresh)
+        fresh
+      }
+    }
+
+    private def read(jar: Path, stamp: (Long, Long)): Listed =
+      try {
+        val file = new JarFile(jar.toFile, false)
+        try {
+          val packages = new JHashMap[String, JSet[String]]()
+          val entries = file.entries
+          while (entries.hasMoreElements) {
+            val name = versionless(entries.nextElement().getName)
+            if (name.endsWith(".class") && !name.startsWith("META-INF/")) {
+              val slash = name.lastIndexOf('/')
+              val packagePath = if (slash < 0) "" else name.substring(0, slash)
+              packages.computeIfAbsent(packagePath, _ => new JHashSet[String]()).add(name.substring(slash + 1, name.length - ".class".length))
+            }
+          }
+          Listed(stamp, packages, linkedFrom(jar, file))
+        } finally file.close()
+      } catch { case _: IOException | _: SecurityException => Listed(stamp, new JHashMap(), Seq.empty) }
+
+    /** `META-INF/versions/17/a/B.class` is `a/B.class` of a multi-release jar. */
+    private def versionless(name: String): String =
+      if (!name.startsWith("META-INF/versions/")) name
+      else {
+        val slash = name.indexOf('/', "META-INF/versions/".length)
+        if (slash < 0) name else name.substring(slash + 1)
+      }
+
+    private def linkedFrom(jar: Path, file: JarFile): Seq[Path] = {
+      val manifest = file.getManifest
+      val classPath = if (manifest == null) null else manifest.getMainAttributes.getValue(Attributes.Name.CLASS_PATH)
+      if (classPath == null) Seq.empty
+      else {
+        val base = jar.toUri.toURL
+        classPath.trim.split("\\s+").toSeq.filter(_.nonEmpty).flatMap { relative =>
+          try pathOf(new URL(base, relative)).filter(Files.isRegularFile(_)).map(_.toAbsolutePath.normalize)
+          catch { case _: java.net.MalformedURLException => None }
+        }
+      }
+    }
+  }
+
+  /** The packages of the modules the JVM booted with, listed through the `jrt:` file system. */
+  private object RuntimeImage {
+    private lazy val image: Option[(FileSystem, Map[String, Seq[String]])] =
+      try {
+        val modules = ModuleLayer.boot.configuration.modules.asScala.toSeq
+        // A module from the module path is not in the image; its classes could not be listed.
+        if (modules.exists(_.reference.location.map[String](_.getScheme).orElse("") != "jrt")) None
+        else {
+          val byPackage = ModuleLayer.boot.modules.asScala.toSeq
+            .flatMap(module => module.getPackages.asScala.map(_.replace('.', '/') -> module.getName))
+            .groupMap(_._1)(_._2)
+          Some((FileSystems.getFileSystem(URI.create("jrt:/")), byPackage))
+        }
+      } catch { case _: RuntimeException => None }
+
+    private val listings = new ConcurrentHashMap[String, JSet[String]]()
+
+    def source: Option[Source] = image.map { case (jrt, byPackage) =>
+      new Source {
+        override def classesIn(packagePath: String): JSet[String] =
+          byPackage.get(packagePath) match {
+            case None => Collections.emptySet[String]
+            case Some(modules) =>
+              listings.computeIfAbsent(packagePath, _ => {
+                val names = new JHashSet[String]()
+                modules.foreach(module => names.addAll(listClassFiles(jrt.getPath("/modules", module, packagePath))))
+                names
+              })
+          }
+      }
+    }
+  }
+
+  /** The names of the class files directly in `directory`, without `.class`. */
+  private def listClassFiles(directory: Path): JSet[String] = {
+    val names = new JHashSet[String]()
+    try {
+      val stream = Files.newDirectoryStream(directory, "*.class")
+      try stream.forEach(file => names.add(file.getFileName.toString.stripSuffix(".class")))
+      finally stream.close()
+    } catch { case _: IOException => () }
+    names
+  }
+}
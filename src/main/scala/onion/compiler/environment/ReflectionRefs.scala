@@ -151,9 +151,11 @@ object ReflectionRefs {
   class ReflectClassType(klass: Class[?], table: ClassTable) extends TypedAST.AbstractClassType {
     private val mapper = new GenericTypeMapper(table)
     private val modifier_ : Int                          = toOnionModifier(klass.getModifiers)
-    private var methods_ : MultiTable[TypedAST.Method]        = _
-    private var fields_ : OrderedTable[TypedAST.FieldRef]     = _
-    private var constructors_ : List[TypedAST.ConstructorRef] = _
+    // Built on first use and published whole, so a concurrent reader never sees a
+    // partly filled table
+    @volatile private var methods_ : MultiTable[TypedAST.Method]        = _
+    @volatile private var fields_ : OrderedTable[TypedAST.FieldRef]     = _
+    @volatile private var constructors_ : List[TypedAST.ConstructorRef] = _
 
     private lazy val (typeParameters0, classEnv0) = mapper.typeParamsFrom(klass.getTypeParameters, Map.empty)
     override def typeParameters: Array[TypedAST.TypeParameter] = typeParameters0.clone()
@@ -195,12 +197,13 @@ object ReflectionRefs {
 
     private def requireMethodTable(): Unit = {
       if (methods_ == null) {
-        methods_ = new MultiTable[TypedAST.Method]
+        val methods = new MultiTable[TypedAST.Method]
         for (method <- klass.getMethods if method.getName != CONSTRUCTOR_NAME) {
           val owner = table.loadOrNull(method.getDeclaringClass.getName)
           val ownerEnv = mapper.typeParamEnv(owner.typeParameters)
-          methods_.add(new ReflectMethodRef(method, owner, mapper, ownerEnv))
+          methods.add(new ReflectMethodRef(method, owner, mapper, ownerEnv))
         }
+        methods_ = methods
       }
     }
 
@@ -216,21 +219,27 @@ object ReflectionRefs {
 
     private def requireFieldTable(): Unit = {
       if (fields_ == null) {
-        fields_ = new OrderedTable[TypedAST.FieldRef]
-        for (field <- klass.getFields) {
+        val fields = new OrderedTable[TypedAST.FieldRef]
+        // getFields also lists the public fields a class hides, in no specified order;
+        // keep the one declared by the most derived class.
+        val declaredBy = scala.collection.mutable.HashMap[String, Class[?]]()
+        for (field <- klass.getFields if declaredBy.get(field.getName).forall(_.isAssignableFrom(field.getDeclaringClass))) {
+          declaredBy(field.getName) = field.getDeclaringClass
           val owner = table.loadOrNull(field.getDeclaringClass.getName)
           val ownerEnv = mapper.typeParamEnv(owner.typeParameters)
-          fields_.add(new ReflectFieldRef(field, owner, mapper, ownerEnv))
+          fields.add(new ReflectFieldRef(field, owner, mapper, ownerEnv))
         }
+        fields_ = fields
       }
     }
 
     def constructors: Array[TypedAST.ConstructorRef] = {
       if (constructors_ == null) {
-        constructors_ = new ArrayList[TypedAST.ConstructorRef]
+        val constructors = new ArrayList[TypedAST.ConstructorRef]
         for (ctor <- klass.getConstructors) {
-          constructors_.add(new ReflectConstructorRef(ctor, this, mapper, classEnv0))
+          constructors.add(new ReflectConstructorRef(ctor, this, mapper, classEnv0))
         }
+        constructors_ = constructors
       }
       constructors_.toArray(new Array[TypedAST.ConstructorRef](0))
     }
@@ -0,0 +1,263 @@
+/* ************************************************************** *
+ *                                                                *
+ * Copyright (c) 2016-, Kota Mizushima, All rights reserved.  *
+ *                                                                *
+ *                                                                *
+ * This software is distributed under the modified BSD License.   *
+ * ************************************************************** */
+package onion.compiler.environment
+
+import java.io.{BufferedOutputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream, IOException}
+import java.net.{JarURLConnection, URL}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{Files, Path, Paths, StandardCopyOption, StandardOpenOption}
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+import scala.jdk.CollectionConverters._
+
+/**
+ * The [[ClassSymbols]] of the classes read from one jar or from the Java runtime image,
+ * kept on disk so that later compiles neither read nor parse those class files again.
+ *
+ * An index file holds a header naming its container with the container's stamp (size and
+ * modification time) and checksum, a table of contents, and one record per class. It is
+ * memory-mapped when the container is first used, and a record is decoded only when its
+ * class is looked up. Classes read for the first time are added in memory and written out
+ * by [[SymbolIndex.flush]] at the end of a compile, which replaces the file atomically.
+ *
+ * A jar whose stamp changed is checksummed: the same bytes keep the index, anything else
+ * starts an empty one. The runtime image is identified by `java.home` and the full Java
+ * version instead. Class files in directories are never indexed; they are what a build
+ * rewrites. The index is an optimization only, so a file that cannot be read or written is
+ * treated as absent.
+ */
+final class SymbolIndex private (val container: String, file: Path, private val stamp: String) {
+  import SymbolIndex._
+
+  private var contents: Map[String, (Int, Int)] = Map.empty
+  private var mapped: ByteBuffer = null
+  // Computed only when the stamp alone cannot tell whether the file is current, or when a
+  // new file is written; hashing every jar on every compile would cost more than it saves.
+  private var checksum: Option[String] = None
+  private val added = new ConcurrentHashMap[String, ClassSymbols]()
+
+  /** The indexed symbols of `className`, decoded on each call. */
+  def lookup(className: String): Option[ClassSymbols] = {
+    val fresh = added.get(className)
+    if (fresh != null) return Some(fresh)
+    val (entries, buffer) = synchronized((contents, mapped))
+    entries.get(className).flatMap { case (offset, length) =>
+      try Some(ClassSymbols.read(new DataInputStream(new ByteBufferInput(buffer.slice(offset, length)))))
+      catch { case _: IOException => None }
+    }
+  }
+
+  /** Records symbols read from a class file of this container, to be written by the next flush. */
+  def add(className: String, symbols: ClassSymbols): Unit = added.putIfAbsent(className, symbols)
+
+  /** The number of classes the index holds, written or not. */
+  def size: Int = synchronized(contents.size) + added.size
+
+  private def load(): Unit =
+    try {
+      if (Files.isRegularFile(file)) {
+        val channel = FileChannel.open(file, StandardOpenOption.READ)
+        val buffer = try channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) finally channel.close()
+        val in = new DataInputStream(new ByteBufferInput(buffer.duplicate()))
+        if (in.readInt() == Magic && in.readInt() == SchemaVersion && in.readUTF() == container) {
+          val fileStamp = in.readUTF()
+          val fileChecksum = in.readUTF()
+          checksum = Some(if (fileStamp == stamp) fileChecksum else checksumOf(container))
+          if (checksum.contains(fileChecksum)) {
+            val entries = Map.newBuilder[String, (Int, Int)]
+            for (_ <- 0 until in.readInt()) entries += in.readUTF() -> (in.readInt(), in.readInt())
+            synchronized {
+              contents = entries.result()
+              mapped = buffer
+            }
+          }
+        }
+      }
+    } catch {
+      case _: IOException | _: IllegalArgumentException | _: IndexOutOfBoundsException =>
+        synchronized { contents = Map.empty; mapped = null }
+    }
+
+  private def write(): Unit = synchronized {
+    val pending = added.asScala.toMap
+    if (pending.isEmpty) return
+    val (entries, buffer) = synchronized((contents, mapped))
+    val records = new ByteArrayOutputStream()
+    val offsets = Map.newBuilder[String, (Int, Int)]
+    entries.foreach { case (name, (offset, length)) =>
+      if (!pending.contains(name)) {
+        val bytes = new Array[Byte](length)
+        buffer.slice(offset, length).get(bytes)
+        offsets += name -> (records.size, length)
+        records.write(bytes)
+      }
+    }
+    pending.foreach { case (name, symbols) =>
+      // A record that cannot be encoded (a signature beyond writeUTF's 64 KiB) is left out.
+      try {
+        val record = new ByteArrayOutputStream()
+        ClassSymbols.write(new DataOutputStream(record), symbols)
+        offsets += name -> (records.size, record.size)
+        record.writeTo(records)
+      } catch { case _: IOException => () }
+    }
+    val toc = offsets.result()
+    val header = new ByteArrayOutputStream()
+    val out = new DataOutputStream(header)
+    out.writeInt(Magic)
+    out.writeInt(SchemaVersion)
+    out.writeUTF(container)
+    out.writeUTF(stamp)
+    out.writeUTF(checksum.getOrElse(checksumOf(container)))
+    out.writeInt(toc.size)
+    val tocSize = toc.keys.iterator.map(name => 2 + name.getBytes(UTF_8).length + 8).sum
+    val base = header.size + tocSize
+    toc.foreach { case (name, (offset, length)) =>
+      out.writeUTF(name)
+      out.writeInt(base + offset)
+      out.writeInt(length)
+    }
+    Files.createDirectories(file.getParent)
+    val staged = Files.createTempFile(file.getParent, file.getFileName.toString, ".tmp")
+    try {
+      val stream = new BufferedOutputStream(Files.newOutputStream(staged))
+      try {
+        header.writeTo(stream)
+        records.writeTo(stream)
+      } finally stream.close()
+      Files.move(staged, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    } finally Files.deleteIfExists(staged)
+    pending.keys.foreach(added.remove)
+    load()
+  }
+}
+
+object SymbolIndex {
+  private val Magic = 0x4f534931 // "OSI1"
+
+  /** Bumped whenever the file layout or what [[ClassSymbols]] holds changes. */
+  val SchemaVersion = 1
+
+  /** `~/.onion/cache/symbols`, shared by every compile the current user runs. */
+  def defaultDirectory: Path = Paths.get(System.getProperty("user.home"), ".onion", "cache", "symbols")
+
+  @volatile private var directory: Option[Path] = Some(defaultDirectory)
+  private val opened = new ConcurrentHashMap[String, SymbolIndex]()
+
+  /**
+   * Where index files are kept; `None` turns indexing off. Indexes opened from another
+   * directory are dropped, unwritten additions included.
+   */
+  def storeIn(location: Option[Path]): Unit = opened.synchronized {
+    directory = location
+    opened.clear()
+  }
+
+  /**
+   * The index for `container`, or `None` when indexing is off. An index is shared by every
+   * compile of the process for as long as its container keeps its stamp.
+   */
+  def forContainer(container: String): Option[SymbolIndex] =
+    directory.flatMap { location =>
+      stampOf(container).map { stamp =>
+        opened.synchronized {
+          val known = opened.get(container)
+          if (known != null && known.stamp == stamp) known
+          else {
+            val index = new SymbolIndex(container, location.resolve(fileNameOf(container)), stamp)
+            index.load()
+            opened.put(container, index)
+            index
+          }
+        }
+      }
+    }
+
+  /** The index for the Java runtime image this process runs on, or `None` when indexing is off. */
+  def runtimeImage: Option[SymbolIndex] = forContainer(RuntimeImage + System.getProperty("java.home"))
+
+  /** Writes every index that gained classes since it was last written. */
+  def flush(): Unit =
+    opened.values.asScala.foreach { index =>
+      try index.write()
+      catch { case _: IOException => () }
+    }
+
+  private val RuntimeImage = "jrt:"
+
+  /** The jar or runtime image `url` points into; `None` for a class file in a directory. */
+  def containerOf(url: URL): Option[String] =
+    url.getProtocol match {
+      case "jrt" => Some(RuntimeImage + System.getProperty("java.home"))
+      case "jar" =>
+        try {
+          val jar = url.openConnection().asInstanceOf[JarURLConnection].getJarFileURL
+          if (jar.getProtocol == "file") Some(Paths.get(jar.toURI).toAbsolutePath.normalize.toString) else None
+        } catch { case _: IOException | _: IllegalArgumentException | _: java.net.URISyntaxException => None }
+      case _ => None
+    }
+
+  /** The size and modification time of a jar, or the exact Java version of the runtime image. */
+  private def stampOf(container: String): Option[String] =
+    try {
+      // The property, not Runtime.version(), whose parsing costs more than a cold lookup saves.
+      if (container.startsWith(RuntimeImage)) Some(s"${System.getProperty("java.runtime.version")} ${container.stripPrefix(RuntimeImage)}")
+      else {
+        val path = Paths.get(container)
+        Some(s"${Files.size(path)} ${Files.getLastModifiedTime(path).toMillis}")
+      }
+    } catch { case _: IOException => None }
+
+  /** The SHA-256 of a jar's bytes, or "" when it cannot be read; the runtime image has only its stamp. */
+  private def checksumOf(container: String): String =
+    if (container.startsWith(RuntimeImage)) stampOf(container).getOrElse("")
+    else
+      try {
+        val digest = MessageDigest.getInstance("SHA-256")
+        val in = Files.newInputStream(Paths.get(container))
+        try {
+          val buffer = new Array[Byte](64 * 1024)
+          var read = in.read(buffer)
+          while (read >= 0) {
+            digest.update(buffer, 0, read)
+            read = in.read(buffer)
+          }
+        } finally in.close()
+        hex(digest.digest())
+      } catch { case _: IOException => "" }
+
+  /**
+   * `guava-33.0.jar-1f2e3d4c.idx`, or `jrt-…` for the runtime image. The header names the
+   * container in full, so two containers that share a file name only ever evict each other.
+   * Not a digest: the security providers cost more to initialize than an index saves.
+   */
+  private def fileNameOf(container: String): String = {
+    val base =
+      if (container.startsWith(RuntimeImage)) "jrt"
+      else Paths.get(container).getFileName.toString.replaceAll("[^A-Za-z0-9._-]", "_")
+    s"$base-${Integer.toHexString(container.hashCode)}.idx"
+  }
+
+  private def hex(bytes: Array[Byte]): String = bytes.map(byte => f"${byte & 0xff}%02x").mkString
+
+  /** Reads a mapped region through the `DataInputStream` the records are written with. */
+  private final class ByteBufferInput(buffer: ByteBuffer) extends java.io.InputStream {
+    override def read(): Int = if (buffer.hasRemaining) buffer.get() & 0xff else -1
+
+    override def read(bytes: Array[Byte], offset: Int, length: Int): Int =
+      if (!buffer.hasRemaining) -1
+      else {
+        val count = math.min(length, buffer.remaining)
+        buffer.get(bytes, offset, count)
+        count
+      }
+  }
+}
@@ -0,0 +1,430 @@
+/* ************************************************************** *
+ *                                                                *
+ * Copyright (c) 2016-, Kota Mizushima, All rights reserved.  *
+ *                                                                *
+ *                                                                *
+ * This software is distributed under the modified BSD License.   *
+ * ************************************************************** */
+package onion.compiler.optimization
+
+import onion.compiler._
+import onion.compiler.TypedAST._
+import onion.compiler.backend.asm.CapturedVariableCollector
+import onion.compiler.toolbox.{Boxing, SymbolGenerator}
+import onion.compiler.typing.MethodResolution
+
+import scala.annotation.tailrec
+import scala.collection.mutable
+
+/**
+ * Higher-Order Call Inlining Phase
+ *
+ * Replaces a call of `Colls.map`, `Colls.filter` or `Colls.forEach` over a `List`, or of
+ * `Iterables.foldl`, whose function argument is a closure literal with a loop over the
+ * collection in the calling method. The closure body becomes the loop body: its
+ * parameters and locals become locals of the caller, and each `return` becomes what the
+ * library would have done with the value.
+ *
+ * Example:
+ * {{{
+ * // Before
+ * val doubled = xs.map { x -> x * 2 }
+ *
+ * // After
+ * val out = new ArrayList(xs.size())
+ * val it = xs.iterator()
+ * while (it.hasNext()) {
+ *   val x = it.next() as Int
+ *   out.add(Integer.valueOf(x * 2))
+ * }
+ * val doubled = Collections.unmodifiableList(out)
+ * }}}
+ *
+ * The loop does what the library method does, element for element: the same casts the
+ * closure's bridge method would make, the same boxing of the results and the same
+ * unmodifiable list at the end, so a program prints the same either way. A closure is
+ * left alone when it could not be moved without changing what it means: it creates
+ * closures of its own, refers to `this` or `super` as the closure itself, returns from
+ * anywhere but its end, or runs a `try` or `synchronized` block (the loop runs inside an
+ * expression, where the operand stack need not be empty).
+ *
+ * Once a method's closures are inlined, the locals they alone shared no longer need a
+ * box; they are unboxed in the method's frame.
+ *
+ * Runs only with `CompilerConfig.inlineHigherOrder` (`--inline-higher-order`).
+ */
+class HigherOrderInlining(config: CompilerConfig, table: ClassTable)
+  extends Processor[Seq[ClassDefinition], Seq[ClassDefinition]] {
+
+  class InliningEnvironment
+  type Environment = InliningEnvironment
+
+  private enum Kind:
+    case Map, Filter, ForEach, FoldLeft
+
+  private val names = new SymbolGenerator("inline#")
+
+  private inline def trace(message: => String): Unit =
+    if (config.verbose) System.err.println(message)
+
+  def newEnvironment(source: Seq[ClassDefinition]): Environment =
+    new InliningEnvironment
+
+  def processBody(source: Seq[ClassDefinition], environment: InliningEnvironment): Seq[ClassDefinition] = {
+    if (config.inlineHigherOrder) {
+      source.foreach { classDef =>
+        classDef.methods.foreach {
+          case method: MethodDefinition if method.getBlock != null && method.getFrame != null =>
+            inlineIn(method.getFrame, method.getBlock, s"${classDef.name}.${method.name}").foreach(method.setBlock)
+          case method: ExtensionMethodDefinition if method.getBlock != null && method.getFrame != null =>
+            inlineIn(method.getFrame, method.getBlock, s"${classDef.name}.${method.name}").foreach(method.setBlock)
+          case _ => // Constructors and abstract methods
+        }
+      }
+    }
+    source
+  }
+
+  /** The method body with its calls inlined, or None when there was none to inline. */
+  private def inlineIn(frame: LocalFrame, block: StatementBlock, methodName: String): Option[StatementBlock] = {
+    val inliner = new Inliner(frame, inClosure = false)
+    val rewritten = inliner.transformStatement(block).asInstanceOf[StatementBlock]
+    if (inliner.inlined == 0) None
+    else {
+      trace(s"[Inline] Inlined ${inliner.inlined} higher-order call(s) in $methodName")
+      unboxUncaptured(frame, rewritten)
+      Some(rewritten)
+    }
+  }
+
+  /**
+   * Inlines the calls under a method body or closure body whose locals live in `frame`.
+   * A closure met on the way is handled by an inliner of its own, for its own frame.
+   */
+  private class Inliner(frame: LocalFrame, inClosure: Boolean) extends TypedTreeTransformer {
+    var inlined: Int = 0
+
+    override def transform(term: Term): Term = term match {
+      case call: CallStatic =>
+        val rebuilt = super.transform(call).asInstanceOf[CallStatic]
+        inlineCall(rebuilt, frame, inClosure) match {
+          case Some(loop) =>
+            inlined += 1
+            loop
+          case None => rebuilt
+        }
+      case _ => super.transform(term)
+    }
+
+    override protected def transformClosure(closure: NewClosure): ActionStatement = {
+      if (closure.frame == null) return super.transformClosure(closure)
+      val inner = new Inliner(closure.frame, inClosure = true)
+      val body = inner.transformStatement(closure.block)
+      if (inner.inlined > 0) unboxUncaptured(closure.frame, body)
+      body
+    }
+  }
+
+  private def kindOf(call: CallStatic): Option[Kind] = {
+    val method = call.method
+    val argumentNames = method.arguments.toSeq.map {
+      case classType: ClassType => classType.name
+      case _ => ""
+    }
+    (method.affiliation.name, method.name, argumentNames) match {
+      case ("onion.Colls", "map", Seq("java.util.List", "onion.Function1")) => Some(Kind.Map)
+      case ("onion.Colls", "filter", Seq("java.util.List", "onion.Function1")) => Some(Kind.Filter)
+      case ("onion.Colls", "forEach", Seq("java.util.List", "onion.Function1")) => Some(Kind.ForEach)
+      case ("onion.Iterables", "foldl", Seq("java.lang.Iterable", _, "onion.Function2")) => Some(Kind.FoldLeft)
+      case _ => None
+    }
+  }
+
+  @tailrec
+  private def closureLiteral(term: Term): Option[NewClosure] = term match {
+    case closure: NewClosure => Some(closure)
+    case cast: AsInstanceOf => closureLiteral(cast.target)
+    case _ => None
+  }
+
+  private def inlineCall(call: CallStatic, frame: LocalFrame, inClosure: Boolean): Option[Term] =
+    for {
+      kind <- kindOf(call)
+      closure <- closureLiteral(call.parameters.last)
+      body = structured(closure.block)
+      if inlinable(closure, body, if (kind == Kind.FoldLeft) 2 else 1, needsValue = kind != Kind.ForEach)
+      loop <- new LoopBuilder(kind, call, closure, body, frame, inClosure).build
+    } yield loop
+
+  private def inlinable(closure: NewClosure, body: ActionStatement, arity: Int, needsValue: Boolean): Boolean =
+    closure.frame != null &&
+      closure.method.arguments.length == arity &&
+      !(needsValue && closure.method.returnType == BasicType.VOID) &&
+      !closure.frame.entries.exists(_.isBoxed) &&
+      !TermWalk.existsIn(body, intoClosures = true) {
+        case _: NewClosure | _: This | _: CallSuper | _: Try | _: Synchronized | _: SynchronizedTerm => true
+        case _ => false
+      } &&
+      returnsOnlyAtEnd(body) &&
+      !leavesLoop(body)
+
+  /**
+   * The closure body with its returns moved to the ends of paths where that keeps its
+   * meaning: what follows a statement that never completes normally is dropped, and
+   * `if (c) { ...; return a } rest` becomes `if (c) { ...; return a } else { rest }`.
+   * Typing closes a block body with `return null`, which the first rule removes again
+   * after a body that returns on every path.
+   */
+  private def structured(statement: ActionStatement): ActionStatement = statement match {
+    case block: StatementBlock =>
+      val statements = block.statements.toIndexedSeq.map(structured)
+      val exit = statements.indexWhere(neverCompletes)
+      val live = if (exit < 0) statements else statements.take(exit + 1)
+      val guard = live.indexWhere {
+        case branch: IfStatement => branch.elseStatement == null && neverCompletes(branch.thenStatement)
+        case _ => false
+      }
+      if (guard < 0 || guard == live.length - 1) new StatementBlock(block.location, live*)
+      else {
+        val branch = live(guard).asInstanceOf[IfStatement]
+        val rest = structured(new StatementBlock(block.location, live.drop(guard + 1)*))
+        new StatementBlock(block.location, (live.take(guard) :+ new IfStatement(branch.location, branch.condition, branch.thenStatement, rest))*)
+      }
+    case branch: IfStatement =>
+      new IfStatement(
+        branch.location,
+        branch.condition,
+        structured(branch.thenStatement),
+        if (branch.elseStatement == null) null else structured(branch.elseStatement)
+      )
+    case other => other
+  }
+
+  private def neverCompletes(statement: ActionStatement): Boolean = statement match {
+    case _: Return | _: Throw => true
+    case block: StatementBlock => block.statements.exists(neverCompletes)
+    case branch: IfStatement =>
+      branch.elseStatement != null && neverCompletes(branch.thenStatement) && neverCompletes(branch.elseStatement)
+    case _ => false
+  }
+
+  private def containsReturn(statement: ActionStatement): Boolean =
+    TermWalk.existsIn(statement)(_.isInstanceOf[Return])
+
+  private def containsReturn(term: Term): Boolean =
+    term != null && TermWalk.exists(term)(_.isInstanceOf[Return])
+
+  /** Whether every `return` ends a path through the statement, so it can become a continuation. */
+  private def returnsOnlyAtEnd(statement: ActionStatement): Boolean = statement match {
+    case ret: Return => !containsReturn(ret.term)
+    case block: StatementBlock =>
+      val statements = block.statements.toSeq
+      statements.isEmpty || (statements.init.forall(!containsReturn(_)) && returnsOnlyAtEnd(statements.last))
+    case branch: IfStatement =>
+      !containsReturn(branch.condition) &&
+        returnsOnlyAtEnd(branch.thenStatement) &&
+        (branch.elseStatement == null || returnsOnlyAtEnd(branch.elseStatement))
+    case other => !containsReturn(other)
+  }
+
+  /** Whether a `break` or `continue` outside any loop of the closure would bind to the inlined loop. */
+  private def leavesLoop(statement: ActionStatement): Boolean = statement match {
+    case _: Break | _: Continue => true
+    case block: StatementBlock => block.statements.exists(leavesLoop)
+    case branch: IfStatement =>
+      leavesLoop(branch.thenStatement) || (branch.elseStatement != null && leavesLoop(branch.elseStatement))
+    case _ => false
+  }
+
+  /** Replaces each `return` ending a path through `statement` with `continuation` of its value. */
+  private def continueWith(statement: ActionStatement, continuation: Term => ActionStatement): ActionStatement =
+    statement match {
+      case ret: Return => continuation(ret.term)
+      case block: StatementBlock if block.statements.nonEmpty =>
+        val statements = block.statements.toIndexedSeq
+        new StatementBlock(block.location, (statements.init :+ continueWith(statements.last, continuation))*)
+      case branch: IfStatement =>
+        new IfStatement(
+          branch.location,
+          branch.condition,
+          continueWith(branch.thenStatement, continuation),
+          if (branch.elseStatement == null) null else continueWith(branch.elseStatement, continuation)
+        )
+      case other => other
+    }
+
+  /**
+   * Turns off the box of each local in `frame` that was boxed to be shared with a closure
+   * and that no closure left in `body` refers to any more.
+   */
+  private def unboxUncaptured(frame: LocalFrame, body: ActionStatement): Unit = {
+    val boxed = frame.entries.filter(_.isBoxed).map(_.index).toSet
+    if (boxed.nonEmpty) {
+      val captured = closuresIn(body).flatMap { closure =>
+        CapturedVariableCollector.collect(closure.block, closure.frame).filter(_.frameIndex == 1).map(_.index)
+      }.toSet
+      (boxed -- captured).foreach(frame.unbox)
+    }
+  }
+
+  /** The closures directly in `body`; their own nested closures are reported by the collector. */
+  private def closuresIn(body: ActionStatement): Seq[NewClosure] = {
+    val found = mutable.ArrayBuffer[NewClosure]()
+    new TypedTreeTransformer {
+      override def transform(term: Term): Term = term match {
+        case closure: NewClosure =>
+          found += closure
+          closure
+        case _ => super.transform(term)
+      }
+    }.transformStatement(body)
+    found.toSeq
+  }
+
+  /**
+   * Builds the loop that replaces one call. Every local the closure declared, its
+   * parameters first, gets a fresh local in `frame`, in a scope of its own.
+   */
+  private class LoopBuilder(
+    kind: Kind,
+    call: CallStatic,
+    closure: NewClosure,
+    closureBody: ActionStatement,
+    frame: LocalFrame,
+    inClosure: Boolean
+  ) {
+    private val objectType = table.rootClass
+    private val slots = mutable.HashMap[Int, Int]()
+
+    def build: Option[Term] =
+      for {
+        listType <- table.load("java.util.ArrayList")
+        iteratorType <- table.load("java.util.Iterator")
+        collectionsType <- table.load("java.util.Collections")
+        booleanType <- table.load("java.lang.Boolean")
+        collectionType <- Option(call.parameters.head.`type`).collect { case tp: ObjectType => tp }
+        loop <- frame.open(assemble(listType, iteratorType, collectionsType, booleanType, collectionType))
+      } yield loop
+
+    private def method(target: ObjectType, name: String, arguments: Term*): Option[Method] =
+      MethodResolution.findMethods(target, name, arguments.toArray, table).headOption
+
+    private def local(name: String, tp: Type): ClosureLocalBinding = {
+      val index = frame.add(name, tp) match {
+        case -1 => frame.add(names.generate, tp)
+        case index => index
+      }
+      new ClosureLocalBinding(0, index, tp, isMutable = true)
+    }
+
+    private def ref(bind: ClosureLocalBinding): Term = new RefLocal(bind)
+
+    private def assign(bind: ClosureLocalBinding, value: Term): ActionStatement =
+      new ExpressionActionStatement(new SetLocal(bind, value))
+
+    private def cast(term: Term, tp: Type): Term =
+      if (tp eq objectType) term else new AsInstanceOf(term, tp)
+
+    private def reference(term: Term): Term =
+      if (term.isBasicType) Boxing.boxing(table, term) else term
+
+    private def assemble(
+      listType: ClassType,
+      iteratorType: ClassType,
+      collectionsType: ClassType,
+      booleanType: ClassType,
+      collectionType: ObjectType
+    ): Option[Term] = {
+      val collection = local(names.generate, collectionType)
+      val iterator = local(names.generate, iteratorType)
+      val element = local(names.generate, objectType)
+      lazy val out = local(names.generate, listType)
+      lazy val accumulator = local(names.generate, objectType)
+      for {
+        iteratorMethod <- method(collectionType, "iterator")
+        hasNext <- method(iteratorType, "hasNext")
+        next <- method(iteratorType, "next")
+        add <- method(listType, "add", ref(element))
+        // Declared over `List<? extends T>`, which no argument term of ours would resolve against
+        unmodifiable <- collectionsType.methods("unmodifiableList").find(_.arguments.length == 1)
+        // Colls.map sizes its list to the input, as its first use of the list
+        capacity <-
+          if (kind != Kind.Map) Some(Seq.empty[Term])
+          else method(collectionType, "size").map(size => Seq[Term](new Call(ref(collection), size, new Array[Term](0))))
+        constructor <- listType.findConstructor(capacity.toArray).headOption
+      } yield {
+        val parameterTypes = closure.method.arguments
+        val arguments = kind match {
+          case Kind.FoldLeft => Seq(ref(accumulator), ref(element))
+          case _ => Seq(ref(element))
+        }
+        val parameters = arguments.zip(parameterTypes).zipWithIndex.map { case ((value, tp), i) =>
+          new ExpressionActionStatement(new SetLocal(0, slot(i, tp), tp, cast(value, tp)))
+        }
+        val continuation: Term => ActionStatement = kind match {
+          case Kind.Map =>
+            value => new ExpressionActionStatement(new Call(ref(out), add, Array(reference(value))))
+          case Kind.Filter =>
+            value => new IfStatement(condition(value, booleanType), new ExpressionActionStatement(new Call(ref(out), add, Array(ref(element)))), null)
+          case Kind.ForEach =>
+            value => if (value == null) new NOP(null) else new ExpressionActionStatement(value)
+          case Kind.FoldLeft =>
+            value => assign(accumulator, reference(value))
+        }
+        val body = continueWith(new Relocation().transformStatement(closureBody), continuation)
+        val setUp = kind match {
+          case Kind.Map | Kind.Filter => Seq(assign(out, new NewObject(constructor, capacity.toArray)))
+          case Kind.ForEach => Seq()
+          case Kind.FoldLeft => Seq(assign(accumulator, call.parameters(1)))
+        }
+        val loop = new ConditionalLoop(
+          new Call(ref(iterator), hasNext, new Array[Term](0)),
+          new StatementBlock((assign(element, new Call(ref(iterator), next, new Array[Term](0))) +: parameters :+ body)*)
+        )
+        val statements = (assign(collection, call.parameters.head) +: setUp) ++
+          Seq(assign(iterator, new Call(ref(collection), iteratorMethod, new Array[Term](0))), loop)
+        val block = new StatementTerm(call.location, new StatementBlock(statements*), BasicType.VOID)
+        kind match {
+          case Kind.Map | Kind.Filter =>
+            new Begin(call.location, Array(block, new CallStatic(collectionsType, unmodifiable, Array(ref(out)))))
+          case Kind.ForEach => block
+          case Kind.FoldLeft => new Begin(call.location, Array(block, ref(accumulator)))
+        }
+      }
+    }
+
+    /** A filter's predicate value as a `boolean`, unboxed as `if (predicate.call(e))` would. */
+    private def condition(value: Term, booleanType: ClassType): Term = value match {
+      case _ if value.`type` == BasicType.BOOLEAN => value
+      case valueOf: CallStatic
+        if valueOf.method.affiliation.name == "java.lang.Boolean" && valueOf.method.name == "valueOf" &&
+          valueOf.parameters.length == 1 && valueOf.parameters(0).`type` == BasicType.BOOLEAN =>
+        valueOf.parameters(0)
+      case _ =>
+        val boxed = if (value.`type` eq booleanType) value else new AsInstanceOf(value, booleanType)
+        Boxing.unboxing(table, boxed, BasicType.BOOLEAN)
+    }
+
+    /** The caller's local for the closure's local `index`. */
+    private def slot(index: Int, tp: Type): Int =
+      slots.getOrElseUpdate(index, local(closure.frame.namesByIndex.getOrElse(index, names.generate), tp).index)
+
+    private lazy val closureLocals: Map[Int, Type] = closure.frame.entries.map(bind => bind.index -> bind.tp).toMap
+
+    private def slotOf(index: Int, fallback: Type): Int =
+      slot(index, closureLocals.getOrElse(index, fallback))
+
+    /** Moves the closure body into the caller: its frame becomes the caller's, one frame out. */
+    private class Relocation extends TypedTreeTransformer {
+      override def transform(term: Term): Term = term match {
+        case ref: RefLocal if ref.frame == 0 => new RefLocal(ref.location, 0, slotOf(ref.index, ref.`type`), ref.`type`)
+        case ref: RefLocal => new RefLocal(ref.location, ref.frame - 1, ref.index, ref.`type`)
+        case set: SetLocal =>
+          val index = if (set.frame == 0) slotOf(set.index, set.`type`) else set.index
+          new SetLocal(set.location, math.max(set.frame - 1, 0), index, set.`type`, transform(set.value))
+        case outer: OuterThis if !inClosure => new This(outer.location, outer.`type`)
+        case _ => super.transform(term)
+      }
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package onion.compiler.optimization
+
+import onion.compiler._
+import onion.compiler.TypedAST._
+import onion.compiler.effects.{Effect, EffectInference}
+import onion.compiler.toolbox.Boxing
+
+import scala.collection.mutable
+
+/**
+ * Memoization Phase
+ *
+ * Caches the results of functions annotated `@Memo`. The body of such a function moves
+ * to a private static method, and the function itself looks its arguments up in an
+ * [[onion.runtime.Memo]] held in a static field before calling it:
+ *
+ * {{{
+ * // Before
+ * @Memo
+ * def fib(n: Int): Long = if n < 2 { n } else { fib(n - 1) + fib(n - 2) }
+ *
+ * // After
+ * private static final Memo memo$fib = new Memo()
+ * def fib(n: Int): Long {
+ *   val key = Memo.key(n)
+ *   val hit = memo$fib.get(key)
+ *   if Memo.found(hit) { return hit as Long }
+ *   return memo$fib.put(key, fib$memo(n)) as Long
+ * }
+ * private static def fib$memo(n: Int): Long = if n < 2 { n } else { fib(n - 1) + fib(n - 2) }
+ * }}}
+ *
+ * Recursive calls still go through `fib`, so they are cached as well. A cached result is
+ * only correct when calling the function again with equal arguments would compute an
+ * equal result, so a function is memoized only when it is static and not generic, returns
+ * a value, takes only arguments compared by value (primitives, their boxes, `String`,
+ * `BigInteger` and `BigDecimal`), has no effects according to [[EffectInference]], and
+ * neither it nor anything it calls reads or assigns a static field that can change.
+ * Effect inference counts field accesses as pure, hence the last check. Any other
+ * annotated function is compiled as written, with a warning saying why.
+ */
+class Memoization(config: CompilerConfig, table: ClassTable)
+  extends Processor[Seq[ClassDefinition], Seq[ClassDefinition]] {
+
+  class MemoizationEnvironment
+  type Environment = MemoizationEnvironment
+
+  private val warnings = mutable.ArrayBuffer[CompileWarning]()
+
+  private inline def trace(message: => String): Unit =
+    if (config.verbose) System.err.println(message)
+
+  /** Warnings for the `@Memo` functions the most recent `process` call left alone. */
+  def collectedWarnings: Seq[CompileWarning] = warnings.toSeq
+
+  def newEnvironment(source: Seq[ClassDefinition]): Environment =
+    new MemoizationEnvironment
+
+  def processBody(source: Seq[ClassDefinition], environment: MemoizationEnvironment): Seq[ClassDefinition] = {
+    warnings.clear()
+    val annotated = for {
+      classDef <- source
+      method <- classDef.methods.collect { case method: MethodDefinition if method.annotations.contains("Memo") => method }
+    } yield (classDef, method)
+    if (annotated.nonEmpty) {
+      val (_, effects) = EffectInference.inferUnits(source)
+      // Decide for every function before rewriting any, so each is judged as written
+      val verdicts = annotated.map { case (classDef, method) => (classDef, method, rejection(method, effects)) }
+      verdicts.foreach {
+        case (classDef, method, Some(reason)) =>
+          trace(s"[Memo] Not memoizing ${classDef.name}.${method.name}: $reason")
+          val message = s"function '${method.name}' is annotated @Memo but is not memoized: $reason"
+          warnings += CompileWarning(Option(classDef.getSourceFile).getOrElse(""), method.location, WarningCategory.IneffectiveMemo, message)
+        case (classDef, method, None) =>
+          memoize(classDef, method)
+          trace(s"[Memo] Memoized ${classDef.name}.${method.name}")
+      }
+    }
+    source
+  }
+
+  private val valueClasses = Set(
+    "java.lang.String", "java.lang.Boolean", "java.lang.Byte", "java.lang.Short", "java.lang.Character",
+    "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+    "java.math.BigInteger", "java.math.BigDecimal"
+  )
+
+  /** Whether two equal arguments of type `tp` are interchangeable. */
+  private def isValue(tp: Type): Boolean = tp match {
+    case BasicType.VOID => false
+    case _: BasicType => true
+    case nullable: NullableType => isValue(nullable.innerType)
+    case classType: ClassType => valueClasses.contains(classType.name)
+    case _ => false
+  }
+
+  /** Why `method` cannot be memoized, or None when it can. */
+  private def rejection(method: MethodDefinition, effects: Map[EffectInference.Unit0, Set[Effect]]): Option[String] = {
+    def parameterName(i: Int): String =
+      Option(method.getFrame).flatMap(_.namesByIndex.get(i)).getOrElse(s"#${i + 1}")
+    lazy val effectSet = effects.getOrElse(method, Set(Effect.Unknown))
+    if (!Modifier.isStatic(method.modifier)) Some("only top-level functions and static methods can be memoized")
+    else if (method.getBlock == null) Some("it has no body")
+    else if (method.returnType == BasicType.VOID) Some("it returns no value")
+    else if (method.typeParameters.nonEmpty) Some("it is generic")
+    else method.arguments.indices.find(i => !isValue(method.arguments(i))) match {
+      case Some(i) =>
+        Some(s"parameter '${parameterName(i)}' has type ${method.arguments(i).displayName}, which is not compared by value")
+      case None if effectSet.nonEmpty =>
+        Some(s"it has effects (${Effect.render(effectSet)})")
+      case None =>
+        new SharedState().accessIn(method).map(access => s"it $access")
+    }
+  }
+
+  /**
+   * Finds a static field that can change, read or assigned by a method or by anything it
+   * calls in the compiled sources. Fields of objects are not looked at: the arguments are
+   * values, so an object the method reaches is one it or a static field made.
+   */
+  private class SharedState extends TypedTreeTransformer {
+    private val visited = mutable.Set[AnyRef]()
+    private var found: Option[String] = None
+
+    def accessIn(method: MethodDefinition): Option[String] = {
+      enter(method)
+      found
+    }
+
+    private def enter(definition: AnyRef): Unit =
+      if (found.isEmpty && visited.add(definition)) definition match {
+        case method: MethodDefinition if method.getBlock != null => transformStatement(method.getBlock)
+        case constructor: ConstructorDefinition if constructor.block != null => transformStatement(constructor.block)
+        case _ =>
+      }
+
+    private def describe(field: FieldRef): String = s"${field.affiliation.name}.${field.name}"
+
+    override def transform(term: Term): Term =
+      if (found.isDefined) term
+      else {
+        term match {
+          case set: SetStaticField => found = Some(s"assigns the static field ${describe(set.field)}")
+          case ref: RefStaticField if !Modifier.isFinal(ref.field.modifier) =>
+            found = Some(s"reads the mutable static field ${describe(ref.field)}")
+          case call: Call => enter(call.method)
+          case call: SafeCall => enter(call.method)
+          case call: CallStatic => enter(call.method)
+          case call: CallSuper => enter(call.method)
+          case create: NewObject => enter(create.constructor)
+          case _ =>
+        }
+        super.transform(term)
+      }
+  }
+
+  private def memoize(classDef: ClassDefinition, method: MethodDefinition): Unit = {
+    val location = method.location
+    val memoType = table.loadRequired("onion.runtime.Memo")
+    val objectType = table.rootClass
+    def memoMethod(name: String, argumentTypes: Type*): Method =
+      memoType.methods(name).find(_.arguments.map(_.name).toSeq == argumentTypes.map(_.name)).get
+
+    val suffix = Iterator.from(0).map(i => if (i == 0) "" else i.toString)
+      .find(s => classDef.methods(s"${method.name}$$memo$s").isEmpty && classDef.field(s"memo$$${method.name}$s") == null).get
+
+    val body = new MethodDefinition(
+      location = location,
+      modifier = AST.M_PRIVATE | AST.M_STATIC,
+      classType = classDef,
+      name = s"${method.name}$$memo$suffix",
+      arguments = method.arguments,
+      returnType = method.returnType,
+      block = method.getBlock
+    )
+    body.setFrame(method.getFrame)
+    body.setClosure(method.hasClosure)
+    classDef.add(body)
+
+    val cache = new FieldDefinition(location, AST.M_PRIVATE | AST.M_STATIC | AST.M_FINAL, classDef, s"memo$$${method.name}$suffix", memoType)
+    classDef.add(cache)
+    val create = new NewObject(location, memoType.findConstructor(Array()).head, Array())
+    classDef.setStaticInitializers(classDef.staticInitializers :+ new ExpressionActionStatement(location, new SetStaticField(location, classDef, cache, create)))
+
+    val frame = new LocalFrame(null)
+    val parameters = method.arguments.indices.map { i =>
+      val name = Option(method.getFrame).flatMap(_.namesByIndex.get(i)).getOrElse(s"arg$i")
+      new RefLocal(location, 0, frame.add(name, method.arguments(i), false), method.arguments(i))
+    }
+    val intLike = Set[Type](BasicType.BYTE, BasicType.SHORT, BasicType.CHAR, BasicType.INT)
+    val (keyType, keyValue): (Type, Term) = method.arguments.toSeq match {
+      case Seq() => (BasicType.LONG, new LongValue(location, 0L))
+      case Seq(tp) if intLike.contains(tp) =>
+        (BasicType.LONG, new CallStatic(location, memoType, memoMethod("key", BasicType.INT), Array(parameters(0))))
+      case Seq(tp: BasicType) =>
+        (BasicType.LONG, new CallStatic(location, memoType, memoMethod("key", tp), Array(parameters(0))))
+      case Seq(first, second) if intLike.contains(first) && intLike.contains(second) =>
+        (BasicType.LONG, new CallStatic(location, memoType, memoMethod("key", BasicType.INT, BasicType.INT), parameters.toArray))
+      case Seq(_) => (objectType, parameters(0))
+      case _ =>
+        val objects = table.loadArray(objectType, 1)
+        val values = parameters.map(p => if (p.isBasicType) Boxing.boxing(table, p) else p)
+        (objectType, new CallStatic(location, memoType, memoMethod("key", objects), Array(new NewArrayWithValues(location, objects, values.toArray))))
+    }
+    val key = new RefLocal(location, 0, frame.add("key$memo", keyType, false), keyType)
+    val hit = new RefLocal(location, 0, frame.add("hit$memo", objectType, false), objectType)
+    def result(value: Term): Term = if (method.returnType eq objectType) value else new AsInstanceOf(location, value, method.returnType)
+    val computed = new CallStatic(location, classDef, body, parameters.toArray)
+    val stored = new Call(location, new RefStaticField(location, classDef, cache), memoMethod("put", keyType, objectType),
+      Array(key, if (computed.isBasicType) Boxing.boxing(table, computed) else computed))
+
+    method.setBlock(new StatementBlock(location,
+      new ExpressionActionStatement(location, new SetLocal(location, 0, key.index, keyType, keyValue)),
+      new ExpressionActionStatement(location, new SetLocal(location, 0, hit.index, objectType,
+        new Call(location, new RefStaticField(location, classDef, cache), memoMethod("get", keyType), Array(key)))),
+      new IfStatement(location, new CallStatic(location, memoType, memoMethod("found", objectType), Array(hit)), new Return(location, result(hit)), null),
+      new Return(location, result(stored))
+    ))
+    method.setFrame(frame)
+    method.setClosure(false)
+  }
+}
@@ -0,0 +1,802 @@
+/* ************************************************************** *
+ *                                                                *
+ * Copyright (c) 2016-, Kota Mizushima, All rights reserved.  *
+ *                                                                *
+ *                                                                *
+ * This software is distributed under the modified BSD License.   *
+ * ************************************************************** */
+package onion.compiler.optimization
+
+import onion.compiler._
+import onion.compiler.TypedAST._
+import onion.compiler.TypedAST.BinaryTerm.Kind.*
+import onion.compiler.TypedAST.UnaryTerm.Kind.*
+
+import scala.collection.mutable
+
+/**
+ * Simplification Phase
+ *
+ * Folds constants, removes branches that cannot be taken and propagates copies of
+ * locals, in every method and closure body.
+ *
+ * Example:
+ * {{{
+ * // Before
+ * val size = 3 * 4 + 1
+ * if o is String {
+ *   if o is CharSequence { return "text " + size }
+ * }
+ *
+ * // After
+ * val size = 13
+ * if o is String {
+ *   return "text 13"
+ * }
+ * }}}
+ *
+ *  - Constants: arithmetic, comparisons, conversions and `+` on strings whose operands
+ *    are all literals are computed as the JVM would compute them: `int` and `long` wrap
+ *    on overflow, shifts use only the low bits of their count, `float` and `double`
+ *    follow IEEE 754, and a division or remainder by a zero integer is left to throw at
+ *    run time.
+ *  - Dead branches: an `if` whose condition is a constant keeps only the branch it
+ *    takes, a `while` whose condition is `false` goes, and so do the statements after
+ *    one that never completes. Conditions are decided from what the conditions guarding
+ *    them establish, as `TypeNarrowingAnalysis` reads them for smart casts: inside
+ *    `if x is String`, `x is CharSequence` is true and `x == null` is false; after
+ *    `if x == null { return }`, `x != null` is true. A fact about a local only holds
+ *    where nothing assigns the local, closures included.
+ *  - Copies: after `val t = y` or `val t = 42`, reads of `t` later in the block read
+ *    `y` or `42`, as long as neither is assigned there and no closure shares them.
+ *    Without debug information (`-g:none`) the declaration goes once nothing reads `t`;
+ *    with it, `t` stays so a debugger can still show it.
+ *
+ * The counts of what was done, and the number of nodes the tree lost, are reported in
+ * the compile profile.
+ */
+class Simplification(config: CompilerConfig)
+  extends Processor[Seq[ClassDefinition], Seq[ClassDefinition]] {
+
+  class SimplificationEnvironment
+  type Environment = SimplificationEnvironment
+
+  private var removedNodes: Long = 0
+  private var foldedConstants: Long = 0
+  private var removedBranches: Long = 0
+  private var propagatedCopies: Long = 0
+
+  /** Typed tree nodes the phase took out, over every method it changed. */
+  def nodesRemoved: Long = removedNodes
+
+  def constantsFolded: Long = foldedConstants
+
+  /** `if` branches, loops and unreachable statements removed. */
+  def branchesRemoved: Long = removedBranches
+
+  /** Reads of a copied local replaced with what it was copied from. */
+  def copiesPropagated: Long = propagatedCopies
+
+  private inline def trace(message: => String): Unit =
+    if (config.verbose) System.err.println(message)
+
+  def newEnvironment(source: Seq[ClassDefinition]): Environment =
+    new SimplificationEnvironment
+
+  def processBody(source: Seq[ClassDefinition], environment: SimplificationEnvironment): Seq[ClassDefinition] = {
+    source.foreach { classDef =>
+      classDef.methods.foreach {
+        case method: MethodDefinition if method.getBlock != null =>
+          simplify(method.getBlock, s"${classDef.name}.${method.name}").foreach(method.setBlock)
+        case method: ExtensionMethodDefinition if method.getBlock != null =>
+          simplify(method.getBlock, s"${classDef.name}.${method.name}").foreach(method.setBlock)
+        case _ => // Constructors and abstract methods
+      }
+    }
+    source
+  }
+
+  /** The simplified method body, or None when nothing in it changed. */
+  private def simplify(block: StatementBlock, methodName: String): Option[StatementBlock] = {
+    val before = Census.of(block)
+    val simplifier = new Simplifier(before)
+    val folded = foldedConstants
+    val rewritten = simplifier.transformStatement(block).asInstanceOf[StatementBlock]
+    val changes = simplifier.changes + (foldedConstants - folded)
+    if (changes == 0) None
+    else {
+      val removed = before.nodes - Census.of(rewritten).nodes
+      removedNodes += removed
+      trace(s"[Simplify] $changes simplification(s), $removed node(s) removed in $methodName")
+      Some(rewritten)
+    }
+  }
+
+  /**
+   * Counts the nodes under a body and what it does with its own locals (frame 0): how
+   * often each is read, which are assigned, and which a closure in the body reads or
+   * assigns. A `try` assigns its resources and caught exceptions without a `SetLocal`.
+   */
+  private class Census extends TypedTreeTransformer {
+    var nodes: Int = 0
+    val reads: mutable.Map[Int, Int] = mutable.Map.empty.withDefaultValue(0)
+    val writes: mutable.Set[Int] = mutable.Set.empty
+    val shared: mutable.Set[Int] = mutable.Set.empty
+    val sharedWrites: mutable.Set[Int] = mutable.Set.empty
+    private var depth = 0
+
+    override def transform(term: Term): Term = {
+      term match {
+        case null =>
+        case ref: RefLocal if ref.frame == depth =>
+          reads(ref.index) += 1
+          if (depth > 0) shared += ref.index
+        case set: SetLocal if set.frame == depth =>
+          writes += set.index
+          if (depth > 0) {
+            shared += set.index
+            sharedWrites += set.index
+          }
+        case _ =>
+      }
+      if (term != null) nodes += 1
+      super.transform(term)
+    }
+
+    override def transformStatement(statement: ActionStatement): ActionStatement = {
+      if (statement != null) nodes += 1
+      super.transformStatement(statement)
+    }
+
+    override protected def transformClosure(closure: NewClosure): ActionStatement = {
+      depth += 1
+      try super.transformClosure(closure)
+      finally depth -= 1
+    }
+
+    override protected def transformBinding(bind: ClosureLocalBinding): ClosureLocalBinding = {
+      if (bind.frameIndex == depth) writes += bind.index
+      bind
+    }
+  }
+
+  private object Census {
+    def of(statement: ActionStatement): Census = {
+      val census = new Census
+      census.transformStatement(statement)
+      census
+    }
+
+    def of(term: Term): Census = {
+      val census = new Census
+      census.transform(term)
+      census
+    }
+
+    def of(statements: Seq[ActionStatement]): Census = {
+      val census = new Census
+      statements.foreach(census.transformStatement)
+      census
+    }
+  }
+
+  /**
+   * What the conditions guarding a point say about locals of the body: which classes
+   * they are instances of, which they are not, and whether they are null.
+   */
+  private case class Facts(
+    instances: Map[Int, List[ClassType]] = Map.empty,
+    nonInstances: Map[Int, List[ClassType]] = Map.empty,
+    nonNull: Set[Int] = Set.empty,
+    isNull: Set[Int] = Set.empty
+  ) {
+    def isEmpty: Boolean = instances.isEmpty && nonInstances.isEmpty && nonNull.isEmpty && isNull.isEmpty
+
+    def ++(other: Facts): Facts =
+      Facts(
+        merge(instances, other.instances), merge(nonInstances, other.nonInstances),
+        nonNull ++ other.nonNull, isNull ++ other.isNull
+      )
+
+    def without(slots: collection.Set[Int]): Facts =
+      if (slots.isEmpty) this
+      else Facts(instances -- slots, nonInstances -- slots, nonNull -- slots, isNull -- slots)
+
+    private def merge(left: Map[Int, List[ClassType]], right: Map[Int, List[ClassType]]): Map[Int, List[ClassType]] =
+      right.foldLeft(left) { case (merged, (slot, types)) => merged.updated(slot, types ++ merged.getOrElse(slot, Nil)) }
+  }
+
+  private val noFacts = Facts()
+
+  /** Simplifies one method or closure body; `census` describes that body as it was typed. */
+  private class Simplifier(census: Census) extends TypedTreeTransformer {
+    var changes: Int = 0
+    private var facts: Facts = noFacts
+
+    override def transform(term: Term): Term = term match {
+      case logical: BinaryTerm if logical.kind == LOGICAL_AND || logical.kind == LOGICAL_OR =>
+        val lhs = transform(logical.lhs)
+        // The right operand runs only when the left one is true (&&) or false (||)
+        val (whenTrue, whenFalse) = factsOf(lhs)
+        val rhs = under(if (logical.kind == LOGICAL_AND) whenTrue else whenFalse, Census.of(logical.rhs).writes) {
+          transform(logical.rhs)
+        }
+        fold(new BinaryTerm(logical.location, logical.kind, logical.`type`, lhs, rhs))
+      case _ =>
+        val rebuilt = super.transform(term)
+        decide(rebuilt) match {
+          case Some(value) =>
+            changes += 1
+            new BoolValue(rebuilt.location, value)
+          case None => fold(rebuilt)
+        }
+    }
+
+    override def transformStatement(statement: ActionStatement): ActionStatement = statement match {
+      case block: StatementBlock => simplifyBlock(block)
+      case node: IfStatement =>
+        transform(node.condition) match {
+          case constant: BoolValue =>
+            removeBranch()
+            val taken = if (constant.value) node.thenStatement else node.elseStatement
+            if (taken == null) new NOP(node.location) else transformStatement(taken)
+          case condition =>
+            val (whenTrue, whenFalse) = factsOf(condition)
+            lazy val conditionWrites = Census.of(condition).writes
+            val thenStatement = under(whenTrue, conditionWrites ++ writesIn(node.thenStatement)) {
+              transformStatement(node.thenStatement)
+            }
+            val elseStatement = under(whenFalse, conditionWrites ++ writesIn(node.elseStatement)) {
+              transformStatement(node.elseStatement)
+            }
+            new IfStatement(node.location, condition, thenStatement, elseStatement)
+        }
+      case loop: ConditionalLoop =>
+        transform(loop.condition) match {
+          case constant: BoolValue if !constant.value && !loop.isPostTest =>
+            removeBranch()
+            new NOP(loop.location)
+          case condition =>
+            // Each pass through the body follows a test of the condition, unless the loop tests last
+            val (whenTrue, _) = if (loop.isPostTest) (noFacts, noFacts) else factsOf(condition)
+            val body = under(whenTrue, Census.of(Seq(new ExpressionActionStatement(condition), loop.stmt, loop.update).filter(_ != null)).writes) {
+              transformStatement(loop.stmt)
+            }
+            new ConditionalLoop(loop.location, condition, body, loop.isPostTest, loop.label, transformStatement(loop.update))
+        }
+      case _ => super.transformStatement(statement)
+    }
+
+    // A closure body is simplified with what it knows about its own locals, not the caller's
+    override protected def transformClosure(closure: NewClosure): ActionStatement = {
+      val inner = new Simplifier(Census.of(closure.block))
+      val body = inner.transformStatement(closure.block)
+      changes += inner.changes
+      body
+    }
+
+    /**
+     * Simplifies a block statement by statement, so that what one statement settles is
+     * known to the ones after it: the copy it makes, or the facts its early exit leaves.
+     */
+    private def simplifyBlock(block: StatementBlock): StatementBlock = {
+      val statements = block.statements
+      val rest = new Following(statements)
+      val kept = mutable.ArrayBuffer[ActionStatement]()
+      val saved = facts
+      var index = 0
+      while (index < statements.length) {
+        val statement = transformStatement(statements(index))
+        val next = index + 1
+        if (propagate(statement, rest, next)) kept += statement
+        if (!completes(statement)) {
+          if (next < statements.length) removeBranch()
+          index = statements.length
+        } else {
+          statement match {
+            case exit: IfStatement if isEmpty(exit.elseStatement) && !completes(exit.thenStatement) =>
+              // What follows runs only when the condition was false
+              val (_, whenFalse) = factsOf(exit.condition)
+              if (!whenFalse.isEmpty) {
+                val writes = Census.of(exit.condition).writes ++ rest.writesFrom(next)
+                facts = (facts ++ whenFalse).without(writes ++ census.sharedWrites)
+              }
+            case _ =>
+          }
+          index = next
+        }
+      }
+      facts = saved
+      new StatementBlock(block.location, kept.toSeq*)
+    }
+
+    /**
+     * Replaces reads of `t` in the statements after `from` when `statement` is `t = y` or
+     * `t = constant` and neither side changes there. Returns whether `statement` must stay.
+     */
+    private def propagate(statement: ActionStatement, rest: Following, from: Int): Boolean =
+      statement match {
+        case declaration: ExpressionActionStatement =>
+          declaration.term match {
+            case set: SetLocal if set.frame == 0 && !census.shared(set.index) =>
+              copied(set) match {
+                case Some(value) =>
+                  val writes = rest.writesFrom(from)
+                  val source = value match {
+                    case ref: RefLocal => Some(ref.index)
+                    case _ => None
+                  }
+                  if (writes(set.index) || source.exists(writes)) true
+                  else {
+                    val reads = rest.substitute(from, set.index, value)
+                    if (reads > 0) {
+                      propagatedCopies += reads
+                      changes += 1
+                    }
+                    // Every read of `t` was among those just replaced
+                    val unread = census.reads(set.index) == reads
+                    if (unread && !config.emitDebugInfo) {
+                      changes += 1
+                      false
+                    } else true
+                  }
+                case None => true
+              }
+            case _ => true
+          }
+        case _ => true
+      }
+
+    /** What `set` copies into its local, when it is a constant or another unshared local of the same type. */
+    private def copied(set: SetLocal): Option[Term] = set.value match {
+      case ref: RefLocal if ref.frame == 0 && ref.index != set.index && !census.shared(ref.index) && ref.`type` == set.`type` =>
+        Some(ref)
+      case _: NullValue => None
+      case value if constant(value).isDefined && value.`type` == set.`type` => Some(value)
+      case _ => None
+    }
+
+    private def writesIn(statement: ActionStatement): collection.Set[Int] =
+      if (statement == null) Set.empty else Census.of(statement).writes
+
+    /** Runs `body` with `extra` facts added, less those about locals `writes` assigns. */
+    private def under[A](extra: Facts, writes: => collection.Set[Int])(body: => A): A =
+      if (extra.isEmpty && facts.isEmpty) body
+      else {
+        val saved = facts
+        facts = (facts ++ extra).without(writes ++ census.sharedWrites)
+        try body
+        finally facts = saved
+      }
+
+    private def removeBranch(): Unit = {
+      removedBranches += 1
+      changes += 1
+    }
+
+    /** Whether `condition`, known true or known false, settles anything about a local. */
+    private def factsOf(condition: Term): (Facts, Facts) = condition match {
+      case test: InstanceOf =>
+        (slotOf(test.target), plainClass(test.checked)) match {
+          case (Some(slot), Some(checked)) =>
+            (Facts(instances = Map(slot -> List(checked))), Facts(nonInstances = Map(slot -> List(checked))))
+          case _ => (noFacts, noFacts)
+        }
+      case NullTest(slot, equal) =>
+        val isNull = Facts(isNull = Set(slot))
+        val nonNull = Facts(nonNull = Set(slot))
+        if (equal) (isNull, nonNull) else (nonNull, isNull)
+      case not: UnaryTerm if not.kind == NOT =>
+        factsOf(not.operand).swap
+      case and: BinaryTerm if and.kind == LOGICAL_AND =>
+        (factsOf(and.lhs)._1 ++ factsOf(and.rhs)._1, noFacts)
+      case or: BinaryTerm if or.kind == LOGICAL_OR =>
+        (noFacts, factsOf(or.lhs)._2 ++ factsOf(or.rhs)._2)
+      case _ => (noFacts, noFacts)
+    }
+
+    /** The value of a type or null test that the facts settle. */
+    private def decide(term: Term): Option[Boolean] =
+      if (facts.isEmpty) None
+      else term match {
+        case test: InstanceOf =>
+          (slotOf(test.target), plainClass(test.checked)) match {
+            case (Some(slot), Some(checked)) =>
+              val known = facts.instances.getOrElse(slot, Nil)
+              if (facts.isNull(slot)) Some(false)
+              else if (known.exists(TypeRules.isSuperType(checked, _))) Some(true)
+              else if (facts.nonInstances.getOrElse(slot, Nil).exists(TypeRules.isSuperType(_, checked))) Some(false)
+              else if (known.exists(disjoint(_, checked))) Some(false)
+              else None
+            case _ => None
+          }
+        case NullTest(slot, equal) =>
+          if (facts.isNull(slot)) Some(equal)
+          else if (facts.nonNull(slot) || facts.instances.contains(slot)) Some(!equal)
+          else None
+        case _ => None
+      }
+  }
+
+  /**
+   * The statements of a block still to be simplified, with the reads and writes of each
+   * counted once. A substitution changes only which locals a statement reads, so the
+   * locals assigned from each statement on stay as they were first counted.
+   */
+  private class Following(statements: Array[ActionStatement]) {
+    private lazy val counts: Array[Census] = statements.map(Census.of)
+
+    private lazy val writes: Array[Set[Int]] = {
+      val suffixes = new Array[Set[Int]](statements.length + 1)
+      suffixes(statements.length) = Set.empty
+      var index = statements.length - 1
+      while (index >= 0) {
+        suffixes(index) = suffixes(index + 1) ++ counts(index).writes
+        index -= 1
+      }
+      suffixes
+    }
+
+    /** The locals assigned from `statements(from)` on. */
+    def writesFrom(from: Int): Set[Int] = writes(from)
+
+    /** Replaces reads of `slot` from `statements(from)` on with `value`, returning how many there were. */
+    def substitute(from: Int, slot: Int, value: Term): Int = {
+      var replaced = 0
+      var index = from
+      while (index < statements.length) {
+        val reads = counts(index).reads(slot)
+        if (reads > 0) {
+          statements(index) = new Substitution(slot, value).transformStatement(statements(index))
+          counts(index) = Census.of(statements(index))
+          replaced += reads
+        }
+        index += 1
+      }
+      replaced
+    }
+  }
+
+  /** Replaces reads of a local with a copy of `value`. */
+  private class Substitution(slot: Int, value: Term) extends TypedTreeTransformer {
+    override def transform(term: Term): Term = term match {
+      case ref: RefLocal if ref.frame == 0 && ref.index == slot => relocated(value, ref.location)
+      case _ => super.transform(term)
+    }
+
+    // The local is not shared with any closure
+    override protected def transformClosure(closure: NewClosure): ActionStatement = closure.block
+  }
+
+  /** `local == null` (true) or `local != null` (false), written as typing writes them for plain and nullable locals. */
+  private object NullTest {
+    def unapply(term: Term): Option[(Int, Boolean)] = term match {
+      case compare: BinaryTerm if compare.kind == EQUAL || compare.kind == NOT_EQUAL =>
+        nullComparison(compare.lhs, compare.rhs).map(slot => (slot, compare.kind == EQUAL))
+      case call: CallStatic
+          if call.target.name == "java.util.Objects" && call.method.name == "equals" && call.parameters.length == 2 =>
+        nullComparison(call.parameters(0), call.parameters(1)).map(slot => (slot, true))
+      case _ => None
+    }
+
+    private def nullComparison(lhs: Term, rhs: Term): Option[Int] =
+      if (isNull(rhs)) slotOf(lhs)
+      else if (isNull(lhs)) slotOf(rhs)
+      else None
+
+    private def isNull(term: Term): Boolean = term match {
+      case _: NullValue => true
+      case cast: AsInstanceOf => isNull(cast.target)
+      case _ => false
+    }
+  }
+
+  /** The body's own reference-typed local that `term` reads, looking through casts. */
+  private def slotOf(term: Term): Option[Int] = term match {
+    case ref: RefLocal if ref.frame == 0 && !ref.`type`.isBasicType => Some(ref.index)
+    case cast: AsInstanceOf if !cast.destination.isBasicType => slotOf(cast.target)
+    case _ => None
+  }
+
+  /** `tp` when it is a class or interface without type arguments, whose instance test is exact. */
+  private def plainClass(tp: Type): Option[ClassType] = tp match {
+    case _: AppliedClassType | _: TypeVariableType => None
+    case classType: ClassType => Some(classType)
+    case _ => None
+  }
+
+  /** Whether no object can be an instance of both: two classes, neither extending the other. */
+  private def disjoint(left: ClassType, right: ClassType): Boolean =
+    !left.isInterface && !right.isInterface &&
+      !TypeRules.isSuperType(left, right) && !TypeRules.isSuperType(right, left)
+
+  private def isEmpty(statement: ActionStatement): Boolean = statement match {
+    case null => true
+    case _: NOP => true
+    case block: StatementBlock => block.statements.forall(isEmpty)
+    case _ => false
+  }
+
+  /** Whether control can leave `statement` by reaching its end. */
+  private def completes(statement: ActionStatement): Boolean = statement match {
+    case _: Return | _: Throw | _: Break | _: Continue => false
+    case block: StatementBlock => block.statements.forall(completes)
+    case node: IfStatement =>
+      node.elseStatement == null || completes(node.thenStatement) || completes(node.elseStatement)
+    case _ => true
+  }
+
+  // --- Constants ---
+
+  /** The value of a literal of a primitive type or String. */
+  private def constant(term: Term): Option[Any] = term match {
+    case literal: BoolValue => Some(literal.value)
+    case literal: ByteValue => Some(literal.value)
+    case literal: ShortValue => Some(literal.value)
+    case literal: CharacterValue => Some(literal.value)
+    case literal: IntValue => Some(literal.value)
+    case literal: LongValue => Some(literal.value)
+    case literal: FloatValue => Some(literal.value)
+    case literal: DoubleValue => Some(literal.value)
+    case literal: StringValue => Some(literal.value)
+    case _ => None
+  }
+
+  private def literal(value: Any, location: Location, stringType: => Type): Term = value match {
+    case v: Boolean => new BoolValue(location, v)
+    case v: Byte => new ByteValue(location, v)
+    case v: Short => new ShortValue(location, v)
+    case v: Char => new CharacterValue(location, v)
+    case v: Int => new IntValue(location, v)
+    case v: Long => new LongValue(location, v)
+    case v: Float => new FloatValue(location, v)
+    case v: Double => new DoubleValue(location, v)
+    case v: String => new StringValue(location, v, stringType)
+  }
+
+  /** A fresh copy of a literal or local read, at `location`. */
+  private def relocated(value: Term, location: Location): Term = value match {
+    case ref: RefLocal => new RefLocal(location, ref.frame, ref.index, ref.`type`)
+    case string: StringValue => new StringValue(location, string.value, string.`type`)
+    case other => literal(constant(other).get, location, other.`type`)
+  }
+
+  /** `term`, or the literal it computes when its operands are literals. */
+  private def fold(term: Term): Term = {
+    val folded: Option[Term] = term match {
+      case cast: AsInstanceOf =>
+        (constant(cast.target), cast.destination) match {
+          case (Some(value), destination: BasicType) =>
+            converted(value, destination).map(literal(_, cast.location, cast.destination))
+          case _ => None
+        }
+      case unary: UnaryTerm =>
+        constant(unary.operand).filter(_ => unary.operand.`type` == unary.`type`).flatMap(unaryValue(unary.kind, _))
+          .map(literal(_, unary.location, unary.`type`))
+      case logical: BinaryTerm if logical.kind == LOGICAL_AND || logical.kind == LOGICAL_OR =>
+        // `true && b` is `b`, `false && b` is `false`, and dually for ||
+        constant(logical.lhs) match {
+          case Some(left: Boolean) =>
+            Some(if (left == (logical.kind == LOGICAL_AND)) logical.rhs else new BoolValue(logical.location, left))
+          case _ => None
+        }
+      case binary: BinaryTerm =>
+        for {
+          left <- constant(binary.lhs)
+          right <- constant(binary.rhs)
+          value <- binaryValue(binary.kind, binary.`type`, left, right)
+        } yield literal(value, binary.location, binary.`type`)
+      case concat: Call if isConcat(concat) =>
+        for {
+          left <- rendered(concat.target)
+          right <- rendered(concat.parameters(0))
+        } yield new StringValue(concat.location, left + right, concat.`type`)
+      case valueOf: CallStatic if isValueOfObject(valueOf) =>
+        // String.valueOf((Object) Integer.valueOf(1)) renders "1" whenever it runs
+        valueOf.parameters(0) match {
+          case cast: AsInstanceOf =>
+            boxedConstant(cast.target).map { value =>
+              val text = new StringValue(cast.target.location, value.toString, valueOf.`type`)
+              new CallStatic(valueOf.location, valueOf.target, valueOf.method, Array[Term](new AsInstanceOf(cast.location, text, cast.destination)))
+            }
+          case _ => None
+        }
+      case _ => None
+    }
+    folded match {
+      case Some(result) =>
+        foldedConstants += 1
+        result
+      case None => term
+    }
+  }
+
+  /** The text `String.valueOf` gives for a `+` operand that is a literal. */
+  private def rendered(term: Term): Option[String] = term match {
+    case valueOf: CallStatic if isValueOfObject(valueOf) =>
+      valueOf.parameters(0) match {
+        case cast: AsInstanceOf =>
+          cast.target match {
+            case string: StringValue => Some(string.value)
+            case _: NullValue => Some("null")
+            case other => boxedConstant(other).map(_.toString)
+          }
+        case _ => None
+      }
+    case _ => None
+  }
+
+  private val boxNames: Set[String] = Set(
+    "java.lang.Boolean", "java.lang.Character", "java.lang.Byte", "java.lang.Short",
+    "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double"
+  )
+
+  /** The primitive constant that `term` boxes, as in `Integer.valueOf(1)`. */
+  private def boxedConstant(term: Term): Option[Any] = term match {
+    case boxing: CallStatic
+        if boxNames.contains(boxing.target.name) && boxing.method.name == "valueOf" && boxing.parameters.length == 1 &&
+          boxing.parameters(0).`type`.isBasicType =>
+      constant(boxing.parameters(0))
+    case _ => None
+  }
+
+  private def isConcat(call: Call): Boolean =
+    isMethod(call.method, "java.lang.String", "concat", 1)
+
+  private def isValueOfObject(call: CallStatic): Boolean =
+    call.target.name == "java.lang.String" && isMethod(call.method, "java.lang.String", "valueOf", 1) &&
+      (call.method.arguments(0) match {
+        case classType: ClassType => classType.name == "java.lang.Object"
+        case _ => false
+      })
+
+  private def isMethod(method: Method, owner: String, name: String, arity: Int): Boolean =
+    method.affiliation != null && method.affiliation.name == owner && method.name == name &&
+      method.arguments.length == arity
+
+  /** `value` converted to `destination` as the JVM's `i2l`, `d2i`, `i2b` and the rest convert it. */
+  private def converted(value: Any, destination: BasicType): Option[Any] = {
+    val integral: Option[Long] = value match {
+      case v: Byte => Some(v.toLong)
+      case v: Short => Some(v.toLong)
+      case v: Char => Some(v.toLong)
+      case v: Int => Some(v.toLong)
+      case v: Long => Some(v)
+      case _ => None
+    }
+    val floating: Option[Double] = value match {
+      case v: Float => Some(v.toDouble)
+      case v: Double => Some(v)
+      case _ => None
+    }
+    // Narrowing to byte, short or char goes through int, as the JVM has no direct instruction
+    def toInt: Option[Int] = integral.map(_.toInt).orElse(floating.map(_.toInt))
+    destination match {
+      case BasicType.BOOLEAN => value match {
+        case v: Boolean => Some(v)
+        case _ => None
+      }
+      case BasicType.BYTE => toInt.map(_.toByte)
+      case BasicType.SHORT => toInt.map(_.toShort)
+      case BasicType.CHAR => toInt.map(_.toChar)
+      case BasicType.INT => toInt
+      case BasicType.LONG => integral.orElse(floating.map(_.toLong))
+      case BasicType.FLOAT => value match {
+        case v: Float => Some(v)
+        case _ => integral.map(_.toFloat).orElse(floating.map(_.toFloat))
+      }
+      case BasicType.DOUBLE => integral.map(_.toDouble).orElse(floating)
+      case _ => None
+    }
+  }
+
+  private def unaryValue(kind: UnaryTerm.Kind, value: Any): Option[Any] = (kind, value) match {
+    case (PLUS, v @ (_: Int | _: Long | _: Float | _: Double)) => Some(v)
+    case (MINUS, v: Int) => Some(-v)
+    case (MINUS, v: Long) => Some(-v)
+    case (MINUS, v: Float) => Some(-v)
+    case (MINUS, v: Double) => Some(-v)
+    case (NOT, v: Boolean) => Some(!v)
+    case (BIT_NOT, v: Int) => Some(~v)
+    case (BIT_NOT, v: Long) => Some(~v)
+    case _ => None
+  }
+
+  private def binaryValue(kind: BinaryTerm.Kind, tp: Type, left: Any, right: Any): Option[Any] = {
+    val comparison = kind match {
+      case LESS_THAN | GREATER_THAN | LESS_OR_EQUAL | GREATER_OR_EQUAL | EQUAL | NOT_EQUAL => true
+      case _ => false
+    }
+    // The operands were promoted to one type; anything else is left as it is
+    val expected = if (comparison) Some(BasicType.BOOLEAN) else (left, right) match {
+      case (_: Int, _: Int) => Some(BasicType.INT)
+      case (_: Long, _: Long) | (_: Long, _: Int) => Some(BasicType.LONG)
+      case (_: Float, _: Float) => Some(BasicType.FLOAT)
+      case (_: Double, _: Double) => Some(BasicType.DOUBLE)
+      case (_: Boolean, _: Boolean) => Some(BasicType.BOOLEAN)
+      case _ => None
+    }
+    if (!expected.contains(tp)) return None
+    (left, right) match {
+      case (a: Int, b: Int) => kind match {
+        case ADD => Some(a + b)
+        case SUBTRACT => Some(a - b)
+        case MULTIPLY => Some(a * b)
+        case DIVIDE => Option.when(b != 0)(a / b)
+        case MOD => Option.when(b != 0)(a % b)
+        case BIT_AND => Some(a & b)
+        case BIT_OR => Some(a | b)
+        case XOR => Some(a ^ b)
+        case BIT_SHIFT_L2 => Some(a << b)
+        case BIT_SHIFT_R2 => Some(a >> b)
+        case BIT_SHIFT_R3 => Some(a >>> b)
+        case _ => compare(kind, a.compare(b), a == b)
+      }
+      case (a: Long, b: Int) => kind match {
+        case BIT_SHIFT_L2 => Some(a << b)
+        case BIT_SHIFT_R2 => Some(a >> b)
+        case BIT_SHIFT_R3 => Some(a >>> b)
+        case _ => None
+      }
+      case (a: Long, b: Long) => kind match {
+        case ADD => Some(a + b)
+        case SUBTRACT => Some(a - b)
+        case MULTIPLY => Some(a * b)
+        case DIVIDE => Option.when(b != 0)(a / b)
+        case MOD => Option.when(b != 0)(a % b)
+        case BIT_AND => Some(a & b)
+        case BIT_OR => Some(a | b)
+        case XOR => Some(a ^ b)
+        case _ => compare(kind, a.compare(b), a == b)
+      }
+      case (a: Float, b: Float) => kind match {
+        case ADD => Some(a + b)
+        case SUBTRACT => Some(a - b)
+        case MULTIPLY => Some(a * b)
+        case DIVIDE => Some(a / b)
+        case MOD => Some(a % b)
+        case LESS_THAN => Some(a < b)
+        case GREATER_THAN => Some(a > b)
+        case LESS_OR_EQUAL => Some(a <= b)
+        case GREATER_OR_EQUAL => Some(a >= b)
+        case EQUAL => Some(a == b)
+        case NOT_EQUAL => Some(a != b)
+        case _ => None
+      }
+      case (a: Double, b: Double) => kind match {
+        case ADD => Some(a + b)
+        case SUBTRACT => Some(a - b)
+        case MULTIPLY => Some(a * b)
+        case DIVIDE => Some(a / b)
+        case MOD => Some(a % b)
+        case LESS_THAN => Some(a < b)
+        case GREATER_THAN => Some(a > b)
+        case LESS_OR_EQUAL => Some(a <= b)
+        case GREATER_OR_EQUAL => Some(a >= b)
+        case EQUAL => Some(a == b)
+        case NOT_EQUAL => Some(a != b)
+        case _ => None
+      }
+      case (a: Boolean, b: Boolean) => kind match {
+        case BIT_AND => Some(a & b)
+        case BIT_OR => Some(a | b)
+        case XOR => Some(a ^ b)
+        case EQUAL => Some(a == b)
+        case NOT_EQUAL => Some(a != b)
+        case _ => None
+      }
+      case _ => None
+    }
+  }
+
+  /** An integral comparison, from the sign of `a compare b`. */
+  private def compare(kind: BinaryTerm.Kind, order: Int, equal: Boolean): Option[Boolean] = kind match {
+    case LESS_THAN => Some(order < 0)
+    case GREATER_THAN => Some(order > 0)
+    case LESS_OR_EQUAL => Some(order <= 0)
+    case GREATER_OR_EQUAL => Some(order >= 0)
+    case EQUAL => Some(equal)
+    case NOT_EQUAL => Some(!equal)
+    case _ => None
+  }
+}
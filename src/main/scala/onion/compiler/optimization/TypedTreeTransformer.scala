@@ -0,0 +1,88 @@
+package onion.compiler.optimization
+
+import onion.compiler.ClosureLocalBinding
+import onion.compiler.TypedAST.*
+
+/**
+ * Rebuilds a typed tree node by node.
+ *
+ * Typed terms and statements are immutable, so a rewrite builds new nodes around the
+ * ones it changes. `transform` and `transformStatement` rebuild a node from its
+ * transformed children; a subclass overrides them for the nodes it rewrites and defers
+ * to `super` for the rest. Every node class is rebuilt here, so a subclass that remaps
+ * locals cannot miss one hidden under a node it does not know about.
+ *
+ * Closure bodies are entered through `transformClosure`, which lets a subclass track the
+ * frame it is in, and the locals a `try` declares go through `transformBinding`.
+ */
+class TypedTreeTransformer {
+
+  def transform(term: Term): Term = term match {
+    case null => null
+    case node: ArrayLength => new ArrayLength(node.location, transform(node.target))
+    case node: RefArray => new RefArray(node.location, transform(node.target), transform(node.index))
+    case node: NonNullAssert => new NonNullAssert(node.location, transform(node.target), node.`type`)
+    case node: SafeRefArray => new SafeRefArray(node.location, transform(node.target), transform(node.index), node.arrayType)
+    case node: SetArray => new SetArray(node.location, transform(node.target), transform(node.index), transform(node.value))
+    case node: Begin => new Begin(node.location, node.terms.map(transform))
+    case node: BinaryTerm => new BinaryTerm(node.location, node.kind, node.`type`, transform(node.lhs), transform(node.rhs))
+    case node: UnaryTerm => new UnaryTerm(node.location, node.kind, node.`type`, transform(node.operand))
+    case node: Call => new Call(node.location, transform(node.target), node.method, node.parameters.map(transform))
+    case node: SafeCall => new SafeCall(node.location, transform(node.target), node.method, node.parameters.map(transform))
+    case node: CallStatic => new CallStatic(node.location, node.target, node.method, node.parameters.map(transform))
+    case node: CallSuper => new CallSuper(node.location, transform(node.target), node.method, node.params.map(transform))
+    case node: AsInstanceOf => new AsInstanceOf(node.location, transform(node.target), node.destination)
+    case node: InstanceOf => new InstanceOf(node.location, transform(node.target), node.checked)
+    case node: StatementTerm => new StatementTerm(node.location, transformStatement(node.statement), node.termType)
+    case node: SynchronizedTerm => new SynchronizedTerm(node.location, transform(node.lock), transform(node.body))
+    case node: RefField => new RefField(node.location, transform(node.target), node.field)
+    case node: SafeFieldAccess => new SafeFieldAccess(node.location, transform(node.target), node.field)
+    case node: SetField => new SetField(node.location, transform(node.target), node.field, transform(node.value))
+    case node: SetStaticField => new SetStaticField(node.location, node.target, node.field, transform(node.value))
+    case node: ListLiteral => new ListLiteral(node.location, node.elements.map(transform), node.`type`)
+    case node: MapLiteral => new MapLiteral(node.location, node.keys.map(transform), node.values.map(transform), node.`type`)
+    case node: SetLocal => new SetLocal(node.location, node.frame, node.index, node.`type`, transform(node.value))
+    case node: NewObject => new NewObject(node.location, node.constructor, node.parameters.map(transform))
+    case node: NewArray => new NewArray(node.location, node.arrayType, node.parameters.map(transform))
+    case node: NewArrayWithValues => new NewArrayWithValues(node.location, node.arrayType, node.values.map(transform))
+    case node: NewClosure =>
+      val rebuilt = new NewClosure(node.location, node.`type`, node.method, transformClosure(node))
+      rebuilt.frame = node.frame
+      rebuilt
+    // Literals, RefLocal, RefStaticField, This and OuterThis have no children
+    case leaf => leaf
+  }
+
+  def transformStatement(statement: ActionStatement): ActionStatement = statement match {
+    case null => null
+    case node: StatementBlock => new StatementBlock(node.location, node.statements.toIndexedSeq.map(transformStatement)*)
+    case node: ExpressionActionStatement => new ExpressionActionStatement(node.location, transform(node.term))
+    case node: IfStatement =>
+      new IfStatement(node.location, transform(node.condition), transformStatement(node.thenStatement), transformStatement(node.elseStatement))
+    case node: ConditionalLoop =>
+      new ConditionalLoop(
+        node.location, transform(node.condition), transformStatement(node.stmt), node.isPostTest, node.label,
+        transformStatement(node.update)
+      )
+    case node: Return => new Return(node.location, transform(node.term))
+    case node: Throw => new Throw(node.location, transform(node.term))
+    case node: Synchronized => new Synchronized(node.location, transform(node.term), transformStatement(node.statement))
+    case node: Try =>
+      new Try(
+        node.location,
+        node.resources.map((bind, init) => (transformBinding(bind), transform(init))),
+        transformStatement(node.tryStatement),
+        node.catchTypes.map(transformBinding),
+        node.catchStatements.map(transformStatement),
+        transformStatement(node.finallyStatement)
+      )
+    // Break, Continue and NOP have no children
+    case leaf => leaf
+  }
+
+  /** The body of `closure`, rebuilt. */
+  protected def transformClosure(closure: NewClosure): ActionStatement =
+    transformStatement(closure.block)
+
+  protected def transformBinding(bind: ClosureLocalBinding): ClosureLocalBinding = bind
+}
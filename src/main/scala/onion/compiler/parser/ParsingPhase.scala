@@ -7,6 +7,9 @@ import onion.compiler.{AST, CompilerConfig, Parsing}
 final class ParsingPhase(config: CompilerConfig) extends CompilerPhase[Seq[SourceHandle], Seq[AST.CompilationUnit]] {
   override val name: String = "Parsing"
 
-  override def run(input: Seq[SourceHandle], ctx: PhaseContext): Seq[AST.CompilationUnit] =
-    new Parsing(config).process(input.map(InputSourceAdapter.toInputSource))
+  override def run(input: Seq[SourceHandle], ctx: PhaseContext): Seq[AST.CompilationUnit] = {
+    val parsing = new Parsing(config)
+    try parsing.process(input.map(InputSourceAdapter.toInputSource))
+    finally ctx.fileTimings ++= parsing.fileTimings
+  }
 }
@@ -3,7 +3,13 @@ package onion.compiler.pipeline
 import onion.compiler.CompilerConfig
 import onion.compiler.source.SourceHandle
 
+/**
+ * @param cancelled asked before each phase; once it answers true the compile stops and
+ *                  [[PipelineRunner.run]] throws a `CancellationException`. An editor uses
+ *                  it to abandon a compile of text that has changed since it started.
+ */
 final case class CompilationRequest(
   sources: Seq[SourceHandle],
-  config: CompilerConfig
+  config: CompilerConfig,
+  cancelled: () => Boolean = () => false
 )
@@ -9,7 +9,10 @@ final case class CompilationResult(
   debugArtifacts: DebugArtifacts,
   timings: Seq[PhaseTiming],
   sourceCount: Int,
-  classpathSize: Int
+  classpathSize: Int,
+  fileTimings: Seq[FileTiming] = Seq.empty,
+  resolution: ResolutionProfile = ResolutionProfile(),
+  simplification: SimplificationProfile = SimplificationProfile()
 ) {
   def hasErrors: Boolean =
     diagnostics.hasErrors
@@ -33,6 +36,11 @@ final case class CompilationResult(
           outputCount = timing.outputCount
         )
       }.toVector,
-      totalElapsedNanos = timings.map(_.elapsedNanos).sum
+      totalElapsedNanos = timings.map(_.elapsedNanos).sum,
+      files = fileTimings.map { timing =>
+        FileProfile(timing.phase, timing.file, timing.elapsedNanos)
+      }.toVector,
+      resolution = resolution,
+      simplification = simplification
     )
 }
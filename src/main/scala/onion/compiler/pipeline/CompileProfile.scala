@@ -18,11 +18,51 @@ final case class PhaseProfile(
 ):
   def elapsedMillis: Double = elapsedNanos.toDouble / 1000000.0
 
+/**
+ * One file's share of a phase. Phases that spread files over worker threads report
+ * each file's own time, so these can add up to more than the phase's wall time.
+ */
+final case class FileProfile(
+  phase: String,
+  file: String,
+  elapsedNanos: Long
+):
+  def elapsedMillis: Double = elapsedNanos.toDouble / 1000000.0
+
+/**
+ * How the compile's class lookups were answered: from the class table's caches (classes being
+ * compiled, classes already loaded, known misses), as misses by the classpath package index,
+ * or by probing the class loader, after which a class it had no file for is tried by
+ * reflection. `cached`, `indexMisses` and `classpathProbes` add up to `lookups`.
+ */
+final case class ResolutionProfile(
+  lookups: Long = 0,
+  cached: Long = 0,
+  indexMisses: Long = 0,
+  classpathProbes: Long = 0,
+  reflectionProbes: Long = 0
+)
+
+/**
+ * What the simplification phase did: literals computed from constant operands, branches and
+ * statements that could not run, and reads of copied locals replaced with the value copied.
+ * `nodesRemoved` is how many typed tree nodes the methods it changed lost.
+ */
+final case class SimplificationProfile(
+  nodesRemoved: Long = 0,
+  constantsFolded: Long = 0,
+  branchesRemoved: Long = 0,
+  copiesPropagated: Long = 0
+)
+
 final case class CompileProfile(
   sourceCount: Int,
   classpathSize: Int,
   generatedClasses: Int,
   phases: Vector[PhaseProfile],
-  totalElapsedNanos: Long
+  totalElapsedNanos: Long,
+  files: Vector[FileProfile] = Vector.empty,
+  resolution: ResolutionProfile = ResolutionProfile(),
+  simplification: SimplificationProfile = SimplificationProfile()
 ):
   def totalElapsedMillis: Double = totalElapsedNanos.toDouble / 1000000.0
@@ -36,11 +36,28 @@ object CompileProfileReporter {
     builder.append(s"  sources: ${profile.sourceCount}").append(System.lineSeparator())
     builder.append(s"  classpath-entries: ${profile.classpathSize}").append(System.lineSeparator())
     builder.append(s"  generated-classes: ${profile.generatedClasses}").append(System.lineSeparator())
+    val resolution = profile.resolution
+    builder.append(
+      s"  class-lookups: ${resolution.lookups} (cached=${resolution.cached}, index-misses=${resolution.indexMisses}, " +
+        s"classpath-probes=${resolution.classpathProbes}, reflection-probes=${resolution.reflectionProbes})"
+    ).append(System.lineSeparator())
+    val simplification = profile.simplification
+    builder.append(
+      s"  simplified: ${simplification.nodesRemoved} nodes removed (constants-folded=${simplification.constantsFolded}, " +
+        s"dead-branches=${simplification.branchesRemoved}, copies-propagated=${simplification.copiesPropagated})"
+    ).append(System.lineSeparator())
     builder.append("  phases:").append(System.lineSeparator())
     profile.phases.foreach { phase =>
       builder.append(f"    - ${phase.name}%-18s ${phase.elapsedMillis}%.2fms (in=${phase.inputCount}, out=${phase.outputCount})")
       builder.append(System.lineSeparator())
     }
+    if (profile.files.nonEmpty) {
+      builder.append("  files:").append(System.lineSeparator())
+      profile.files.foreach { file =>
+        builder.append(f"    - ${file.phase}%-18s ${file.elapsedMillis}%.2fms ${file.file}")
+        builder.append(System.lineSeparator())
+      }
+    }
     builder.append(f"  total: ${profile.totalElapsedMillis}%.2fms")
     builder.toString()
   }
@@ -49,8 +66,19 @@ object CompileProfileReporter {
     val phases = profile.phases.map { phase =>
       s"""{"name":"${escape(phase.name)}","elapsedNanos":${phase.elapsedNanos},"elapsedMillis":${phase.elapsedMillis},"inputCount":${phase.inputCount},"outputCount":${phase.outputCount}}"""
     }.mkString("[", ",", "]")
+    val files = profile.files.map { file =>
+      s"""{"phase":"${escape(file.phase)}","file":"${escape(file.file)}","elapsedNanos":${file.elapsedNanos},"elapsedMillis":${file.elapsedMillis}}"""
+    }.mkString("[", ",", "]")
+
+    val resolution = profile.resolution
+    val lookups =
+      s"""{"lookups":${resolution.lookups},"cached":${resolution.cached},"indexMisses":${resolution.indexMisses},"classpathProbes":${resolution.classpathProbes},"reflectionProbes":${resolution.reflectionProbes}}"""
+
+    val simplification = profile.simplification
+    val simplified =
+      s"""{"nodesRemoved":${simplification.nodesRemoved},"constantsFolded":${simplification.constantsFolded},"branchesRemoved":${simplification.branchesRemoved},"copiesPropagated":${simplification.copiesPropagated}}"""
 
-    s"""{"sourceCount":${profile.sourceCount},"classpathSize":${profile.classpathSize},"generatedClasses":${profile.generatedClasses},"totalElapsedNanos":${profile.totalElapsedNanos},"totalElapsedMillis":${profile.totalElapsedMillis},"phases":$phases}"""
+    s"""{"sourceCount":${profile.sourceCount},"classpathSize":${profile.classpathSize},"generatedClasses":${profile.generatedClasses},"totalElapsedNanos":${profile.totalElapsedNanos},"totalElapsedMillis":${profile.totalElapsedMillis},"phases":$phases,"files":$files,"classLookups":$lookups,"simplification":$simplified}"""
   }
 
   private def writeToFile(path: String, content: String): Unit = {
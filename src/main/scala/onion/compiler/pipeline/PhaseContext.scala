@@ -1,14 +1,18 @@
 package onion.compiler.pipeline
 
-import onion.compiler.{CompileError, CompileWarning, CompilerConfig}
+import onion.compiler.{ClassTable, CompileError, CompileWarning, CompilerConfig}
 import onion.compiler.diagnostics.DiagnosticBag
 
 import scala.collection.mutable.ArrayBuffer
 
-final class PhaseContext(val config: CompilerConfig) {
+final class PhaseContext(val config: CompilerConfig, val cancelled: () => Boolean = () => false) {
   private var currentDiagnostics: DiagnosticBag = DiagnosticBag.empty
   private var currentDebugArtifacts: DebugArtifacts = DebugArtifacts()
   val timings: ArrayBuffer[PhaseTiming] = ArrayBuffer.empty
+  val fileTimings: ArrayBuffer[FileTiming] = ArrayBuffer.empty
+  private var classTableProbes: Option[ClassTable.Probes] = None
+  private var typingClassTable: Option[ClassTable] = None
+  private var simplificationCounts: SimplificationProfile = SimplificationProfile()
 
   def diagnostics: DiagnosticBag =
     currentDiagnostics
@@ -16,6 +20,28 @@ final class PhaseContext(val config: CompilerConfig) {
   def debugArtifacts: DebugArtifacts =
     currentDebugArtifacts
 
+  /** The lookups counted so far by the class table the compile resolves names through. */
+  def resolution: ResolutionProfile =
+    classTableProbes.fold(ResolutionProfile())(_.snapshot)
+
+  /** Counts the lookups of `probes`, which later phases keep adding to, into this compile's profile. */
+  def recordResolution(probes: ClassTable.Probes): Unit =
+    classTableProbes = Some(probes)
+
+  /** The class table typing resolved names through, for phases after it that build typed terms of their own. */
+  def classTable: Option[ClassTable] =
+    typingClassTable
+
+  def recordClassTable(table: ClassTable): Unit =
+    typingClassTable = Some(table)
+
+  /** What the simplification phase removed and rewrote in this compile. */
+  def simplification: SimplificationProfile =
+    simplificationCounts
+
+  def recordSimplification(profile: SimplificationProfile): Unit =
+    simplificationCounts = profile
+
   def addErrors(errors: Seq[CompileError]): Unit =
     currentDiagnostics = currentDiagnostics.addErrors(errors)
 
@@ -8,3 +8,12 @@ final case class PhaseTiming(
 ) {
   def elapsedMillis: Double = elapsedNanos.toDouble / 1000000.0
 }
+
+/** The time one phase spent on one source file, for phases that work file by file. */
+final case class FileTiming(
+  phase: String,
+  file: String,
+  elapsedNanos: Long
+) {
+  def elapsedMillis: Double = elapsedNanos.toDouble / 1000000.0
+}
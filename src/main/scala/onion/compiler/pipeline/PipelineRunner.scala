@@ -3,6 +3,7 @@ package onion.compiler.pipeline
 import onion.compiler.*
 import onion.compiler.backend.BytecodeGenerationPhase
 import onion.compiler.diagnostics.DiagnosticBag
+import onion.compiler.environment.SymbolIndex
 import onion.compiler.exceptions.CompilationException
 import onion.compiler.parser.ParsingPhase
 import onion.compiler.rewrite.RewritingPhase
@@ -10,12 +11,16 @@ import onion.compiler.source.SourceHandle
 import onion.compiler.typing.{TypingPhase, TypingPhaseResult}
 
 import java.lang.System.{nanoTime => now}
+import java.util.concurrent.CancellationException
 import scala.util.control.NonFatal
 
 final case class CompilationPhases(
   parsing: CompilerPhase[Seq[SourceHandle], Seq[AST.CompilationUnit]],
   rewriting: CompilerPhase[Seq[AST.CompilationUnit], Seq[AST.CompilationUnit]],
   typing: CompilerPhase[Seq[AST.CompilationUnit], TypingPhaseResult],
+  higherOrderInlining: CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]],
+  simplification: CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]],
+  memoization: CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]],
   tailCallOptimization: CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]],
   mutualRecursionOptimization: CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]],
   bytecodeGeneration: CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[CompiledClass]],
@@ -28,6 +33,40 @@ object PipelineRunner {
       parsing = new ParsingPhase(config),
       rewriting = new RewritingPhase(config),
       typing = new TypingPhase(config),
+      higherOrderInlining = new CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]] {
+        override def name: String = "HigherOrderInlining"
+        override def run(input: Seq[TypedAST.ClassDefinition], ctx: PhaseContext): Seq[TypedAST.ClassDefinition] =
+          ctx.classTable match {
+            case Some(table) if config.inlineHigherOrder => new optimization.HigherOrderInlining(config, table).process(input)
+            case _ => input
+          }
+      },
+      simplification = new CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]] {
+        override def name: String = "Simplification"
+        override def run(input: Seq[TypedAST.ClassDefinition], ctx: PhaseContext): Seq[TypedAST.ClassDefinition] = {
+          val simplification = new optimization.Simplification(config)
+          val result = simplification.process(input)
+          ctx.recordSimplification(SimplificationProfile(
+            nodesRemoved = simplification.nodesRemoved,
+            constantsFolded = simplification.constantsFolded,
+            branchesRemoved = simplification.branchesRemoved,
+            copiesPropagated = simplification.copiesPropagated
+          ))
+          result
+        }
+      },
+      memoization = new CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]] {
+        override def name: String = "Memoization"
+        override def run(input: Seq[TypedAST.ClassDefinition], ctx: PhaseContext): Seq[TypedAST.ClassDefinition] =
+          ctx.classTable match {
+            case Some(table) =>
+              val memoization = new optimization.Memoization(config, table)
+              val result = memoization.process(input)
+              ctx.addWarnings(memoization.collectedWarnings)
+              result
+            case None => input
+          }
+      },
       tailCallOptimization = new optimization.TailCallOptimization(config) with CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]] {
         override def name: String = "TailCallOptimization"
         override def run(input: Seq[TypedAST.ClassDefinition], ctx: PhaseContext): Seq[TypedAST.ClassDefinition] = process(input)
@@ -49,15 +88,18 @@ final class PipelineRunner(phases: CompilationPhases) {
   private val internalErrorCode = "I0000"
 
   def run(request: CompilationRequest): CompilationResult = {
-    val ctx = new PhaseContext(request.config)
+    val ctx = new PhaseContext(request.config, request.cancelled)
 
-    runPhase(phases.parsing, request.sources, ctx) { units =>
-      ctx.setParsedUnits(units)
-    } match {
-      case None => result(Seq.empty, ctx, request)
-      case Some(parsed) =>
-        runAfterParsing(parsed, ctx, request)
-    }
+    // Classpath classes read by this compile are indexed for the next one.
+    try {
+      runPhase(phases.parsing, request.sources, ctx) { units =>
+        ctx.setParsedUnits(units)
+      } match {
+        case None => result(Seq.empty, ctx, request)
+        case Some(parsed) =>
+          runAfterParsing(parsed, ctx, request)
+      }
+    } finally SymbolIndex.flush()
   }
 
   private def runAfterParsing(
@@ -98,7 +140,40 @@ final class PipelineRunner(phases: CompilationPhases) {
     ctx: PhaseContext,
     request: CompilationRequest
   ): CompilationResult =
-    runPhase(phases.tailCallOptimization, typed, ctx)(_ => ()) match {
+    runPhase(phases.higherOrderInlining, typed, ctx)(_ => ()) match {
+      case None => result(Seq.empty, ctx, request)
+      case Some(inlined) =>
+        runAfterInlining(inlined, ctx, request)
+    }
+
+  private def runAfterInlining(
+    inlined: Seq[TypedAST.ClassDefinition],
+    ctx: PhaseContext,
+    request: CompilationRequest
+  ): CompilationResult =
+    runPhase(phases.simplification, inlined, ctx)(_ => ()) match {
+      case None => result(Seq.empty, ctx, request)
+      case Some(simplified) =>
+        runAfterSimplification(simplified, ctx, request)
+    }
+
+  private def runAfterSimplification(
+    simplified: Seq[TypedAST.ClassDefinition],
+    ctx: PhaseContext,
+    request: CompilationRequest
+  ): CompilationResult =
+    runPhase(phases.memoization, simplified, ctx)(_ => ()) match {
+      case None => result(Seq.empty, ctx, request)
+      case Some(memoized) =>
+        runAfterMemoization(memoized, ctx, request)
+    }
+
+  private def runAfterMemoization(
+    memoized: Seq[TypedAST.ClassDefinition],
+    ctx: PhaseContext,
+    request: CompilationRequest
+  ): CompilationResult =
+    runPhase(phases.tailCallOptimization, memoized, ctx)(_ => ()) match {
       case None => result(Seq.empty, ctx, request)
       case Some(optimizedTail) =>
         runAfterTailCallOptimization(optimizedTail, ctx, request)
@@ -132,6 +207,7 @@ final class PipelineRunner(phases: CompilationPhases) {
     input: In,
     ctx: PhaseContext
   )(capture: Out => Unit): Option[Out] = {
+    if (ctx.cancelled()) throw new CancellationException(s"compilation cancelled before ${phase.name}")
     val start = now()
     try {
       val output = phase.run(input, ctx)
@@ -164,6 +240,9 @@ final class PipelineRunner(phases: CompilationPhases) {
       diagnostics = ctx.diagnostics,
       debugArtifacts = ctx.debugArtifacts,
       timings = ctx.timings.toSeq,
+      fileTimings = ctx.fileTimings.toSeq,
+      resolution = ctx.resolution,
+      simplification = ctx.simplification,
       sourceCount = request.sources.size,
       classpathSize = request.config.classPath.size
     )
@@ -0,0 +1,56 @@
+package onion.compiler.toolbox
+
+import java.util.concurrent.{ExecutionException, Executors, Future, ThreadFactory}
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs the independent per-item work of a compiler phase on a bounded pool.
+ *
+ * Results come back in input order whatever order the items finish in, so a phase
+ * that collects them sequentially afterwards produces the same units, classes and
+ * diagnostics as a loop would. With `parallelism <= 1` or a single item the work
+ * runs on the calling thread.
+ */
+object Parallel {
+  /**
+   * The compiler recurses over the syntax tree, so workers get the same stack the
+   * project's JVM options give the main thread (`-Xss16m` in `.jvmopts`) rather than
+   * the platform default.
+   */
+  private val WorkerStackBytes = 16L * 1024 * 1024
+
+  /**
+   * `f` applied to every item, in input order. If any call throws, the exception of
+   * the earliest failing item is rethrown unwrapped once the pool has stopped.
+   */
+  def map[A, B](items: Seq[A], parallelism: Int)(f: A => B): Seq[B] = {
+    val workers = math.min(parallelism, items.size)
+    if (workers <= 1) return items.map(f)
+
+    val pool = Executors.newFixedThreadPool(workers, new WorkerFactory)
+    try {
+      val futures: Seq[Future[B]] = items.map(item => pool.submit(() => f(item)))
+      futures.map { future =>
+        try future.get()
+        catch {
+          case e: ExecutionException =>
+            pool.shutdownNow()
+            throw e.getCause
+        }
+      }
+    } finally pool.shutdownNow()
+  }
+
+  /** The default worker count: one per available processor. */
+  def defaultParallelism: Int = Runtime.getRuntime.availableProcessors()
+
+  private final class WorkerFactory extends ThreadFactory {
+    private val count = new AtomicInteger()
+
+    override def newThread(task: Runnable): Thread = {
+      val thread = new Thread(null, task, s"onionc-worker-${count.incrementAndGet()}", WorkerStackBytes)
+      thread.setDaemon(true)
+      thread
+    }
+  }
+}
@@ -212,7 +212,7 @@ final class AssignmentTyping(
   private def resolveStaticFieldAssign(id: AST.Id, node: AST.Assignment, context: LocalContext): Option[Term] = {
     val ownerField: Option[(ClassType, FieldRef)] =
       Option(bodyContext.definition.field(id.name)).map(f => (bodyContext.definition, f))
-        .orElse(bodyContext.topLevelClass.flatMap(tc => Option(tc.field(id.name)).map(f => (tc, f))))
+        .orElse(bodyContext.topLevelClass.flatMap(tc => Option(MemberAccess.findField(tc, id.name)).map(f => (tc, f))))
     ownerField match {
       case Some((owner, field)) if (field.modifier & AST.M_STATIC) != 0 =>
         val value = typed(node.rhs, context, field.`type`).getOrElse(null)
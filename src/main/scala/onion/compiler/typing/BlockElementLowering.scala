@@ -115,23 +115,40 @@ final class BlockElementLowering(
             val collectionVar = new ClosureLocalBinding(0, context.add(context.newName, collection.`type`), collection.`type`, isMutable = true)
 
             if (collection.isArrayType) {
-              val counterVariable = new ClosureLocalBinding(0, context.add(context.newName, BasicType.INT), BasicType.INT, isMutable = true)
+              val counterVariable = temporary(context, BasicType.INT)
               val init =
                 new StatementBlock(
                   new ExpressionActionStatement(new SetLocal(collectionVar, collection)),
                   new ExpressionActionStatement(new SetLocal(counterVariable, new IntValue(0)))
                 )
-
-              block =
-                new ConditionalLoop(
-                  new BinaryTerm(LESS_THAN, BasicType.BOOLEAN, ref(counterVariable), new ArrayLength(ref(collectionVar))),
+              val element = assign(elementVar, indexref(collectionVar, ref(counterVariable)))
+              new StatementBlock(init, countedLoop(counterVariable, new ArrayLength(ref(collectionVar)), element, block))
+            } else if (isRangeType(collection.`type`) && elementVar.tp == BasicType.INT) {
+              // Count from start to endExclusive instead of boxing each Int through
+              // Range's iterator. A literal `a..b` is not even constructed.
+              val counterVariable = temporary(context, BasicType.INT)
+              val endVariable = temporary(context, BasicType.INT)
+              val rangeType = collection.`type`.asInstanceOf[ObjectType]
+              val init = collection match {
+                case literal: NewObject if literal.parameters.length == 3 =>
+                  val Array(start, end, inclusive) = literal.parameters
+                  val endExclusive = inclusive match {
+                    case exclusive: BoolValue if !exclusive.value => end
+                    case _ =>
+                      val params = Array[Term](end, inclusive)
+                      new CallStatic(rangeType, rangeType.findMethod("endExclusive", params)(0), params)
+                  }
+                  new StatementBlock(assign(counterVariable, start), assign(endVariable, endExclusive))
+                case _ =>
+                  def accessor(name: String): Term =
+                    new Call(ref(collectionVar), findMethod(node.collection, rangeType, name), new Array[Term](0))
                   new StatementBlock(
-                    assign(elementVar, indexref(collectionVar, ref(counterVariable))),
-                    block,
-                    assign(counterVariable, new BinaryTerm(ADD, BasicType.INT, ref(counterVariable), new IntValue(1)))
+                    assign(collectionVar, collection),
+                    assign(counterVariable, accessor("start")),
+                    assign(endVariable, accessor("endExclusive"))
                   )
-                )
-              new StatementBlock(init, block)
+              }
+              new StatementBlock(init, countedLoop(counterVariable, ref(endVariable), assign(elementVar, ref(counterVariable)), block))
             } else if (isMapType(collection.`type`)) {
               // `foreach x: T in aMap` otherwise failed with "method
               // Map[K, V].iterator() is not found", which leaks the desugaring and
@@ -635,6 +652,24 @@ final class BlockElementLowering(
   private def isMapType(tp: Type): Boolean =
     TypeRules.isSuperType(bodyContext.load("java.util.Map"), tp)
 
+  private def isRangeType(tp: Type): Boolean = tp match {
+    case ct: ClassType => ct.name == "onion.Range"
+    case _ => false
+  }
+
+  private def temporary(context: LocalContext, tp: Type): ClosureLocalBinding =
+    new ClosureLocalBinding(0, context.add(context.newName, tp), tp, isMutable = true)
+
+  /**
+   * `while counter < end { element; body }` with the increment as the loop's update,
+   * so a `continue` in the body still advances the counter.
+   */
+  private def countedLoop(counter: ClosureLocalBinding, end: Term, element: ActionStatement, body: ActionStatement): ActionStatement =
+    new ConditionalLoop(null, new BinaryTerm(LESS_THAN, BasicType.BOOLEAN, ref(counter), end), new StatementBlock(element, body), update = increment(counter))
+
+  private def increment(counter: ClosureLocalBinding): ActionStatement =
+    assign(counter, new BinaryTerm(ADD, BasicType.INT, ref(counter), new IntValue(1)))
+
   private def indexref(bind: ClosureLocalBinding, value: Term): Term =
     new RefArray(new RefLocal(bind), value)
 
@@ -36,7 +36,21 @@ private[compiler] final class CallableValueCallSupport(
       if (field != null && MemberAccess.isMemberAccessible(field, owner)) {
         field.`type` match
           case targetType: ObjectType =>
-            return callOnTarget(new RefField(new This(owner), field), targetType)
+            val target =
+              if ((field.modifier & AST.M_STATIC) != 0) new RefStaticField(node.location, owner, field)
+              else new RefField(new This(owner), field)
+            return callOnTarget(target, targetType)
+          case _ =>
+      }
+    }
+
+    // A top-level val/var holding a function is a static field of the top-level class (or of
+    // the class it extends, for a REPL input), reachable from static code as well.
+    bodyContext.topLevelClass.foreach { tc =>
+      val field = MemberAccess.findField(tc, node.name)
+      if (field != null && (field.modifier & AST.M_STATIC) != 0) {
+        field.`type` match
+          case targetType: ObjectType => return callOnTarget(new RefStaticField(node.location, tc, field), targetType)
           case _ =>
       }
     }
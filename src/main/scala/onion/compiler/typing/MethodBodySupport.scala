@@ -268,8 +268,7 @@ private[compiler] final class MethodBodySupport(
 
   private def markCapturedVariables(context: LocalContext, args: List[AST.Argument], block: AST.BlockExpression): Unit = {
     val paramNames = args.map(_.name).toSet
-    val capturedVars = CapturedVariableScanner.scan(block, paramNames)
-    context.markAsBoxed(capturedVars)
+    context.markAsBoxed(CapturedVariableScanner.scanBoxed(block, paramNames))
   }
 
   private def buildArgumentsWithDefaults(
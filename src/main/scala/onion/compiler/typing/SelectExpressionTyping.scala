@@ -42,6 +42,7 @@ final class SelectExpressionTyping(
     // name shadows it). Rewriting up front keeps pattern matching and the
     // exhaustiveness check consistent.
     val cases = rewriteBareEnumConstants(node.cases, condition.`type`, context)
+    val regexArms = planRegexArms(cases, context)
 
     val caseConditions = Buffer[Term]()
     val caseTerms = Buffer[Term]()
@@ -50,8 +51,9 @@ final class SelectExpressionTyping(
     val caseBindingData = Buffer[(PatternBindingInfo, List[ClosureLocalBinding], Option[GuardInfo])]()
     var hasWildcardPattern = false // Track if any pattern has a wildcard
 
-    for ((patterns, thenBlock) <- cases) {
-      val (cond, bindingInfo, hasWildcard, guardInfo) = processPatterns(patterns.toArray, condition.`type`, bind, context)
+    for (((patterns, thenBlock), caseIndex) <- cases.zipWithIndex) {
+      val regexArm = regexArms.map(plan => RegexArm(plan, plan.armOfCase.getOrElse(caseIndex, -1))).filter(_.index >= 0)
+      val (cond, bindingInfo, hasWildcard, guardInfo) = processPatterns(patterns.toArray, condition.`type`, bind, context, regexArm)
       if (hasWildcard) hasWildcardPattern = true
       if (cond == null) break(None)
 
@@ -358,6 +360,74 @@ final class SelectExpressionTyping(
   ): Option[(Term, PatternBindingInfo)] =
     destructuringProcessor.process(dp, bind, context)
 
+  /**
+   * Plans one-pass matching for a select with several `case re"..."` arms.
+   *
+   * Lowered arm by arm, every `case re"..."` calls `Regex::matchGroups`, so an
+   * input that matches none of them is scanned once per arm. When at least two
+   * cases are a single (optionally guarded) regex pattern, those arms are
+   * instead joined into one ordered alternation: the first of them to be tested
+   * runs `Regex::matchArms` once and stores which arm matched, and every arm
+   * then asks `Regex::armGroups` for its own groups. The alternation picks the
+   * same arm as the sequential chain, so only the scanning changes.
+   *
+   * A pattern whose meaning depends on its group numbering (a backreference)
+   * or that declares named groups (which may clash once several arms share one
+   * pattern) keeps the sequential path, as does any pattern that does not
+   * compile -- the per-arm check reports that one.
+   */
+  private def planRegexArms(
+    cases: List[(List[AST.Pattern], AST.BlockExpression)],
+    context: LocalContext
+  ): Option[RegexArmPlan] = {
+    def armPattern(patterns: List[AST.Pattern]): Option[String] = patterns match {
+      case List(AST.RegexPattern(_, pattern, _)) => Some(pattern)
+      case List(AST.GuardedPattern(_, AST.RegexPattern(_, pattern, _), _)) => Some(pattern)
+      case _ => None
+    }
+    val arms = cases.zipWithIndex.flatMap { case ((patterns, _), caseIndex) =>
+      armPattern(patterns).filter(isCombinableRegex).map(caseIndex -> _)
+    }
+    if (arms.length < 2) None
+    else {
+      val regexType = bodyContext.load("onion.Regex")
+      for {
+        matchArms <- regexType.methods("matchArms").find(m => m.arguments.length == 2 && Modifier.isStatic(m.modifier))
+        armGroups <- regexType.methods("armGroups").find(m => m.arguments.length == 2 && Modifier.isStatic(m.modifier))
+      } yield {
+        val matchType = matchArms.returnType
+        val matchVar = new ClosureLocalBinding(0, context.add(context.newName, matchType, isMutable = true), matchType, isMutable = true)
+        RegexArmPlan(regexType, matchArms, armGroups, matchVar, arms.map(_._2).toArray, arms.map(_._1).zipWithIndex.toMap)
+      }
+    }
+  }
+
+  private def isCombinableRegex(pattern: String): Boolean =
+    RegexBackreference.findFirstIn(pattern).isEmpty && RegexNamedGroup.findFirstIn(pattern).isEmpty &&
+      (try { java.util.regex.Pattern.compile(pattern); true } catch { case _: java.util.regex.PatternSyntaxException => false })
+
+  /** `\1`..`\9` or `\k<name>` not itself escaped. */
+  private val RegexBackreference = """(?<!\\)(?:\\\\)*\\(?:[1-9]|k<)""".r
+  /** `(?<name>` -- but not the lookbehinds `(?<=` and `(?<!`. */
+  private val RegexNamedGroup = """\(\?<[a-zA-Z]""".r
+
+  /**
+   * The shared state of a select's combined regex arms: the synthetic local
+   * holding the `Regex.ArmMatch`, the arm patterns in case order, and the arm
+   * number of each participating case.
+   */
+  private case class RegexArmPlan(
+    regexType: ClassType,
+    matchArms: Method,
+    armGroups: Method,
+    matchVar: ClosureLocalBinding,
+    patterns: Array[String],
+    armOfCase: Map[Int, Int]
+  )
+
+  /** One case's place in a [[RegexArmPlan]]. */
+  private case class RegexArm(plan: RegexArmPlan, index: Int)
+
   /** Returns (condition, pattern binding info, hasWildcard, optional guard info) */
   /** Rewrite a bare `case CONST:` over an enum scrutinee into `EnumType::CONST`.
     * A local variable of the same name takes precedence (keeping the change
@@ -390,7 +460,7 @@ final class SelectExpressionTyping(
     }
   }
 
-  private def processPatterns(patterns: Array[AST.Pattern], conditionType: Type, bind: ClosureLocalBinding, context: LocalContext): (Term, PatternBindingInfo, Boolean, Option[GuardInfo]) = boundary {
+  private def processPatterns(patterns: Array[AST.Pattern], conditionType: Type, bind: ClosureLocalBinding, context: LocalContext, regexArm: Option[RegexArm] = None): (Term, PatternBindingInfo, Boolean, Option[GuardInfo]) = boundary {
     var bindingInfo: PatternBindingInfo = NoBindings
     var hasWildcard = false
     var guardInfo: Option[GuardInfo] = None
@@ -485,15 +555,31 @@ final class SelectExpressionTyping(
         //   (__g = Regex::matchGroups(subject, pattern)) != null
         // matchGroups is ANCHORED (the whole subject must match) and returns
         // null on no-match; the bindings then read __g[i] in the case body.
+        // An arm of a combined multi-arm match reads its groups out of the
+        // shared one-pass match instead (see planRegexArms); the first arm
+        // tested is the one that runs it.
         val groupsType = groupsMethod.returnType
         val gVar = new ClosureLocalBinding(0, context.add(context.newName, groupsType, isMutable = true), groupsType, isMutable = true)
-        val groupsCall = new CallStatic(regexType, groupsMethod,
-          Array[Term](new RefLocal(bind), new StringValue(loc, pattern, stringType)))
+        val setup: Array[Term] = regexArm match {
+          case Some(RegexArm(plan, arm)) =>
+            val armCall = new CallStatic(plan.regexType, plan.armGroups,
+              Array[Term](new RefLocal(plan.matchVar), new IntValue(arm)))
+            val setGroups = new SetLocal(gVar, armCall)
+            if (arm > 0) Array[Term](setGroups)
+            else {
+              val patternsType = plan.matchArms.arguments(1).asInstanceOf[ArrayType]
+              val patternValues = plan.patterns.map(p => new StringValue(loc, p, stringType): Term)
+              val matchCall = new CallStatic(plan.regexType, plan.matchArms,
+                Array[Term](new RefLocal(bind), new NewArrayWithValues(loc, patternsType, patternValues)))
+              Array[Term](new SetLocal(plan.matchVar, matchCall), setGroups)
+            }
+          case None =>
+            val groupsCall = new CallStatic(regexType, groupsMethod,
+              Array[Term](new RefLocal(bind), new StringValue(loc, pattern, stringType)))
+            Array[Term](new SetLocal(gVar, groupsCall))
+        }
         bindingInfo = RegexBindings(gVar, names)
-        new Begin(loc, Array[Term](
-          new SetLocal(gVar, groupsCall),
-          new BinaryTerm(NOT_EQUAL, BasicType.BOOLEAN, new RefLocal(gVar), new NullValue(loc))
-        ))
+        new Begin(loc, setup :+ new BinaryTerm(NOT_EQUAL, BasicType.BOOLEAN, new RefLocal(gVar), new NullValue(loc)))
 
       case destructuringPattern: AST.DestructuringPattern =>
         processDestructuringPattern(destructuringPattern, bind, context) match {
@@ -506,7 +592,7 @@ final class SelectExpressionTyping(
 
       case AST.GuardedPattern(loc, innerPattern, guard) =>
         // Process the inner pattern recursively
-        val (innerCond, innerBindingInfo, innerHasWildcard, _) = processPatterns(Array(innerPattern), conditionType, bind, context)
+        val (innerCond, innerBindingInfo, innerHasWildcard, _) = processPatterns(Array(innerPattern), conditionType, bind, context, regexArm)
         if (innerCond == null) break((null, NoBindings, false, None))
 
         // Inherit binding info from inner pattern
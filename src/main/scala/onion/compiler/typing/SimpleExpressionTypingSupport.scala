@@ -336,10 +336,11 @@ private[compiler] final class SimpleExpressionTypingSupport(
           }
         case None =>
           // A bare name may be a top-level val/var, which lives as a static field
-          // on the synthetic top-level class. Resolve it as a static-field read so
-          // top-level functions, main, and methods of other classes can all reach it.
+          // on the synthetic top-level class (or on the class it extends, for a REPL
+          // input). Resolve it as a static-field read so top-level functions, main,
+          // and methods of other classes can all reach it.
           val topStatic = bodyContext.topLevelClass.flatMap { tc =>
-            val f = tc.field(node.name)
+            val f = MemberAccess.findField(tc, node.name)
             if (f != null && (f.modifier & AST.M_STATIC) != 0) Some(new RefStaticField(node.location, tc, f))
             else None
           }
@@ -47,7 +47,7 @@ private[compiler] final class TopLevelTypingSupport(
     // boxed before their bindings are added, mirroring markCapturedVariables in
     // MethodBodySupport. `args` is a real parameter slot, so it is excluded.
     val blockElements = unit.toplevels.collect { case be: AST.BlockElement => be }
-    context.markAsBoxed(CapturedVariableScanner.scanElements(blockElements, Set("args")))
+    context.markAsBoxed(CapturedVariableScanner.scanBoxedElements(blockElements, Set("args")))
     // A top-level `var` never reassigned across the script body is effectively
     // final and can be smart-cast like a `val` (issue #273).
     context.setReassignedNames(blockElements.flatMap(AssignedVariableScanner.scan).toSet)
@@ -4,8 +4,16 @@ import onion.compiler.*
 import onion.compiler.typing.session.TypingSession
 
 final class TypingDiagnostics(private val typing: Typing, private val session: TypingSession) {
-  private[compiler] val reporter: SemanticErrorReporter = session.global.diagnostics
-  private[compiler] val warningReporter: WarningReporter = session.global.warnings
+  /** The active unit's own reporter while its bodies are typed, the session's otherwise. */
+  private[compiler] def reporter: SemanticErrorReporter = {
+    val context = session.currentContext
+    if (context != null && context.errors != null) context.errors else session.global.diagnostics
+  }
+
+  private[compiler] def warningReporter: WarningReporter = {
+    val context = session.currentContext
+    if (context != null && context.warnings != null) context.warnings else session.global.warnings
+  }
 
   def finishOrThrow(): Unit = {
     val problems = reporter.getProblems
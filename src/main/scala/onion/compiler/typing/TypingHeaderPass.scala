@@ -34,7 +34,9 @@ final class TypingHeaderPass(private val typing: Typing, private val unitContext
         nonTypeCount += 1
     }
 
-    if (nonTypeCount > 0) {
+    // A unit that extends an earlier one always has its container, through which its classes
+    // reach the top-level values and functions of the units before it.
+    if (nonTypeCount > 0 || extendsEarlierUnit) {
       registerTopLevelContainer(imports)
     }
   }
@@ -222,7 +224,7 @@ final class TypingHeaderPass(private val typing: Typing, private val unitContext
   }
 
   private def registerTopLevelContainer(imports: Seq[ImportItem]): Unit = {
-    val node = ClassDefinition.newClass(unit.location, 0, typing.topClass, typing.table_.rootClass, new Array[ClassType](0))
+    val node = ClassDefinition.newClass(unit.location, 0, typing.topClass, topLevelSuperClass, new Array[ClassType](0))
     node.setSourceFile(Paths.nameOf(unit.sourceFile))
     node.setResolutionComplete(true)
     typing.table_.classes.add(node)
@@ -230,4 +232,23 @@ final class TypingHeaderPass(private val typing: Typing, private val unitContext
     typing.put(unit, node)
     typing.add(node.name, new NameResolver(NameResolutionContext.fromTyping(typing, imports)))
   }
+
+  /**
+   * The class the top-level container extends: `Object`, or the configured
+   * `CompilerConfig.superClass`. The REPL compiles each input against the container of the
+   * input before it, whose top-level vals and defs are then found as inherited statics.
+   */
+  private def extendsEarlierUnit: Boolean = configuredSuperClass.isDefined
+
+  private def configuredSuperClass: Option[String] = Option(typing.session.config.superClass).filter(_.nonEmpty)
+
+  private def topLevelSuperClass: ClassType =
+    configuredSuperClass match {
+      case None => typing.table_.rootClass
+      case Some(name) =>
+        typing.load(name).getOrElse {
+          typing.report(SemanticError.CLASS_NOT_FOUND, unit, name)
+          typing.table_.rootClass
+        }
+    }
 }
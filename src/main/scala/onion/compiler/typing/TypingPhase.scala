@@ -14,6 +14,8 @@ final class TypingPhase(config: CompilerConfig) extends CompilerPhase[Seq[AST.Co
 
   override def run(input: Seq[AST.CompilationUnit], ctx: PhaseContext): TypingPhaseResult = {
     val typing = new Typing(config)
+    ctx.recordResolution(typing.table_.probes)
+    ctx.recordClassTable(typing.table_)
     val classes = typing.process(input)
     TypingPhaseResult(
       classes = classes,
@@ -5,21 +5,22 @@ import onion.compiler.TypedAST
 
 import scala.collection.mutable.HashMap
 
+/** Shared by every unit; synchronized because the body pass binds from several workers. */
 final class AstBindingIndex {
   private val astToTyped = HashMap[AST.Node, TypedAST.Node]()
   private val typedToAst = HashMap[TypedAST.Node, AST.Node]()
 
-  def bind(ast: AST.Node, typed: TypedAST.Node): Unit = {
+  def bind(ast: AST.Node, typed: TypedAST.Node): Unit = synchronized {
     astToTyped(ast) = typed
     typedToAst(typed) = ast
   }
 
   def typedOf(ast: AST.Node): Option[TypedAST.Node] =
-    astToTyped.get(ast)
+    synchronized(astToTyped.get(ast))
 
   def astOf(typed: TypedAST.Node): Option[AST.Node] =
-    typedToAst.get(typed)
+    synchronized(typedToAst.get(typed))
 
   def allTypedBindings: Map[AST.Node, TypedAST.Node] =
-    astToTyped.toMap
+    synchronized(astToTyped.toMap)
 }
@@ -12,7 +12,7 @@ final case class NameResolutionContext(
   typeParamsProvider: () => TypeParamScope,
   typeParamsUpdater: TypeParamScope => Unit,
   typeAliases: mutable.Map[String, TypeAliasEntry],
-  typeAliasResolutionStack: mutable.Set[String],
+  typeAliasResolutionStackProvider: () => mutable.Set[String],
   rootClassProvider: () => TypedAST.ClassType,
   splitDescriptor: AST.TypeDescriptor => (AST.TypeDescriptor, Int),
   createFQCN: (String, String) => String,
@@ -22,6 +22,7 @@ final case class NameResolutionContext(
   def currentTypeParams: TypeParamScope = typeParamsProvider()
   def updateTypeParams(scope: TypeParamScope): Unit = typeParamsUpdater(scope)
   def rootClass: TypedAST.ClassType = rootClassProvider()
+  def typeAliasResolutionStack: mutable.Set[String] = typeAliasResolutionStackProvider()
 }
 
 object NameResolutionContext {
@@ -33,7 +34,7 @@ object NameResolutionContext {
       typeParamsProvider = () => typing.typeParams_,
       typeParamsUpdater = typing.setTypeParams,
       typeAliases = typing.typeAliases_,
-      typeAliasResolutionStack = typing.typeAliasResolutionStack_,
+      typeAliasResolutionStackProvider = () => typing.typeAliasResolutionStack_,
       rootClassProvider = () => typing.rootClass,
       splitDescriptor = typing.split,
       createFQCN = typing.createFQCN,
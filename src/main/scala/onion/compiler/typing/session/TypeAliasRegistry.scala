@@ -6,5 +6,8 @@ import scala.collection.mutable.{HashMap, Set => MutableSet}
 
 final class TypeAliasRegistry {
   val entries: HashMap[String, TypeAliasEntry] = HashMap()
-  val resolutionStack: MutableSet[String] = MutableSet()
+  // The aliases being expanded, for cycle detection. An expansion runs on one thread,
+  // and units' bodies may be typed on several, so each thread has its own.
+  private val resolutionStacks = ThreadLocal.withInitial[MutableSet[String]](() => MutableSet())
+  def resolutionStack: MutableSet[String] = resolutionStacks.get
 }
@@ -11,7 +11,8 @@ final class TypingSession(
   emptyTypeParams: TypeParamScope
 ) {
   private val unitContexts = HashMap[AST.CompilationUnit, TypingUnitContext]()
-  private var activeContext: TypingUnitContext = null
+  // Per thread: the body pass types several units at once, one per worker.
+  private val activeContext = new ThreadLocal[TypingUnitContext]
 
   def activate(unit: AST.CompilationUnit): TypingUnitContext = {
     val context = contextFor(unit)
@@ -20,13 +21,15 @@ final class TypingSession(
     context.currentAccess = 0
     context.currentTypeParams = emptyTypeParams
     context.reportingSuppressed = 0
-    activeContext = context
+    activeContext.set(context)
     context
   }
 
   def currentContext: TypingUnitContext =
-    activeContext
+    activeContext.get
 
   def contextFor(unit: AST.CompilationUnit): TypingUnitContext =
-    unitContexts.getOrElseUpdate(unit, TypingUnitContext.initial(unit, emptyTypeParams))
+    unitContexts.synchronized {
+      unitContexts.getOrElseUpdate(unit, TypingUnitContext.initial(unit, emptyTypeParams))
+    }
 }
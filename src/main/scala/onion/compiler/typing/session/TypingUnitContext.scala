@@ -1,6 +1,6 @@
 package onion.compiler.typing.session
 
-import onion.compiler.{AST, StaticImportList}
+import onion.compiler.{AST, SemanticErrorReporter, StaticImportList, WarningReporter}
 import onion.compiler.TypedAST.ClassDefinition
 import onion.compiler.typing.{NameResolver, TypeParamScope}
 
@@ -20,7 +20,12 @@ final class TypingUnitContext(
   // deferred and flushed afterwards. Other diagnostics (CLASS_NOT_FOUND, raw
   // types, ...) still report eagerly. See TypingTypeSupport.validateTypeApplication.
   var deferringBoundChecks: Int,
-  val deferredBoundChecks: scala.collection.mutable.Buffer[() => Unit]
+  val deferredBoundChecks: scala.collection.mutable.Buffer[() => Unit],
+  // Set while the unit's bodies are typed (Typing.processTypings): the unit reports
+  // into reporters of its own, which are merged into the session's in source order.
+  // Null otherwise, meaning the session's reporters.
+  var errors: SemanticErrorReporter = null,
+  var warnings: WarningReporter = null
 )
 
 object TypingUnitContext {
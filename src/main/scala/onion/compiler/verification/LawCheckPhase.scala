@@ -34,10 +34,15 @@ final class LawCheckPhase(config: CompilerConfig)
 
   def run(classes: Seq[CompiledClass], ctx: PhaseContext): Seq[CompiledClass] = {
     if (!config.checkLaws) return classes
-    // Same parent CL as Shell.run so synthesized methods resolve the onion stdlib.
-    val loader = new OnionClassLoader(classOf[OnionClassLoader].getClassLoader, config.classPath, classes)
-    val errors = ArrayBuffer.empty[CompileError]
     val thread = Thread.currentThread
+    // Same parent CL as Shell.run so synthesized methods resolve the onion stdlib. A unit
+    // compiled on top of an earlier one (a REPL input, see CompilerConfig.superClass) needs
+    // the loader it was compiled under, which is the one that defines the earlier classes.
+    val parent =
+      if (config.superClass == null || config.superClass.isEmpty) classOf[OnionClassLoader].getClassLoader
+      else thread.getContextClassLoader
+    val loader = new OnionClassLoader(parent, config.classPath, classes)
+    val errors = ArrayBuffer.empty[CompileError]
     val previous = thread.getContextClassLoader
     thread.setContextClassLoader(loader)
     try {
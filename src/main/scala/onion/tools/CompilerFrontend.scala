@@ -13,6 +13,7 @@ import onion.compiler.diagnostics.DiagnosticRenderer
 import onion.compiler.exceptions.ScriptException
 import onion.compiler.pipeline.{CompilationResult, CompileProfileFormat, CompileProfileReporter, CompileProfileSettings}
 import onion.compiler.toolbox.Message
+import onion.compiler.toolbox.Parallel
 import onion.compiler.toolbox.Systems
 import onion.compiler.verification.ArgGenerator
 import onion.tools.option._
@@ -70,6 +71,9 @@ object CompilerFrontend {
   private final val SHOW_EFFECTS: String = "--effects"
   // Named after javac's -g:none, and meaning the same thing: no LocalVariableTable.
   private final val NO_DEBUG_INFO: String = "-g:none"
+  private final val THREADS: String = "--threads"
+  private final val INDY_CLOSURES: String = "--indy-closures"
+  private final val INLINE_HIGHER_ORDER: String = "--inline-higher-order"
   private final val DEFAULT_CLASSPATH: Array[String] = Array[String](".")
   private final val DEFAULT_ENCODING: String = System.getProperty("file.encoding")
   private final val DEFAULT_OUTPUT: String = "."
@@ -97,7 +101,10 @@ class CompilerFrontend {
     config(LAW_SEED, true),
     config(LAW_SAMPLES, true),
     config(SHOW_EFFECTS, false),
-    config(NO_DEBUG_INFO, false)
+    config(NO_DEBUG_INFO, false),
+    config(THREADS, true),
+    config(INDY_CLOSURES, false),
+    config(INLINE_HIGHER_ORDER, false)
   )
 
   def run(commandLine: Array[String], verbose: Boolean = false): Int = {
@@ -160,6 +167,11 @@ class CompilerFrontend {
          |  --effects                   Print each method's inferred effect set to stderr
          |  -g:none                     Omit the LocalVariableTable (smaller class files,
          |                              but a debugger can no longer show variable values)
+         |  --threads <n>               Worker threads for parsing, typing and codegen (default: CPUs)
+         |  --indy-closures             Compile closures to methods created by invokedynamic
+         |                              instead of one class per closure
+         |  --inline-higher-order       Inline map/filter/forEach/foldl calls given a closure
+         |                              literal into loops in the caller
          |  -h, --help                  Show this help message
          |  -v, --version               Show version information
          |
@@ -198,8 +210,11 @@ class CompilerFrontend {
     val dumpAst = option.get(DUMP_AST).contains(NoValuedParam)
     val noCheckLaws = option.get(NO_CHECK_LAWS).contains(NoValuedParam)
     val noDebugInfo = option.get(NO_DEBUG_INFO).contains(NoValuedParam)
+    val indyClosures = option.get(INDY_CLOSURES).contains(NoValuedParam)
+    val inlineHigherOrder = option.get(INLINE_HIGHER_ORDER).contains(NoValuedParam)
     val lawSeed = longParam(option, LAW_SEED, ArgGenerator.DefaultSeed)
     val lawSamples = intParam(option, LAW_SAMPLES, ArgGenerator.DefaultSamples)
+    val parallelism = intParam(option, THREADS, Parallel.defaultParallelism)
     val dumpTypedAst = option.get(DUMP_TYPED_AST).contains(NoValuedParam)
     val compileProfile = parseCompileProfile(option)
     val warningLevel = parseWarningLevel(option.get(WARN_LEVEL))
@@ -226,7 +241,10 @@ class CompilerFrontend {
         checkLaws = !noCheckLaws,
         emitDebugInfo = !noDebugInfo,
         lawSeed = lawSeed,
-        lawSamples = lawSamples
+        lawSamples = lawSamples,
+        parallelism = parallelism,
+        indyClosures = indyClosures,
+        inlineHigherOrder = inlineHigherOrder
       )
     }
   }
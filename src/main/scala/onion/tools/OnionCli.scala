@@ -4,6 +4,8 @@ import java.io.PrintStream
 import java.nio.file.Path
 import java.nio.file.Paths
 
+import onion.tools.daemon.DaemonClient
+import onion.tools.daemon.DaemonCommand
 import onion.tools.project.ProjectCommands
 
 private[tools] trait LegacyCommands:
@@ -21,6 +23,7 @@ object OnionCli:
       |  onion doc [-d <dir>] [<source.on>...]
       |  onion fmt [--check] [<path>...]
       |  onion repl [repl-options...]
+      |  onion daemon <start|stop|status>
       |  onion [script-runner-options...] <source.on> [arguments...]
       |""".stripMargin
 
@@ -42,7 +45,17 @@ object OnionCli:
         Repl.main(args)
         0
 
-    run(args, cwd, out, err, legacy, ProjectCommands())
+    // A running compile daemon builds with warm caches; without one, build in process.
+    val projects = new ProjectCommands:
+      override def build(cwd: Path, verbose: Boolean, out: PrintStream, err: PrintStream): Int =
+        DaemonClient.located().flatMap(_.build(cwd, verbose)) match
+          case Some(finished) =>
+            out.print(finished.out)
+            err.print(finished.err)
+            finished.exitCode
+          case None => super.build(cwd, verbose, out, err)
+
+    run(args, cwd, out, err, legacy, projects)
 
   private[tools] def run(
     args: Array[String],
@@ -85,6 +98,8 @@ object OnionCli:
         onion.tools.format.FormatCommand.run(cwd, args.drop(1), out, err)
       case Some("repl") =>
         legacy.repl(args.drop(1))
+      case Some("daemon") =>
+        DaemonCommand.run(args.drop(1), out, err)
       case Some(_) =>
         legacy.script(args)
 
@@ -10,6 +10,8 @@ package onion.tools
 import onion.compiler._
 import onion.compiler.CompilationOutcome.{Failure, Success}
 import onion.compiler.diagnostics.DiagnosticRenderer
+import onion.compiler.exceptions.ScriptException
+import onion.compiler.pipeline.CompilationResult
 import org.objectweb.asm.ClassReader
 import org.jline.reader._
 import org.jline.reader.impl.DefaultParser
@@ -75,11 +77,6 @@ object Repl {
 class Repl(classpath: Seq[String]) {
   import Repl._
 
-  private sealed trait Snippet {
-    def code: String
-  }
-  private case class RawSnippet(code: String) extends Snippet
-  private case class ExprSnippet(code: String, name: String) extends Snippet
   private case class TypedSessionAnalysis(
     rewritten: Seq[AST.CompilationUnit],
     typed: Seq[TypedAST.ClassDefinition],
@@ -93,11 +90,14 @@ class Repl(classpath: Seq[String]) {
   private val config = new CompilerConfig(classpath, null, encoding, "", 10)
   private val shell = Shell(classpath)
   private val history = ArrayBuffer[String]()
-  private val sessionSnippets = ArrayBuffer[Snippet]()
   private val sessionImports = ArrayBuffer[(String, String)]()
-  private val compiledCache = mutable.HashMap[(String, String), Either[Seq[CompileError], Seq[CompiledClass]]]()
-  private val typedCache = mutable.HashMap[(String, String), Either[Seq[CompileError], TypedSessionAnalysis]]()
   private var sessionModule: Option[String] = None
+  // Each input is compiled and run on its own. Its top-level class extends `sessionClass`, the
+  // class of the last input with top-level code, so earlier vals, vars and defs are inherited
+  // statics; it is defined by a loader under `sessionLoader`, which sees every earlier input.
+  private var sessionLoader: ClassLoader = rootLoader()
+  private var sessionClass: Option[String] = None
+  private val sessionClasses = mutable.HashSet[String]()
   private var resultCounter = 0
   private var inputCounter = 0
   private var dummyCounter = 0
@@ -372,13 +372,13 @@ class Repl(classpath: Seq[String]) {
         true
 
       case ":reset" =>
-        sessionSnippets.clear()
         sessionImports.clear()
         sessionModule = None
+        sessionLoader = rootLoader()
+        sessionClass = None
+        sessionClasses.clear()
         resultCounter = 0
         inputCounter = 0
-        compiledCache.clear()
-        typedCache.clear()
         println(Colors.GREEN + "Session reset." + Colors.RESET)
         true
 
@@ -491,9 +491,8 @@ class Repl(classpath: Seq[String]) {
               return
             }
             val nextModule = Some(name)
-            val source = buildSessionSource(nextModule, sessionImports.toSeq, sessionSnippets.toSeq, printLastResult = false)
             withTiming("module") {
-              compileSession(source, fileName)
+              compileInput("0", fileName, nextModule, sessionImports.toSeq)
             } match {
               case Right(_) =>
                 sessionModule = nextModule
@@ -503,9 +502,8 @@ class Repl(classpath: Seq[String]) {
             }
           case ImportInput(entries) =>
             val nextImports = mergeImports(sessionImports.toSeq, entries)
-            val source = buildSessionSource(sessionModule, nextImports, sessionSnippets.toSeq, printLastResult = false)
             withTiming("import") {
-              compileSession(source, fileName)
+              compileInput("0", fileName, sessionModule, nextImports)
             } match {
               case Right(_) =>
                 sessionImports.clear()
@@ -515,51 +513,33 @@ class Repl(classpath: Seq[String]) {
                 printErrors(errors)
             }
           case DeclarationInput(snippet) =>
-            val nextSnippets = sessionSnippets.toSeq :+ RawSnippet(snippet)
-            val source = buildSessionSource(sessionModule, sessionImports.toSeq, nextSnippets, printLastResult = false)
             withTiming("declaration") {
-              compileSession(source, fileName)
+              compileInput(snippet, fileName)
             } match {
-              case Right(_) =>
-                sessionSnippets += RawSnippet(snippet)
-                inputCounter += 1
+              case Right(compiled) =>
+                if (runInput(compiled.classes, fileName, None, terminal, readerOpt)) inputCounter += 1
               case Left(errors) =>
                 printErrors(errors)
             }
           case ExpressionInput(snippet) =>
             val resName = s"res$resultCounter"
-            val exprSnippet = ExprSnippet(snippet, resName)
-            val nextSnippets = sessionSnippets.toSeq :+ exprSnippet
-            // Best-effort: resolve the result's static type so the printed line
-            // reads `resN: Type = value` (Scala-REPL style). Falls back to no
-            // type annotation if analysis fails.
-            val resultType: Option[String] = {
-              val typeSource = buildSessionSource(sessionModule, sessionImports.toSeq, nextSnippets, printLastResult = false)
-              analyzeTypedSession(typeSource, fileName) match {
-                case Right(analysis) => findSnippetType(analysis, resName).map(formatType)
-                case Left(_) => None
-              }
-            }
-            val source = buildSessionSource(sessionModule, sessionImports.toSeq, nextSnippets, printLastResult = true, resultType = resultType)
             withTiming("expression") {
-              compileSession(source, fileName)
+              compileInput(resultSource(resName, snippet), fileName)
             } match {
-              case Right(classes) =>
-                runClasses(classes, terminal, readerOpt)
-                sessionSnippets += exprSnippet
-                resultCounter += 1
-                inputCounter += 1
+              case Right(compiled) =>
+                // The result's static type, so the printed line reads `resN: Type = value`
+                // (Scala-REPL style); no annotation when it cannot be found.
+                val resultType = findSnippetType(analysisOf(compiled), resName).map(formatType)
+                if (runInput(compiled.classes, fileName, Some(resName -> resultType), terminal, readerOpt)) {
+                  resultCounter += 1
+                  inputCounter += 1
+                }
               case Left(errors) if isVoidAssignmentErrors(errors) =>
-                val rawSnippet = RawSnippet(snippet)
-                val fallbackSnippets = sessionSnippets.toSeq :+ rawSnippet
-                val fallbackSource = buildSessionSource(sessionModule, sessionImports.toSeq, fallbackSnippets, printLastResult = false)
                 withTiming("expression-fallback") {
-                  compileSession(fallbackSource, fileName)
+                  compileInput(snippet, fileName)
                 } match {
-                  case Right(classes) =>
-                    runClasses(classes, terminal, readerOpt)
-                    sessionSnippets += rawSnippet
-                    inputCounter += 1
+                  case Right(compiled) =>
+                    if (runInput(compiled.classes, fileName, None, terminal, readerOpt)) inputCounter += 1
                   case Left(fallbackErrors) =>
                     printErrors(fallbackErrors)
                 }
@@ -572,15 +552,9 @@ class Repl(classpath: Seq[String]) {
 
   private def showType(expr: String): Unit = {
     val resName = "__repl_type__"
-    val source = buildSessionSource(
-      sessionModule,
-      sessionImports.toSeq,
-      sessionSnippets.toSeq :+ ExprSnippet(expr, resName),
-      printLastResult = false
-    )
-    analyzeTypedSession(source, "typecheck.on") match {
-      case Right(analysis) =>
-        findSnippetType(analysis, resName) match {
+    compileInput(resultSource(resName, expr), "typecheck.on") match {
+      case Right(compiled) =>
+        findSnippetType(analysisOf(compiled), resName) match {
           case Some(tp) => println(s"${Colors.CYAN}$expr${Colors.RESET}: ${formatType(tp)}")
           case None => println(s"${Colors.YELLOW}Type information is unavailable for that expression.${Colors.RESET}")
         }
@@ -598,33 +572,19 @@ class Repl(classpath: Seq[String]) {
 
   private def showAst(expr: String): Unit = {
     val resName = "__repl_ast__"
-    val source = buildSessionSource(
-      sessionModule,
-      sessionImports.toSeq,
-      sessionSnippets.toSeq :+ ExprSnippet(expr, resName),
-      printLastResult = false
-    )
-    val fileName = s"repl_ast_${inputCounter + 1}.on"
-    val compiler = new OnionCompiler(config)
-    val result = compiler.compileDetailed(Seq(new StreamInputSource(() => new StringReader(source), fileName)))
-    if (result.hasErrors) {
-      printErrors(result.allErrors)
-    } else {
-      println(DiagnosticRenderer.renderAst(result.debugArtifacts.parsedUnits.getOrElse(Seq.empty)))
+    compileInput(resultSource(resName, expr), s"repl_ast_${inputCounter + 1}.on") match {
+      case Right(compiled) =>
+        println(DiagnosticRenderer.renderAst(compiled.debugArtifacts.parsedUnits.getOrElse(Seq.empty)))
+      case Left(errors) =>
+        printErrors(errors)
     }
   }
 
   private def showTyped(expr: String): Unit = {
     val resName = "__repl_typed__"
-    val source = buildSessionSource(
-      sessionModule,
-      sessionImports.toSeq,
-      sessionSnippets.toSeq :+ ExprSnippet(expr, resName),
-      printLastResult = false
-    )
-    analyzeTypedSession(source, s"repl_typed_${inputCounter + 1}.on") match {
-      case Right(analysis) =>
-        println(DiagnosticRenderer.renderTyped(analysis.typed))
+    compileInput(resultSource(resName, expr), s"repl_typed_${inputCounter + 1}.on") match {
+      case Right(compiled) =>
+        println(DiagnosticRenderer.renderTyped(analysisOf(compiled).typed))
       case Left(errors) =>
         printErrors(errors)
     }
@@ -632,15 +592,9 @@ class Repl(classpath: Seq[String]) {
 
   private def showBytecode(expr: String): Unit = {
     val resName = "__repl_bytecode__"
-    val source = buildSessionSource(
-      sessionModule,
-      sessionImports.toSeq,
-      sessionSnippets.toSeq :+ ExprSnippet(expr, resName),
-      printLastResult = false
-    )
-    compileSession(source, s"repl_bytecode_${inputCounter + 1}.on") match {
-      case Right(classes) =>
-        println(renderBytecode(classes))
+    compileInput(resultSource(resName, expr), s"repl_bytecode_${inputCounter + 1}.on") match {
+      case Right(compiled) =>
+        println(renderBytecode(compiled.classes))
       case Left(errors) =>
         printErrors(errors)
     }
@@ -749,13 +703,7 @@ class Repl(classpath: Seq[String]) {
     merged.toSeq
   }
 
-  private def buildSessionSource(
-    moduleName: Option[String],
-    imports: Seq[(String, String)],
-    snippets: Seq[Snippet],
-    printLastResult: Boolean,
-    resultType: Option[String] = None
-  ): String = {
+  private def inputSource(moduleName: Option[String], imports: Seq[(String, String)], body: String): String = {
     val builder = new StringBuilder()
     moduleName.foreach { name =>
       builder.append("module ").append(name).append("\n")
@@ -767,26 +715,14 @@ class Repl(classpath: Seq[String]) {
       }
       builder.append("}\n")
     }
-    snippets.zipWithIndex.foreach { case (snippet, idx) =>
-      snippet match {
-        case RawSnippet(code) =>
-          builder.append(code).append("\n")
-        case ExprSnippet(code, name) =>
-          builder.append("val ").append(name).append(" = {\n")
-          builder.append(code).append("\n")
-          builder.append("}\n")
-          if (printLastResult && idx == snippets.length - 1) {
-            val typePart = resultType.map(t => ": " + t).getOrElse("")
-            builder.append("IO::println(\"").append(name).append(typePart).append(" = \" + ").append(name).append(")\n")
-          }
-      }
-    }
-    if (snippets.isEmpty) {
-      builder.append("0\n")
-    }
+    builder.append(body).append("\n")
     builder.toString()
   }
 
+  /** An expression input, bound to `name` so that later inputs can use its value. */
+  private def resultSource(name: String, code: String): String =
+    s"val $name = {\n$code\n}"
+
   private def renderImportEntry(alias: String, path: String): String = {
     val last = lastSegment(path)
     if (alias == "*" || alias == last) path else s"$alias = $path"
@@ -797,49 +733,79 @@ class Repl(classpath: Seq[String]) {
     if (index < 0) path else path.substring(index + 1)
   }
 
-  private def compileSession(source: String, fileName: String): Either[Seq[CompileError], Seq[CompiledClass]] = {
-    compiledCache.getOrElseUpdate(
-      (source, fileName),
-      {
-        val compiler = new OnionCompiler(config)
-        compiler.compile(Seq(new StreamInputSource(() => new StringReader(source), fileName))) match {
-          case Success(classes) => Right(classes)
-          case Failure(errors) => Left(errors)
-        }
-      }
-    )
+  /**
+   * Compiles one input by itself, against the session: its top-level class extends the class
+   * of the last input with top-level code, and earlier classes are found through the session's
+   * class loaders. The cost of an input therefore does not grow with the length of the session.
+   */
+  private def compileInput(
+    body: String,
+    fileName: String,
+    moduleName: Option[String] = sessionModule,
+    imports: Seq[(String, String)] = sessionImports.toSeq
+  ): Either[Seq[CompileError], CompilationResult] = {
+    val source = inputSource(moduleName, imports, body)
+    val compiler = new OnionCompiler(config.copy(superClass = sessionClass.getOrElse("")))
+    val result = withContextClassLoader(sessionLoader) {
+      compiler.compileDetailed(Seq(new StreamInputSource(() => new StringReader(source), fileName)))
+    }
+    if (result.hasErrors) Left(result.allErrors) else Right(result)
   }
 
-  private def analyzeTypedSession(source: String, fileName: String): Either[Seq[CompileError], TypedSessionAnalysis] = {
-    typedCache.getOrElseUpdate(
-      (source, fileName),
-      {
-        val compiler = new OnionCompiler(config)
-        val result = compiler.compileDetailed(Seq(new StreamInputSource(() => new StringReader(source), fileName)))
-        if (result.hasErrors) {
-          Left(result.allErrors)
-        } else {
-          Right(
-            TypedSessionAnalysis(
-              rewritten = result.debugArtifacts.rewrittenUnits.getOrElse(Seq.empty),
-              typed = result.debugArtifacts.typedClasses.getOrElse(Seq.empty),
-              typedBindings = result.debugArtifacts.typedBindings.getOrElse(Map.empty)
-            )
-          )
-        }
-      }
+  private def analysisOf(result: CompilationResult): TypedSessionAnalysis =
+    TypedSessionAnalysis(
+      rewritten = result.debugArtifacts.rewrittenUnits.getOrElse(Seq.empty),
+      typed = result.debugArtifacts.typedClasses.getOrElse(Seq.empty),
+      typedBindings = result.debugArtifacts.typedBindings.getOrElse(Map.empty)
     )
-  }
 
-  private def runClasses(classes: Seq[CompiledClass], terminal: Terminal, readerOpt: Option[LineReader]): Unit = {
-    val encoding = config.encoding
-    val (result, output) = captureStdOut(encoding) {
-      shell.run(classes, Array())
+  /**
+   * Defines the classes of an input in a loader under the session's and runs them, printing
+   * the value of `result` (a field name and its type) afterwards. Only an input that ran to
+   * the end joins the session; one that redeclares a class of an earlier input is not run,
+   * since the class loaders would keep handing out the earlier class.
+   */
+  private def runInput(
+    classes: Seq[CompiledClass],
+    fileName: String,
+    result: Option[(String, Option[String])],
+    terminal: Terminal,
+    readerOpt: Option[LineReader]
+  ): Boolean = {
+    val topClass = sessionModule.fold("")(_ + ".") + fileName.stripSuffix(".on") + "Main"
+    val redeclared = classes.map(_.className).filter(sessionClasses.contains)
+    if (redeclared.nonEmpty) {
+      println(Colors.RED + s"${redeclared.mkString(", ")} already declared in this session; use :reset to start over." + Colors.RESET)
+      return false
+    }
+    val loader = new OnionClassLoader(sessionLoader, Seq.empty, classes)
+    val (failure, output) = captureStdOut(config.encoding) {
+      try {
+        shell.runIn(loader, classes, Array.empty[String])
+        result.foreach { case (name, resultType) =>
+          val value = Class.forName(topClass, false, loader).getField(name).get(null)
+          val typePart = resultType.map(t => ": " + t).getOrElse("")
+          System.out.println(s"$name$typePart = ${String.valueOf(value)}")
+        }
+        None
+      } catch {
+        case e: ScriptException => Some(e.getCause)
+      }
     }
-    result match {
-      case Shell.Success(_) => ()
-      case Shell.Failure(_) => ()
+    printOutput(output, terminal, readerOpt)
+    failure match {
+      case Some(cause) =>
+        Console.err.print(Colors.RED + RuntimeErrorReporter.render(cause, fileName) + Colors.RESET)
+        false
+      case None =>
+        sessionLoader = loader
+        if (classes.exists(_.className == topClass)) sessionClass = Some(topClass)
+        sessionClasses ++= classes.map(_.className)
+        true
     }
+  }
+
+  private def printOutput(output: String, terminal: Terminal, readerOpt: Option[LineReader]): Unit = {
     val normalizedOutput = if (output.endsWith(System.lineSeparator())) output else output + System.lineSeparator()
     if (normalizedOutput.trim.nonEmpty) {
       readerOpt match {
@@ -851,6 +817,18 @@ class Repl(classpath: Seq[String]) {
     }
   }
 
+  /** The loader the first input's classes are defined under: the classpath over the REPL's own. */
+  private def rootLoader(): ClassLoader =
+    new OnionClassLoader(classOf[OnionClassLoader].getClassLoader, classpath, Seq.empty)
+
+  private def withContextClassLoader[T](loader: ClassLoader)(body: => T): T = {
+    val thread = Thread.currentThread
+    val previous = thread.getContextClassLoader
+    thread.setContextClassLoader(loader)
+    try body
+    finally thread.setContextClassLoader(previous)
+  }
+
   private def captureStdOut[T](encoding: String)(block: => T): (T, String) = {
     val original = System.out
     val buffer = new java.io.ByteArrayOutputStream()
@@ -0,0 +1,175 @@
+package onion.tools
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.security.MessageDigest
+
+import scala.jdk.CollectionConverters.*
+import scala.util.Using
+
+import onion.compiler.CompilerConfig
+import onion.compiler.diagnostics.DiagnosticBag
+import onion.compiler.environment.ClassFileTable
+import onion.compiler.pipeline.CompilationResult
+import onion.compiler.pipeline.DebugArtifacts
+import onion.tools.daemon.DaemonProtocol
+import onion.tools.daemon.DaemonReply
+import onion.tools.project.ClassSummary
+
+/**
+ * Compiled scripts kept on disk between runs, so `onion <script.on>` skips the compile when
+ * nothing it depends on changed.
+ *
+ * An entry is keyed by the script's name and bytes, the settings that change what a compile
+ * produces, the compiler build and Java release ([[DaemonProtocol.compilerIdentity]]) and the
+ * classpath: the kind of every entry and the size and modification time of every jar, the
+ * way [[ClassFileTable.stampOf]] tells retained tables apart. A classpath directory is not
+ * walked; instead the entry records the class files in it that the script's classes refer
+ * to, and is only used while each of them keeps its size and modification time.
+ *
+ * Only compiles without errors are stored, together with their warnings, which are shown
+ * again on every run. Entries are touched when used, and the least recently used ones are
+ * removed once the directory holds more than `maxBytes`. The cache is an optimization only:
+ * an entry that cannot be read or written is treated as missing.
+ */
+final class ScriptCache(directory: Path, maxBytes: Long = ScriptCache.DefaultMaxBytes):
+  import ScriptCache.*
+
+  /** The stored result for `sources`, given as `(name, bytes)`, if it is still current. */
+  def load(config: CompilerConfig, sources: Seq[(String, Array[Byte])]): Option[CompilationResult] =
+    val entry = entryFor(config, sources)
+    try
+      if !Files.isRegularFile(entry) then None
+      else
+        val reply = Using.resource(DataInputStream(BufferedInputStream(Files.newInputStream(entry)))) { in =>
+          if in.readInt() != Magic then None
+          else
+            val dependencies = Vector.fill(in.readInt())(Dependency(Paths.get(in.readUTF()), in.readLong(), in.readLong()))
+            if dependencies.forall(_.isCurrent) then Some(DaemonProtocol.readReply(in)) else None
+        }
+        reply match
+          case Some(DaemonReply.Compiled(classes, diagnostics)) =>
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()))
+            Some(
+              CompilationResult(
+                classes = classes,
+                diagnostics = diagnostics,
+                debugArtifacts = DebugArtifacts(),
+                timings = Seq.empty,
+                sourceCount = sources.size,
+                classpathSize = config.classPath.size
+              )
+            )
+          case _ =>
+            Files.deleteIfExists(entry)
+            None
+    catch case _: IOException => None
+
+  /** Stores `result` for `sources` unless it has errors, then trims the cache to its bound. */
+  def store(config: CompilerConfig, sources: Seq[(String, Array[Byte])], result: CompilationResult): Unit =
+    if !result.hasErrors then
+      try
+        Files.createDirectories(directory)
+        val entry = entryFor(config, sources)
+        val staged = Files.createTempFile(directory, "entry", ".tmp")
+        try
+          Using.resource(DataOutputStream(BufferedOutputStream(Files.newOutputStream(staged)))) { out =>
+            val dependencies = directoryDependencies(config, result)
+            out.writeInt(Magic)
+            out.writeInt(dependencies.size)
+            dependencies.foreach { dependency =>
+              out.writeUTF(dependency.file.toString)
+              out.writeLong(dependency.size)
+              out.writeLong(dependency.modified)
+            }
+            val warnings = DiagnosticBag(warnings = result.diagnostics.warnings)
+            DaemonProtocol.writeReply(out, DaemonReply.Compiled(result.classes.toVector, warnings))
+          }
+          Files.move(staged, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        finally Files.deleteIfExists(staged)
+        evict()
+      catch case _: IOException => ()
+
+  private def entryFor(config: CompilerConfig, sources: Seq[(String, Array[Byte])]): Path =
+    directory.resolve(keyOf(config, sources) + ".bin")
+
+  /** Removes the least recently used entries until the rest fit in `maxBytes`. */
+  private def evict(): Unit =
+    val entries = Using.resource(Files.list(directory))(_.iterator.asScala.filter(_.toString.endsWith(".bin")).toVector)
+      .flatMap(entry =>
+        try Some((entry, Files.getLastModifiedTime(entry).toMillis, Files.size(entry)))
+        catch case _: IOException => None
+      )
+      .sortBy(-_._2)
+    var kept = 0L
+    entries.foreach { case (entry, _, size) =>
+      kept += size
+      if kept > maxBytes then
+        try Files.deleteIfExists(entry)
+        catch case _: IOException => ()
+    }
+
+object ScriptCache:
+  private val Magic = 0x4f4e5331 // "ONS1"
+
+  /** Bumped whenever the key or the entry layout changes. */
+  val SchemaVersion = 1
+
+  val DefaultMaxBytes: Long = 64L * 1024 * 1024
+
+  /** `~/.onion/cache/scripts`, shared by every script the current user runs. */
+  def defaultDirectory: Path = Paths.get(System.getProperty("user.home"), ".onion", "cache", "scripts")
+
+  /** A class file in a classpath directory, as it was when the entry was stored. */
+  private final case class Dependency(file: Path, size: Long, modified: Long):
+    def isCurrent: Boolean =
+      try Files.size(file) == size && Files.getLastModifiedTime(file).toMillis == modified
+      catch case _: IOException => false
+
+  def keyOf(config: CompilerConfig, sources: Seq[(String, Array[Byte])]): String =
+    val digest = MessageDigest.getInstance("SHA-256")
+    update(digest, SchemaVersion.toString.getBytes(UTF_8))
+    update(digest, DaemonProtocol.compilerIdentity.getBytes(UTF_8))
+    // The worker count does not change the output, so it does not split the cache.
+    val settings = ByteArrayOutputStream()
+    DaemonProtocol.writeConfig(DataOutputStream(settings), config.copy(parallelism = 1))
+    update(digest, settings.toByteArray)
+    update(digest, ClassFileTable.stampOf(absoluteClassPath(config).mkString(File.pathSeparator)).getBytes(UTF_8))
+    sources.foreach { case (name, bytes) =>
+      update(digest, name.getBytes(UTF_8))
+      update(digest, bytes)
+    }
+    digest.digest().map(byte => f"${byte & 0xff}%02x").mkString
+
+  private def absoluteClassPath(config: CompilerConfig): Seq[String] =
+    config.classPath.filter(_.nonEmpty).map(entry => Paths.get(entry).toAbsolutePath.normalize.toString)
+
+  /** The class files in classpath directories that the compiled classes name. */
+  private def directoryDependencies(config: CompilerConfig, result: CompilationResult): Vector[Dependency] =
+    val directories = absoluteClassPath(config).map(Paths.get(_)).filter(Files.isDirectory(_))
+    if directories.isEmpty then Vector.empty
+    else
+      val compiled = result.classes.map(_.className).toSet
+      val referenced = result.classes.flatMap(c => ClassSummary.read(c.content).references).toSet -- compiled
+      referenced.toVector.sorted.flatMap { name =>
+        val relative = name.replace('.', '/') + ".class"
+        directories.map(_.resolve(relative)).filter(Files.isRegularFile(_)).map { file =>
+          Dependency(file, Files.size(file), Files.getLastModifiedTime(file).toMillis)
+        }
+      }
+
+  private def update(digest: MessageDigest, bytes: Array[Byte]): Unit =
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array())
+    digest.update(bytes)
@@ -8,16 +8,21 @@
 package onion.tools
 
 import java.io.UnsupportedEncodingException
+import java.nio.file.{Files, Paths}
 import java.lang.System.err
 import onion.compiler._
 import onion.compiler.diagnostics.DiagnosticRenderer
 import onion.compiler.exceptions.ScriptException
 import onion.compiler.pipeline.{CompilationResult, CompileProfileFormat, CompileProfileReporter, CompileProfileSettings}
+import onion.compiler.toolbox.Inputs
 import onion.compiler.toolbox.Message
 import onion.compiler.toolbox.Systems
 import onion.compiler.verification.ArgGenerator
+import onion.tools.daemon.DaemonClient
 import onion.tools.option._
 
+import scala.util.{Try, Using}
+
 /**
  *
  * @author Kota Mizushima
@@ -156,6 +161,7 @@ object ScriptRunner {
   private final val LAW_SEED: String = "--law-seed"
   private final val LAW_SAMPLES: String = "--law-samples"
   private final val SHOW_EFFECTS: String = "--effects"
+  private final val NO_CACHE: String = "--no-cache"
   private final val STACKTRACE: String = "--stacktrace"
   private final val DEFAULT_CLASSPATH: Array[String] = Array[String](".")
   private final val DEFAULT_ENCODING: String = System.getProperty("file.encoding")
@@ -168,8 +174,10 @@ object ScriptRunner {
   )
 }
 
-class ScriptRunner {
+class ScriptRunner(cacheDirectory: java.nio.file.Path) {
   import ScriptRunner._
+
+  def this() = this(ScriptCache.defaultDirectory)
   private[this] val parser = new CommandLineParser(
     conf(CLASSPATH, true),
     conf(SCRIPT_SUPER_CLASS, true),
@@ -185,7 +193,8 @@ class ScriptRunner {
     conf(NO_CHECK_LAWS, false),
     conf(LAW_SEED, true),
     conf(LAW_SAMPLES, true),
-    conf(SHOW_EFFECTS, false)
+    conf(SHOW_EFFECTS, false),
+    conf(NO_CACHE, false)
   )
 
   def run(commandLine: Array[String], verbose: Boolean = false): Int = {
@@ -216,7 +225,9 @@ class ScriptRunner {
           case None => -1
           case Some(config) =>
             val scriptArgs = passThroughArgs
-            val result = compile(config, Array(params.head))
+            val result = compile(
+              config, Array(params.head), success.options.contains(SHOW_EFFECTS), !success.options.contains(NO_CACHE)
+            )
             if (config.dumpAst) result.debugArtifacts.parsedUnits.foreach(DiagnosticRenderer.dumpAst(_))
             if (config.dumpTypedAst) result.debugArtifacts.typedClasses.foreach(DiagnosticRenderer.dumpTyped(_))
             emitDiagnostics(result)
@@ -270,6 +281,7 @@ class ScriptRunner {
          |  --law-seed <n>              RNG seed for law sample generation
          |  --law-samples <n>           Number of samples generated per law parameter
          |  --effects                   Print each method's inferred effect set to stderr
+         |  --no-cache                  Compile the script even if a cached compile is current
          |  --stacktrace                Print the raw JVM trace for an uncaught runtime error
          |  --watch                     Re-run the script whenever its file changes
          |  -h, --help                  Show this help message
@@ -356,8 +368,45 @@ class ScriptRunner {
     }
   }
 
-  private def compile(config: CompilerConfig, fileNames: Array[String]): CompilationResult =
-    new OnionCompiler(config).compileDetailed(fileNames)
+  /**
+   * Reuses the compile stored in the [[ScriptCache]] when it is still current, and compiles
+   * otherwise: on the compile daemon when one is running, in process when not. Both are
+   * skipped when something needs the compiler's in-memory artifacts (dumps, `--effects`) or
+   * phase timings. The daemon reads no files, so the sources are read here exactly as
+   * `FileInputSource` would.
+   */
+  private def compile(
+    config: CompilerConfig, fileNames: Array[String], showEffects: Boolean, useCache: Boolean
+  ): CompilationResult = {
+    val inspecting = config.dumpAst || config.dumpTypedAst || config.verbose || config.compileProfile.enabled || showEffects
+    if (inspecting) return new OnionCompiler(config).compileDetailed(fileNames)
+    // A file that cannot be read is left to the compiler, which reports it.
+    val sources =
+      if (!useCache) None
+      else Try(fileNames.toSeq.map(name => name -> Files.readAllBytes(Paths.get(name)))).toOption
+    val cache = new ScriptCache(cacheDirectory)
+    sources.flatMap(cache.load(config, _)).getOrElse {
+      val result = compileUncached(config, fileNames)
+      sources.foreach(cache.store(config, _, result))
+      result
+    }
+  }
+
+  private def compileUncached(config: CompilerConfig, fileNames: Array[String]): CompilationResult = {
+    DaemonClient.located()
+      .flatMap { client =>
+        // A file that cannot be read is left to the in-process compile, which reports it.
+        Try(fileNames.toSeq.map(name => name -> Using.resource(Inputs.newReader(name))(readAll))).toOption
+          .flatMap(client.compile(config, _))
+      }
+      .getOrElse(new OnionCompiler(config).compileDetailed(fileNames))
+  }
+
+  private def readAll(reader: java.io.Reader): String = {
+    val text = new java.io.StringWriter
+    reader.transferTo(text)
+    text.toString
+  }
 
   private def emitDiagnostics(result: CompilationResult): Unit =
     DiagnosticRenderer.printDiagnostics(result.diagnostics)
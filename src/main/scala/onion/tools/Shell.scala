@@ -44,8 +44,11 @@ class Shell (val classLoader: ClassLoader, val classpath: Seq[String]) {
     !result.hasErrors
   }
 
-  def run(classes: Seq[CompiledClass], args: Array[String]): Shell.Result = {
-    val loader = new OnionClassLoader(classLoader, classpath, classes)
+  def run(classes: Seq[CompiledClass], args: Array[String]): Shell.Result =
+    runIn(new OnionClassLoader(classLoader, classpath, classes), classes, args)
+
+  /** Runs the first `main` of `classes`, which `loader` has defined. */
+  def runIn(loader: OnionClassLoader, classes: Seq[CompiledClass], args: Array[String]): Shell.Result = {
     withContextClassLoader(loader) {
       try {
         val main = findFirstMainMethod(loader, classes)
@@ -0,0 +1,106 @@
+package onion.tools.daemon
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.PrintStream
+import java.io.StringReader
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.security.SecureRandom
+import java.util.HexFormat
+
+import scala.util.Using
+import scala.util.control.NonFatal
+
+import onion.compiler.OnionCompiler
+import onion.compiler.StreamInputSource
+import onion.compiler.environment.ClassFileTable
+import onion.tools.project.ProjectCommands
+
+/**
+ * `onion daemon start`: a compile server that keeps one JVM, its JIT-compiled compiler and
+ * the classpath class files warm across compiles.
+ *
+ * It listens on a loopback port chosen by the system and publishes the port and a random
+ * token in `stateFile`, readable by its owner only (see [[DaemonState]]). Requests are
+ * served one at a time, so two compiles never share a half-filled cache. Class files are
+ * read through [[ClassFileTable.forClassPath]] with retention turned on: a classpath seen
+ * before is reused as long as none of its jars or directories changed, and read afresh
+ * otherwise.
+ */
+final class CompileDaemon(stateFile: Path, log: PrintStream):
+  private val token = HexFormat.of().formatHex(SecureRandom().generateSeed(16))
+  private val startedAt = System.nanoTime()
+  private var served = 0
+
+  /** Serves until a stop request arrives; the state file exists exactly while it serves. */
+  def serve(): Int =
+    ClassFileTable.retainAcrossCompiles()
+    Using.resource(ServerSocket(0, 50, InetAddress.getLoopbackAddress)) { server =>
+      DaemonState(server.getLocalPort, token).write(stateFile)
+      log.println(s"Compile daemon listening on 127.0.0.1:${server.getLocalPort}")
+      try
+        var running = true
+        while running do
+          Using.resource(server.accept()) { socket =>
+            running = handle(socket)
+          }
+      finally DaemonState.remove(stateFile, token)
+    }
+    0
+
+  /** Answers one connection; false once asked to stop. */
+  private def handle(socket: Socket): Boolean =
+    try
+      val in = DataInputStream(BufferedInputStream(socket.getInputStream))
+      val out = DataOutputStream(BufferedOutputStream(socket.getOutputStream))
+      DaemonProtocol.readRequest(in, token) match
+        case Left(reason) =>
+          DaemonProtocol.writeReply(out, DaemonReply.Refused(reason))
+          true
+        case Right(DaemonRequest.Stop) =>
+          DaemonProtocol.writeReply(out, DaemonReply.Running("stopping"))
+          false
+        case Right(request) =>
+          DaemonProtocol.writeReply(out, answer(request))
+          served += 1
+          true
+    catch
+      case e: IOException =>
+        log.println(s"warning: daemon connection failed: ${e.getMessage}")
+        true
+
+  private def answer(request: DaemonRequest): DaemonReply =
+    request match
+      case DaemonRequest.Compile(config, sources) =>
+        val inputs = sources.map { case (name, text) => StreamInputSource(() => StringReader(text), name) }
+        val result = OnionCompiler(config).compileDetailed(inputs)
+        DaemonReply.Compiled(result.classes.toVector, result.diagnostics)
+      case DaemonRequest.Build(cwd, verbose) =>
+        val out = ByteArrayOutputStream()
+        val err = ByteArrayOutputStream()
+        val exitCode =
+          Using.resources(PrintStream(out, true, UTF_8), PrintStream(err, true, UTF_8)) { (stdout, stderr) =>
+            try ProjectCommands().build(Paths.get(cwd), verbose, stdout, stderr)
+            catch
+              case NonFatal(e) =>
+                stderr.println(s"error: ${e.getMessage}")
+                1
+          }
+        DaemonReply.Finished(exitCode, out.toString(UTF_8), err.toString(UTF_8))
+      case DaemonRequest.Status =>
+        val uptime = (System.nanoTime() - startedAt) / 1_000_000_000L
+        DaemonReply.Running(
+          s"running for ${uptime}s, $served requests served, " +
+            s"${ClassFileTable.retainedClassPaths} classpaths cached"
+        )
+      case DaemonRequest.Stop =>
+        DaemonReply.Running("stopping")
@@ -0,0 +1,70 @@
+package onion.tools.daemon
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.nio.file.Path
+
+import scala.util.Using
+
+import onion.compiler.CompilerConfig
+import onion.compiler.pipeline.CompilationResult
+import onion.compiler.pipeline.DebugArtifacts
+
+/**
+ * Sends work to a running [[CompileDaemon]].
+ *
+ * Every method answers `None` when the daemon cannot do the work — none is running, it
+ * went away, or it refused the request — and the caller then does it in process. Using the
+ * daemon is an optimization only, so no failure to reach it is ever reported as an error.
+ */
+final class DaemonClient(state: DaemonState):
+  /** Compiles `sources`, given as `(name, text)`, the way `OnionCompiler.compileDetailed` would. */
+  def compile(config: CompilerConfig, sources: Seq[(String, String)]): Option[CompilationResult] =
+    exchange(DaemonRequest.Compile(config, sources.toVector)).collect {
+      case DaemonReply.Compiled(classes, diagnostics) =>
+        CompilationResult(
+          classes = classes,
+          diagnostics = diagnostics,
+          debugArtifacts = DebugArtifacts(),
+          timings = Seq.empty,
+          sourceCount = sources.size,
+          classpathSize = config.classPath.size
+        )
+    }
+
+  /** Runs `onion build` in `cwd`: the exit code, and what it printed to stdout and stderr. */
+  def build(cwd: Path, verbose: Boolean): Option[DaemonReply.Finished] =
+    exchange(DaemonRequest.Build(cwd.toAbsolutePath.toString, verbose)).collect {
+      case finished: DaemonReply.Finished => finished
+    }
+
+  def status(): Option[String] =
+    exchange(DaemonRequest.Status).collect { case DaemonReply.Running(summary) => summary }
+
+  def stop(): Boolean =
+    exchange(DaemonRequest.Stop).exists(_.isInstanceOf[DaemonReply.Running])
+
+  private def exchange(request: DaemonRequest): Option[DaemonReply] =
+    try
+      Using.resource(Socket()) { socket =>
+        socket.connect(InetSocketAddress(InetAddress.getLoopbackAddress, state.port), DaemonClient.ConnectTimeoutMillis)
+        val out = DataOutputStream(BufferedOutputStream(socket.getOutputStream))
+        DaemonProtocol.writeRequest(out, state.token, request)
+        DaemonProtocol.readReply(DataInputStream(BufferedInputStream(socket.getInputStream))) match
+          case DaemonReply.Refused(_) => None
+          case reply => Some(reply)
+      }
+    catch case _: IOException => None
+
+object DaemonClient:
+  private val ConnectTimeoutMillis = 200
+
+  /** A client for the daemon published in `stateFile`, if one was started. */
+  def located(stateFile: Path = DaemonState.defaultFile): Option[DaemonClient] =
+    DaemonState.read(stateFile).map(DaemonClient(_))
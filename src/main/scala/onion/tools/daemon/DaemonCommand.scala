@@ -0,0 +1,41 @@
+package onion.tools.daemon
+
+import java.io.PrintStream
+import java.nio.file.Path
+
+/**
+ * `onion daemon start|stop|status`.
+ *
+ * `start` serves in the foreground until `onion daemon stop`; run it in the background
+ * (`onion daemon start &`) or under a service manager. While it runs, `onion <script>` and
+ * `onion build` hand their compiles to it and fall back to compiling in process whenever
+ * it cannot serve them.
+ */
+object DaemonCommand:
+
+  def run(args: Array[String], out: PrintStream, err: PrintStream, stateFile: Path = DaemonState.defaultFile): Int =
+    args match
+      case Array("start") =>
+        DaemonClient.located(stateFile).flatMap(_.status()) match
+          case Some(_) =>
+            err.println("error: A compile daemon is already running")
+            1
+          case None => CompileDaemon(stateFile, out).serve()
+      case Array("stop") =>
+        if DaemonClient.located(stateFile).exists(_.stop()) then
+          out.println("Compile daemon stopped")
+          0
+        else
+          err.println("error: No compile daemon is running")
+          1
+      case Array("status") =>
+        DaemonClient.located(stateFile).flatMap(_.status()) match
+          case Some(summary) =>
+            out.println(s"Compile daemon $summary")
+            0
+          case None =>
+            out.println("No compile daemon is running")
+            1
+      case _ =>
+        err.println("error: daemon expects one of start, stop, status")
+        2
@@ -0,0 +1,277 @@
+package onion.tools.daemon
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Files
+import java.nio.file.Paths
+
+import onion.compiler.CompilationContext
+import onion.compiler.CompileError
+import onion.compiler.CompileWarning
+import onion.compiler.CompiledClass
+import onion.compiler.CompilerConfig
+import onion.compiler.Location
+import onion.compiler.OnionCompiler
+import onion.compiler.WarningCategory
+import onion.compiler.WarningLevel
+import onion.compiler.diagnostics.DiagnosticBag
+import onion.tools.OnionVersion
+
+/** What a client asks the compile daemon to do. */
+enum DaemonRequest:
+  /** Compile `sources`, given as `(name, text)`, with `config`; answered by [[DaemonReply.Compiled]]. */
+  case Compile(config: CompilerConfig, sources: Vector[(String, String)])
+  /** Run `onion build` in `cwd`; answered by [[DaemonReply.Finished]]. */
+  case Build(cwd: String, verbose: Boolean)
+  case Status
+  case Stop
+
+enum DaemonReply:
+  case Compiled(classes: Vector[CompiledClass], diagnostics: DiagnosticBag)
+  case Finished(exitCode: Int, out: String, err: String)
+  case Running(summary: String)
+  /** The daemon will not serve this client: a wrong token, or a different compiler or JVM. */
+  case Refused(reason: String)
+
+/**
+ * The wire format between `onion` and `onion daemon`: one request and one reply per
+ * connection, written with `DataOutputStream`.
+ *
+ * Every request opens with the daemon's token, which only the owner of the state file can
+ * read, and with [[compilerIdentity]]. A daemon started from another Onion build or on
+ * another Java feature release would compile differently from the client, so it refuses to
+ * compile for it and the client compiles in process instead; it still answers `status` and
+ * `stop`.
+ *
+ * Only the settings that change the classes or diagnostics travel with a compile request.
+ * Dumps, profiles and `--effects` need the compiler's in-memory artifacts, so clients that
+ * ask for them never use the daemon.
+ */
+object DaemonProtocol:
+  private val Magic = 0x4f4e4431 // "OND1"
+
+  /**
+   * The compiler build and Java release this process compiles with. The code location and
+   * its modification time tell apart two builds that carry the same version string.
+   */
+  // The property rather than Runtime.version(), whose first use costs a script run more
+  // than the cache saves.
+  lazy val compilerIdentity: String =
+    val location =
+      Option(classOf[OnionCompiler].getProtectionDomain.getCodeSource)
+        .flatMap(source => Option(source.getLocation))
+        .map(url => Paths.get(url.toURI))
+    val stamp = location.fold("unknown")(path =>
+      s"$path ${if Files.exists(path) then Files.getLastModifiedTime(path).toMillis else 0}"
+    )
+    s"${OnionVersion.value} java ${System.getProperty("java.specification.version")} $stamp"
+
+  def writeRequest(out: DataOutputStream, token: String, request: DaemonRequest): Unit =
+    out.writeInt(Magic)
+    out.writeUTF(token)
+    out.writeUTF(compilerIdentity)
+    request match
+      case DaemonRequest.Compile(config, sources) =>
+        out.writeByte(1)
+        writeConfig(out, config)
+        out.writeInt(sources.size)
+        sources.foreach { case (name, text) =>
+          out.writeUTF(name)
+          writeLong(out, text)
+        }
+      case DaemonRequest.Build(cwd, verbose) =>
+        out.writeByte(2)
+        out.writeUTF(cwd)
+        out.writeBoolean(verbose)
+      case DaemonRequest.Status => out.writeByte(3)
+      case DaemonRequest.Stop => out.writeByte(4)
+    out.flush()
+
+  /**
+   * Reads a request, or the reason to refuse it. A stream that does not start with the
+   * protocol's magic number is not an Onion client at all and fails with an `IOException`.
+   */
+  def readRequest(in: DataInputStream, token: String): Either[String, DaemonRequest] =
+    if in.readInt() != Magic then throw IOException("not an onion daemon request")
+    val clientToken = in.readUTF()
+    val clientIdentity = in.readUTF()
+    val kind = in.readByte()
+    val compiles = kind == 1 || kind == 2
+    if clientToken != token then Left("invalid daemon token")
+    else if compiles && clientIdentity != compilerIdentity then
+      Left(s"daemon runs $compilerIdentity, client runs $clientIdentity")
+    else
+      kind match
+        case 1 =>
+          val config = readConfig(in)
+          val sources = Vector.fill(in.readInt())(in.readUTF() -> readLong(in))
+          Right(DaemonRequest.Compile(config, sources))
+        case 2 => Right(DaemonRequest.Build(in.readUTF(), in.readBoolean()))
+        case 3 => Right(DaemonRequest.Status)
+        case 4 => Right(DaemonRequest.Stop)
+        case other => throw IOException(s"unknown daemon request: $other")
+
+  def writeReply(out: DataOutputStream, reply: DaemonReply): Unit =
+    reply match
+      case DaemonReply.Compiled(classes, diagnostics) =>
+        out.writeByte(1)
+        out.writeInt(classes.size)
+        classes.foreach { compiled =>
+          out.writeUTF(compiled.className)
+          writeOptional(out, Option(compiled.outputPath))
+          out.writeInt(compiled.content.length)
+          out.write(compiled.content)
+        }
+        writeErrors(out, diagnostics.errors)
+        out.writeInt(diagnostics.warnings.size)
+        diagnostics.warnings.foreach { warning =>
+          writeOptional(out, Option(warning.sourceFile))
+          writeLocation(out, warning.location)
+          out.writeUTF(warning.category.code)
+          writeLong(out, warning.message)
+        }
+        writeErrors(out, diagnostics.internals)
+      case DaemonReply.Finished(exitCode, stdout, stderr) =>
+        out.writeByte(2)
+        out.writeInt(exitCode)
+        writeLong(out, stdout)
+        writeLong(out, stderr)
+      case DaemonReply.Running(summary) =>
+        out.writeByte(3)
+        writeLong(out, summary)
+      case DaemonReply.Refused(reason) =>
+        out.writeByte(4)
+        writeLong(out, reason)
+    out.flush()
+
+  def readReply(in: DataInputStream): DaemonReply =
+    in.readByte() match
+      case 1 =>
+        val classes = Vector.fill(in.readInt()) {
+          val name = in.readUTF()
+          val outputPath = readOptional(in).orNull
+          val content = new Array[Byte](in.readInt())
+          in.readFully(content)
+          CompiledClass(name, outputPath, content)
+        }
+        val errors = readErrors(in)
+        val warnings = Vector.fill(in.readInt()) {
+          val sourceFile = readOptional(in).orNull
+          val location = readLocation(in)
+          val code = in.readUTF()
+          val category = WarningCategory.values.find(_.code == code)
+            .getOrElse(throw IOException(s"unknown warning code: $code"))
+          CompileWarning(sourceFile, location, category, readLong(in))
+        }
+        DaemonReply.Compiled(classes, DiagnosticBag(errors, warnings, readErrors(in)))
+      case 2 => DaemonReply.Finished(in.readInt(), readLong(in), readLong(in))
+      case 3 => DaemonReply.Running(readLong(in))
+      case 4 => DaemonReply.Refused(readLong(in))
+      case other => throw IOException(s"unknown daemon reply: $other")
+
+  /** The settings that change what a compile produces; also what [[onion.tools.ScriptCache]] keys on. */
+  private[tools] def writeConfig(out: DataOutputStream, config: CompilerConfig): Unit =
+    writeLong(out, config.classPath.mkString(File.pathSeparator))
+    writeOptional(out, Option(config.superClass))
+    writeOptional(out, Option(config.encoding))
+    writeOptional(out, Option(config.outputDirectory))
+    out.writeInt(config.maxErrorReports)
+    out.writeUTF(config.warningLevel.toString)
+    out.writeUTF(config.suppressedWarnings.toSeq.map(_.code).sorted.mkString(","))
+    out.writeBoolean(config.checkLaws)
+    out.writeInt(config.lawSamples)
+    out.writeLong(config.lawSeed)
+    out.writeBoolean(config.emitDebugInfo)
+    out.writeInt(config.parallelism)
+    out.writeBoolean(config.indyClosures)
+    out.writeBoolean(config.inlineHigherOrder)
+
+  private def readConfig(in: DataInputStream): CompilerConfig =
+    val classPath = readLong(in).split(File.pathSeparator).toSeq.filter(_.nonEmpty)
+    val superClass = readOptional(in).orNull
+    val encoding = readOptional(in).orNull
+    val outputDirectory = readOptional(in).orNull
+    val maxErrorReports = in.readInt()
+    val warningLevel = WarningLevel.valueOf(in.readUTF())
+    val suppressed = in.readUTF().split(",").filter(_.nonEmpty).toSet
+    CompilerConfig(
+      classPath = classPath,
+      superClass = superClass,
+      encoding = encoding,
+      outputDirectory = outputDirectory,
+      maxErrorReports = maxErrorReports,
+      warningLevel = warningLevel,
+      suppressedWarnings = WarningCategory.values.filter(category => suppressed(category.code)).toSet,
+      checkLaws = in.readBoolean(),
+      lawSamples = in.readInt(),
+      lawSeed = in.readLong(),
+      emitDebugInfo = in.readBoolean(),
+      parallelism = in.readInt(),
+      indyClosures = in.readBoolean(),
+      inlineHigherOrder = in.readBoolean()
+    )
+
+  private def writeErrors(out: DataOutputStream, errors: Vector[CompileError]): Unit =
+    out.writeInt(errors.size)
+    errors.foreach { error =>
+      writeOptional(out, Option(error.sourceFile))
+      writeLocation(out, error.location)
+      writeLong(out, error.message)
+      writeOptional(out, error.errorCode)
+      out.writeBoolean(error.context.isDefined)
+      error.context.foreach { context =>
+        writeOptional(out, context.currentClass)
+        writeOptional(out, context.currentMethod)
+        out.writeUTF(context.currentPhase)
+      }
+    }
+
+  private def readErrors(in: DataInputStream): Vector[CompileError] =
+    Vector.fill(in.readInt()) {
+      val sourceFile = readOptional(in).orNull
+      val location = readLocation(in)
+      val message = readLong(in)
+      val code = readOptional(in)
+      val context =
+        if in.readBoolean() then Some(CompilationContext(readOptional(in), readOptional(in), in.readUTF()))
+        else None
+      CompileError(sourceFile, location, message, code, context)
+    }
+
+  private def writeLocation(out: DataOutputStream, location: Location): Unit =
+    out.writeBoolean(location != null)
+    if location != null then
+      out.writeInt(location.line)
+      out.writeInt(location.column)
+      out.writeInt(location.endLine.getOrElse(-1))
+      out.writeInt(location.endColumn.getOrElse(-1))
+
+  private def readLocation(in: DataInputStream): Location =
+    if !in.readBoolean() then null
+    else
+      val line = in.readInt()
+      val column = in.readInt()
+      val endLine = in.readInt()
+      val endColumn = in.readInt()
+      Location(line, column, Option.when(endLine >= 0)(endLine), Option.when(endColumn >= 0)(endColumn))
+
+  private def writeOptional(out: DataOutputStream, value: Option[String]): Unit =
+    out.writeBoolean(value.isDefined)
+    value.foreach(writeLong(out, _))
+
+  private def readOptional(in: DataInputStream): Option[String] =
+    if in.readBoolean() then Some(readLong(in)) else None
+
+  /** `writeUTF` stops at 64 KiB, which a source file or a build log can exceed. */
+  private def writeLong(out: DataOutputStream, text: String): Unit =
+    val bytes = text.getBytes(UTF_8)
+    out.writeInt(bytes.length)
+    out.write(bytes)
+
+  private def readLong(in: DataInputStream): String =
+    val bytes = new Array[Byte](in.readInt())
+    in.readFully(bytes)
+    String(bytes, UTF_8)
@@ -0,0 +1,50 @@
+package onion.tools.daemon
+
+import java.io.IOException
+import java.io.StringReader
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.Properties
+
+/**
+ * Where a running daemon can be reached: its loopback port and the token every request
+ * must present. The file is written owner-readable only, so the token keeps other local
+ * users from submitting work to someone else's daemon.
+ */
+final case class DaemonState(port: Int, token: String):
+  def write(file: Path): Unit =
+    Files.createDirectories(file.toAbsolutePath.getParent)
+    val staged = file.resolveSibling(file.getFileName.toString + ".tmp")
+    Files.deleteIfExists(staged)
+    Files.createFile(staged)
+    try Files.setPosixFilePermissions(staged, PosixFilePermissions.fromString("rw-------"))
+    catch case _: UnsupportedOperationException => ()
+    Files.writeString(staged, s"port=$port\ntoken=$token\n", UTF_8)
+    Files.move(staged, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+
+object DaemonState:
+  /** `~/.onion/daemon`, shared by every client of the current user. */
+  def defaultFile: Path = Paths.get(System.getProperty("user.home"), ".onion", "daemon")
+
+  /** The published state, or `None` when no daemon is running or the file is unreadable. */
+  def read(file: Path): Option[DaemonState] =
+    try
+      if !Files.isRegularFile(file) then None
+      else
+        val properties = Properties()
+        properties.load(StringReader(Files.readString(file, UTF_8)))
+        for
+          port <- Option(properties.getProperty("port")).flatMap(_.toIntOption)
+          token <- Option(properties.getProperty("token"))
+        yield DaemonState(port, token)
+    catch case _: IOException => None
+
+  /** Removes the file, unless a daemon started since has replaced it with its own token. */
+  def remove(file: Path, token: String): Unit =
+    if read(file).exists(_.token == token) then
+      try Files.deleteIfExists(file)
+      catch case _: IOException => ()
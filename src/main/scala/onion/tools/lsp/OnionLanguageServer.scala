@@ -7,6 +7,7 @@
  * ************************************************************** */
 package onion.tools.lsp
 
+import onion.compiler.environment.ClassFileTable
 import org.eclipse.lsp4j._
 import org.eclipse.lsp4j.services._
 import org.eclipse.lsp4j.jsonrpc.Launcher
@@ -93,6 +94,7 @@ class OnionLanguageServer extends LanguageServer with LanguageClientAware {
 
   override def shutdown(): CompletableFuture[Object] = {
     shutdownRequested = true
+    textDocumentService.shutdown()
     CompletableFuture.completedFuture(null)
   }
 
@@ -111,6 +113,10 @@ object OnionLanguageServer {
   }
 
   def startServer(in: InputStream, out: OutputStream): Unit = {
+    // The server validates the same project on every pause in typing; keeping its class files
+    // and the classpath types built from them lets each validation start from where the
+    // previous one left off, while jars that change are still read afresh.
+    ClassFileTable.retainAcrossCompiles()
     val server = new OnionLanguageServer()
     val launcher = Launcher.createLauncher(server, classOf[LanguageClient], in, out)
     server.connect(launcher.getRemoteProxy)
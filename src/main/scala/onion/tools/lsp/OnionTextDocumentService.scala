@@ -14,7 +14,7 @@ import org.eclipse.lsp4j.services.TextDocumentService
 
 import java.io.StringReader
 import java.net.URI
-import java.util.concurrent.{CompletableFuture, ConcurrentHashMap}
+import java.util.concurrent.{CancellationException, CompletableFuture, ConcurrentHashMap, Executors, ScheduledFuture, TimeUnit}
 import scala.jdk.CollectionConverters._
 
 /**
@@ -97,13 +97,41 @@ object OnionTextDocumentService {
    */
   def validationConfig(file: Option[java.nio.file.Path]): CompilerConfig =
     CompilerConfig(LspProjectClasspath.forDocument(file), null, "UTF-8", "", 100, checkLaws = false)
+
+  /**
+   * How long an edit waits for the next one before the document is compiled. Typing at a
+   * steady pace keeps pushing it back, so a burst of keystrokes costs one compile, of the
+   * text as it stands when the typing pauses.
+   */
+  val DebounceMillis: Long = 250L
 }
 
-class OnionTextDocumentService(server: OnionLanguageServer) extends TextDocumentService {
+/**
+ * @param debounceMillis how long validation of a changed document waits for a further change;
+ *                       opening and saving a document validate it at once.
+ */
+class OnionTextDocumentService(server: OnionLanguageServer, debounceMillis: Long = OnionTextDocumentService.DebounceMillis)
+  extends TextDocumentService {
   private var client: org.eclipse.lsp4j.services.LanguageClient = _
   private val documents = new ConcurrentHashMap[String, DocumentState]()
   private val symbolTable = new SymbolTable()
 
+  // Validation runs on one background thread, so requests never wait for a compile and two
+  // compiles never compete for the processor. Each document has at most one validation
+  // pending; a newer edit cancels it, and a compile already running stops before its next
+  // phase and publishes nothing.
+  private val validator = Executors.newSingleThreadScheduledExecutor { task =>
+    val thread = new Thread(task, "onion-lsp-validation")
+    thread.setDaemon(true)
+    thread
+  }
+  private val pendingValidations = new ConcurrentHashMap[String, Validation]()
+  // The text each document was last validated as, with what was published for it. An edit
+  // that leaves the text as it was validated, such as one undone before the delay is up,
+  // publishes that again without compiling; opening and saving always compile, since the
+  // classes the document uses may have been rebuilt meanwhile.
+  private val validated = new ConcurrentHashMap[String, (String, java.util.List[Diagnostic])]()
+
   // Onion keywords for completion
   private val keywords = Array(
     "class", "interface", "abstract", "final", "static", "public", "private", "protected",
@@ -133,7 +161,7 @@ class OnionTextDocumentService(server: OnionLanguageServer) extends TextDocument
     val content = params.getTextDocument.getText
     documents.put(uri, DocumentState(content, params.getTextDocument.getVersion))
     updateSymbolTable(uri, content)
-    validateDocument(uri, content)
+    scheduleValidation(uri, content, 0L, reuse = false)
   }
 
   override def didChange(params: DidChangeTextDocumentParams): Unit = {
@@ -143,13 +171,15 @@ class OnionTextDocumentService(server: OnionLanguageServer) extends TextDocument
       val content = changes.last.getText
       documents.put(uri, DocumentState(content, params.getTextDocument.getVersion))
       updateSymbolTable(uri, content)
-      validateDocument(uri, content)
+      scheduleValidation(uri, content, debounceMillis, reuse = true)
     }
   }
 
   override def didClose(params: DidCloseTextDocumentParams): Unit = {
     val uri = params.getTextDocument.getUri
     documents.remove(uri)
+    cancelValidation(uri)
+    validated.remove(uri)
     symbolTable.clear(uri)
     // Clear diagnostics
     client.publishDiagnostics(new PublishDiagnosticsParams(uri, java.util.Collections.emptyList()))
@@ -159,10 +189,16 @@ class OnionTextDocumentService(server: OnionLanguageServer) extends TextDocument
     val uri = params.getTextDocument.getUri
     val state = documents.get(uri)
     if (state != null) {
-      validateDocument(uri, state.content)
+      scheduleValidation(uri, state.content, 0L, reuse = false)
     }
   }
 
+  /** Stops validating; a validation already running finishes its current phase first. */
+  def shutdown(): Unit = {
+    pendingValidations.values.forEach(_.cancelled = true)
+    validator.shutdownNow()
+  }
+
   override def completion(params: CompletionParams): CompletableFuture[LspEither[java.util.List[CompletionItem], CompletionList]] = {
     CompletableFuture.supplyAsync { () =>
       val uri = params.getTextDocument.getUri
@@ -692,22 +728,68 @@ class OnionTextDocumentService(server: OnionLanguageServer) extends TextDocument
     symbolTable.allSymbols.filter(_.name.toLowerCase.contains(lowerQuery))
   }
 
-  private def validateDocument(uri: String, content: String): Unit = {
-    val fileName = extractFileName(uri)
-    val compiler = new OnionCompiler(OnionTextDocumentService.validationConfig(extractPath(uri)))
+  /** Validates `content` as `uri` after `delay` ms, in place of any validation of `uri` still pending. */
+  private def scheduleValidation(uri: String, content: String, delay: Long, reuse: Boolean): Unit = {
+    val validation = new Validation(content, reuse)
+    val previous = pendingValidations.put(uri, validation)
+    if (previous != null) previous.cancel()
+    validation.start(validator.schedule((() => validate(uri, validation)): Runnable, delay, TimeUnit.MILLISECONDS))
+  }
 
+  private def cancelValidation(uri: String): Unit = {
+    val pending = pendingValidations.remove(uri)
+    if (pending != null) pending.cancel()
+  }
+
+  private def validate(uri: String, validation: Validation): Unit = {
+    val content = validation.content
+    val known = validated.get(uri)
     val diagnostics =
-      try {
-        val result = compiler.compileDetailed(Seq(new StreamInputSource(() => new StringReader(content), fileName)))
-        result.diagnostics.errors.map(errorToDiagnostic(_, content)) ++
-          result.diagnostics.warnings.map(warningToDiagnostic(_, content))
-      } catch {
-        case e: Throwable =>
-          // Compiler crashes should never bring down the LSP server.
-          Seq(internalErrorToDiagnostic(e, content))
+      if (validation.reuse && known != null && known._1 == content) Some(known._2)
+      else compileDiagnostics(uri, content, () => validation.cancelled)
+    diagnostics.foreach { published =>
+      // Checked and published together, so a validation cancelled by an edit or a close
+      // that arrives meanwhile never publishes over the newer state.
+      validation.synchronized {
+        if (!validation.cancelled) {
+          validated.put(uri, (content, published))
+          client.publishDiagnostics(new PublishDiagnosticsParams(uri, published))
+        }
       }
+    }
+    pendingValidations.remove(uri, validation)
+  }
+
+  /** The diagnostics of compiling `content`, or None when the compile was cancelled. */
+  private def compileDiagnostics(uri: String, content: String, cancelled: () => Boolean): Option[java.util.List[Diagnostic]] = {
+    val fileName = extractFileName(uri)
+    val compiler = new OnionCompiler(OnionTextDocumentService.validationConfig(extractPath(uri)))
+
+    try {
+      val result = compiler.compileDetailed(Seq(new StreamInputSource(() => new StringReader(content), fileName)), cancelled)
+      Some((result.diagnostics.errors.map(errorToDiagnostic(_, content)) ++
+        result.diagnostics.warnings.map(warningToDiagnostic(_, content))).asJava)
+    } catch {
+      case _: CancellationException => None
+      case e: Throwable =>
+        // Compiler crashes should never bring down the LSP server.
+        Some(java.util.List.of(internalErrorToDiagnostic(e, content)))
+    }
+  }
+
+  /** One pending or running validation of a document's text. */
+  private final class Validation(val content: String, val reuse: Boolean) {
+    @volatile var cancelled = false
+    private var scheduled: ScheduledFuture[?] = null
 
-    client.publishDiagnostics(new PublishDiagnosticsParams(uri, diagnostics.asJava))
+    def start(future: ScheduledFuture[?]): Unit = synchronized {
+      if (cancelled) future.cancel(false) else scheduled = future
+    }
+
+    def cancel(): Unit = synchronized {
+      cancelled = true
+      if (scheduled != null) scheduled.cancel(false)
+    }
   }
 
   private def errorToDiagnostic(error: CompileError, content: String): Diagnostic = {
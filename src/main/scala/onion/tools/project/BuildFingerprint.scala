@@ -5,8 +5,11 @@ import java.nio.charset.StandardCharsets.UTF_8
 import java.security.MessageDigest
 
 object BuildFingerprint:
-  /** Bumped to 2 when the resolved dependency set joined the digest. */
-  val SchemaVersion = 2
+  /**
+   * Bumped to 2 when the resolved dependency set joined the digest, and to 3 when the
+   * build state started recording per-source hashes, classes and dependencies.
+   */
+  val SchemaVersion = 3
 
   /**
    * @param dependencyCoordinates the whole *resolved* set, not the manifest's direct
@@ -31,6 +34,33 @@ object BuildFingerprint:
       update(digest, relative.getBytes(UTF_8))
       update(digest, bytes)
     }
+    hex(digest)
+
+  /**
+   * Everything [[compute]] covers except the sources. Classes compiled under one
+   * environment can only be reused by an incremental rebuild under the same one.
+   */
+  def environment(
+    manifestBytes: Array[Byte],
+    compilerVersion: String,
+    javaFeature: Int,
+    dependencyCoordinates: Seq[String]
+  ): String =
+    val digest = MessageDigest.getInstance("SHA-256")
+    update(digest, SchemaVersion.toString.getBytes(UTF_8))
+    update(digest, compilerVersion.getBytes(UTF_8))
+    update(digest, javaFeature.toString.getBytes(UTF_8))
+    update(digest, manifestBytes)
+    dependencyCoordinates.sorted.foreach(coordinate => update(digest, coordinate.getBytes(UTF_8)))
+    hex(digest)
+
+  /** The SHA-256 of one source file's bytes. */
+  def sourceHash(bytes: Array[Byte]): String =
+    val digest = MessageDigest.getInstance("SHA-256")
+    digest.update(bytes)
+    hex(digest)
+
+  private def hex(digest: MessageDigest): String =
     digest.digest().map(byte => f"${byte & 0xff}%02x").mkString
 
   private def update(digest: MessageDigest, bytes: Array[Byte]): Unit =
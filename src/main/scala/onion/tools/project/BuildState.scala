@@ -22,16 +22,45 @@ final case class EntryPoint(
   column: Int
 )
 
+/** One class a source produced, with the SHA-256 of its public shape (see [[ClassSummary]]). */
+final case class ClassRecord(
+  name: String,
+  abi: String
+)
+
+/**
+ * What one production source contributed to the last build: the hash of its bytes, the
+ * classes compiled from it, and the other project classes those classes refer to. An
+ * incremental rebuild recompiles a source when its hash changes or when a class it
+ * depends on changes its ABI.
+ */
+final case class SourceRecord(
+  path: String,
+  hash: String,
+  classes: Vector[ClassRecord],
+  dependencies: Vector[String]
+)
+
+/**
+ * @param environment the [[BuildFingerprint.environment]] digest the classes were compiled under
+ * @param sources per-source records, sorted by path; empty when the build could not tell
+ *   which source produced which class, which makes the next rebuild a full one
+ */
 final case class BuildState(
   schemaVersion: Int,
   fingerprint: String,
   classes: Vector[String],
-  entryPoints: Vector[EntryPoint]
+  entryPoints: Vector[EntryPoint],
+  environment: String = "",
+  sources: Vector[SourceRecord] = Vector.empty
 )
 
 object BuildState:
-  private val RootFields = Set("schemaVersion", "fingerprint", "classes", "entryPoints")
+  private val RootFields =
+    Set("schemaVersion", "fingerprint", "classes", "entryPoints", "environment", "sources")
   private val EntryPointFields = Set("className", "source", "line", "column")
+  private val SourceFields = Set("path", "hash", "classes", "dependencies")
+  private val ClassFields = Set("name", "abi")
   private val FingerprintPattern = "[0-9a-f]{64}"
   private val WindowsDrivePattern = "(?i)[a-z]:.*"
 
@@ -51,6 +80,25 @@ object BuildState:
       entryPoints.add(encoded)
     }
     root.put("entryPoints", entryPoints)
+    root.put("environment", state.environment)
+
+    val sources = ArrayList[Object]()
+    state.sources.sortBy(_.path).foreach { source =>
+      val encoded = LinkedHashMap[String, Object]()
+      encoded.put("path", source.path)
+      encoded.put("hash", source.hash)
+      val classes = ArrayList[Object]()
+      source.classes.sortBy(_.name).foreach { record =>
+        val encodedClass = LinkedHashMap[String, Object]()
+        encodedClass.put("name", record.name)
+        encodedClass.put("abi", record.abi)
+        classes.add(encodedClass)
+      }
+      encoded.put("classes", classes)
+      encoded.put("dependencies", strings(source.dependencies.sorted))
+      sources.add(encoded)
+    }
+    root.put("sources", sources)
     Json.stringifyPretty(root)
 
   def decode(text: String): Either[ProjectError, BuildState] =
@@ -98,9 +146,15 @@ object BuildState:
         else invalid("fingerprint must be 64 lowercase hexadecimal characters")
       classes <- stringArrayField(root, "classes")
       _ <- validateClasses(classes)
-      entryPoints <- entryPointArrayField(root, "entryPoints")
+      entryPoints <- objectArrayField(root, "entryPoints", decodeEntryPoint)
       _ <- validateEntryPoints(entryPoints, classes.toSet)
-    yield BuildState(schemaVersion, fingerprint, classes, entryPoints)
+      environment <- stringField(root, "environment")
+      _ <-
+        if environment.matches(FingerprintPattern) then Right(())
+        else invalid("environment must be 64 lowercase hexadecimal characters")
+      sources <- objectArrayField(root, "sources", decodeSource)
+      _ <- validateSources(sources, classes)
+    yield BuildState(schemaVersion, fingerprint, classes, entryPoints, environment, sources)
 
   private def exactFields(
     value: JavaMap[String, Object],
@@ -161,21 +215,22 @@ object BuildState:
       error.toLeft(builder.result())
     }
 
-  private def entryPointArrayField(
+  private def objectArrayField[A](
     value: JavaMap[String, Object],
-    field: String
-  ): Either[ProjectError, Vector[EntryPoint]] =
+    field: String,
+    decodeItem: JavaMap[String, Object] => Either[ProjectError, A]
+  ): Either[ProjectError, Vector[A]] =
     arrayField(value, field).flatMap { array =>
-      val builder = Vector.newBuilder[EntryPoint]
+      val builder = Vector.newBuilder[A]
       val iterator = array.iterator()
       var error: Option[ProjectError] = None
       while iterator.hasNext && error.isEmpty do
         val item = Json.asObject(iterator.next())
-        if item == null then error = Some(ProjectError("entryPoints entries must be objects"))
+        if item == null then error = Some(ProjectError(s"$field entries must be objects"))
         else
-          decodeEntryPoint(item) match
+          decodeItem(item) match
             case Left(problem) => error = Some(problem)
-            case Right(entryPoint) => builder += entryPoint
+            case Right(decoded) => builder += decoded
       error.toLeft(builder.result())
     }
 
@@ -190,6 +245,26 @@ object BuildState:
       column <- integerField(value, "column")
     yield EntryPoint(className, source, line, column)
 
+  private def decodeSource(
+    value: JavaMap[String, Object]
+  ): Either[ProjectError, SourceRecord] =
+    for
+      _ <- exactFields(value, SourceFields, "source")
+      path <- stringField(value, "path")
+      hash <- stringField(value, "hash")
+      classes <- objectArrayField(value, "classes", decodeClass)
+      dependencies <- stringArrayField(value, "dependencies")
+    yield SourceRecord(path, hash, classes, dependencies)
+
+  private def decodeClass(
+    value: JavaMap[String, Object]
+  ): Either[ProjectError, ClassRecord] =
+    for
+      _ <- exactFields(value, ClassFields, "class")
+      name <- stringField(value, "name")
+      abi <- stringField(value, "abi")
+    yield ClassRecord(name, abi)
+
   private def validateClasses(classes: Vector[String]): Either[ProjectError, Unit] =
     if classes.isEmpty then invalid("classes must be nonempty")
     else if classes.distinct.size != classes.size then invalid("classes must not contain duplicates")
@@ -212,6 +287,42 @@ object BuildState:
     else if !strictlySortedEntryPoints(entryPoints) then invalid("entryPoints must be sorted without duplicates")
     else Right(())
 
+  /**
+   * Either no records at all, or one per source whose classes partition `classes` exactly:
+   * a class claimed twice or by nobody would make an incremental rebuild drop or keep the
+   * wrong output.
+   */
+  private def validateSources(
+    sources: Vector[SourceRecord],
+    classes: Vector[String]
+  ): Either[ProjectError, Unit] =
+    val known = classes.toSet
+    val claimed = sources.flatMap(_.classes.map(_.name))
+    val paths = sources.map(_.path)
+    if sources.isEmpty then Right(())
+    else if paths != paths.sorted || paths.distinct.size != paths.size then
+      invalid("sources must be sorted by path without duplicates")
+    else
+      sources.find(source => !validSource(source.path)) match
+        case Some(source) => invalid(s"invalid source path: ${source.path}")
+        case None =>
+          sources.find(!_.hash.matches(FingerprintPattern)) match
+            case Some(source) => invalid(s"invalid hash for source ${source.path}")
+            case None =>
+              val names = sources.map(_.classes.map(_.name))
+              if names.exists(group => group != group.sorted) then
+                invalid("source classes must be sorted")
+              else if sources.exists(_.classes.exists(!_.abi.matches(FingerprintPattern))) then
+                invalid("class abi must be 64 lowercase hexadecimal characters")
+              else if claimed.distinct.size != claimed.size || claimed.toSet != known then
+                invalid("source classes must partition classes")
+              else if sources.exists(source =>
+                  source.dependencies != source.dependencies.distinct.sorted ||
+                    !source.dependencies.forall(known)
+                )
+              then invalid("source dependencies must be sorted known classes")
+              else Right(())
+
   private def validSource(source: String): Boolean =
     if source.isEmpty ||
       source.contains('\\') ||
@@ -0,0 +1,157 @@
+package onion.tools.project
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets.UTF_8
+import java.security.MessageDigest
+
+import scala.collection.mutable
+
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.FieldVisitor
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.RecordComponentVisitor
+import org.objectweb.asm.commons.ClassRemapper
+import org.objectweb.asm.commons.Remapper
+import org.objectweb.asm.tree.ClassNode
+
+/**
+ * What an incremental rebuild needs to know about one compiled class.
+ *
+ * @param abi SHA-256 over everything another class can compile against: the header,
+ *   the order of enum constants, permitted subclasses, inner-class entries, record
+ *   components, and every non-private field and method with its descriptor, generic
+ *   signature, exceptions and constant value. Method bodies, private members and debug
+ *   information do not contribute, so an edit inside a body leaves the digest unchanged.
+ * @param references every class named anywhere in the class file, bodies included
+ * @param sourceFile the `SourceFile` attribute, which holds the file name only
+ * @param nestHost the nest host, which is how closure classes name their enclosing class
+ */
+final case class ClassSummary(
+  name: String,
+  abi: String,
+  references: Set[String],
+  sourceFile: Option[String],
+  nestHost: Option[String]
+)
+
+object ClassSummary:
+  def read(bytes: Array[Byte]): ClassSummary =
+    val reader = ClassReader(bytes)
+    val shape = ShapeCollector()
+    reader.accept(shape, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES)
+    val references = mutable.Set[String]()
+    val remapper = new Remapper:
+      override def map(internalName: String): String =
+        references += internalName.replace('/', '.')
+        internalName
+    reader.accept(ClassRemapper(ClassNode(), remapper), ClassReader.SKIP_FRAMES)
+    val name = reader.getClassName.replace('/', '.')
+    ClassSummary(
+      name,
+      shape.digest(),
+      references.toSet - name,
+      shape.sourceFile,
+      shape.nestHost
+    )
+
+  /**
+   * Assigns each class to the source that produced it. A class names its source file
+   * (closures through their nest host) but only by file name, so the package narrows it
+   * down to the unit whose module matches; `None` when any class cannot be traced to
+   * exactly one unit.
+   *
+   * @param units `(key, file name, module or "")` for every compiled unit
+   */
+  def attribute(
+    units: Seq[(String, String, String)],
+    summaries: Seq[ClassSummary]
+  ): Option[Map[String, Vector[ClassSummary]]] =
+    val byName = summaries.map(summary => summary.name -> summary).toMap
+    val owners = summaries.map { summary =>
+      val origin =
+        summary.sourceFile.map(_ -> summary.name).orElse(
+          summary.nestHost.flatMap(byName.get).flatMap(host => host.sourceFile.map(_ -> host.name))
+        )
+      origin.flatMap { case (fileName, className) =>
+        val module = packageOf(className)
+        units.filter(unit => unit._2 == fileName && unit._3 == module) match
+          case Seq(unit) => Some(unit._1 -> summary)
+          case _ => None
+      }
+    }
+    if owners.exists(_.isEmpty) then None
+    else
+      val grouped = owners.flatten.groupMap(_._1)(_._2)
+      Some(units.map(unit => unit._1 -> grouped.getOrElse(unit._1, Seq.empty).toVector.sortBy(_.name)).toMap)
+
+  private def packageOf(className: String): String =
+    val dot = className.lastIndexOf('.')
+    if dot < 0 then "" else className.substring(0, dot)
+
+  private final class ShapeCollector extends ClassVisitor(Opcodes.ASM9):
+    private val header = mutable.ArrayBuffer[String]()
+    private val members = mutable.ArrayBuffer[String]()
+    var sourceFile: Option[String] = None
+    var nestHost: Option[String] = None
+
+    override def visit(
+      version: Int,
+      access: Int,
+      name: String,
+      signature: String,
+      superName: String,
+      interfaces: Array[String]
+    ): Unit =
+      header += s"class $access $name $signature $superName ${Option(interfaces).fold("")(_.mkString(","))}"
+
+    override def visitSource(source: String, debug: String): Unit =
+      sourceFile = Option(source)
+
+    override def visitNestHost(host: String): Unit =
+      nestHost = Some(host.replace('/', '.'))
+
+    override def visitPermittedSubclass(permitted: String): Unit =
+      members += s"permits $permitted"
+
+    override def visitInnerClass(name: String, outerName: String, innerName: String, access: Int): Unit =
+      members += s"inner $name $outerName $innerName $access"
+
+    override def visitRecordComponent(name: String, descriptor: String, signature: String): RecordComponentVisitor =
+      members += s"component $name $descriptor $signature"
+      null
+
+    override def visitField(
+      access: Int,
+      name: String,
+      descriptor: String,
+      signature: String,
+      value: Object
+    ): FieldVisitor =
+      if (access & Opcodes.ACC_PRIVATE) == 0 then
+        members += s"field $access $name $descriptor $signature $value"
+      // A select over an enum switches on ordinals, so the order of the constants is ABI
+      if (access & Opcodes.ACC_ENUM) != 0 then
+        header += s"constant $name"
+      null
+
+    override def visitMethod(
+      access: Int,
+      name: String,
+      descriptor: String,
+      signature: String,
+      exceptions: Array[String]
+    ): MethodVisitor =
+      if (access & Opcodes.ACC_PRIVATE) == 0 then
+        members += s"method $access $name $descriptor $signature ${Option(exceptions).fold("")(_.mkString(","))}"
+      null
+
+    def digest(): String =
+      val digest = MessageDigest.getInstance("SHA-256")
+      (header ++ members.sorted).foreach { line =>
+        val bytes = line.getBytes(UTF_8)
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array())
+        digest.update(bytes)
+      }
+      digest.digest().map(byte => f"${byte & 0xff}%02x").mkString
@@ -8,14 +8,19 @@ import java.nio.charset.StandardCharsets.UTF_8
 import java.nio.file.Files
 import java.nio.file.LinkOption.NOFOLLOW_LINKS
 import java.nio.file.Path
+import java.nio.file.StandardCopyOption.COPY_ATTRIBUTES
 
+import scala.annotation.tailrec
 import scala.util.control.NonFatal
 
+import onion.compiler.AST
 import onion.compiler.CompilerConfig
 import onion.compiler.OnionCompiler
 import onion.compiler.StreamInputSource
 import onion.compiler.WarningLevel
+import onion.compiler.diagnostics.DiagnosticBag
 import onion.compiler.diagnostics.DiagnosticRenderer
+import onion.compiler.pipeline.CompilationResult
 import onion.tools.CompiledClassWriter
 import onion.tools.OnionVersion
 
@@ -52,6 +57,19 @@ final class ProjectBuilder(
     bytes: Array[Byte]
   )
 
+  /**
+   * The outcome of the compiler runs of one build: the fresh classes, the units they came
+   * from, which source produced each class (`None` if that could not be worked out), and
+   * the records of the sources whose classes were carried over from the previous build.
+   */
+  private final case class Compilation(
+    classes: Seq[onion.compiler.CompiledClass],
+    units: Seq[AST.CompilationUnit],
+    produced: Option[Map[String, Vector[ClassSummary]]],
+    kept: Vector[SourceRecord],
+    keptEntryPoints: Vector[EntryPoint]
+  )
+
   def build(
     paths: ProjectPaths,
     manifest: ProjectManifest,
@@ -73,9 +91,21 @@ final class ProjectBuilder(
           javaFeature,
           resolved.coordinates
         )
-        result <- cachedBuild(paths, manifest, layout, fingerprint, resolved) match
-          case Some(hit) => Right(hit)
-          case None => compile(paths, manifest, layout, sources, fingerprint, resolved, err)
+        environment = BuildFingerprint.environment(
+          manifest.bytes,
+          compilerVersion,
+          javaFeature,
+          resolved.coordinates
+        )
+        previous = previousState(paths)
+        result <- previous.filter(_.fingerprint == fingerprint) match
+          case Some(state) =>
+            Right(ProjectBuild(paths, manifest, layout, state, cached = true, resolved))
+          case None =>
+            val reusable = previous.filter(state =>
+              state.environment == environment && state.sources.nonEmpty
+            )
+            compile(paths, manifest, layout, sources, fingerprint, environment, reusable, resolved, err)
       yield result
 
   /**
@@ -124,21 +154,14 @@ final class ProjectBuilder(
         case _ => None
     }
 
-  private def cachedBuild(
-    paths: ProjectPaths,
-    manifest: ProjectManifest,
-    layout: ProjectLayout,
-    fingerprint: String,
-    resolved: ResolvedDependencies
-  ): Option[ProjectBuild] =
+  /** The last build's state, if it is readable and every class it records is on disk. */
+  private def previousState(paths: ProjectPaths): Option[BuildState] =
     if Files.isSymbolicLink(paths.buildState) ||
       !Files.isRegularFile(paths.buildState, NOFOLLOW_LINKS)
     then None
     else
       BuildState.load(paths.buildState).toOption
-        .filter(_.fingerprint == fingerprint)
         .filter(BuildState.validatesOutputs(_, paths.classes))
-        .map(state => ProjectBuild(paths, manifest, layout, state, cached = true, resolved))
 
   private def compile(
     paths: ProjectPaths,
@@ -146,12 +169,17 @@ final class ProjectBuilder(
     layout: ProjectLayout,
     sources: Vector[SourceSnapshot],
     fingerprint: String,
+    environment: String,
+    previous: Option[BuildState],
     resolved: ResolvedDependencies,
     err: PrintStream
   ): Either[ProjectError, ProjectBuild] =
     createStaging(paths).flatMap { staging =>
       val result =
-        try compileStaged(paths, manifest, layout, sources, fingerprint, resolved, staging, err)
+        try
+          compileStaged(
+            paths, manifest, layout, sources, fingerprint, environment, previous, resolved, staging, err
+          )
         catch
           case NonFatal(error) =>
             Left(ProjectError(
@@ -167,13 +195,159 @@ final class ProjectBuilder(
     layout: ProjectLayout,
     sources: Vector[SourceSnapshot],
     fingerprint: String,
+    environment: String,
+    previous: Option[BuildState],
     resolved: ResolvedDependencies,
     staging: Path,
     err: PrintStream
   ): Either[ProjectError, ProjectBuild] =
     val stagedClasses = staging.resolve("classes")
+    val incremental = previous.flatMap(state =>
+      compileChanges(paths, sources, state, resolved, stagedClasses)
+    )
+    val compilation = incremental match
+      case Some((compilation, diagnostics)) =>
+        DiagnosticRenderer.printDiagnostics(diagnostics, err)
+        Right(compilation)
+      case None =>
+        // Whatever an abandoned incremental attempt staged must not leak into a full build.
+        FileTree.delete(stagedClasses, paths.target)
+        Files.createDirectory(stagedClasses)
+        compileAll(sources, resolved, stagedClasses, err)
+
+    for
+      compiled <- compilation
+      units <-
+        if compiled.units.isEmpty && compiled.kept.nonEmpty then Right(Seq.empty)
+        else ProjectBuilder.requireParsedUnits(Some(compiled.units))
+      entryPoints <- EntryPointDiscovery.discover(paths.root, units)
+      written <- writeClasses(compiled.classes)
+      classNames = (written ++ compiled.kept.flatMap(_.classes.map(_.name))).distinct.sorted
+      _ <-
+        if classNames.nonEmpty then Right(())
+        else Left(ProjectError(
+          "Internal project error: successful compilation returned no classes"
+        ))
+      state = BuildState(
+        BuildFingerprint.SchemaVersion,
+        fingerprint,
+        classNames,
+        (compiled.keptEntryPoints ++ entryPoints).distinct.sortBy(entryPoint =>
+          (entryPoint.source, entryPoint.line, entryPoint.column, entryPoint.className)
+        ),
+        environment,
+        sourceRecords(sources, compiled, classNames.toSet)
+      )
+      _ <- BuildState.write(staging.resolve("build-state.json"), state)
+      _ <- BuildOutputTransaction.promote(paths, staging, mover)
+    yield ProjectBuild(paths, manifest, layout, state, cached = false, resolved)
+
+  private def compileAll(
+    sources: Vector[SourceSnapshot],
+    resolved: ResolvedDependencies,
+    stagedClasses: Path,
+    err: PrintStream
+  ): Either[ProjectError, Compilation] =
+    val compiled = compileSources(sources, resolved.classpath.map(_.toString), stagedClasses)
+    DiagnosticRenderer.printDiagnostics(compiled.diagnostics, err)
+    if compiled.hasErrors then Left(ProjectError("Project compilation failed"))
+    else
+      val units = compiled.debugArtifacts.parsedUnits.getOrElse(Seq.empty)
+      Right(Compilation(compiled.classes, units, attribute(sources, units, compiled), Vector.empty, Vector.empty))
+
+  /**
+   * Recompiles only what the previous build cannot vouch for: sources whose bytes changed,
+   * new sources, and every unchanged source that depends on a class whose ABI changed or
+   * that disappeared. The other sources' classes are copied into staging and the changed
+   * sources compile against them. When recompiled classes change their ABI, their dependents
+   * join the set and the set compiles again, until nothing new is pulled in.
+   *
+   * `None` sends the build down the full path: compile errors (so that the reported
+   * diagnostics always come from compiling every source), a class that cannot be traced to
+   * its source, or a recompiled source producing a class an unchanged source already owns.
+   */
+  private def compileChanges(
+    paths: ProjectPaths,
+    sources: Vector[SourceSnapshot],
+    previous: BuildState,
+    resolved: ResolvedDependencies,
+    stagedClasses: Path
+  ): Option[(Compilation, DiagnosticBag)] =
+    val recorded = previous.sources.map(record => record.path -> record).toMap
+    val current = sources.map(snapshot => snapshot.source.relative -> snapshot).toMap
+    val previousAbi = previous.sources.flatMap(_.classes.map(record => record.name -> record.abi)).toMap
+    val removedClasses = (recorded.keySet -- current.keySet).flatMap(path => recorded(path).classes.map(_.name))
+
+    def kept(pending: Set[String]): Vector[SourceRecord] =
+      previous.sources.filter(record => current.contains(record.path) && !pending(record.path))
+
+    def dependents(pending: Set[String], changed: Set[String]): Set[String] =
+      kept(pending).filter(_.dependencies.exists(changed)).map(_.path).toSet
+
+    def finished(
+      pending: Set[String],
+      classes: Seq[onion.compiler.CompiledClass],
+      units: Seq[AST.CompilationUnit],
+      produced: Map[String, Vector[ClassSummary]]
+    ): Compilation =
+      val carried = kept(pending)
+      val carriedPaths = carried.map(_.path).toSet
+      Compilation(
+        classes,
+        units,
+        Some(produced),
+        carried,
+        previous.entryPoints.filter(entryPoint => carriedPaths(entryPoint.source))
+      )
+
+    @tailrec
+    def round(pending: Set[String]): Option[(Compilation, DiagnosticBag)] =
+      if pending.isEmpty then Some(finished(pending, Seq.empty, Seq.empty, Map.empty) -> DiagnosticBag.empty)
+      else
+        val batch = sources.filter(snapshot => pending(snapshot.source.relative))
+        val compiled = compileSources(
+          batch,
+          stagedClasses.toString +: resolved.classpath.map(_.toString),
+          stagedClasses
+        )
+        val units = compiled.debugArtifacts.parsedUnits.getOrElse(Seq.empty)
+        val keptClasses = kept(pending).flatMap(_.classes.map(_.name)).toSet
+        val produced =
+          if compiled.hasErrors then None
+          else attribute(batch, units, compiled).filterNot(_.values.flatten.exists(summary => keptClasses(summary.name)))
+        produced match
+          case None => None
+          case Some(byPath) =>
+            val freshAbi = byPath.values.flatten.map(summary => summary.name -> summary.abi).toMap
+            val replaced = pending.flatMap(path => recorded.get(path).toVector.flatMap(_.classes.map(_.name)))
+            val changed = removedClasses ++
+              (replaced ++ freshAbi.keySet).filter(name => previousAbi.get(name) != freshAbi.get(name))
+            val pulled = dependents(pending, changed)
+            if pulled.isEmpty then Some(finished(pending, compiled.classes, units, byPath) -> compiled.diagnostics)
+            else
+              kept(pending).filter(record => pulled(record.path)).foreach(record =>
+                record.classes.foreach(cls => deleteClass(stagedClasses, cls.name))
+              )
+              round(pending ++ pulled)
+
+    try
+      val changed = sources.iterator
+        .map(_.source.relative)
+        .filter(path => recorded.get(path).forall(_.hash != BuildFingerprint.sourceHash(current(path).bytes)))
+        .toSet
+      val pending = changed ++ dependents(changed, removedClasses)
+      kept(pending).foreach(_.classes.foreach(cls => copyClass(paths.classes, stagedClasses, cls.name)))
+      round(pending)
+    catch
+      case NonFatal(_) => None
+
+  private def compileSources(
+    sources: Vector[SourceSnapshot],
+    classPath: Seq[String],
+    stagedClasses: Path
+  ): CompilationResult =
     val config = CompilerConfig(
-      classPath = resolved.classpath.map(_.toString),
+      classPath = classPath,
       superClass = "",
       encoding = UTF_8.name(),
       outputDirectory = stagedClasses.toString,
@@ -188,32 +362,60 @@ final class ProjectBuilder(
         snapshot.source.path.toString
       )
     }
-    val compiled = OnionCompiler(config).compileDetailed(inputs)
-    DiagnosticRenderer.printDiagnostics(compiled.diagnostics, err)
+    OnionCompiler(config).compileDetailed(inputs)
 
-    if compiled.hasErrors then
-      Left(ProjectError("Project compilation failed"))
-    else
-      for
-        units <- ProjectBuilder.requireParsedUnits(compiled.debugArtifacts.parsedUnits)
-        entryPoints <- EntryPointDiscovery.discover(paths.root, units)
-        classNames <- writeClasses(compiled.classes)
-        _ <-
-          if classNames.nonEmpty then Right(())
-          else Left(ProjectError(
-            "Internal project error: successful compilation returned no classes"
-          ))
-        state = BuildState(
-          BuildFingerprint.SchemaVersion,
-          fingerprint,
-          classNames,
-          entryPoints.distinct.sortBy(entryPoint =>
-            (entryPoint.source, entryPoint.line, entryPoint.column, entryPoint.className)
+  /** Which compiled source produced each fresh class, keyed by project-relative path. */
+  private def attribute(
+    sources: Vector[SourceSnapshot],
+    units: Seq[AST.CompilationUnit],
+    compiled: CompilationResult
+  ): Option[Map[String, Vector[ClassSummary]]] =
+    val relative = sources.map(snapshot => snapshot.source.path.toString -> snapshot.source).toMap
+    val keys = units.map { unit =>
+      relative.get(unit.sourceFile).map(source =>
+        (source.relative, source.path.getFileName.toString, Option(unit.module).fold("")(_.name))
+      )
+    }
+    if keys.exists(_.isEmpty) || keys.size != sources.size then None
+    else ClassSummary.attribute(keys.flatten, compiled.classes.map(binary => ClassSummary.read(binary.content)))
+
+  /**
+   * Records for the state: the carried-over ones as they were, fresh ones for every
+   * compiled source. Empty when any class could not be traced to its source, which makes
+   * the next rebuild a full one.
+   */
+  private def sourceRecords(
+    sources: Vector[SourceSnapshot],
+    compiled: Compilation,
+    classNames: Set[String]
+  ): Vector[SourceRecord] =
+    compiled.produced match
+      case None => Vector.empty
+      case Some(byPath) =>
+        val hashes = sources.map(snapshot =>
+          snapshot.source.relative -> BuildFingerprint.sourceHash(snapshot.bytes)
+        ).toMap
+        val fresh = byPath.toVector.map { case (path, summaries) =>
+          val own = summaries.map(_.name).toSet
+          SourceRecord(
+            path,
+            hashes(path),
+            summaries.map(summary => ClassRecord(summary.name, summary.abi)),
+            summaries.flatMap(_.references).filter(name => classNames(name) && !own(name)).distinct.sorted
           )
-        )
-        _ <- BuildState.write(staging.resolve("build-state.json"), state)
-        _ <- BuildOutputTransaction.promote(paths, staging, mover)
-      yield ProjectBuild(paths, manifest, layout, state, cached = false, resolved)
+        }
+        val kept = compiled.kept.map(record => record.copy(dependencies = record.dependencies.filter(classNames)))
+        (kept ++ fresh).sortBy(_.path)
+
+  private def copyClass(from: Path, to: Path, className: String): Unit =
+    CompiledClassWriter.relativePath(className).foreach { relative =>
+      val target = to.resolve(relative)
+      Files.createDirectories(target.getParent)
+      Files.copy(from.resolve(relative), target, COPY_ATTRIBUTES)
+    }
+
+  private def deleteClass(root: Path, className: String): Unit =
+    CompiledClassWriter.relativePath(className).foreach(relative => Files.deleteIfExists(root.resolve(relative)))
 
   private def writeClasses(
     classes: Seq[onion.compiler.CompiledClass]
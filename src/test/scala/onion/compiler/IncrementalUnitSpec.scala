@@ -0,0 +1,63 @@
+package onion.compiler
+
+import java.io.StringReader
+
+import org.scalatest.funsuite.AnyFunSuite
+import org.scalatest.matchers.should.Matchers
+
+/**
+ * A unit compiled with `CompilerConfig.superClass` naming the top-level class of an earlier
+ * unit, loaded by a child of that unit's loader, reaches the earlier unit's top-level values
+ * and functions without recompiling it. This is how the REPL compiles each input.
+ */
+class IncrementalUnitSpec extends AnyFunSuite with Matchers:
+
+  private def withContextLoader[A](loader: ClassLoader)(body: => A): A =
+    val thread = Thread.currentThread()
+    val saved = thread.getContextClassLoader
+    thread.setContextClassLoader(loader)
+    try body
+    finally thread.setContextClassLoader(saved)
+
+  /** Compiles `source` as `fileName` on top of `previous` and defines its classes under it. */
+  private def step(previous: OnionClassLoader, superClass: String, fileName: String, source: String): OnionClassLoader =
+    val compiler = OnionCompiler(CompilerConfig(Seq("."), superClass, "UTF-8", "", 10))
+    val result = withContextLoader(previous)(
+      compiler.compileDetailed(Seq(StreamInputSource(() => StringReader(source), fileName)))
+    )
+    withClue(result.allErrors.mkString("\n"))(result.hasErrors shouldBe false)
+    val loader = OnionClassLoader(previous, Seq.empty, result.classes)
+    withContextLoader(loader)(
+      Class.forName(fileName.stripSuffix(".on") + "Main", true, loader)
+        .getMethod("main", classOf[Array[String]])
+        .invoke(null, Array.empty[String])
+    )
+    loader
+
+  private def field(loader: ClassLoader, className: String, name: String): Any =
+    Class.forName(className, false, loader).getField(name).get(null)
+
+  private val root = OnionClassLoader(classOf[OnionClassLoader].getClassLoader, Seq("."), Seq.empty)
+
+  test("a unit reads, reassigns and calls what earlier units declared"):
+    val first = step(root, "", "In1.on", "val base = 40\nvar count = 1\ndef twice(n: Int): Int { return n * 2 }\n")
+    val second = step(first, "In1Main", "In2.on", "count = count + 1\nval res0 = twice(base) + count\n")
+    field(second, "In2Main", "res0") shouldBe 82
+    field(second, "In1Main", "count") shouldBe 2
+    val third = step(second, "In2Main", "In3.on", "class Scaled {\npublic:\n  static def of(): Int { return res0 * count }\n}\nval res1 = Scaled::of()\n")
+    field(third, "In3Main", "res1") shouldBe 164
+
+  test("a later declaration hides an earlier one of the same name"):
+    val first = step(root, "", "Hide1.on", "val x = 1\ndef f(): Int { return 1 }\n")
+    val second = step(first, "Hide1Main", "Hide2.on", "val x = \"one\"\ndef f(): Int { return 2 }\n")
+    val third = step(second, "Hide2Main", "Hide3.on", "val res0 = x + f()\n")
+    field(third, "Hide3Main", "res0") shouldBe "one2"
+
+  test("closures over primitive type arguments carry well-formed generic signatures"):
+    val first = step(root, "", "Fn1.on", "val inc: Int -> Int = (n: Int) -> { return n + 1 }\n")
+    Class.forName("Fn1Main", false, first).getField("inc").getGenericType.getTypeName shouldBe
+      "onion.Function1<java.lang.Integer, java.lang.Integer>"
+    val second = step(first, "Fn1Main", "Fn2.on", "val res0 = inc(41)\n")
+    field(second, "Fn2Main", "res0") shouldBe 42
+    val third = step(second, "Fn2Main", "Fn3.on", "def twice(n: Int): Int { return inc(inc(n)) - 1 }\nval res1 = twice(1)\n")
+    field(third, "Fn3Main", "res1") shouldBe 2
@@ -0,0 +1,109 @@
+package onion.compiler
+
+import java.io.StringReader
+import java.net.URLClassLoader
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+import scala.util.Using
+
+import org.scalatest.funsuite.AnyFunSuite
+import org.scalatest.matchers.should.Matchers
+
+import onion.compiler.environment.ClassFileTable
+import onion.compiler.pipeline.CompileProfileFormat
+import onion.compiler.pipeline.CompileProfileReporter
+
+/**
+ * Misses are answered from the listed packages of the classpath and of every loader above it,
+ * and only when all of them can be listed; the profile says how each lookup was answered.
+ */
+class PackageIndexSpec extends AnyFunSuite with Matchers:
+
+  private def withContextLoader[A](loader: ClassLoader)(body: => A): A =
+    val thread = Thread.currentThread()
+    val saved = thread.getContextClassLoader
+    thread.setContextClassLoader(loader)
+    try body
+    finally thread.setContextClassLoader(saved)
+
+  // Above the table only the runtime image, so the assertions do not depend on how tests are run.
+  private def platformOnly = URLClassLoader(Array.empty, ClassLoader.getPlatformClassLoader)
+
+  private def classFile(directory: Path, className: String): Path =
+    val file = directory.resolve(className.replace('.', '/') + ".class")
+    Files.createDirectories(file.getParent)
+    Files.write(file, Array[Byte](0))
+
+  private def jarOf(classNames: String*): Path =
+    val jar = Files.createTempDirectory("onion-package-jar").resolve("lib.jar")
+    Using.resource(JarOutputStream(Files.newOutputStream(jar))) { out =>
+      classNames.foreach { name =>
+        out.putNextEntry(JarEntry(name.replace('.', '/') + ".class"))
+        out.write(0)
+        out.closeEntry()
+      }
+    }
+    jar
+
+  test("misses are told apart from classes in jars, directories and the runtime image"):
+    val directory = Files.createTempDirectory("onion-package-dir")
+    classFile(directory, "app.Main")
+    val jar = jarOf("lib.Util", "lib.Util$Inner", "Top")
+    val table = withContextLoader(platformOnly)(ClassFileTable(s"$directory${java.io.File.pathSeparator}$jar"))
+    Seq("app.Main", "lib.Util", "lib.Util$Inner", "Top", "java.util.List", "java.util.Map$Entry").foreach { name =>
+      withClue(name)(table.mayContain(name) shouldBe true)
+    }
+    Seq("app.Other", "lib.Missing", "Missing", "java.util.Missing", "no.such.pkg.Thing").foreach { name =>
+      withClue(name)(table.mayContain(name) shouldBe false)
+    }
+    table.close()
+
+  test("a loader that cannot be listed leaves every lookup to the class loader"):
+    val opaque = new ClassLoader(ClassLoader.getPlatformClassLoader) {}
+    val table = withContextLoader(opaque)(ClassFileTable(Files.createTempDirectory("onion-package-dir").toString))
+    table.mayContain("no.such.pkg.Thing") shouldBe true
+    table.close()
+
+  test("a retained table sees classes added to a classpath directory"):
+    val directory = Files.createTempDirectory("onion-package-dir")
+    val table = withContextLoader(platformOnly)(ClassFileTable(directory.toString, revalidate = true))
+    table.mayContain("app.First") shouldBe false
+    classFile(directory, "app.First")
+    table.mayContain("app.First") shouldBe true
+
+    table.mayContain("app.Second") shouldBe false
+    classFile(directory, "app.Second")
+    val pkg = directory.resolve("app")
+    Files.setLastModifiedTime(pkg, FileTime.fromMillis(Files.getLastModifiedTime(pkg).toMillis + 5000))
+    table.mayContain("app.Second") shouldBe true
+    table.close()
+
+  test("the compile profile counts how class lookups were answered"):
+    val source =
+      """import {
+        |  java.util.concurrent.*;
+        |}
+        |def main(args: String[]): Int {
+        |  val names: ArrayList[String] = new ArrayList[String]()
+        |  val counts: ConcurrentHashMap[String, Integer] = new ConcurrentHashMap[String, Integer]()
+        |  return names.size() + counts.size()
+        |}
+        |""".stripMargin
+    val result = OnionCompiler(CompilerConfig(Seq("."), "", "UTF-8", "", 10)).compileDetailed(
+      Seq(StreamInputSource(() => StringReader(source), "Lookups.on"))
+    )
+    result.hasErrors shouldBe false
+    val resolution = result.toCompileProfile.resolution
+    resolution.lookups should be > 0L
+    resolution.cached + resolution.indexMisses + resolution.classpathProbes shouldBe resolution.lookups
+    resolution.reflectionProbes should be <= resolution.classpathProbes
+    CompileProfileReporter.render(result.toCompileProfile, CompileProfileFormat.Text) should include(
+      s"class-lookups: ${resolution.lookups} (cached=${resolution.cached}, index-misses=${resolution.indexMisses}"
+    )
+    CompileProfileReporter.render(result.toCompileProfile, CompileProfileFormat.Json) should include(
+      s""""classLookups":{"lookups":${resolution.lookups},"cached":${resolution.cached},"indexMisses":${resolution.indexMisses}"""
+    )
@@ -0,0 +1,116 @@
+package onion.compiler
+
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.StringReader
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+import scala.jdk.CollectionConverters.*
+import scala.util.Using
+
+import org.scalatest.funsuite.AnyFunSuite
+import org.scalatest.matchers.should.Matchers
+
+import onion.compiler.environment.ClassSymbols
+import onion.compiler.environment.SymbolIndex
+
+/**
+ * Classpath classes are read once per jar (or Java runtime) and then served from an index on
+ * disk; a compile against the index must produce exactly what a compile without it does.
+ */
+class SymbolIndexSpec extends AnyFunSuite with Matchers:
+
+  private val helper = "Helper.on" ->
+    """class Helper {
+      |public:
+      |  static def names(): java.util.List[String] { return new java.util.ArrayList[String]() }
+      |  static def value(): Int { return 1 }
+      |}
+      |""".stripMargin
+
+  private val user = "User.on" ->
+    """def main(args: String[]): Int {
+      |  val names: java.util.List[String] = Helper::names()
+      |  names.add("x")
+      |  IO::println(names.get(0).toUpperCase() + Helper::value())
+      |  return names.size()
+      |}
+      |""".stripMargin
+
+  private def compile(classPath: Seq[String], source: (String, String)) =
+    OnionCompiler(CompilerConfig(classPath, "", "UTF-8", "", 10)).compileDetailed(
+      Seq(StreamInputSource(() => StringReader(source._2), source._1))
+    )
+
+  private def shape(classPath: Seq[String], source: (String, String)) =
+    val result = compile(classPath, source)
+    result.hasErrors shouldBe false
+    result.classes.map(c => (c.className, c.content.toSeq))
+
+  private def indexedIn(directory: Path)(body: => Unit): Unit =
+    SymbolIndex.storeIn(Some(directory))
+    try body
+    finally SymbolIndex.storeIn(Some(SymbolIndex.defaultDirectory))
+
+  private def writeJar(jar: Path, classes: Seq[CompiledClass]): Unit =
+    Using.resource(JarOutputStream(Files.newOutputStream(jar))) { out =>
+      classes.foreach { compiled =>
+        out.putNextEntry(JarEntry(compiled.className.replace('.', '/') + ".class"))
+        out.write(compiled.content)
+        out.closeEntry()
+      }
+    }
+
+  test("class symbols read back as they were written"):
+    val bytes = Using.resource(ClassLoader.getSystemResourceAsStream("java/util/ArrayList.class"))(_.readAllBytes())
+    val symbols = ClassSymbols.read(bytes)
+    symbols.name shouldBe "java/util/ArrayList"
+    symbols.signature.get should include("Ljava/util/AbstractList<TE;>;")
+    symbols.methods.map(_.name) should contain allOf ("<init>", "add", "get")
+    val out = ByteArrayOutputStream()
+    ClassSymbols.write(DataOutputStream(out), symbols)
+    ClassSymbols.read(DataInputStream(java.io.ByteArrayInputStream(out.toByteArray))) shouldBe symbols
+
+  test("compiles the same against an index as without one"):
+    val jar = Files.createTempDirectory("onion-index-jar").resolve("helper.jar")
+    writeJar(jar, compile(Seq("."), helper).classes)
+    val classPath = Seq(jar.toString)
+    val directory = Files.createTempDirectory("onion-symbols")
+
+    SymbolIndex.storeIn(None)
+    val plain =
+      try shape(classPath, user)
+      finally SymbolIndex.storeIn(Some(SymbolIndex.defaultDirectory))
+
+    indexedIn(directory) {
+      shape(classPath, user) shouldBe plain
+      val files = Using.resource(Files.list(directory))(_.iterator.asScala.map(_.getFileName.toString).toVector)
+      files.count(_.startsWith("helper.jar-")) shouldBe 1
+      files.count(_.startsWith("jrt-")) shouldBe 1
+      SymbolIndex.storeIn(Some(directory)) // reopens from disk
+      shape(classPath, user) shouldBe plain
+      SymbolIndex.runtimeImage.flatMap(_.lookup("java.util.List")).map(_.name) shouldBe Some("java/util/List")
+      SymbolIndex.forContainer(jar.toAbsolutePath.toString).flatMap(_.lookup("Helper")).map(_.name) shouldBe Some("Helper")
+    }
+
+  test("a jar that changes is indexed afresh, one that is only touched is not"):
+    val jar = Files.createTempDirectory("onion-index-jar").resolve("helper.jar")
+    writeJar(jar, compile(Seq("."), helper).classes)
+    val container = jar.toAbsolutePath.toString
+    indexedIn(Files.createTempDirectory("onion-symbols")) {
+      shape(Seq(jar.toString), user)
+      SymbolIndex.forContainer(container).flatMap(_.lookup("Helper")) should not be None
+
+      Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis + 5000))
+      SymbolIndex.forContainer(container).flatMap(_.lookup("Helper")) should not be None
+
+      writeJar(jar, compile(Seq("."), "Helper.on" -> helper._2.replace("return 1", "return 2")).classes ++
+        compile(Seq("."), "Extra.on" -> "class Extra {}\n").classes)
+      Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis + 10000))
+      SymbolIndex.forContainer(container).flatMap(_.lookup("Helper")) shouldBe None
+    }
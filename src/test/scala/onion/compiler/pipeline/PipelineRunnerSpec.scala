@@ -23,6 +23,9 @@ class PipelineRunnerSpec extends AnyFunSpec with Matchers {
         "Parsing",
         "Rewriting",
         "Typing",
+        "HigherOrderInlining",
+        "Simplification",
+        "Memoization",
         "TailCallOptimization",
         "MutualRecursionOptimization",
         "BytecodeGeneration",
@@ -46,6 +49,21 @@ class PipelineRunnerSpec extends AnyFunSpec with Matchers {
           override def run(input: Seq[AST.CompilationUnit], ctx: PhaseContext): onion.compiler.typing.TypingPhaseResult =
             fail("typing phase should not run after a rewriting failure")
         },
+        higherOrderInlining = new CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]] {
+          override val name: String = "HigherOrderInlining"
+          override def run(input: Seq[TypedAST.ClassDefinition], ctx: PhaseContext): Seq[TypedAST.ClassDefinition] =
+            fail("higher-order inlining should not run after a rewriting failure")
+        },
+        simplification = new CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]] {
+          override val name: String = "Simplification"
+          override def run(input: Seq[TypedAST.ClassDefinition], ctx: PhaseContext): Seq[TypedAST.ClassDefinition] =
+            fail("simplification should not run after a rewriting failure")
+        },
+        memoization = new CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]] {
+          override val name: String = "Memoization"
+          override def run(input: Seq[TypedAST.ClassDefinition], ctx: PhaseContext): Seq[TypedAST.ClassDefinition] =
+            fail("memoization should not run after a rewriting failure")
+        },
         tailCallOptimization = new CompilerPhase[Seq[TypedAST.ClassDefinition], Seq[TypedAST.ClassDefinition]] {
           override val name: String = "TailCallOptimization"
           override def run(input: Seq[TypedAST.ClassDefinition], ctx: PhaseContext): Seq[TypedAST.ClassDefinition] =
@@ -109,5 +127,29 @@ class PipelineRunnerSpec extends AnyFunSpec with Matchers {
       result.hasErrors shouldBe true
       result.classes shouldBe empty
     }
+
+    it("stops before the next phase once the request is cancelled") {
+      val config = CompilerConfig(Seq("."), "", "UTF-8", "", 10)
+      val phases = PipelineRunner.defaultPhases(config)
+      var parsed = 0
+      val counting = phases.copy(parsing = new CompilerPhase[Seq[SourceHandle], Seq[AST.CompilationUnit]] {
+        override val name: String = "Parsing"
+        override def run(input: Seq[SourceHandle], ctx: PhaseContext): Seq[AST.CompilationUnit] = {
+          parsed += 1
+          phases.parsing.run(input, ctx)
+        }
+      })
+      val request = CompilationRequest(
+        Seq(new StreamInputSource(() => new StringReader("""IO::println("ok")"""), "Cancelled.on")),
+        config,
+        cancelled = () => parsed > 0
+      )
+
+      val thrown = intercept[java.util.concurrent.CancellationException] {
+        new PipelineRunner(counting).run(request)
+      }
+      thrown.getMessage should include ("before Rewriting")
+      parsed shouldBe 1
+    }
   }
 }
@@ -0,0 +1,105 @@
+package onion.compiler.tools
+
+import onion.compiler.{CompiledClass, CompilerConfig, OnionCompiler, StreamInputSource}
+import onion.tools.Shell
+import org.objectweb.asm.{ClassReader, ClassVisitor, MethodVisitor, Opcodes}
+
+import java.io.StringReader
+import scala.collection.mutable
+
+/**
+ * A closure copies the locals it captures unless one of them is reassigned after it is
+ * declared; only those share an `onion.runtime` box with the enclosing scope, whatever
+ * their type.
+ */
+class CapturedBoxingSpec extends AbstractShellSpec {
+
+  private def compile(source: String): Seq[CompiledClass] = {
+    val result = new OnionCompiler(CompilerConfig(Seq("."), "", "UTF-8", "", 10))
+      .compileDetailed(Seq(new StreamInputSource(() => new StringReader(source), "Capture.on")))
+    assert(!result.hasErrors, result.allErrors.map(_.message).mkString("; "))
+    result.classes
+  }
+
+  /** The box classes `method` allocates. */
+  private def boxesIn(classes: Seq[CompiledClass], method: String): Seq[String] = {
+    val boxes = mutable.ArrayBuffer[String]()
+    classes.foreach { compiled =>
+      new ClassReader(compiled.content).accept(new ClassVisitor(Opcodes.ASM9) {
+        override def visitMethod(access: Int, name: String, desc: String, sig: String, ex: Array[String]): MethodVisitor =
+          if (name != method) null
+          else new MethodVisitor(Opcodes.ASM9) {
+            override def visitTypeInsn(op: Int, tpe: String): Unit =
+              if (op == Opcodes.NEW && tpe.startsWith("onion/runtime/") && tpe.endsWith("Box")) boxes += tpe
+          }
+      }, 0)
+    }
+    boxes.toSeq
+  }
+
+  describe("captured locals") {
+    it("copies vals and vars that are never reassigned, and boxes the rest") {
+      val source =
+        """
+          |import { java.util.function.IntSupplier; }
+          |def sum(): Int {
+          |  val a = 5
+          |  var b = 6
+          |  var c = 7
+          |  c = c + 1
+          |  var d = 0
+          |  val g: IntSupplier = () -> a + b + c
+          |  val h: Runnable = () -> { d = d + 1 }
+          |  h.run()
+          |  h.run()
+          |  return g.getAsInt() + d
+          |}
+          |def main(args: String[]): String {
+          |  val name = "n"
+          |  val greet: IntSupplier = () -> name.length()
+          |  return "" + sum() + greet.getAsInt()
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success("211") == shell.run(classes, Array()))
+      assert(boxesIn(classes, "sum") == Seq("onion/runtime/IntBox", "onion/runtime/IntBox"))
+      assert(boxesIn(classes, "main").isEmpty)
+    }
+
+    it("shares reassigned boolean, char, short and byte locals with closures") {
+      val source =
+        """
+          |def main(args: String[]): String {
+          |  var seen = false
+          |  var c = 'a'
+          |  var s: Short = 1 as Short
+          |  var b: Byte = 2 as Byte
+          |  val r: Runnable = () -> { seen = true; c = 'z'; s = 7 as Short; b = 9 as Byte }
+          |  r.run()
+          |  return "" + seen + c + s + b
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success("truez79") == shell.run(classes, Array()))
+      assert(boxesIn(classes, "main").toSet == Set(
+        "onion/runtime/BooleanBox", "onion/runtime/CharBox", "onion/runtime/ShortBox", "onion/runtime/ByteBox"
+      ))
+    }
+
+    it("sees a reassignment made after the closure was created") {
+      val source =
+        """
+          |import { java.util.function.IntSupplier; }
+          |def main(args: String[]): String {
+          |  var x = 1
+          |  val read: IntSupplier = () -> x
+          |  x = 2
+          |  return "" + read.getAsInt()
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success("2") == shell.run(classes, Array()))
+      assert(boxesIn(classes, "main") == Seq("onion/runtime/IntBox"))
+    }
+  }
+}
@@ -40,5 +40,47 @@ class CompilerProfileSpec extends AnyFunSpec with Matchers {
       profileJson should include ("\"name\":\"Parsing\"")
       profileJson should include ("\"name\":\"BytecodeGeneration\"")
     }
+
+    it("parses files on several threads with the sequential order of units, diagnostics and file timings") {
+      val sources = (1 to 24).map { i =>
+        val text =
+          if (i % 5 == 0) s"def broken$i(: void {}\n"
+          else s"class Unit$i {\npublic:\n  def value(): Int { return $i }\n}\n"
+        (s"Unit$i.on", text)
+      }
+      def compile(parallelism: Int) = {
+        val config = CompilerConfig(
+          classPath = Seq("."),
+          superClass = "",
+          encoding = "UTF-8",
+          outputDirectory = "",
+          maxErrorReports = 10,
+          parallelism = parallelism
+        )
+        new OnionCompiler(config).compileDetailed(
+          sources.map { case (name, text) => new StreamInputSource(() => new StringReader(text), name) }
+        )
+      }
+
+      val sequential = compile(1)
+      val parallel = compile(8)
+      parallel.diagnostics.errors.map(e => (e.sourceFile, e.location, e.message)) shouldBe
+        sequential.diagnostics.errors.map(e => (e.sourceFile, e.location, e.message))
+      parallel.diagnostics.errors.map(_.sourceFile) shouldBe Seq("Unit5.on", "Unit10.on", "Unit15.on", "Unit20.on")
+      parallel.toCompileProfile.files.map(f => (f.phase, f.file)) shouldBe sources.map(s => ("Parsing", s._1))
+
+      val valid = sources.filterNot(_._2.startsWith("def broken"))
+      def units(parallelism: Int) = {
+        val config = CompilerConfig(Seq("."), "", "UTF-8", "", 10, parallelism = parallelism)
+        new OnionCompiler(config).compileDetailed(
+          valid.map { case (name, text) => new StreamInputSource(() => new StringReader(text), name) }
+        )
+      }
+      val one = units(1)
+      val many = units(8)
+      many.debugArtifacts.parsedUnits.get.map(_.sourceFile) shouldBe valid.map(_._1)
+      many.classes.map(c => (c.className, c.content.toSeq)) shouldBe one.classes.map(c => (c.className, c.content.toSeq))
+      CompileProfileReporter.render(many.toCompileProfile, CompileProfileFormat.Json) should include ("\"file\":\"Unit1.on\"")
+    }
   }
 }
@@ -0,0 +1,68 @@
+package onion.compiler.tools
+
+import onion.tools.Shell
+
+import java.nio.file.{Files => JFiles}
+
+/**
+ * The streaming CSV API from Onion code: `foreach` over a projected
+ * `CsvReader`, typed field accessors, and a `CsvWriter` appending to a file.
+ */
+class CsvStreamingSpec extends AbstractShellSpec {
+
+  private def tempCsv(content: String): String = {
+    val f = JFiles.createTempFile("onion-csv-", ".csv").toFile
+    f.deleteOnExit()
+    JFiles.writeString(f.toPath, content)
+    f.getAbsolutePath.replace("\\", "\\\\")
+  }
+
+  describe("streaming Csv") {
+    it("iterates a projected reader with typed accessors") {
+      val path = tempCsv("region,note,amount,count\nnorth,\"a, b\",1.25,2\nsouth,x,2.5,3\n")
+      val result = shell.run(
+        s"""
+          |class Test {
+          |public:
+          |  static def main(args: String[]): String {
+          |    val reader = Csv::open("$path").withHeader().columns("amount", "count")
+          |    var total = 0.0
+          |    var n = 0
+          |    foreach rec: CsvRecord in reader {
+          |      total = total + rec.getDouble("amount") * rec.getInt(1)
+          |      n = n + rec.size()
+          |    }
+          |    reader.close()
+          |    return "" + total + "/" + n
+          |  }
+          |}
+          |""".stripMargin,
+        "None",
+        Array()
+      )
+      assert(Shell.Success("10.0/4") == result)
+    }
+
+    it("appends rows through a CsvWriter and reads them back via the file resource") {
+      val path = tempCsv("name,qty\n")
+      val result = shell.run(
+        s"""
+          |class Test {
+          |public:
+          |  static def main(args: String[]): String {
+          |    val out = Csv::appendTo("$path")
+          |    out.writeRow("bolt, hex", "40")
+          |    out.writeRow("nut", "12")
+          |    out.close()
+          |    val recs = file"$path".csvRows
+          |    return recs.get(0).get("name") + "|" + recs.get(1).get("qty") + "|" + file"$path".csv.size()
+          |  }
+          |}
+          |""".stripMargin,
+        "None",
+        Array()
+      )
+      assert(Shell.Success("bolt, hex|12|3") == result)
+    }
+  }
+}
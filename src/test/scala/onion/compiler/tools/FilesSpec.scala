@@ -51,6 +51,31 @@ class FilesSpec extends AbstractShellSpec {
         )
         assert(Shell.Success("3") == result)
       }
+
+      it("iterates a file lazily with foreach over Files::lines") {
+        val tmpFile = JFiles.createTempFile("onion-test-", ".txt").toFile
+        tmpFile.deleteOnExit()
+        val path = tmpFile.getAbsolutePath.replace("\\", "\\\\")
+        JFiles.writeString(tmpFile.toPath, "1\n2\n3\n4\n")
+
+        val result = shell.run(
+          s"""
+            |class Test {
+            |public:
+            |  static def main(args: String[]): Int {
+            |    var sum = 0
+            |    foreach line: String in Files::lines("$path") {
+            |      sum = sum + Integer::parseInt(line)
+            |    }
+            |    return sum
+            |  }
+            |}
+            |""".stripMargin,
+          "None",
+          Array()
+        )
+        assert(Shell.Success(10) == result)
+      }
     }
 
     describe("file operations") {
@@ -0,0 +1,148 @@
+package onion.compiler.tools
+
+import onion.compiler.{CompiledClass, CompilerConfig, OnionClassLoader, OnionCompiler, StreamInputSource}
+import onion.tools.Shell
+import org.objectweb.asm.{ClassReader, ClassVisitor, MethodVisitor, Opcodes}
+
+import java.io.StringReader
+import java.lang.management.ManagementFactory
+import scala.collection.mutable
+
+/**
+ * A foreach over a range with an `Int` variable counts with an `int` rather than
+ * iterating boxed Integers, and a foreach over an array indexes into it; both visit
+ * the elements the iterator would, with `continue` and `break` behaving alike.
+ */
+class ForeachLoweringSpec extends AbstractShellSpec {
+
+  private def compile(source: String): Seq[CompiledClass] = {
+    val result = new OnionCompiler(CompilerConfig(Seq("."), "", "UTF-8", "", 10))
+      .compileDetailed(Seq(new StreamInputSource(() => new StringReader(source), "Loops.on")))
+    assert(!result.hasErrors, result.allErrors.map(_.message).mkString("; "))
+    result.classes
+  }
+
+  /** The owners and names of the methods `method` calls. */
+  private def callsIn(classes: Seq[CompiledClass], method: String): Seq[String] = {
+    val calls = mutable.ArrayBuffer[String]()
+    classes.foreach { compiled =>
+      new ClassReader(compiled.content).accept(new ClassVisitor(Opcodes.ASM9) {
+        override def visitMethod(access: Int, name: String, desc: String, sig: String, ex: Array[String]): MethodVisitor =
+          if (name != method) null
+          else new MethodVisitor(Opcodes.ASM9) {
+            override def visitMethodInsn(op: Int, owner: String, name: String, desc: String, itf: Boolean): Unit =
+              calls += s"$owner.$name"
+          }
+      }, 0)
+    }
+    calls.toSeq
+  }
+
+  describe("foreach lowered to a counted loop") {
+    it("counts through range literals and Range values, continue and break included") {
+      val source =
+        """
+          |def literals(): String {
+          |  var out = ""
+          |  foreach i: Int in 1..5 { if i == 2 { continue } out = out + i }
+          |  out = out + ","
+          |  foreach i: Int in 0..<4 { if i == 3 { break } out = out + i }
+          |  out = out + ","
+          |  foreach i: Int in 5..1 { out = out + i }
+          |  val top = Integer::MAX_VALUE  // Range clamps the end, so top itself is never reached
+          |  var count = 0
+          |  foreach i: Int in (top - 2)..top { count = count + 1 }
+          |  return out + count
+          |}
+          |def values(r: onion.Range): String {
+          |  var out = ""
+          |  foreach i: Int in r {
+          |    i = i * 10
+          |    out = out + i + " "
+          |  }
+          |  return out
+          |}
+          |def boxed(): String {
+          |  var out = ""
+          |  foreach i: Integer in 1..3 { out = out + i.hashCode() }
+          |  return out
+          |}
+          |def main(args: String[]): String {
+          |  var ends = ""
+          |  var hi = 2
+          |  foreach i: Int in 0..hi {
+          |    hi = 10
+          |    ends = ends + i
+          |  }
+          |  return literals() + "|" + values(2..4) + "|" + ends + "|" + boxed()
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success("1345,012,2|20 30 40 |012|123") == shell.run(classes, Array()))
+      val literals = callsIn(classes, "literals")
+      assert(literals.filter(_.startsWith("onion/Range.")).forall(_ == "onion/Range.endExclusive"))
+      assert(!literals.contains("java/util/Iterator.next"))
+      assert(callsIn(classes, "values").contains("onion/Range.endExclusive"))
+      assert(!callsIn(classes, "values").contains("onion/Range.iterator"))
+    }
+
+    it("advances past continue in a foreach over an array") {
+      val source =
+        """
+          |def main(args: String[]): String {
+          |  val xs = new Int[5]
+          |  foreach i: Int in 0..<5 { xs[i] = i + 1 }
+          |  var out = ""
+          |  outer: foreach x: Int in xs {
+          |    foreach y: Int in xs {
+          |      if y > x { continue outer }
+          |      if y % 2 == 0 { continue }
+          |      out = out + y
+          |    }
+          |  }
+          |  return out
+          |}
+          |""".stripMargin
+      assert(Shell.Success("111313135") == shell.run(compile(source), Array()))
+    }
+
+    it("allocates nothing per element of a range") {
+      val source =
+        """
+          |class Loops {
+          |public:
+          |  static def literal(n: Int): Long {
+          |    var sum = 0L
+          |    foreach i: Int in 0..<n { sum = sum + i }
+          |    return sum
+          |  }
+          |  static def value(r: onion.Range): Long {
+          |    var sum = 0L
+          |    foreach i: Int in r { sum = sum + i }
+          |    return sum
+          |  }
+          |}
+          |""".stripMargin
+      val loader = new OnionClassLoader(getClass.getClassLoader, Seq("."), compile(source))
+      val loops = loader.loadClass("Loops")
+      val threads = ManagementFactory.getThreadMXBean.asInstanceOf[com.sun.management.ThreadMXBean]
+      val n = 200000
+
+      // Interpreted code does no escape analysis, so every Integer the loop boxed
+      // would show up here; a warm-up call first loads what it uses.
+      def allocated(method: String, argType: Class[?], arg: AnyRef, warmUp: AnyRef, expected: Long): Long = {
+        val m = loops.getMethod(method, argType)
+        m.invoke(null, warmUp)
+        val before = threads.getCurrentThreadAllocatedBytes
+        val result = m.invoke(null, arg)
+        val bytes = threads.getCurrentThreadAllocatedBytes - before
+        assert(result == expected)
+        bytes
+      }
+      val sum = n.toLong * (n - 1) / 2
+      // A boxed Integer per element would be 16 bytes each
+      assert(allocated("literal", classOf[Int], Integer.valueOf(n), Integer.valueOf(1), sum) < n)
+      assert(allocated("value", classOf[onion.Range], new onion.Range(0, n, false), new onion.Range(0, 1, false), sum) < n)
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package onion.compiler.tools
+
+import onion.compiler.{CompiledClass, CompilerConfig, OnionCompiler, StreamInputSource}
+import onion.tools.Shell
+import org.objectweb.asm.{ClassReader, ClassVisitor, MethodVisitor, Opcodes}
+
+import java.io.{ByteArrayOutputStream, PrintStream, StringReader}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Paths}
+import scala.collection.mutable
+
+/**
+ * `CompilerConfig.inlineHigherOrder` turns `Colls.map`, `Colls.filter`, `Colls.forEach`
+ * and `Iterables.foldl` calls given a closure literal into loops in the caller. A program
+ * must print and return exactly what it does when the library runs the closure.
+ */
+class HigherOrderInliningSpec extends AbstractShellSpec {
+
+  private def compile(source: String, fileName: String, inline: Boolean): Seq[CompiledClass] = {
+    val config = CompilerConfig(Seq("."), "", "UTF-8", "", 10, inlineHigherOrder = inline)
+    val result = new OnionCompiler(config).compileDetailed(
+      Seq(new StreamInputSource(() => new StringReader(source), fileName))
+    )
+    assert(!result.hasErrors, result.allErrors.map(_.message).mkString("; "))
+    result.classes
+  }
+
+  /** Runs `source` both ways, checks they agree, and returns the classes compiled with inlining. */
+  private def runBoth(source: String, expected: Any): Seq[CompiledClass] = {
+    val library = compile(source, "Inline.on", inline = false)
+    val inlined = compile(source, "Inline.on", inline = true)
+    assert(Shell.Success(expected) == shell.run(library, Array()))
+    assert(Shell.Success(expected) == shell.run(inlined, Array()))
+    inlined
+  }
+
+  /** The calls `method` makes, as `owner.name`, and the classes it instantiates, as `new owner`. */
+  private def instructionsIn(classes: Seq[CompiledClass], method: String): Seq[String] = {
+    val found = mutable.ArrayBuffer[String]()
+    classes.foreach { compiled =>
+      new ClassReader(compiled.content).accept(new ClassVisitor(Opcodes.ASM9) {
+        override def visitMethod(access: Int, name: String, desc: String, sig: String, ex: Array[String]): MethodVisitor =
+          if (name != method) null
+          else new MethodVisitor(Opcodes.ASM9) {
+            override def visitMethodInsn(op: Int, owner: String, name: String, desc: String, itf: Boolean): Unit =
+              found += s"$owner.$name"
+            override def visitTypeInsn(op: Int, tpe: String): Unit =
+              if (op == Opcodes.NEW) found += s"new $tpe"
+          }
+      }, 0)
+    }
+    found.toSeq
+  }
+
+  // run/ samples that inline several calls, print a deterministic report and read no input
+  private val samples = Seq(
+    "AccessLogAnalyzer", "AirlineReservation", "AstronomyCatalog", "EmployeeManager", "GraphAlgorithms",
+    "LogSummary", "SortingShowcase", "StudentGradeBook", "LibrarySystem", "DeptReport"
+  )
+
+  /** The value `main` returns and everything it printed. */
+  private def output(classes: Seq[CompiledClass]): (Shell.Result, String) = {
+    val originalOut = System.out
+    val buffer = new ByteArrayOutputStream()
+    System.setOut(new PrintStream(buffer, true, StandardCharsets.UTF_8))
+    try (shell.run(classes, Array()), buffer.toString(StandardCharsets.UTF_8))
+    finally System.setOut(originalOut)
+  }
+
+  private def closureClasses(classes: Seq[CompiledClass]): Seq[String] =
+    classes.map(_.className).filter(_.contains("$Closure"))
+
+  describe("higher-order calls inlined into loops") {
+    it("runs map, filter, forEach and foldl closures in place") {
+      val source =
+        """
+          |import { java.util.List; }
+          |def main(args: String[]): String {
+          |  val xs: List[Integer] = [1, 2, 3, 4, 5]
+          |  val doubled = xs.map { x -> x * 2 }
+          |  val evens = xs.filter { x -> x % 2 == 0 }
+          |  val sum = xs.foldl(0, (acc: Integer, x: Integer) -> acc + x)
+          |  val sizes = Colls::map(xs, (x: Integer) -> {
+          |    if x > 3 { return "big" }
+          |    val label = "small" + x
+          |    return label
+          |  })
+          |  var seen = ""
+          |  Colls::forEach(xs, (x: Integer) -> { seen = seen + x })
+          |  val smaller = xs.map { x -> xs.filter { y -> y < x }.size() }
+          |  return "" + doubled + evens + sum + sizes + seen + smaller
+          |}
+          |""".stripMargin
+      val classes = runBoth(source, "[2, 4, 6, 8, 10][2, 4]15[small1, small2, small3, big, big]12345[0, 1, 2, 3, 4]")
+      val main = instructionsIn(classes, "main")
+      assert(!main.exists(call => call.startsWith("onion/Colls.") || call.startsWith("onion/Iterables.")), main)
+      assert(closureClasses(classes).isEmpty)
+      // `seen` was boxed only to be shared with the closure
+      assert(!main.exists(_.startsWith("new onion/runtime/")), main)
+    }
+
+    it("returns an unmodifiable list, as the library does") {
+      val source =
+        """
+          |import { java.util.List; }
+          |def main(args: String[]): String {
+          |  val xs: List[Integer] = [1, 2, 3]
+          |  val mapped = Colls::map(xs, (x: Integer) -> x + 1)
+          |  try {
+          |    mapped.add(9)
+          |  } catch e: UnsupportedOperationException {
+          |    return "read-only " + mapped
+          |  }
+          |  return "modified"
+          |}
+          |""".stripMargin
+      runBoth(source, "read-only [2, 3, 4]")
+    }
+
+    it("leaves to the library the closures it cannot move") {
+      val source =
+        """
+          |import { java.util.List; java.util.function.IntSupplier; }
+          |class Scaler {
+          |  val factor: Int
+          |public:
+          |  def this(factor: Int) { this.factor = factor }
+          |  def scale(xs: List[Integer]): List[Integer] = xs.map { x -> x * factor }
+          |}
+          |def main(args: String[]): String {
+          |  val xs: List[Integer] = [3, 1, 2]
+          |  val firsts = Colls::map(xs, (x: Integer) -> {
+          |    for var i = 0; i < 10; i = i + 1 { if i == x { return i * 10 } }
+          |    return -1
+          |  })
+          |  var last = 0
+          |  val deferred = Colls::map(xs, (x: Integer) -> {
+          |    val later: IntSupplier = () -> x + last
+          |    return later
+          |  })
+          |  last = 100
+          |  return "" + firsts + deferred.get(0).getAsInt() + new Scaler(3).scale(xs)
+          |}
+          |""".stripMargin
+      val classes = runBoth(source, "[30, 10, 20]103[9, 3, 6]")
+      assert(instructionsIn(classes, "main").count(_ == "onion/Colls.map") == 2)
+      // Inlined, the closure's `factor` is read through the method's own `this`
+      assert(!instructionsIn(classes, "scale").contains("onion/Colls.map"))
+    }
+  }
+
+  describe("run/ samples") {
+    samples.foreach { name =>
+      it(s"runs $name.on the same with and without inlining") {
+        val path = s"run/$name.on"
+        val source = Files.readString(Paths.get(path))
+        val inlined = compile(source, path, inline = true)
+        assert(closureClasses(inlined).size < closureClasses(compile(source, path, inline = false)).size)
+        val expected = output(compile(source, path, inline = false))
+        assert(expected._1.isInstanceOf[Shell.Success])
+        assert(output(inlined) == expected)
+      }
+    }
+  }
+}
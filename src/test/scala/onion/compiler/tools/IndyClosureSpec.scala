@@ -0,0 +1,174 @@
+package onion.compiler.tools
+
+import onion.compiler.{CompiledClass, CompilerConfig, OnionCompiler, StreamInputSource}
+import onion.tools.Shell
+import org.objectweb.asm.{ClassReader, ClassVisitor, Handle, MethodVisitor, Opcodes}
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.io.StringReader
+import scala.collection.mutable
+
+/**
+ * `CompilerConfig.indyClosures` compiles a closure to a private static `lambda$` method
+ * of the enclosing class, created by `invokedynamic` through LambdaMetafactory. A
+ * program must behave exactly as it does with a class per closure.
+ */
+class IndyClosureSpec extends AnyFunSpec with Matchers {
+  private val shell = Shell(Seq("."))
+
+  private def compile(source: String, fileName: String, indy: Boolean): Seq[CompiledClass] = {
+    val config = CompilerConfig(Seq("."), "", "UTF-8", "", 10, indyClosures = indy)
+    val result = new OnionCompiler(config).compileDetailed(
+      Seq(new StreamInputSource(() => new StringReader(source), fileName))
+    )
+    assert(!result.hasErrors, result.allErrors.map(_.message).mkString("; "))
+    result.classes
+  }
+
+  /** Runs `source` in both modes, checks they agree, and returns the classes of the indy run. */
+  private def runBoth(source: String, fileName: String, expected: Any): Seq[CompiledClass] = {
+    val inner = compile(source, fileName, indy = false)
+    val indy = compile(source, fileName, indy = true)
+    shell.run(inner, Array()) shouldBe Shell.Success(expected)
+    shell.run(indy, Array()) shouldBe Shell.Success(expected)
+    indy
+  }
+
+  private def lambdaMethods(bytes: Array[Byte]): Seq[String] = {
+    val names = mutable.ArrayBuffer[String]()
+    new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+      override def visitMethod(access: Int, name: String, desc: String, sig: String, ex: Array[String]): MethodVisitor = {
+        if (name.startsWith("lambda$")) {
+          (access & Opcodes.ACC_PRIVATE) should not be 0
+          (access & Opcodes.ACC_STATIC) should not be 0
+          names += name
+        }
+        null
+      }
+    }, ClassReader.SKIP_CODE)
+    names.toSeq
+  }
+
+  private def metafactoryCalls(bytes: Array[Byte]): Int = {
+    var calls = 0
+    new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+      override def visitMethod(access: Int, name: String, desc: String, sig: String, ex: Array[String]): MethodVisitor =
+        new MethodVisitor(Opcodes.ASM9) {
+          override def visitInvokeDynamicInsn(name: String, desc: String, bsm: Handle, args: Object*): Unit =
+            if (bsm.getOwner == "java/lang/invoke/LambdaMetafactory") calls += 1
+        }
+    }, 0)
+    calls
+  }
+
+  describe("closures compiled through invokedynamic") {
+    it("capture values, mutable locals, primitives and nested closures as inner classes do") {
+      val source =
+        """
+          |class Test {
+          |public:
+          |  static def main(args: String[]): String {
+          |    val double: (Int) -> Int = (n: Int) -> { return n * 2 }
+          |    val base = 10L
+          |    val scale = 1.5
+          |    val mix: (Int) -> Long = (n: Int) -> { return base + n }
+          |    val half: (Double) -> Double = (d: Double) -> { return d * scale }
+          |    var total = 0
+          |    val add: (Int) -> Int = (n: Int) -> {
+          |      val twice: () -> Int = () -> { return n * 2 }
+          |      total = total + twice.call()
+          |      return total
+          |    }
+          |    add.call(3)
+          |    add.call(4)
+          |    var log = ""
+          |    val note: (String) -> void = (s: String) -> { log = log + s; }
+          |    note.call("a")
+          |    note.call("b")
+          |    val outer = "o"
+          |    val deep: () -> String = () -> {
+          |      val middle: () -> String = () -> {
+          |        val inner: () -> String = () -> { return outer + log }
+          |        return inner.call()
+          |      }
+          |      return middle.call()
+          |    }
+          |    return double.call(21) + ":" + mix.call(5) + ":" + half.call(4.0) + ":" + total + ":" + deep.call()
+          |  }
+          |}
+          |""".stripMargin
+      val classes = runBoth(source, "IndyCaptures.on", "42:15:6.0:14:oab")
+      classes.map(_.className) shouldBe Seq("Test")
+      lambdaMethods(classes.head.content) should have size 9
+      metafactoryCalls(classes.head.content) shouldBe 9
+    }
+
+    it("reach the enclosing instance and its private members") {
+      val source =
+        """
+          |class Counter {
+          |  var count: Int
+          |  def bump(by: Int): Int { count = count + by; return count }
+          |public:
+          |  def this { count = 0 }
+          |  def run(): Int {
+          |    val step: (Int) -> Int = (n: Int) -> { return bump(n) + this.count }
+          |    val nested: () -> Int = () -> {
+          |      val again: () -> Int = () -> { return bump(1) }
+          |      return again.call()
+          |    }
+          |    return step.call(2) + nested.call()
+          |  }
+          |  static def main(args: String[]): Int {
+          |    return new Counter().run()
+          |  }
+          |}
+          |""".stripMargin
+      val classes = runBoth(source, "IndyOuterThis.on", 7)
+      classes.map(_.className) shouldBe Seq("Counter")
+    }
+
+    it("create closures from interface default methods and from top-level code") {
+      val source =
+        """
+          |interface Greeter {
+          |  def name(): String
+          |  def greet(): String {
+          |    val shout: (String) -> String = (s: String) -> { return s + ", " + this.name() }
+          |    return shout.call("Hello")
+          |  }
+          |}
+          |class K conforms Greeter {
+          |public:
+          |  def this {}
+          |  def name(): String = "K"
+          |}
+          |val suffix = "!"
+          |val exclaim: (String) -> String = (s: String) -> { return s + suffix }
+          |def main(args: String[]): String {
+          |  return exclaim.call(new K().greet())
+          |}
+          |""".stripMargin
+      val classes = runBoth(source, "IndyHosts.on", "Hello, K!")
+      classes.exists(_.className.contains("$Closure")) shouldBe false
+    }
+
+    it("share one instance of a closure that captures nothing") {
+      val source =
+        """
+          |class Test {
+          |public:
+          |  static def make(): () -> Int {
+          |    return () -> { return 1 }
+          |  }
+          |  static def main(args: String[]): Boolean {
+          |    return make() == make()
+          |  }
+          |}
+          |""".stripMargin
+      shell.run(compile(source, "IndyShared.on", indy = true), Array()) shouldBe Shell.Success(true)
+      shell.run(compile(source, "IndyShared.on", indy = false), Array()) shouldBe Shell.Success(false)
+    }
+  }
+}
@@ -52,6 +52,12 @@ class LspDiagnosticsSpec extends AnyFunSpec {
       CompletableFuture.completedFuture(null)
   }
 
+  /** Validation runs in the background; waits until `count` publications have arrived. */
+  private def awaitDiagnostics(client: RecordingClient, count: Int): Unit = {
+    val deadline = System.nanoTime() + 30000000000L
+    while (client.diagnostics.size() < count && System.nanoTime() < deadline) Thread.sleep(10)
+  }
+
   private def openDocument(service: OnionTextDocumentService, uri: String, text: String): Unit = {
     val doc = new TextDocumentItem()
     doc.setUri(uri)
@@ -71,6 +77,7 @@ class LspDiagnosticsSpec extends AnyFunSpec {
 
       openDocument(service, "file:///test.on", "def main(): void { println(\"ok\") }")
 
+      awaitDiagnostics(client, 1)
       assert(client.diagnostics.size() == 1)
       val params = client.diagnostics.get(0)
       assert(params.getUri == "file:///test.on")
@@ -84,6 +91,7 @@ class LspDiagnosticsSpec extends AnyFunSpec {
 
       openDocument(service, "file:///bad.on", "def main(): void { val x: Int = \"hello\" }")
 
+      awaitDiagnostics(client, 1)
       assert(client.diagnostics.size() == 1)
       val params = client.diagnostics.get(0)
       assert(params.getUri == "file:///bad.on")
@@ -104,6 +112,7 @@ class LspDiagnosticsSpec extends AnyFunSpec {
       val service = server.getTextDocumentService.asInstanceOf[OnionTextDocumentService]
 
       openDocument(service, "file:///clear.on", "def main(): void { val x: Int = \"hello\" }")
+      awaitDiagnostics(client, 1)
       assert(client.diagnostics.size() == 1)
       assert(!client.diagnostics.get(0).getDiagnostics.isEmpty)
 
@@ -121,6 +130,7 @@ class LspDiagnosticsSpec extends AnyFunSpec {
       val service = server.getTextDocumentService.asInstanceOf[OnionTextDocumentService]
 
       openDocument(service, "file:///change.on", "def main(): void { }")
+      awaitDiagnostics(client, 1)
       assert(client.diagnostics.get(0).getDiagnostics.isEmpty)
 
       val changeEvent = new TextDocumentContentChangeEvent()
@@ -130,6 +140,7 @@ class LspDiagnosticsSpec extends AnyFunSpec {
       changeParams.setContentChanges(java.util.Collections.singletonList(changeEvent))
       service.didChange(changeParams)
 
+      awaitDiagnostics(client, 2)
       assert(client.diagnostics.size() == 2)
       assert(!client.diagnostics.get(1).getDiagnostics.isEmpty)
     }
@@ -45,6 +45,9 @@ class LspTabDiagnosticSpec extends AnyFunSpec {
     doc.setVersion(1)
     doc.setText(text)
     service.didOpen(new DidOpenTextDocumentParams(doc))
+    // Validation runs in the background.
+    val deadline = System.nanoTime() + 30000000000L
+    while (client.diagnostics.isEmpty && System.nanoTime() < deadline) Thread.sleep(10)
     client.diagnostics.asScala.flatMap(_.getDiagnostics.asScala).toSeq
   }
 
@@ -0,0 +1,71 @@
+package onion.compiler.tools
+
+import onion.compiler._
+import org.objectweb.asm.{ClassReader, ClassVisitor, Opcodes}
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.io.StringReader
+import scala.collection.mutable
+
+/**
+ * `AsmCodeGeneration.process` fans the classes out over `parallelism` workers. Every
+ * class is generated on its own, so the class files, their order and the closure
+ * names must be exactly those of a serial run, whichever worker finishes first.
+ */
+class ParallelCodeGenerationSpec extends AnyFunSpec with Matchers {
+  private val sources = (1 to 16).map { i =>
+    s"Unit$i.on" ->
+      s"""class Unit$i {
+         |public:
+         |  static def run(): Int {
+         |    var total: Int = $i
+         |    val add: (Int) -> Int = (n: Int) -> {
+         |      val twice: () -> Int = () -> { return n * 2 }
+         |      total = total + twice.call()
+         |      return total
+         |    }
+         |    add.call($i)
+         |    val label: () -> String = () -> { return "unit$i" }
+         |    return total + label.call().length()
+         |  }
+         |}
+         |""".stripMargin
+  }
+
+  private def compile(parallelism: Int): Seq[CompiledClass] = {
+    val config = CompilerConfig(Seq("."), "", "UTF-8", "", 10, parallelism = parallelism)
+    val result = new OnionCompiler(config).compileDetailed(
+      sources.map { case (name, text) => new StreamInputSource(() => new StringReader(text), name) }
+    )
+    assert(result.diagnostics.errors.isEmpty, result.diagnostics.errors)
+    result.classes
+  }
+
+  private def nestMembers(bytes: Array[Byte]): Seq[String] = {
+    val members = mutable.ArrayBuffer[String]()
+    new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+      override def visitNestMember(member: String): Unit = members += member
+    }, ClassReader.SKIP_CODE)
+    members.toSeq
+  }
+
+  describe("parallel code generation") {
+    it("produces the serial class files byte for byte and in the same order") {
+      val serial = compile(1)
+      val parallel = compile(8)
+      parallel.map(c => (c.className, c.content.toSeq)) shouldBe serial.map(c => (c.className, c.content.toSeq))
+      compile(8).map(c => (c.className, c.content.toSeq)) shouldBe serial.map(c => (c.className, c.content.toSeq))
+    }
+
+    it("numbers closures per class and lists them after the main classes") {
+      val classes = compile(8)
+      classes.take(16).map(_.className) shouldBe (1 to 16).map(i => s"Unit$i")
+      val closures = classes.drop(16).map(_.className)
+      closures.groupBy(_.takeWhile(_ != '$')).values.foreach(_.size shouldBe 3)
+      closures.filter(_.startsWith("Unit7$")).sorted shouldBe Seq("Unit7$Closure1", "Unit7$Closure1$Closure2", "Unit7$Closure3")
+      nestMembers(classes.find(_.className == "Unit7").get.content).sorted shouldBe
+        Seq("Unit7$Closure1", "Unit7$Closure1$Closure2", "Unit7$Closure3")
+    }
+  }
+}
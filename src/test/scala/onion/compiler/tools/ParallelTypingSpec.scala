@@ -0,0 +1,92 @@
+package onion.compiler.tools
+
+import onion.compiler._
+import onion.compiler.pipeline.CompilationResult
+import org.scalatest.funspec.AnyFunSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.io.StringReader
+
+/**
+ * The body pass types units on `parallelism` workers, each reporting into reporters
+ * of its own that are merged in source order. Whatever the worker count, a compile
+ * must produce the same classes, errors and warnings -- and stop at the same error
+ * when `maxErrorReports` is reached.
+ */
+class ParallelTypingSpec extends AnyFunSpec with Matchers {
+  private def unit(i: Int, faulty: Boolean = true): (String, String) = {
+    val body =
+      if (faulty && i % 4 == 0) s"    return Unit${i - 1}::value(\"x\") + missing$i"
+      else if (faulty && i % 5 == 0) s"    return Unit${i - 1}::value(1) + Unit${i - 1}::nope()"
+      else if (i == 1) "    return n * 2"
+      else if (i % 3 == 0) s"    val unused: Int = $i\n    return Unit${i - 1}::value(n)"
+      else s"    return Unit${i - 1}::value(n) + $i"
+    s"Unit$i.on" ->
+      s"""class Unit$i {
+         |public:
+         |  static def value(n: Int): Int {
+         |$body
+         |  }
+         |}
+         |""".stripMargin
+  }
+
+  private def compile(sources: Seq[(String, String)], parallelism: Int, maxErrors: Int = 100): CompilationResult = {
+    val config = CompilerConfig(Seq("."), "", "UTF-8", "", maxErrors, parallelism = parallelism)
+    new OnionCompiler(config).compileDetailed(
+      sources.map { case (name, text) => new StreamInputSource(() => new StringReader(text), name) }
+    )
+  }
+
+  private def diagnostics(result: CompilationResult) =
+    (result.diagnostics.errors.map(e => (e.sourceFile, e.location, e.message)),
+      result.diagnostics.warnings.map(w => (w.sourceFile, w.location, w.message)))
+
+  describe("parallel body typing") {
+    it("reports the serial errors and warnings in source order") {
+      val sources = (1 to 30).map(unit(_))
+      val serial = compile(sources, 1)
+      serial.diagnostics.errors.map(_.sourceFile).distinct shouldBe
+        Seq("Unit4.on", "Unit5.on", "Unit8.on", "Unit10.on", "Unit12.on", "Unit15.on",
+          "Unit16.on", "Unit20.on", "Unit24.on", "Unit25.on", "Unit28.on", "Unit30.on")
+      diagnostics(compile(sources, 8)) shouldBe diagnostics(serial)
+      diagnostics(compile(sources, 3)) shouldBe diagnostics(serial)
+    }
+
+    it("stops at the same error when the error limit is reached") {
+      val sources = (1 to 30).map(unit(_))
+      val serial = compile(sources, 1, maxErrors = 5)
+      serial.diagnostics.errors should have size 5
+      diagnostics(compile(sources, 8, maxErrors = 5)) shouldBe diagnostics(serial)
+    }
+
+    it("generates the serial classes and warnings") {
+      val sources = (1 to 30).map(unit(_, faulty = false))
+      val serial = compile(sources, 1)
+      serial.diagnostics.errors shouldBe empty
+      serial.diagnostics.warnings.map(_.sourceFile) shouldBe (3 to 30 by 3).map(i => s"Unit$i.on")
+      diagnostics(compile(sources, 8)) shouldBe diagnostics(serial)
+      compile(sources, 8).classes.map(c => (c.className, c.content.toSeq)) shouldBe
+        serial.classes.map(c => (c.className, c.content.toSeq))
+    }
+
+    it("lets earlier files use default values and top-level vals declared in later ones") {
+      val caller = "Caller.on" ->
+        """class Caller {
+          |public:
+          |  static def value(): Int { return Defaults::add(1) + ValuesMain::base }
+          |}
+          |""".stripMargin
+      val defaults = "Defaults.on" ->
+        """class Defaults {
+          |public:
+          |  static def add(x: Int, y: Int = 41): Int { return x + y }
+          |}
+          |""".stripMargin
+      val values = "Values.on" -> "val base: Int = 100\n"
+      Seq(1, 8).foreach { parallelism =>
+        compile(Seq(caller, defaults, values), parallelism).diagnostics.errors shouldBe empty
+      }
+    }
+  }
+}
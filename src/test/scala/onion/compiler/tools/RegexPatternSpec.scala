@@ -76,6 +76,57 @@ class RegexPatternSpec extends AbstractShellSpec {
       assert(Shell.Success("no") == result)
     }
 
+    it("picks the first matching arm when several arms match in one pass") {
+      val result = shell.run(
+        """
+          |class Test {
+          |public:
+          |  static def kind(s: String): String {
+          |    return select s {
+          |      case "exact": "literal"
+          |      case re"(a+)(b*)" (xs, ys): "ab " + xs.length() + "/" + ys.length()
+          |      case re"(a+)b" (xs): "never " + xs
+          |      case re"(\w)(\w)?" (x, y): "short " + x + "[" + y + "]"
+          |      case re"\w+": "word"
+          |      else: "other"
+          |    }
+          |  }
+          |  static def main(args: String[]): String {
+          |    return kind("exact") + ";" + kind("aab") + ";" + kind("q") + ";" + kind("xyz") + ";" + kind("-")
+          |  }
+          |}
+          |""".stripMargin,
+        "None",
+        Array()
+      )
+      assert(Shell.Success("literal;ab 2/1;short q[];word;other") == result)
+    }
+
+    it("falls through to a later arm when a guard rejects the matched one") {
+      val result = shell.run(
+        """
+          |class Test {
+          |public:
+          |  static def size(s: String): String {
+          |    return select s {
+          |      case re"(\d+)" (n) when Integer::parseInt(n) < 10: "small " + n
+          |      case re"(\d)(\d+)" (head, tail): "big " + head + "|" + tail
+          |      case re"(\w)\1": "double"
+          |      case re"\d+": "unreachable"
+          |      else: "none"
+          |    }
+          |  }
+          |  static def main(args: String[]): String {
+          |    return size("7") + ";" + size("123") + ";" + size("zz") + ";" + size("zy")
+          |  }
+          |}
+          |""".stripMargin,
+        "None",
+        Array()
+      )
+      assert(Shell.Success("small 7;big 1|23;double;none") == result)
+    }
+
     it("rejects a group/binding count mismatch at compile time (E0060)") {
       val result = shell.run(
         """
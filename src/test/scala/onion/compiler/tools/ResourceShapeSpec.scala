@@ -85,6 +85,33 @@ class ResourceShapeSpec extends AbstractShellSpec {
       }
     }
 
+    it("streams outcomes lazily and in parallel, with the same line numbers") {
+      val content = (1 to 300).map(i => if (i % 97 == 0) s"bad$i" else s"$i,${i + 1}").mkString("\n") + "\n"
+      withTempFile(content) { f =>
+        val r = shell.run(
+          s"""
+             |record Pt(x: Int, y: Int)
+             |  shape text = re"(-?\\d+),(-?\\d+)"
+             |class Test {
+             |public:
+             |  static def main(args: String[]): String {
+             |    val res = file"${f.toString.replace("\\", "\\\\")}"
+             |    var lines = ""
+             |    var n = 0
+             |    foreach o: Outcome[Pt] in res.eachLineLazily(Pt::text()) {
+             |      n = n + 1
+             |      if o.isBad() { lines = lines + (o.defects()[0] as Defect).origin().line() + " " }
+             |    }
+             |    val par = res.eachLineParallel(Pt::text())
+             |    val parLines = Outcome::defects(par).map { d -> (d as Defect).origin().line() }
+             |    return n + ": " + lines + "/ " + par.size + ": " + parLines
+             |  }
+             |}
+             |""".stripMargin, "None", Array())
+        assert(Shell.Success("300: 97 194 291 / 300: [97, 194, 291]") == r)
+      }
+    }
+
     it("reports a missing file as a defect rather than throwing") {
       val r = shell.run(
         """
@@ -174,5 +201,22 @@ class ResourceShapeSpec extends AbstractShellSpec {
         assert(Shell.Success("2") == r)
       }
     }
+
+    it("reads the same lines lazily") {
+      withTempFile("a\nb\nc\n") { f =>
+        val r = shell.run(
+          s"""
+             |class Test {
+             |public:
+             |  static def main(args: String[]): String {
+             |    var joined = ""
+             |    foreach line: String in file"${f.toString.replace("\\", "\\\\")}".linesLazily() { joined = joined + line }
+             |    return joined
+             |  }
+             |}
+             |""".stripMargin, "None", Array())
+        assert(Shell.Success("abc") == r)
+      }
+    }
   }
 }
@@ -0,0 +1,232 @@
+package onion.compiler.tools
+
+import onion.compiler.{CompiledClass, CompilerConfig, OnionCompiler, StreamInputSource}
+import onion.tools.Shell
+import org.objectweb.asm.{ClassReader, ClassVisitor, Handle, Label, MethodVisitor, Opcodes}
+
+import java.io.StringReader
+import scala.collection.mutable
+
+/**
+ * A `select` over ints, chars, strings, Onion enums or types dispatches through one
+ * switch instead of testing its cases in turn, and picks the same case as the chain
+ * of tests would: the first that matches, with anything else left to `else`.
+ */
+class SelectSwitchSpec extends AbstractShellSpec {
+
+  private def compile(source: String): Seq[CompiledClass] = {
+    val result = new OnionCompiler(CompilerConfig(Seq("."), "", "UTF-8", "", 10))
+      .compileDetailed(Seq(new StreamInputSource(() => new StringReader(source), "Switch.on")))
+    assert(!result.hasErrors, result.allErrors.map(_.message).mkString("; "))
+    result.classes
+  }
+
+  /** The switch instructions and calls of `method`, as `tableswitch`, `owner.name` or `indy:name`. */
+  private def instructionsIn(classes: Seq[CompiledClass], method: String): Seq[String] = {
+    val found = mutable.ArrayBuffer[String]()
+    classes.foreach { compiled =>
+      new ClassReader(compiled.content).accept(new ClassVisitor(Opcodes.ASM9) {
+        override def visitMethod(access: Int, name: String, desc: String, sig: String, ex: Array[String]): MethodVisitor =
+          if (name != method) null
+          else new MethodVisitor(Opcodes.ASM9) {
+            override def visitTableSwitchInsn(min: Int, max: Int, dflt: Label, labels: Label*): Unit =
+              found += "tableswitch"
+            override def visitLookupSwitchInsn(dflt: Label, keys: Array[Int], labels: Array[Label]): Unit =
+              found += "lookupswitch"
+            override def visitMethodInsn(op: Int, owner: String, name: String, desc: String, itf: Boolean): Unit =
+              found += s"$owner.$name"
+            override def visitInvokeDynamicInsn(name: String, desc: String, bsm: Handle, args: Object*): Unit =
+              found += s"indy:$name"
+          }
+      }, 0)
+    }
+    found.toSeq
+  }
+
+  describe("select lowered to a switch") {
+    it("dispatches dense and sparse int, char and byte cases") {
+      val source =
+        """
+          |def dense(n: Int): String {
+          |  return select n {
+          |    case 1, 2, 3: "small"
+          |    case 4: "four"
+          |    case -1: "minus one"
+          |    case 5: "five"
+          |    case 6: "six"
+          |    else: "other"
+          |  }
+          |}
+          |def sparse(n: Int): Int {
+          |  val answer = Integer::parseInt("42")
+          |  return select n {
+          |    case 10: 1
+          |    case 100000: 2
+          |    case -7: 3
+          |    case answer: 4
+          |    case 1000: 5
+          |    case 7, 8, 9: 6
+          |    else: 0
+          |  }
+          |}
+          |def letter(c: Char): Int {
+          |  return select c {
+          |    case 'a': 1
+          |    case 'b': 2
+          |    case 'z': 26
+          |    else: 0
+          |  }
+          |}
+          |def narrow(b: Byte): String {
+          |  return select b {
+          |    case 200: "wrapped"
+          |    case 1: "one"
+          |    case 2: "two"
+          |    else: "?"
+          |  }
+          |}
+          |def main(args: String[]): String {
+          |  var out = ""
+          |  for var i = -8; i <= 8; i = i + 1 { out = out + dense(i) + "," }
+          |  for var i = -8; i <= 8; i = i + 1 { out = out + sparse(i) }
+          |  out = out + sparse(10) + sparse(42) + sparse(1000) + sparse(100000) + ";"
+          |  out = out + letter('a') + letter('b') + letter('c') + letter('z') + ";"
+          |  out = out + narrow(-56 as Byte) + narrow(1 as Byte) + narrow(2 as Byte) + narrow(3 as Byte)
+          |  return out
+          |}
+          |""".stripMargin
+      val dense = (-8 to 8).map {
+        case 1 | 2 | 3 => "small"
+        case 4 => "four"
+        case -1 => "minus one"
+        case 5 => "five"
+        case 6 => "six"
+        case _ => "other"
+      }.map(_ + ",").mkString
+      val sparse = (-8 to 8).map {
+        case -7 => 3
+        case 7 | 8 | 9 => 6
+        case _ => 0
+      }.mkString
+      val classes = compile(source)
+      assert(Shell.Success(s"$dense${sparse}1452;12026;wrappedonetwo?") == shell.run(classes, Array()))
+      assert(instructionsIn(classes, "dense").contains("tableswitch"))
+      assert(instructionsIn(classes, "letter").contains("lookupswitch"))
+      assert(instructionsIn(classes, "narrow").contains("lookupswitch"))
+      // `case answer` is not a constant: the cases before it switch, the rest after it too
+      assert(instructionsIn(classes, "sparse").count(_.endsWith("switch")) == 2)
+    }
+
+    it("switches on string hashes, telling apart strings that share one") {
+      val source =
+        """
+          |def code(s: String): Int {
+          |  return select s {
+          |    case "Aa": 1
+          |    case "BB": 2
+          |    case "apple": 3
+          |    case "pear", "plum": 4
+          |    case "Aa": 5
+          |    else: 0
+          |  }
+          |}
+          |def maybe(s: String?): Int {
+          |  return select s {
+          |    case "x": 1
+          |    case "y": 2
+          |    case "z": 3
+          |    else: -1
+          |  }
+          |}
+          |def main(args: String[]): String {
+          |  val nothing: String? = null
+          |  return "" + code("Aa") + code("BB") + code("apple") + code("pear") + code("plum") + code("C#") +
+          |    code("") + maybe("x") + maybe("z") + maybe("w") + maybe(nothing)
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success("123440013-1-1") == shell.run(classes, Array()))
+      val code = instructionsIn(classes, "code")
+      assert(code.contains("java/lang/String.hashCode"))
+      assert(code.contains("lookupswitch"))
+      assert(instructionsIn(classes, "maybe").contains("java/lang/String.hashCode"))
+    }
+
+    it("switches on the ordinal of an Onion enum, sending null to else") {
+      val source =
+        """
+          |enum Color { RED, GREEN, BLUE, ALPHA }
+          |def code(c: Color): Int {
+          |  return select c {
+          |    case ALPHA: 4
+          |    case RED: 1
+          |    case GREEN: 2
+          |    case BLUE: 3
+          |  }
+          |}
+          |def maybe(c: Color?): Int {
+          |  return select c {
+          |    case Color::BLUE: 3
+          |    case Color::RED, Color::GREEN: 1
+          |    case Color::ALPHA: 4
+          |    else: 0
+          |  }
+          |}
+          |def main(args: String[]): String {
+          |  val nothing: Color? = null
+          |  return "" + code(Color::RED) + code(Color::GREEN) + code(Color::BLUE) + code(Color::ALPHA) +
+          |    maybe(Color::GREEN) + maybe(Color::ALPHA) + maybe(nothing)
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success("1234140") == shell.run(classes, Array()))
+      val code = instructionsIn(classes, "code")
+      assert(code.contains("java/lang/Enum.ordinal"))
+      assert(!code.exists(_.endsWith(".equals")))
+      assert(instructionsIn(classes, "maybe").contains("java/lang/Enum.ordinal"))
+    }
+
+    it("dispatches a long run of type patterns to the first case that matches, guards included") {
+      val records = (0 until 26).map(i => s"record R$i(v: Int) conforms Node").mkString("\n")
+      val arms = (0 until 26).map(i => s"    case R$i(v): \"r$i:\" + v").mkString("\n")
+      val source =
+        s"""
+          |import { java.util.List; java.util.ArrayList; }
+          |sealed interface Node {}
+          |$records
+          |def name(n: Node?): String {
+          |  return select n {
+          |    case R0(v) when v > 10: "big"
+          |$arms
+          |    else: "none"
+          |  }
+          |}
+          |def describe(o: Object?): String {
+          |  return select o {
+          |    case s is String: "string"
+          |    case i is Integer: "int"
+          |    case n is Number: "number"
+          |    case c is CharSequence: "chars"
+          |    case l is List: "list"
+          |    else: "other"
+          |  }
+          |}
+          |def main(args: String[]): String {
+          |  val nothing: Node? = null
+          |  val none: Object? = null
+          |  return name(new R0(11)) + " " + name(new R0(2)) + " " + name(new R13(5)) + " " + name(new R25(7)) + " " +
+          |    name(nothing) + "|" + describe("s") + " " + describe(1) + " " + describe(2.5) + " " +
+          |    describe(new StringBuilder()) + " " + describe(new ArrayList[String]()) + " " + describe(none) + " " +
+          |    describe('c')
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success(
+        "big r0:2 r13:5 r25:7 none|string int number chars list other other"
+      ) == shell.run(classes, Array()))
+      assert(instructionsIn(classes, "name").contains("indy:typeSwitch"))
+      // A few instanceof tests are cheaper than the lookup
+      assert(!instructionsIn(classes, "describe").contains("indy:typeSwitch"))
+    }
+  }
+}
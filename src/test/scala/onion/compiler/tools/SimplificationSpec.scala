@@ -0,0 +1,168 @@
+package onion.compiler.tools
+
+import onion.compiler.{CompilerConfig, OnionCompiler, StreamInputSource}
+import onion.compiler.pipeline.CompilationResult
+import onion.tools.Shell
+import org.objectweb.asm.{ClassReader, ClassVisitor, MethodVisitor, Opcodes}
+
+import java.io.StringReader
+import scala.collection.mutable
+
+/**
+ * The simplification phase folds constants as the JVM would compute them, drops branches
+ * the conditions guarding them decide, and propagates copies of locals, without changing
+ * what a program does.
+ */
+class SimplificationSpec extends AbstractShellSpec {
+
+  private def compile(source: String, debugInfo: Boolean = true): CompilationResult = {
+    val config = CompilerConfig(Seq("."), "", "UTF-8", "", 10, emitDebugInfo = debugInfo)
+    val result = new OnionCompiler(config).compileDetailed(
+      Seq(new StreamInputSource(() => new StringReader(source), "Simplify.on"))
+    )
+    assert(!result.hasErrors, result.allErrors.map(_.message).mkString("; "))
+    result
+  }
+
+  /** The constants `method` loads with `ldc`. */
+  private def constantsIn(result: CompilationResult, method: String): Seq[Any] = {
+    val found = mutable.ArrayBuffer[Any]()
+    result.classes.foreach { compiled =>
+      new ClassReader(compiled.content).accept(new ClassVisitor(Opcodes.ASM9) {
+        override def visitMethod(access: Int, name: String, desc: String, sig: String, ex: Array[String]): MethodVisitor =
+          if (name != method) null
+          else new MethodVisitor(Opcodes.ASM9) {
+            override def visitLdcInsn(value: Any): Unit = found += value
+          }
+      }, 0)
+    }
+    found.toSeq
+  }
+
+  describe("constant folding") {
+    it("computes arithmetic, conversions and concatenation as the JVM does") {
+      val source =
+        """
+          |def main(args: String[]): String {
+          |  val size = 3 * 4 + 1
+          |  val wrapped = 2147483647 + 1
+          |  val shifted = 1L << 65
+          |  val unsigned = -8 >>> 28
+          |  val nan = 0.0 / 0.0
+          |  val saturated = 1e40 as Int
+          |  val narrowed = 300 as Byte
+          |  return "n" + size + wrapped + shifted + unsigned + (nan == nan) + (-0.0) + saturated + narrowed + (65 as Char) + (1.0 / 0.0)
+          |}
+          |""".stripMargin
+      val expected = "n13-2147483648215false-0.0214748364744AInfinity"
+      val result = compile(source)
+      assert(Shell.Success(expected) == shell.run(result.classes, Array()))
+      assert(constantsIn(result, "main").contains(expected))
+      assert(result.toCompileProfile.simplification.constantsFolded > 0)
+    }
+
+    it("folds a method whose only change is a constant") {
+      val source =
+        """
+          |def mask(): Long = 1L << 40
+          |def main(args: String[]): String = "" + mask()
+          |""".stripMargin
+      val result = compile(source)
+      assert(Shell.Success("1099511627776") == shell.run(result.classes, Array()))
+      assert(constantsIn(result, "mask") == Seq(1099511627776L))
+    }
+
+    it("leaves an integer division by zero to throw") {
+      val source =
+        """
+          |def main(args: String[]): String {
+          |  try {
+          |    val quotient = 1 / 0
+          |    return "folded " + quotient
+          |  } catch e: ArithmeticException {
+          |    return "thrown " + (1.0 / 0 > 1.0e308)
+          |  }
+          |}
+          |""".stripMargin
+      assert(Shell.Success("thrown true") == shell.run(compile(source).classes, Array()))
+    }
+  }
+
+  describe("dead branches") {
+    it("removes branches decided by constants and by the tests guarding them") {
+      val source =
+        """
+          |def describe(o: Object?): String {
+          |  if o is String {
+          |    if o is CharSequence { return "text" }
+          |    return "unreachable-string"
+          |  }
+          |  if o == null { return "null" }
+          |  if o != null { return "other" }
+          |  return "unreachable-null"
+          |}
+          |def main(args: String[]): String {
+          |  var r = ""
+          |  if 1 > 2 { r = "unreachable-if" }
+          |  while false { r = "unreachable-while" }
+          |  return r + describe("s") + describe(null) + describe(1)
+          |}
+          |""".stripMargin
+      val result = compile(source)
+      assert(Shell.Success("textnullother") == shell.run(result.classes, Array()))
+      val constants = constantsIn(result, "describe") ++ constantsIn(result, "main")
+      assert(!constants.exists(_.toString.startsWith("unreachable")), constants)
+      assert(result.toCompileProfile.simplification.branchesRemoved >= 5)
+    }
+
+    it("forgets what it knew about a local once it is assigned") {
+      val source =
+        """
+          |def main(args: String[]): String {
+          |  var o: Object? = "s"
+          |  if o is String {
+          |    o = 1
+          |    if o is String { return "string" }
+          |    return "integer"
+          |  }
+          |  return "none"
+          |}
+          |""".stripMargin
+      assert(Shell.Success("integer") == shell.run(compile(source).classes, Array()))
+    }
+  }
+
+  describe("copy propagation") {
+    it("reads the original where the copy still holds its value") {
+      val source =
+        """
+          |def main(args: String[]): String {
+          |  val base = args.length + 40
+          |  val copy = base
+          |  val answer = copy + 2
+          |  var moving = 1
+          |  val snapshot = moving
+          |  moving = moving + 1
+          |  return "" + answer + snapshot + moving
+          |}
+          |""".stripMargin
+      val result = compile(source, debugInfo = false)
+      assert(Shell.Success("4212") == shell.run(result.classes, Array()))
+      assert(result.toCompileProfile.simplification.copiesPropagated >= 1)
+    }
+
+    it("keeps copies of locals a closure assigns") {
+      val source =
+        """
+          |def main(args: String[]): String {
+          |  var x = 1
+          |  val before = x
+          |  val r: Runnable = () -> { x = 5 }
+          |  r.run()
+          |  return "" + before + x
+          |}
+          |""".stripMargin
+      assert(Shell.Success("15") == shell.run(compile(source, debugInfo = false).classes, Array()))
+    }
+  }
+}
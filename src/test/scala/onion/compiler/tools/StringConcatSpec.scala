@@ -0,0 +1,133 @@
+package onion.compiler.tools
+
+import onion.compiler.{CompiledClass, CompilerConfig, OnionCompiler, StreamInputSource}
+import onion.tools.Shell
+import org.objectweb.asm.{ClassReader, ClassVisitor, Handle, MethodVisitor, Opcodes}
+
+import java.io.StringReader
+import scala.collection.mutable
+
+/**
+ * String `+` and interpolation compile to `invokedynamic` of
+ * StringConcatFactory.makeConcatWithConstants, and render every operand exactly as the
+ * `String.valueOf`/`concat` and `StringBuilder` chains that typing produces would.
+ */
+class StringConcatSpec extends AbstractShellSpec {
+
+  private def compile(source: String): Seq[CompiledClass] = {
+    val result = new OnionCompiler(CompilerConfig(Seq("."), "", "UTF-8", "", 10))
+      .compileDetailed(Seq(new StreamInputSource(() => new StringReader(source), "Concat.on")))
+    assert(!result.hasErrors, result.allErrors.map(_.message).mkString("; "))
+    result.classes
+  }
+
+  /** The owners and names of the methods `main` calls, with `indy:<bootstrap>` for each invokedynamic. */
+  private def callsIn(classes: Seq[CompiledClass], method: String): Seq[String] = {
+    val calls = mutable.ArrayBuffer[String]()
+    new ClassReader(classes.head.content).accept(new ClassVisitor(Opcodes.ASM9) {
+      override def visitMethod(access: Int, name: String, desc: String, sig: String, ex: Array[String]): MethodVisitor =
+        if (name != method) null
+        else new MethodVisitor(Opcodes.ASM9) {
+          override def visitMethodInsn(op: Int, owner: String, name: String, desc: String, itf: Boolean): Unit =
+            calls += s"$owner.$name"
+          override def visitInvokeDynamicInsn(name: String, desc: String, bsm: Handle, args: Object*): Unit =
+            calls += s"indy:${bsm.getName}"
+        }
+    }, 0)
+    calls.toSeq
+  }
+
+  describe("string concatenation") {
+    it("renders primitives, boxes, nulls and nested concatenations as before") {
+      val source =
+        """
+          |class Test {
+          |public:
+          |  static def main(args: String[]): String {
+          |    val n = args.length + 42
+          |    val c = 'x'
+          |    val b: Byte = 3 as Byte
+          |    val boxed: Integer = Integer::valueOf(7)
+          |    val name: String? = null
+          |    val o: Object? = null
+          |    val inner = "in" + n
+          |    return "n=" + n + " d=" + 1.5 + " c=" + c + b + boxed + name + o + true + 7L + " " + inner + ("!" + 'y')
+          |  }
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success("n=42 d=1.5 c=x37nullnulltrue7 in42!y") == shell.run(classes, Array()))
+      val calls = callsIn(classes, "main")
+      assert(calls.count(_ == "indy:makeConcatWithConstants") == 2)
+      assert(!calls.contains("java/lang/String.concat"))
+    }
+
+    it("compiles interpolation to one concatenation, keeping recipe tags in literals intact") {
+      val source =
+        """
+          |class Test {
+          |public:
+          |  static def main(args: String[]): String {
+          |    val n = 5
+          |    val name: String? = null
+          |    return "\u0001#{n}\u0002 #{name} #{n * 2.0}" + "#{'c'}"
+          |  }
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success("\u00015\u0002 null 10.0c") == shell.run(classes, Array()))
+      val calls = callsIn(classes, "main")
+      assert(calls.count(_ == "indy:makeConcatWithConstants") == 1)
+      assert(!calls.exists(call => call.startsWith("java/lang/StringBuilder") || call == "java/lang/String.concat"))
+    }
+
+    it("renders an object when it is evaluated, before later operands run") {
+      val source =
+        """
+          |class Test {
+          |public:
+          |  static def main(args: String[]): String {
+          |    val items = new ArrayList[String]()
+          |    return "" + items + items.add("a") + items + " #{items}#{items.add("b")}#{items}"
+          |  }
+          |}
+          |""".stripMargin
+      assert(Shell.Success("[]true[a] [a]true[a, b]") == shell.run(compile(source), Array()))
+    }
+
+    it("keeps earlier operands when a later one runs a try") {
+      val source =
+        """
+          |class Test {
+          |public:
+          |  static def main(args: String[]): String {
+          |    val n = 1
+          |    return "a" + n + (try { Integer::parseInt("x") } catch e: NumberFormatException { -1 }) + "z"
+          |  }
+          |}
+          |""".stripMargin
+      assert(Shell.Success("a1-1z") == shell.run(compile(source), Array()))
+    }
+
+    it("concatenates past the factory's argument limit") {
+      val operands = (1 to 120).map(i => s"x$i").mkString(" + \",\" + ")
+      val declarations = (1 to 120).map(i => s"    val x$i = args.length + ${i}L").mkString("\n")
+      val source =
+        s"""
+          |class Test {
+          |public:
+          |  static def main(args: String[]): String {
+          |$declarations
+          |    return $operands
+          |  }
+          |}
+          |""".stripMargin
+      val classes = compile(source)
+      assert(Shell.Success((1 to 120).mkString(",")) == shell.run(classes, Array()))
+      // The longest prefix within the limit is one call; the rest is concatenated onto it
+      val calls = callsIn(classes, "main")
+      assert(calls.count(_ == "indy:makeConcatWithConstants") == 1)
+      assert(calls.contains("java/lang/String.concat"))
+    }
+  }
+}
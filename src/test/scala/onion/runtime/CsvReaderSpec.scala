@@ -0,0 +1,135 @@
+package onion.runtime
+
+import onion.{Csv, CsvReader}
+import org.scalatest.funspec.AnyFunSpec
+
+import java.io.{StringReader, StringWriter}
+import scala.jdk.CollectionConverters._
+
+/**
+ * `CsvReader` streams the same RFC 4180 dialect `Csv::parse` reads from a String,
+ * one reused record at a time. The tokenizer is written separately (it works over
+ * a refilled buffer rather than one String), so the first group pins it to
+ * `Csv.parse` on the awkward inputs -- including fields that straddle a buffer refill.
+ */
+class CsvReaderSpec extends AnyFunSpec {
+
+  private def streamed(text: String): List[List[String]] =
+    Csv.reader(new StringReader(text)).rows().asScala.map(_.asScala.toList).toList
+
+  private def parsed(text: String): List[List[String]] =
+    Csv.parse(text).asScala.map(_.asScala.toList).toList
+
+  describe("tokenizing") {
+    it("agrees with Csv.parse on quoting, separators and line endings") {
+      val inputs = Seq(
+        "", "a", "a,b\nc,d\n", "a,b\r\nc,d", "a,\n,b", "\n\n", "a,\"x,y\",c",
+        "\"multi\nline\",2\n3,4", "\"q\"\"uote\",z", "x\"y,z", "\"\"", "a,b,", "\"unterminated",
+        "\"a\"b,c", "1,2\r3,4\r\n"
+      )
+      inputs.foreach { in =>
+        assert(streamed(in) == parsed(in), s"input: ${in.replace("\n", "\\n").replace("\r", "\\r")}")
+      }
+    }
+
+    it("keeps fields intact across a buffer refill") {
+      val long = "x" * 70000
+      val text = s"a,\"$long\n\"\"$long\"\"\",b\n$long,c\n"
+      assert(streamed(text) == parsed(text))
+    }
+
+    it("reuses one record and numbers rows after the header") {
+      val reader = Csv.reader(new StringReader("h\n1\n2\n")).withHeader()
+      assert(reader.next())
+      val first = reader.record()
+      assert(first.number() == 1 && first.get(0) == "1")
+      assert(reader.next())
+      assert(reader.record() eq first)
+      assert(first.number() == 2 && first.get(0) == "2")
+      assert(!reader.next())
+    }
+  }
+
+  describe("projection") {
+    val text = "id,name,amount,note\n1,ann,12.50,\"long, quoted\"\n2,bob,-3,x\n3,cy\n"
+
+    it("selects header columns by name, in the requested order") {
+      val reader = Csv.reader(new StringReader(text)).withHeader().columns("amount", "id")
+      val rows = reader.rows().asScala.map(_.asScala.toList).toList
+      assert(rows == List(List("12.50", "1"), List("-3", "2"), List("", "3")))
+    }
+
+    it("selects columns by index and still resolves names through the header") {
+      val reader = Csv.reader(new StringReader(text)).withHeader().columnsAt(1)
+      assert(reader.next())
+      assert(reader.record().size() == 1)
+      assert(reader.record().get("name") == "ann")
+      assert(intercept[IllegalArgumentException](reader.record().get("note")).getMessage.contains("note"))
+    }
+
+    it("rejects an unknown column name and setup after reading started") {
+      val unknown = Csv.reader(new StringReader(text)).withHeader().columns("missing")
+      intercept[IllegalArgumentException](unknown.next())
+      val started = Csv.reader(new StringReader(text))
+      started.next()
+      intercept[IllegalStateException](started.columnsAt(0))
+    }
+
+    it("builds header-keyed maps like parseWithHeader") {
+      val streamedRecs = Csv.reader(new StringReader(text)).withHeader().records()
+      assert(streamedRecs == Csv.parseWithHeader(text))
+    }
+  }
+
+  describe("typed accessors") {
+    def record(line: String) = {
+      val reader: CsvReader = Csv.reader(new StringReader(line))
+      assert(reader.next())
+      reader.record()
+    }
+
+    it("parses integers, including the extremes") {
+      val r = record(s"42,-7, 9 ,${Long.MinValue},${Long.MaxValue},+5")
+      assert(r.getInt(0) == 42 && r.getInt(1) == -7 && r.getInt(2) == 9 && r.getInt(5) == 5)
+      assert(r.getLong(3) == Long.MinValue && r.getLong(4) == Long.MaxValue)
+      intercept[NumberFormatException](r.getInt(3))
+    }
+
+    it("rejects malformed and overflowing integers") {
+      val r = record("12a,,-,9223372036854775808")
+      intercept[NumberFormatException](r.getLong(0))
+      intercept[NumberFormatException](r.getLong(1))
+      intercept[NumberFormatException](r.getLong(2))
+      intercept[NumberFormatException](r.getLong(3))
+    }
+
+    it("parses doubles exactly as Double.parseDouble does") {
+      val values = Seq("0", "-0", "12.50", ".5", "5.", "3.141592653589793", "0.1", "123456789012345.6",
+        "1e10", "-2.5E-3", "NaN", "0.30000000000000004", "9007199254740993")
+      val r = record(values.mkString(","))
+      values.zipWithIndex.foreach { case (v, i) =>
+        assert(java.lang.Double.compare(r.getDouble(i), v.toDouble) == 0, s"value $v")
+      }
+      intercept[NumberFormatException](record("abc").getDouble(0))
+      intercept[NumberFormatException](record(".").getDouble(0))
+    }
+  }
+
+  describe("CsvWriter") {
+    it("quotes like Csv.stringify and copies projected records through") {
+      val sink = new StringWriter()
+      val writer = Csv.writer(sink)
+      writer.writeRow("a", "b,c")
+      writer.writeRow(java.util.List.of("say \"hi\"", "line\nbreak"))
+      val reader = Csv.reader(new StringReader("x,y,z\n1,\"2,two\",3\n")).withHeader().columns("z", "y")
+      while (reader.next()) writer.writeRecord(reader.record())
+      writer.flush()
+      val expected = Csv.stringify(java.util.List.of(
+        java.util.List.of("a", "b,c"),
+        java.util.List.of("say \"hi\"", "line\nbreak"),
+        java.util.List.of("3", "2,two")))
+      assert(sink.toString == expected)
+      assert(writer.rows() == 3)
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package onion.runtime
+
+import onion.Files
+import org.scalatest.funspec.AnyFunSpec
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files => JFiles}
+import scala.jdk.CollectionConverters._
+
+/**
+ * The NIO paths of `onion.Files`: `readText` is byte-faithful, `readLines` is
+ * UTF-8 whatever the platform charset, `lines` reads lazily and closes itself at
+ * the end, and the ranged reads clip to the file instead of failing.
+ */
+class FilesNioSpec extends AnyFunSpec {
+
+  private def tempFile(content: String): String = {
+    val f = JFiles.createTempFile("onion-files-", ".txt").toFile
+    f.deleteOnExit()
+    JFiles.write(f.toPath, content.getBytes(StandardCharsets.UTF_8))
+    f.getAbsolutePath
+  }
+
+  it("reads text exactly as stored, line endings and final newline included") {
+    val text = "first\r\n\nthird ü\n"
+    assert(Files.readText(tempFile(text)) == text)
+    assert(Files.readText(tempFile("")) == "")
+  }
+
+  it("reads lines as UTF-8") {
+    assert(Files.readLines(tempFile("naïve\r\ncafé\n")).asScala == List("naïve", "café"))
+  }
+
+  it("iterates lines lazily, and each iteration starts over") {
+    val lines = Files.lines(tempFile("a\nb\r\nc"))
+    assert(lines.asScala.toList == List("a", "b", "c"))
+    assert(lines.toList.asScala == List("a", "b", "c"))
+    val early = lines.iterator()
+    assert(early.next() == "a")
+    lines.close()
+    lines.close()
+  }
+
+  it("reads a byte range, clipped to the end of the file") {
+    val path = tempFile("0123456789")
+    assert(new String(Files.readBytes(path, 3, 4), StandardCharsets.UTF_8) == "3456")
+    assert(new String(Files.readBytes(path, 8, 10), StandardCharsets.UTF_8) == "89")
+    assert(Files.readBytes(path, 20, 5).isEmpty)
+    intercept[IllegalArgumentException](Files.readBytes(path, -1, 5))
+  }
+
+  it("maps a file read-only, whole or by window") {
+    val path = tempFile("hello mapped world")
+    val whole = Files.mmap(path)
+    assert(whole.isReadOnly && whole.remaining() == 18 && whole.get(6) == 'm'.toByte)
+    val window = Files.mmap(path, 13, 100)
+    val bytes = new Array[Byte](window.remaining())
+    window.get(bytes)
+    assert(new String(bytes, StandardCharsets.UTF_8) == "world")
+  }
+}
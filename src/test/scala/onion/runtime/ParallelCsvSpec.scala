@@ -0,0 +1,113 @@
+package onion.runtime
+
+import onion.{Concurrent, Csv, CsvRecord, Files, Function0, Function1, Function2, Origin, Outcome, Shape, Shapes}
+import org.scalatest.funspec.AnyFunSpec
+
+import java.nio.file.{Files => JFiles}
+import scala.jdk.CollectionConverters._
+
+/**
+ * `Csv.parallel` and `Files.parallelLines` cut a file into chunks and parse them
+ * on a pool. Tiny chunk sizes force a boundary next to every interesting spot --
+ * inside quoted newlines, between CR and LF, inside multi-byte characters -- and
+ * the result must still be exactly the sequential one.
+ */
+class ParallelCsvSpec extends AnyFunSpec {
+
+  private def tempFile(content: String): String = {
+    val f = JFiles.createTempFile("onion-parallel-", ".csv").toFile
+    f.deleteOnExit()
+    JFiles.writeString(f.toPath, content)
+    f.getAbsolutePath
+  }
+
+  private def rows(path: String, chunk: Long): List[List[String]] =
+    Csv.parallel(path).chunkSize(chunk).rows().asScala.map(_.asScala.toList).toList
+
+  private def parsed(text: String): List[List[String]] =
+    Csv.parse(text).asScala.map(_.asScala.toList).toList
+
+  private val awkward =
+    "id,note,amount\r\n1,\"multi\nline, with comma\",2.5\n2,\"q\"\"uote\",3\r\n3,,\n" +
+      "4,\"ünïcödé\n\n\",7\n5,plain,1"
+
+  describe("Csv.parallel") {
+    it("returns exactly what Csv.parse does for every chunk size") {
+      val path = tempFile(awkward)
+      (1L to 40L).foreach { chunk =>
+        assert(rows(path, chunk) == parsed(awkward), s"chunk size $chunk")
+      }
+      assert(rows(path, 1L << 20) == parsed(awkward))
+    }
+
+    it("handles empty files and files without a trailing newline") {
+      assert(rows(tempFile(""), 4) == Nil)
+      assert(rows(tempFile("a,b\nc,d"), 2) == List(List("a", "b"), List("c", "d")))
+    }
+
+    it("resolves the header and projection in every chunk") {
+      val path = tempFile(awkward)
+      val projected = Csv.parallel(path).chunkSize(5).withHeader().columns("amount", "id").rows()
+        .asScala.map(_.asScala.toList).toList
+      assert(projected == List(List("2.5", "1"), List("3", "2"), List("", "3"), List("7", "4"), List("1", "5")))
+      assert(Csv.parallel(path).chunkSize(7).records() == Csv.parseWithHeader(awkward))
+    }
+
+    it("folds per chunk and combines in file order") {
+      val path = tempFile("n\n" + (1 to 500).map(i => s"$i\n").mkString)
+      val pool = Concurrent.pool(3)
+      try {
+        val zero: Function0[java.lang.Long] = () => 0L
+        val step: Function2[java.lang.Long, CsvRecord, java.lang.Long] = (acc, rec) => acc + rec.getLong(0)
+        val add: Function2[java.lang.Long, java.lang.Long, java.lang.Long] = (a, b) => a + b
+        assert(Csv.parallel(path).withHeader().pool(pool).chunkSize(64).fold(zero, step, add) == 125250L)
+
+        val first: Function0[String] = () => ""
+        val keep: Function2[String, CsvRecord, String] = (acc, rec) => if (acc.isEmpty) rec.get(0) else acc
+        val join: Function2[String, String, String] = (a, b) => a + "|" + b
+        assert(Csv.parallel(path).withHeader().pool(pool).chunkSize(400).fold(first, keep, join).startsWith("1|"))
+      } finally pool.close()
+    }
+
+    it("falls back to a sequential parse when a stray quote misplaces a boundary") {
+      val text = "a,x\"y\nb,\"one\ntwo\"\nc,d\ne,f\n"
+      val path = tempFile(text)
+      (1L to 12L).foreach { chunk =>
+        assert(rows(path, chunk) == parsed(text), s"chunk size $chunk")
+      }
+    }
+  }
+
+  describe("Files.parallelLines") {
+    it("maps every line in file order across CR, LF and CRLF endings") {
+      val text = "one\r\ntwo\nthree\rfour\n\nsïx\n"
+      val path = tempFile(text)
+      val upper: Function1[String, String] = _.toUpperCase
+      (1L to 10L).foreach { chunk =>
+        val mapped = Files.parallelLines(path).chunkSize(chunk).map(upper).asScala.toList
+        assert(mapped == List("ONE", "TWO", "THREE", "FOUR", "", "SÏX"), s"chunk size $chunk")
+      }
+    }
+
+    it("folds lines with a per-chunk zero") {
+      val path = tempFile((1 to 1000).map(i => s"line $i").mkString("\n"))
+      val zero: Function0[Integer] = () => 0
+      val count: Function2[Integer, String, Integer] = (n, line) => if (line.endsWith("7")) n + 1 else n
+      val add: Function2[Integer, Integer, Integer] = (a, b) => a + b
+      assert(Files.parallelLines(path).chunkSize(300).fold(zero, count, add) == 100)
+    }
+
+    it("parses lines through a shape with defects on their line of the whole file") {
+      val text = (1 to 200).map(i => if (i % 37 == 0) s"x$i" else i.toString).mkString("\n")
+      val path = tempFile(text)
+      val number: Shape[Object] = Shapes.regex("(\\d+)", java.util.List.of("n"), java.util.List.of("Int"),
+        ((parts: java.util.List[Object]) => parts.get(0)): Function1[java.util.List[Object], Object], null)
+      val parallel = Files.parallelLines(path).chunkSize(50).eachLine(number)
+      val sequential = number.eachLine(text, Origin.atLine(path, 1))
+      assert(parallel.size == 200)
+      assert(Outcome.defects(parallel).asScala.map(_.origin().line()).toList == List(37, 74, 111, 148, 185))
+      assert(Outcome.defects(parallel) == Outcome.defects(sequential))
+      assert(Outcome.values(parallel) == Outcome.values(sequential))
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package onion.tools
+
+import java.io.ByteArrayOutputStream
+import java.io.PrintStream
+import java.io.StringReader
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.jar.JarOutputStream
+
+import scala.jdk.CollectionConverters.*
+import scala.util.Using
+
+import org.scalatest.funsuite.AnyFunSuite
+import org.scalatest.matchers.should.Matchers
+
+import onion.compiler.CompilerConfig
+import onion.compiler.OnionCompiler
+import onion.compiler.StreamInputSource
+import onion.compiler.pipeline.CompilationResult
+
+/**
+ * `onion <script.on>` reuses a stored compile only while the script, the compile settings
+ * and everything the script compiled against are unchanged.
+ */
+class ScriptCacheSpec extends AnyFunSuite with Matchers:
+
+  private def config(classPath: String*) = CompilerConfig(classPath, "", "UTF-8", ".", 10)
+
+  private val script = "Hello.on" ->
+    """def main(args: String[]): Int {
+      |  val unused: Int = 1
+      |  IO::println("hello")
+      |  return 0
+      |}
+      |""".stripMargin
+
+  private def compile(config: CompilerConfig, sources: (String, String)*): CompilationResult =
+    OnionCompiler(config).compileDetailed(
+      sources.map { case (name, text) => StreamInputSource(() => StringReader(text), name) }
+    )
+
+  private def bytes(sources: (String, String)*) = sources.map { case (name, text) => name -> text.getBytes(UTF_8) }
+
+  private def shape(result: CompilationResult) =
+    (result.classes.map(c => (c.className, c.content.toSeq)), result.diagnostics)
+
+  private def entries(directory: Path): Seq[Path] =
+    if !Files.isDirectory(directory) then Seq.empty
+    else Using.resource(Files.list(directory))(_.iterator.asScala.toSeq)
+
+  private def touch(file: Path): Unit =
+    Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis + 5000))
+
+  test("a stored compile, warnings included, comes back while nothing changed"):
+    val cache = ScriptCache(Files.createTempDirectory("onion-script-cache"))
+    val settings = config(".")
+    val compiled = compile(settings, script)
+    compiled.diagnostics.warnings should not be empty
+
+    cache.load(settings, bytes(script)) shouldBe None
+    cache.store(settings, bytes(script), compiled)
+    shape(cache.load(settings, bytes(script)).getOrElse(fail("no cache hit"))) shouldBe shape(compiled)
+
+    cache.load(settings, bytes(script._1 -> (script._2 + "\n"))) shouldBe None
+    cache.load(settings.copy(checkLaws = false), bytes(script)) shouldBe None
+    cache.load(settings.copy(parallelism = 7), bytes(script)) should not be None
+
+  test("a compile with errors is not stored"):
+    val directory = Files.createTempDirectory("onion-script-cache")
+    val broken = "Broken.on" -> "def main(args: String[]): Int { return missing }\n"
+    val settings = config(".")
+    ScriptCache(directory).store(settings, bytes(broken), compile(settings, broken))
+    entries(directory) shouldBe empty
+
+  test("a changed jar or class file on the classpath invalidates the entry"):
+    val classes = Files.createTempDirectory("onion-classes")
+    val helper = compile(config("."), "Helper.on" ->
+      """class Helper {
+        |public:
+        |  static def value(): Int { return 1 }
+        |}
+        |""".stripMargin)
+    val helperFile = classes.resolve("Helper.class")
+    Files.write(helperFile, helper.classes.head.content)
+    val jar = Files.createTempDirectory("onion-jar").resolve("lib.jar")
+    Using.resource(JarOutputStream(Files.newOutputStream(jar)))(_ => ())
+
+    val user = "User.on" -> "def main(args: String[]): Int { return Helper::value() }\n"
+    val settings = config(classes.toString, jar.toString)
+    val compiled = compile(settings, user)
+    compiled.hasErrors shouldBe false
+    val cache = ScriptCache(Files.createTempDirectory("onion-script-cache"))
+    cache.store(settings, bytes(user), compiled)
+    cache.load(settings, bytes(user)) should not be None
+
+    touch(helperFile)
+    cache.load(settings, bytes(user)) shouldBe None
+
+    cache.store(settings, bytes(user), compiled)
+    cache.load(settings, bytes(user)) should not be None
+    touch(jar)
+    cache.load(settings, bytes(user)) shouldBe None
+
+  test("the least recently used entries are removed past the size bound"):
+    val directory = Files.createTempDirectory("onion-script-cache")
+    val settings = config(".")
+    val variants = (1 to 3).map(i => s"Hello$i.on" -> script._2.replace("hello", s"hello $i"))
+    val compiled = variants.map(compile(settings, _))
+    val probe = Files.createTempDirectory("onion-script-cache")
+    ScriptCache(probe).store(settings, bytes(variants(0)), compiled(0))
+    val entrySize = entries(probe).map(Files.size(_)).max
+
+    ScriptCache(directory, maxBytes = 0).store(settings, bytes(variants(0)), compiled(0))
+    entries(directory) shouldBe empty
+
+    val bounded = ScriptCache(directory, maxBytes = 2 * entrySize + 100)
+    bounded.store(settings, bytes(variants(0)), compiled(0))
+    bounded.store(settings, bytes(variants(1)), compiled(1))
+    entries(directory).foreach(entry =>
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis() - 60_000))
+    )
+    bounded.load(settings, bytes(variants(0))) should not be None
+    bounded.store(settings, bytes(variants(2)), compiled(2))
+    entries(directory) should have size 2
+    bounded.load(settings, bytes(variants(0))) should not be None
+    bounded.load(settings, bytes(variants(1))) shouldBe None
+    bounded.load(settings, bytes(variants(2))) should not be None
+
+  test("onion <script> stores its compile and runs the stored one next time"):
+    val directory = Files.createTempDirectory("onion-script-cache")
+    val source = Files.createTempFile("onion-cached", ".on")
+    Files.writeString(source, script._2, UTF_8)
+
+    def run(options: String*): (Int, String) =
+      val buffer = ByteArrayOutputStream()
+      val stream = PrintStream(buffer, true, UTF_8)
+      val (savedOut, savedErr) = (System.out, System.err)
+      val exitCode =
+        try
+          System.setOut(stream); System.setErr(stream)
+          ScriptRunner(directory).run((options :+ source.toString).toArray)
+        finally { System.setOut(savedOut); System.setErr(savedErr) }
+      (exitCode, buffer.toString(UTF_8))
+
+    run("--no-cache")._1 shouldBe 0
+    entries(directory) shouldBe empty
+
+    val first = run()
+    entries(directory) should have size 1
+    val second = run()
+    second shouldBe first
+    first._2 should include("hello")
+    entries(directory) should have size 1
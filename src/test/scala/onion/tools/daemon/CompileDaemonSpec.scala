@@ -0,0 +1,173 @@
+package onion.tools.daemon
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.PrintStream
+import java.io.StringReader
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+import org.scalatest.funsuite.AnyFunSuite
+import org.scalatest.matchers.should.Matchers
+
+import onion.compiler.ClassTable
+import onion.compiler.CompilationContext
+import onion.compiler.CompileError
+import onion.compiler.CompileWarning
+import onion.compiler.CompiledClass
+import onion.compiler.CompilerConfig
+import onion.compiler.Location
+import onion.compiler.OnionCompiler
+import onion.compiler.StreamInputSource
+import onion.compiler.WarningCategory
+import onion.compiler.diagnostics.DiagnosticBag
+import onion.compiler.environment.ClassFileTable
+import onion.compiler.pipeline.CompilationResult
+
+/**
+ * `onion daemon`: the wire format on its own, then a real daemon on a loopback port, which
+ * must answer exactly what an in-process compile would.
+ */
+class CompileDaemonSpec extends AnyFunSuite with Matchers:
+
+  private val config = CompilerConfig(Seq("."), "", "UTF-8", "", 10, parallelism = 1)
+
+  private val valid = "Greeter.on" ->
+    """class Greeter {
+      |public:
+      |  static def twice(n: Int): Int {
+      |    val unused: Int = 1
+      |    return n * 2
+      |  }
+      |}
+      |""".stripMargin
+
+  private val broken = "Broken.on" ->
+    """class Broken {
+      |public:
+      |  static def value(): Int { return missing }
+      |}
+      |""".stripMargin
+
+  private def inProcess(sources: Seq[(String, String)]): CompilationResult =
+    OnionCompiler(config).compileDetailed(
+      sources.map { case (name, text) => StreamInputSource(() => StringReader(text), name) }
+    )
+
+  private def shape(result: CompilationResult) =
+    (result.classes.map(c => (c.className, c.content.toSeq)), result.diagnostics)
+
+  private def roundTrip[A](write: DataOutputStream => Unit)(read: DataInputStream => A): A =
+    val bytes = ByteArrayOutputStream()
+    write(DataOutputStream(bytes))
+    read(DataInputStream(ByteArrayInputStream(bytes.toByteArray)))
+
+  test("requests and replies read back as they were written"):
+    val request = DaemonRequest.Compile(config.copy(suppressedWarnings = Set(WarningCategory.UnusedVariable)), Vector(valid, broken))
+    roundTrip(DaemonProtocol.writeRequest(_, "secret", request))(DaemonProtocol.readRequest(_, "secret")) shouldBe Right(request)
+    roundTrip(DaemonProtocol.writeRequest(_, "secret", DaemonRequest.Build("/work", true)))(
+      DaemonProtocol.readRequest(_, "secret")
+    ) shouldBe Right(DaemonRequest.Build("/work", true))
+
+    val diagnostics = DiagnosticBag(
+      errors = Vector(
+        CompileError("A.on", Location(3, 5, Some(3), Some(9)), "bad", Some("E0002"), Some(CompilationContext(Some("A"), None))),
+        CompileError(null, null, "x" * 70000)
+      ),
+      warnings = Vector(CompileWarning("A.on", Location(1, 1), WarningCategory.ShadowedVariable, "shadowed"))
+    )
+    val reply = DaemonReply.Compiled(Vector(CompiledClass("A", "out", Array[Byte](1, 2, 3))), diagnostics)
+    roundTrip(DaemonProtocol.writeReply(_, reply))(DaemonProtocol.readReply) match
+      case DaemonReply.Compiled(classes, readDiagnostics) =>
+        classes.map(c => (c.className, c.outputPath, c.content.toSeq)) shouldBe Vector(("A", "out", Seq[Byte](1, 2, 3)))
+        readDiagnostics shouldBe diagnostics
+      case other => fail(s"unexpected reply: $other")
+
+  test("a request with the wrong token is refused"):
+    roundTrip(DaemonProtocol.writeRequest(_, "guess", DaemonRequest.Stop))(
+      DaemonProtocol.readRequest(_, "secret")
+    ) shouldBe Left("invalid daemon token")
+
+  test("compiles over a loopback socket as in process, until stopped"):
+    val stateFile = Files.createTempDirectory("onion-daemon").resolve("daemon")
+    val daemon = Thread(() => { CompileDaemon(stateFile, PrintStream(ByteArrayOutputStream(), true, UTF_8)).serve(); () })
+    daemon.setDaemon(true)
+    daemon.start()
+    try
+      val deadline = System.nanoTime() + 10_000_000_000L
+      while DaemonState.read(stateFile).isEmpty && System.nanoTime() < deadline do Thread.sleep(20)
+      val client = DaemonClient.located(stateFile).getOrElse(fail("the daemon did not publish its state"))
+
+      Seq(Seq(valid), Seq(valid, broken)).foreach { sources =>
+        val served = client.compile(config, sources).getOrElse(fail("the daemon did not compile"))
+        shape(served) shouldBe shape(inProcess(sources))
+      }
+      client.status().getOrElse(fail("no status")) should include("2 requests served")
+      DaemonClient(DaemonState(DaemonState.read(stateFile).get.port, "guess")).compile(config, Seq(valid)) shouldBe None
+
+      client.stop() shouldBe true
+      daemon.join(10_000)
+      daemon.isAlive shouldBe false
+      DaemonState.read(stateFile) shouldBe None
+      client.compile(config, Seq(valid)) shouldBe None
+    finally ClassFileTable.retainAcrossCompiles(false)
+
+  test("a retained table rereads class files that change in a classpath directory"):
+    val dir = Files.createTempDirectory("onion-classes")
+    val classFile = dir.resolve("p/A.class")
+    Files.createDirectories(classFile.getParent)
+    Files.write(classFile, Array[Byte](1))
+    val jar = Files.createTempDirectory("onion-jar").resolve("lib.jar")
+    writeJar(jar, Array[Byte](7))
+    ClassFileTable.retainAcrossCompiles()
+    try
+      val table = ClassFileTable.forClassPath(dir.toString)
+      table.loadBytes("p.A").toSeq shouldBe Seq[Byte](1)
+      table.loadBytes("p.B") shouldBe null
+
+      Files.write(classFile, Array[Byte](2))
+      Files.setLastModifiedTime(classFile, FileTime.fromMillis(Files.getLastModifiedTime(classFile).toMillis + 5000))
+      Files.write(dir.resolve("p/B.class"), Array[Byte](3))
+      ClassFileTable.forClassPath(dir.toString) should be theSameInstanceAs table
+      table.loadBytes("p.A").toSeq shouldBe Seq[Byte](2)
+      table.loadBytes("p.B").toSeq shouldBe Seq[Byte](3)
+
+      val jarTable = ClassFileTable.forClassPath(jar.toString)
+      jarTable.loadBytes("q.C").toSeq shouldBe Seq[Byte](7)
+      ClassFileTable.forClassPath(jar.toString) should be theSameInstanceAs jarTable
+      writeJar(jar, Array[Byte](8, 8))
+      Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis + 5000))
+      val rebuilt = ClassFileTable.forClassPath(jar.toString)
+      rebuilt should not be theSameInstanceAs(jarTable)
+      rebuilt.loadBytes("q.C").toSeq shouldBe Seq[Byte](8, 8)
+    finally ClassFileTable.retainAcrossCompiles(false)
+
+  test("retained compiles share the types of archived classes but not of class files in directories"):
+    val dir = Files.createTempDirectory("onion-classes")
+    OnionCompiler(config).compileDetailed(Seq(StreamInputSource(() => StringReader("class Shared {}\n"), "Shared.on")))
+      .classes.foreach(compiled => Files.write(dir.resolve(compiled.className + ".class"), compiled.content))
+    val classPath = dir.toString
+    ClassFileTable.retainAcrossCompiles()
+    try
+      val (first, second) = (ClassTable.forClassPath(classPath), ClassTable.forClassPath(classPath))
+      first.loadOrNull("java.lang.String") should be theSameInstanceAs second.loadOrNull("java.lang.String")
+      first.loadOrNull("Shared") should not be null
+      first.loadOrNull("Shared") should not be theSameInstanceAs(second.loadOrNull("Shared"))
+    finally ClassFileTable.retainAcrossCompiles(false)
+    ClassTable.forClassPath(classPath).loadOrNull("java.lang.String") should not be theSameInstanceAs(
+      ClassTable.forClassPath(classPath).loadOrNull("java.lang.String")
+    )
+
+  private def writeJar(jar: Path, content: Array[Byte]): Unit =
+    val out = JarOutputStream(Files.newOutputStream(jar))
+    try
+      out.putNextEntry(JarEntry("q/C.class"))
+      out.write(content)
+      out.closeEntry()
+    finally out.close()
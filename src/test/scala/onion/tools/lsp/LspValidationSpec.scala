@@ -0,0 +1,85 @@
+package onion.tools.lsp
+
+import org.eclipse.lsp4j.{DidChangeTextDocumentParams, DidOpenTextDocumentParams, DidSaveTextDocumentParams}
+import org.eclipse.lsp4j.{MessageActionItem, MessageParams, PublishDiagnosticsParams, ShowMessageRequestParams}
+import org.eclipse.lsp4j.{TextDocumentContentChangeEvent, TextDocumentIdentifier, TextDocumentItem, VersionedTextDocumentIdentifier}
+import org.scalatest.funspec.AnyFunSpec
+
+import java.util.concurrent.CopyOnWriteArrayList
+import scala.jdk.CollectionConverters.*
+
+/**
+ * Validation runs in the background: a burst of edits is compiled once, as the text stands
+ * when the edits stop, and a compile of text that has since changed publishes nothing.
+ */
+class LspValidationSpec extends AnyFunSpec {
+
+  private val Uri = "file:///tmp/validation-demo.on"
+
+  private final class RecordingClient extends org.eclipse.lsp4j.services.LanguageClient {
+    val published = new CopyOnWriteArrayList[PublishDiagnosticsParams]()
+    override def telemetryEvent(o: Object): Unit = ()
+    override def publishDiagnostics(p: PublishDiagnosticsParams): Unit = published.add(p)
+    override def showMessage(p: MessageParams): Unit = ()
+    override def showMessageRequest(
+      p: ShowMessageRequestParams
+    ): java.util.concurrent.CompletableFuture[MessageActionItem] =
+      java.util.concurrent.CompletableFuture.completedFuture(null)
+    override def logMessage(p: MessageParams): Unit = ()
+
+    def messages: List[List[String]] =
+      published.asScala.toList.map(_.getDiagnostics.asScala.toList.map(_.getMessage))
+  }
+
+  private def change(service: OnionTextDocumentService, version: Int, text: String): Unit =
+    service.didChange(new DidChangeTextDocumentParams(
+      new VersionedTextDocumentIdentifier(Uri, version),
+      java.util.List.of(new TextDocumentContentChangeEvent(text))
+    ))
+
+  private def awaitPublished(client: RecordingClient, count: Int): Unit = {
+    val deadline = System.nanoTime() + 30_000_000_000L
+    while (client.published.size < count && System.nanoTime() < deadline) Thread.sleep(10)
+    assert(client.published.size >= count, s"expected $count publications, saw ${client.published.size}")
+  }
+
+  private def withService(debounceMillis: Long)(body: (OnionTextDocumentService, RecordingClient) => Unit): Unit = {
+    val client = new RecordingClient
+    val service = new OnionTextDocumentService(null, debounceMillis)
+    service.connect(client)
+    try body(service, client)
+    finally service.shutdown()
+  }
+
+  it("compiles a burst of edits once, as the text stands after the last one") {
+    withService(debounceMillis = 300L) { (service, client) =>
+      service.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(Uri, "onion", 1, "IO::println(1)\n")))
+      awaitPublished(client, 1)
+      assert(client.messages.head.isEmpty)
+
+      (2 to 6).foreach(version => change(service, version, s"IO::println(undefined$version)\n"))
+      awaitPublished(client, 2)
+      Thread.sleep(600)
+
+      assert(client.published.size == 2)
+      val last = client.messages.last
+      assert(last.nonEmpty)
+      assert(last.exists(_.contains("undefined6")))
+      assert(!last.exists(_.contains("undefined5")))
+    }
+  }
+
+  it("publishes the last result again for text that was already validated, and compiles on save") {
+    withService(debounceMillis = 50L) { (service, client) =>
+      service.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(Uri, "onion", 1, "IO::println(missing)\n")))
+      awaitPublished(client, 1)
+      change(service, 2, "IO::println(missing)\n")
+      awaitPublished(client, 2)
+      assert(client.published.get(1).getDiagnostics.asScala.toList == client.published.get(0).getDiagnostics.asScala.toList)
+
+      service.didSave(new DidSaveTextDocumentParams(new TextDocumentIdentifier(Uri)))
+      awaitPublished(client, 3)
+      assert(client.messages(2) == client.messages.head)
+    }
+  }
+}
@@ -78,3 +78,13 @@ class BuildFingerprintSpec extends AnyFunSuite with Matchers:
   test("length-delimits source paths and contents to avoid concatenation ambiguity"):
     fingerprint(sourceBytes = Vector("ab" -> bytes("c"))) should not be
       fingerprint(sourceBytes = Vector("a" -> bytes("bc")))
+
+  test("keeps the environment digest independent of the sources"):
+    def environment(compilerVersion: String = "test-compiler"): String =
+      BuildFingerprint.environment(manifest, compilerVersion, 21, Seq("a:b:1.0.0"))
+
+    environment() should fullyMatch regex "[0-9a-f]{64}"
+    environment() shouldBe environment()
+    environment("other-compiler") should not be environment()
+    BuildFingerprint.sourceHash(bytes("class Main {}\n")) should not be
+      BuildFingerprint.sourceHash(bytes("class Main {}\n\n"))
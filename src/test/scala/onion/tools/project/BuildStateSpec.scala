@@ -11,11 +11,26 @@ class BuildStateSpec extends AnyFunSuite with Matchers:
   private val fingerprint = "a" * 64
   private val main = EntryPoint("MainMain", "src/main.on", 1, 1)
   private val widget = EntryPoint("demo.Widget", "src/widget.on", 3, 5)
+  private val environment = "b" * 64
+  private val mainSource = SourceRecord(
+    "src/main.on",
+    "c" * 64,
+    Vector(ClassRecord("MainMain", "d" * 64)),
+    Vector("demo.Widget")
+  )
+  private val widgetSource = SourceRecord(
+    "src/widget.on",
+    "e" * 64,
+    Vector(ClassRecord("demo.Widget", "f" * 64)),
+    Vector.empty
+  )
   private val canonicalState = BuildState(
     BuildFingerprint.SchemaVersion,
     fingerprint,
     Vector("MainMain", "demo.Widget"),
-    Vector(main, widget)
+    Vector(main, widget),
+    environment,
+    Vector(mainSource, widgetSource)
   )
 
   private val canonicalJson =
@@ -39,6 +54,33 @@ class BuildStateSpec extends AnyFunSuite with Matchers:
        |      "line": 3,
        |      "column": 5
        |    }
+       |  ],
+       |  "environment": "$environment",
+       |  "sources": [
+       |    {
+       |      "path": "src/main.on",
+       |      "hash": "${"c" * 64}",
+       |      "classes": [
+       |        {
+       |          "name": "MainMain",
+       |          "abi": "${"d" * 64}"
+       |        }
+       |      ],
+       |      "dependencies": [
+       |        "demo.Widget"
+       |      ]
+       |    },
+       |    {
+       |      "path": "src/widget.on",
+       |      "hash": "${"e" * 64}",
+       |      "classes": [
+       |        {
+       |          "name": "demo.Widget",
+       |          "abi": "${"f" * 64}"
+       |        }
+       |      ],
+       |      "dependencies": []
+       |    }
        |  ]
        |}""".stripMargin
 
@@ -54,15 +96,27 @@ class BuildStateSpec extends AnyFunSuite with Matchers:
         |    "line": 1,
         |    "column": 1
         |  }
-        |]""".stripMargin
+        |]""".stripMargin,
+    environmentValue: String = s"\"$environment\"",
+    sources: String = "[]"
   ): String =
     s"""{
        |  "schemaVersion": $schemaVersion,
        |  "fingerprint": $fingerprintValue,
        |  "classes": $classes,
-       |  "entryPoints": $entryPoints
+       |  "entryPoints": $entryPoints,
+       |  "environment": $environmentValue,
+       |  "sources": $sources
        |}""".stripMargin
 
+  private def source(
+    path: String = "src/main.on",
+    hash: String = "a" * 64,
+    classes: String = s"""[{"name": "MainMain", "abi": "${"a" * 64}"}]""",
+    dependencies: String = "[]"
+  ): String =
+    s"""[{"path": "$path", "hash": "$hash", "classes": $classes, "dependencies": $dependencies}]"""
+
   private def entry(
     className: String = "\"MainMain\"",
     source: String = "\"src/main.on\"",
@@ -80,7 +134,8 @@ class BuildStateSpec extends AnyFunSuite with Matchers:
   test("encodes deterministic pretty JSON and defensively sorts vectors"):
     val unordered = canonicalState.copy(
       classes = canonicalState.classes.reverse,
-      entryPoints = canonicalState.entryPoints.reverse
+      entryPoints = canonicalState.entryPoints.reverse,
+      sources = canonicalState.sources.reverse
     )
 
     BuildState.encode(unordered) shouldBe canonicalJson
@@ -176,6 +231,23 @@ class BuildStateSpec extends AnyFunSuite with Matchers:
       }
     }
 
+  test("accepts source records that partition the classes and rejects any that do not"):
+    val single = """["MainMain"]"""
+    BuildState.decode(json(classes = single, sources = source())).value.sources shouldBe Vector(
+      SourceRecord("src/main.on", "a" * 64, Vector(ClassRecord("MainMain", "a" * 64)), Vector.empty)
+    )
+    Vector(
+      json(classes = single, environmentValue = "\"abc\""),
+      json(classes = single, sources = "{}"),
+      json(classes = single, sources = source(path = "../main.on")),
+      json(classes = single, sources = source(hash = "abc")),
+      json(classes = single, sources = source(classes = s"""[{"name": "MainMain", "abi": "x"}]""")),
+      json(classes = single, sources = source(classes = s"""[{"name": "Other", "abi": "${"a" * 64}"}]""")),
+      json(classes = single, sources = source(classes = "[]")),
+      json(classes = single, sources = source(dependencies = """["Unknown"]""")),
+      json(classes = single, sources = source().dropRight(1) + ", " + source().drop(1))
+    ).foreach(BuildState.decode(_).isLeft shouldBe true)
+
   test("rejects entrypoints absent from classes"):
     BuildState.decode(json(entryPoints = entry(className = "\"Other\""))).isLeft shouldBe true
 
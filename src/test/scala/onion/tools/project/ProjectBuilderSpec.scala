@@ -258,6 +258,116 @@ class ProjectBuilderSpec extends AnyFunSuite with Matchers:
       )
     )
 
+  test("recompiles only edited sources and their ABI dependents and reuses the other classes"):
+    val greeter =
+      """module demo
+        |class Greeter {
+        |public:
+        |  static def greet(name: String): String { return "hello " + name }
+        |}
+        |""".stripMargin
+    val project = fixture(
+      sources = Map(
+        "src/main.on" -> "module demo\ndef main(): void { println(Greeter::greet(\"onion\")) }\n",
+        "src/greeter.on" -> greeter,
+        "src/other.on" -> "module demo\nclass Other {}\n"
+      )
+    )
+    val first = build(project)._1.toOption.value
+    first.state.sources.map(_.path) shouldBe Vector("src/greeter.on", "src/main.on", "src/other.on")
+    first.state.sources.find(_.path == "src/main.on").value.dependencies shouldBe Vector("demo.Greeter")
+
+    val epoch = java.nio.file.attribute.FileTime.fromMillis(0)
+    def classFiles(): Vector[Path] =
+      Using.resource(Files.walk(project.paths.classes)) { stream =>
+        stream.iterator.asScala.filter(Files.isRegularFile(_, NOFOLLOW_LINKS)).toVector
+      }
+    def recompiledAfter(edit: => Unit): (ProjectBuild, Set[String]) =
+      classFiles().foreach(Files.setLastModifiedTime(_, epoch))
+      edit
+      val rebuilt = build(reload(project.root))._1.toOption.value
+      val touched = classFiles()
+        .filter(Files.getLastModifiedTime(_) != epoch)
+        .map(path => project.paths.classes.relativize(path).toString.stripSuffix(".class").replace('/', '.'))
+        .toSet
+      rebuilt -> touched
+    def classesOf(state: BuildState, path: String): Set[String] =
+      state.sources.find(_.path == path).value.classes.map(_.name).toSet
+    def greet(): String =
+      Using.resource(java.net.URLClassLoader(Array(project.paths.classes.toUri.toURL))) { loader =>
+        loader.loadClass("demo.Greeter").getMethod("greet", classOf[String]).invoke(null, "onion").toString
+      }
+
+    val greeterPath = project.root.resolve("src/greeter.on")
+    val (bodyEdit, bodyTouched) =
+      recompiledAfter(Files.writeString(greeterPath, greeter.replace("hello ", "hi "), UTF_8))
+    bodyEdit.cached shouldBe false
+    bodyTouched shouldBe classesOf(bodyEdit.state, "src/greeter.on")
+    greet() shouldBe "hi onion"
+
+    val (abiEdit, abiTouched) = recompiledAfter(Files.writeString(
+      greeterPath,
+      greeter.replace("hello ", "hi ").replace("}\n}", "}\n  static def shout(): String { return \"HI\" }\n}"),
+      UTF_8
+    ))
+    abiTouched shouldBe classesOf(abiEdit.state, "src/greeter.on") ++ classesOf(abiEdit.state, "src/main.on")
+
+    val (removal, removalTouched) = recompiledAfter(Files.delete(project.root.resolve("src/other.on")))
+    removalTouched shouldBe empty
+    removal.state.classes should not contain "demo.Other"
+    Files.exists(project.paths.classes.resolve("demo/Other.class")) shouldBe false
+
+    val incremental = removal.state
+    FileTree.delete(project.paths.target, project.root)
+    build(reload(project.root))._1.toOption.value.state shouldBe incremental
+
+  test("recompiles a select over an enum whose constants are reordered"):
+    def color(constants: String) = s"module demo\nenum Color { $constants }\n"
+    val project = fixture(
+      sources = Map(
+        "src/color.on" -> color("RED, GREEN, BLUE"),
+        "src/codes.on" ->
+          """module demo
+            |class Codes {
+            |public:
+            |  static def code(c: Color): Int {
+            |    return select c { case RED: 1
+            |      case GREEN: 2
+            |      case BLUE: 3 }
+            |  }
+            |}
+            |""".stripMargin
+      )
+    )
+    def codes(): Seq[Any] =
+      Using.resource(java.net.URLClassLoader(Array(project.paths.classes.toUri.toURL))) { loader =>
+        val colorClass = loader.loadClass("demo.Color")
+        val code = loader.loadClass("demo.Codes").getMethod("code", colorClass)
+        Seq("RED", "GREEN", "BLUE").map(name => code.invoke(null, colorClass.getField(name).get(null)))
+      }
+    build(project)._1.toOption.value
+    codes() shouldBe Seq(1, 2, 3)
+
+    Files.writeString(project.root.resolve("src/color.on"), color("BLUE, RED, GREEN"), UTF_8)
+    build(reload(project.root))._1.toOption.value.cached shouldBe false
+    codes() shouldBe Seq(1, 2, 3)
+
+  test("recompiles the dependents of a removed class and reports their errors"):
+    val project = fixture(
+      sources = Map(
+        "src/main.on" -> "module demo\ndef main(): void { println(Widget::name()) }\n",
+        "src/widget.on" ->
+          "module demo\nclass Widget {\npublic:\n  static def name(): String { return \"w\" }\n}\n"
+      )
+    )
+    build(project)._1.toOption.value
+    Files.writeString(project.root.resolve("src/widget.on"), "module demo\nclass Gadget {}\n", UTF_8)
+
+    val (result, diagnostics) = build(reload(project.root))
+
+    result.isLeft shouldBe true
+    diagnostics should include("src/main.on")
+
   test("treats missing malformed incompatible state and missing recorded classes as cache misses"):
     val project = fixture()
     val initial = build(project)._1.toOption.value